@@ -0,0 +1,237 @@
+package com.yego.contractortracker.repository;
+
+import com.yego.contractortracker.dto.DriverOnboardingDTO;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.jdbc.core.ColumnMapRowMapper;
+import org.springframework.jdbc.core.RowMapperResultSetExtractor;
+
+import javax.sql.rowset.CachedRowSet;
+import javax.sql.rowset.RowSetMetaDataImpl;
+import javax.sql.rowset.RowSetProvider;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compara las dos formas de convertir las filas de onboarding 14d en DriverOnboardingDTO:
+ * queryForList (ColumnMapRowMapper) seguido de la copia campo a campo desde el Map con instanceof,
+ * como hacía OnboardingService, y DriverOnboardingRowMapper leyendo del ResultSet.
+ *
+ * Las filas vienen de un CachedRowSet en memoria con las columnas de las consultas de onboarding, así que
+ * el benchmark mide solo el mapeo: la red y la decodificación del driver de PostgreSQL no entran y son
+ * iguales en ambos caminos. Cada invocación mapea FILAS filas.
+ *
+ *     mvn -Pjmh test-compile exec:exec -Djmh.args="OnboardingRowMappingBenchmark -prof gc"
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OnboardingRowMappingBenchmark {
+
+    private static final int FILAS = 1000;
+    private static final String[] COLUMNAS = {"driver_id", "park_id", "full_name", "phone", "license_number",
+        "hire_date", "total_trips_historical", "sum_work_time_seconds", "has_historical_connection",
+        "lead_created_at", "match_score", "is_manual", "scout_id", "scout_name", "scout_registration_date",
+        "scout_match_score", "acquisition_channel"};
+    private static final int[] TIPOS = {Types.VARCHAR, Types.VARCHAR, Types.VARCHAR, Types.VARCHAR, Types.VARCHAR,
+        Types.DATE, Types.INTEGER, Types.BIGINT, Types.BOOLEAN,
+        Types.DATE, Types.DOUBLE, Types.BOOLEAN, Types.VARCHAR, Types.VARCHAR, Types.DATE,
+        Types.DOUBLE, Types.VARCHAR};
+
+    private CachedRowSet filas;
+
+    @Setup
+    public void preparar() throws SQLException {
+        RowSetMetaDataImpl metaData = new RowSetMetaDataImpl();
+        metaData.setColumnCount(COLUMNAS.length);
+        for (int i = 0; i < COLUMNAS.length; i++) {
+            metaData.setColumnName(i + 1, COLUMNAS[i]);
+            metaData.setColumnLabel(i + 1, COLUMNAS[i]);
+            metaData.setColumnType(i + 1, TIPOS[i]);
+            metaData.setNullable(i + 1, RowSetMetaDataImpl.columnNullable);
+        }
+
+        filas = RowSetProvider.newFactory().createCachedRowSet();
+        filas.setMetaData(metaData);
+
+        Random random = new Random(42);
+        LocalDate base = LocalDate.of(2025, 1, 1);
+        for (int i = 0; i < FILAS; i++) {
+            // La mitad de los drivers viene con lead y scout; el resto deja esas columnas en null
+            boolean conMatch = i % 2 == 0;
+            LocalDate hireDate = base.plusDays(random.nextInt(300));
+            filas.moveToInsertRow();
+            filas.updateString("driver_id", "drv-" + i);
+            filas.updateString("park_id", "park-" + (i % 3));
+            filas.updateString("full_name", "Conductor " + i + " Apellido " + random.nextInt(1000));
+            filas.updateString("phone", "9" + (10000000 + random.nextInt(89999999)));
+            filas.updateString("license_number", "Q" + (1000000 + random.nextInt(8999999)));
+            filas.updateDate("hire_date", java.sql.Date.valueOf(hireDate));
+            filas.updateInt("total_trips_historical", random.nextInt(200));
+            if (i % 5 == 0) {
+                filas.updateNull("sum_work_time_seconds");
+            } else {
+                filas.updateLong("sum_work_time_seconds", random.nextInt(500000));
+            }
+            filas.updateBoolean("has_historical_connection", random.nextBoolean());
+            if (conMatch) {
+                filas.updateDate("lead_created_at", java.sql.Date.valueOf(hireDate.minusDays(random.nextInt(10))));
+                filas.updateDouble("match_score", 0.5 + random.nextDouble() / 2);
+                filas.updateBoolean("is_manual", random.nextInt(10) == 0);
+                filas.updateString("scout_id", "scout-" + random.nextInt(50));
+                filas.updateString("scout_name", "Scout " + random.nextInt(50));
+                filas.updateDate("scout_registration_date", java.sql.Date.valueOf(hireDate.minusDays(random.nextInt(5))));
+                filas.updateDouble("scout_match_score", 0.5 + random.nextDouble() / 2);
+                filas.updateString("acquisition_channel", random.nextBoolean() ? "cabinet" : "fleet_migration");
+            } else {
+                filas.updateNull("lead_created_at");
+                filas.updateNull("match_score");
+                filas.updateNull("is_manual");
+                filas.updateNull("scout_id");
+                filas.updateNull("scout_name");
+                filas.updateNull("scout_registration_date");
+                filas.updateNull("scout_match_score");
+                filas.updateNull("acquisition_channel");
+            }
+            filas.insertRow();
+        }
+        filas.moveToCurrentRow();
+    }
+
+    @Benchmark
+    public List<DriverOnboardingDTO> mapeoConMap() throws SQLException {
+        filas.beforeFirst();
+        List<Map<String, Object>> rows = new RowMapperResultSetExtractor<>(new ColumnMapRowMapper()).extractData(filas);
+        List<DriverOnboardingDTO> drivers = new ArrayList<>(rows.size());
+        for (Map<String, Object> row : rows) {
+            drivers.add(mapearDesdeMap(row));
+        }
+        return drivers;
+    }
+
+    @Benchmark
+    public List<DriverOnboardingDTO> mapeoTipado() throws SQLException {
+        filas.beforeFirst();
+        return new RowMapperResultSetExtractor<>(new DriverOnboardingRowMapper()).extractData(filas);
+    }
+
+    /**
+     * Copia de la conversión que hacía OnboardingService.mapearFilasADrivers antes de DriverOnboardingRowMapper.
+     */
+    private static DriverOnboardingDTO mapearDesdeMap(Map<String, Object> row) {
+        DriverOnboardingDTO driver = new DriverOnboardingDTO();
+        driver.setDriverId((String) row.get("driver_id"));
+        driver.setParkId((String) row.get("park_id"));
+        driver.setChannel(null);
+        driver.setFullName((String) row.get("full_name"));
+        driver.setPhone((String) row.get("phone"));
+        driver.setLicenseNumber((String) row.get("license_number"));
+
+        Object hireDateObj = row.get("hire_date");
+        if (hireDateObj instanceof java.sql.Date) {
+            driver.setStartDate(((java.sql.Date) hireDateObj).toLocalDate());
+        } else if (hireDateObj instanceof java.sql.Timestamp) {
+            driver.setStartDate(((java.sql.Timestamp) hireDateObj).toLocalDateTime().toLocalDate());
+        } else if (hireDateObj instanceof LocalDate) {
+            driver.setStartDate((LocalDate) hireDateObj);
+        }
+
+        driver.setStatus14d(null);
+
+        Object totalTripsObj = row.get("total_trips_historical");
+        if (totalTripsObj instanceof Number) {
+            driver.setTotalTrips14d(((Number) totalTripsObj).intValue());
+        } else {
+            driver.setTotalTrips14d(0);
+        }
+
+        driver.setTotalOnlineTime14d(null);
+
+        Object sumWorkTimeObj = row.get("sum_work_time_seconds");
+        if (sumWorkTimeObj instanceof Number) {
+            driver.setSumWorkTimeSeconds(((Number) sumWorkTimeObj).longValue());
+        } else {
+            driver.setSumWorkTimeSeconds(null);
+        }
+
+        Object hasHistoricalConnectionObj = row.get("has_historical_connection");
+        if (hasHistoricalConnectionObj instanceof Boolean) {
+            driver.setHasHistoricalConnection((Boolean) hasHistoricalConnectionObj);
+        } else if (hasHistoricalConnectionObj instanceof String) {
+            driver.setHasHistoricalConnection(Boolean.parseBoolean((String) hasHistoricalConnectionObj));
+        } else {
+            driver.setHasHistoricalConnection(false);
+        }
+
+        Object leadCreatedAtObj = row.get("lead_created_at");
+        if (leadCreatedAtObj instanceof java.sql.Date) {
+            driver.setLeadCreatedAt(((java.sql.Date) leadCreatedAtObj).toLocalDate());
+        } else if (leadCreatedAtObj instanceof LocalDate) {
+            driver.setLeadCreatedAt((LocalDate) leadCreatedAtObj);
+        }
+
+        Object matchScoreObj = row.get("match_score");
+        if (matchScoreObj instanceof Number) {
+            driver.setMatchScore(((Number) matchScoreObj).doubleValue());
+        }
+
+        Object isManualObj = row.get("is_manual");
+        if (isManualObj instanceof Boolean) {
+            driver.setMatchManual((Boolean) isManualObj);
+        } else if (isManualObj instanceof String) {
+            driver.setMatchManual(Boolean.parseBoolean((String) isManualObj));
+        }
+
+        Object scoutIdObj = row.get("scout_id");
+        if (scoutIdObj != null) {
+            driver.setScoutId((String) scoutIdObj);
+            driver.setHasScoutRegistration(true);
+        } else {
+            driver.setHasScoutRegistration(false);
+        }
+
+        Object scoutNameObj = row.get("scout_name");
+        if (scoutNameObj != null) {
+            driver.setScoutName((String) scoutNameObj);
+        }
+
+        Object scoutRegistrationDateObj = row.get("scout_registration_date");
+        if (scoutRegistrationDateObj instanceof java.sql.Date) {
+            driver.setScoutRegistrationDate(((java.sql.Date) scoutRegistrationDateObj).toLocalDate());
+        } else if (scoutRegistrationDateObj instanceof LocalDate) {
+            driver.setScoutRegistrationDate((LocalDate) scoutRegistrationDateObj);
+        }
+
+        Object scoutMatchScoreObj = row.get("scout_match_score");
+        if (scoutMatchScoreObj instanceof Number) {
+            driver.setScoutMatchScore(((Number) scoutMatchScoreObj).doubleValue());
+        }
+
+        Object channelObj = row.get("acquisition_channel");
+        if (channelObj != null) {
+            driver.setChannel((String) channelObj);
+        }
+
+        driver.setDays(new ArrayList<>());
+        driver.setMilestones14d(null);
+        driver.setMilestones7d(null);
+        return driver;
+    }
+}
@@ -0,0 +1,175 @@
+package com.yego.contractortracker.util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compara las funciones de similitud anteriores (SimilitudBaseline) con SimilitudUtil sobre pares de
+ * nombres y teléfonos generados con semilla fija. Cada invocación recorre todos los pares, así que el
+ * tiempo reportado es por lote de PARES comparaciones. Los nombres del lado del directorio se tokenizan
+ * en el setup, igual que RegistroDriver en DriverDirectoryService.
+ *
+ *     mvn -Pjmh test-compile exec:exec -Djmh.args="SimilitudBenchmark -prof gc"
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SimilitudBenchmark {
+
+    private static final int PARES = 1000;
+    private static final String[] NOMBRES = {"juan", "jose", "maria", "luis", "carlos", "ana", "rosa", "miguel",
+        "angel", "elena", "jorge", "lucia", "pedro", "carmen", "victor"};
+    private static final String[] APELLIDOS = {"perez", "gomez", "rodriguez", "quispe", "mamani", "flores", "torres",
+        "castillo", "vargas", "rojas", "nunez", "sanchez", "ramirez", "huaman", "chavez"};
+
+    private String[] nombres1;
+    private String[] nombres2;
+    private SimilitudUtil.NombreTokenizado[] tokenizados1;
+    private SimilitudUtil.NombreTokenizado[] tokenizados2;
+    private String[] palabras1;
+    private String[] palabras2;
+    private String[] telefonos1;
+    private String[] telefonos2;
+
+    @Setup
+    public void preparar() {
+        Random random = new Random(42);
+        nombres1 = new String[PARES];
+        nombres2 = new String[PARES];
+        tokenizados1 = new SimilitudUtil.NombreTokenizado[PARES];
+        tokenizados2 = new SimilitudUtil.NombreTokenizado[PARES];
+        palabras1 = new String[PARES];
+        palabras2 = new String[PARES];
+        telefonos1 = new String[PARES];
+        telefonos2 = new String[PARES];
+
+        for (int i = 0; i < PARES; i++) {
+            String nombre = NOMBRES[random.nextInt(NOMBRES.length)];
+            String apellido1 = APELLIDOS[random.nextInt(APELLIDOS.length)];
+            String apellido2 = APELLIDOS[random.nextInt(APELLIDOS.length)];
+            nombres1[i] = nombre + " " + apellido1 + " " + apellido2;
+            // Un tercio igual en otro orden, un tercio con un typo, un tercio con otro apellido
+            switch (i % 3) {
+                case 0:
+                    nombres2[i] = apellido1 + " " + nombre;
+                    break;
+                case 1:
+                    nombres2[i] = nombre + " " + conTypo(apellido1, random) + " " + apellido2;
+                    break;
+                default:
+                    nombres2[i] = nombre + " " + APELLIDOS[random.nextInt(APELLIDOS.length)];
+                    break;
+            }
+            tokenizados1[i] = SimilitudUtil.tokenizar(nombres1[i]);
+            tokenizados2[i] = SimilitudUtil.tokenizar(nombres2[i]);
+            palabras1[i] = apellido1;
+            palabras2[i] = i % 2 == 0 ? conTypo(apellido1, random) : apellido2;
+
+            String telefono = "9" + (10000000 + random.nextInt(89999999));
+            telefonos1[i] = i % 2 == 0 ? "+51 " + telefono.substring(0, 3) + " " + telefono.substring(3) : telefono;
+            telefonos2[i] = i % 4 == 0 ? telefono.substring(0, 8) + (9 - (telefono.charAt(8) - '0')) : telefono;
+        }
+    }
+
+    private static String conTypo(String palabra, Random random) {
+        char[] letras = palabra.toCharArray();
+        letras[random.nextInt(letras.length)] = 'x';
+        return new String(letras);
+    }
+
+    @Benchmark
+    public double nombreBaseline() {
+        double total = 0;
+        for (int i = 0; i < PARES; i++) {
+            total += SimilitudBaseline.similitudNombreLeads(nombres1[i], nombres2[i], 0.5, 1, false);
+        }
+        return total;
+    }
+
+    @Benchmark
+    public double nombreSimilitudUtil() {
+        double total = 0;
+        for (int i = 0; i < PARES; i++) {
+            // El lead se tokeniza una vez por comparación; el driver ya viene tokenizado del directorio
+            total += SimilitudUtil.similitudNombreConTypos(SimilitudUtil.tokenizar(nombres1[i]), tokenizados2[i], 0.5, 1, false);
+        }
+        return total;
+    }
+
+    @Benchmark
+    public double nombreSimilitudUtilTokenizado() {
+        double total = 0;
+        for (int i = 0; i < PARES; i++) {
+            total += SimilitudUtil.similitudNombreConTypos(tokenizados1[i], tokenizados2[i], 0.5, 1, false);
+        }
+        return total;
+    }
+
+    @Benchmark
+    public double nombreMejoradoBaseline() {
+        double total = 0;
+        for (int i = 0; i < PARES; i++) {
+            total += SimilitudBaseline.similitudNombreMejorado(nombres1[i], nombres2[i]);
+        }
+        return total;
+    }
+
+    @Benchmark
+    public double nombreMejoradoSimilitudUtil() {
+        double total = 0;
+        for (int i = 0; i < PARES; i++) {
+            total += SimilitudUtil.similitudNombreMejorado(tokenizados1[i], tokenizados2[i]);
+        }
+        return total;
+    }
+
+    @Benchmark
+    public int levenshteinBaseline() {
+        int total = 0;
+        for (int i = 0; i < PARES; i++) {
+            total += Math.min(SimilitudBaseline.calcularDistanciaLevenshtein(palabras1[i], palabras2[i]), 3);
+        }
+        return total;
+    }
+
+    @Benchmark
+    public int levenshteinAcotada() {
+        int total = 0;
+        for (int i = 0; i < PARES; i++) {
+            total += SimilitudUtil.distanciaLevenshteinAcotada(palabras1[i], palabras2[i], 2);
+        }
+        return total;
+    }
+
+    @Benchmark
+    public double telefonoBaseline() {
+        double total = 0;
+        for (int i = 0; i < PARES; i++) {
+            total += SimilitudBaseline.similitudTelefono(telefonos1[i], telefonos2[i]);
+        }
+        return total;
+    }
+
+    @Benchmark
+    public double telefonoSimilitudUtil() {
+        double total = 0;
+        for (int i = 0; i < PARES; i++) {
+            total += SimilitudUtil.similitudTelefono(telefonos1[i], telefonos2[i]);
+        }
+        return total;
+    }
+}
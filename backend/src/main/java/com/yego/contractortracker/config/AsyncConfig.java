@@ -1,5 +1,6 @@
 package com.yego.contractortracker.config;
 
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.scheduling.annotation.AsyncConfigurer;
@@ -21,6 +22,23 @@ public class AsyncConfig implements AsyncConfigurer {
         executor.initialize();
         return executor;
     }
+    
+    /**
+     * Hilos que escriben las exportaciones en streaming (StreamingResponseBody). Acotado porque cada
+     * exportación mantiene una conexión con cursor abierto mientras dura la descarga.
+     */
+    @Bean(name = "exportTaskExecutor")
+    public ThreadPoolTaskExecutor exportTaskExecutor(
+            @Value("${exports.threads:3}") int hilos,
+            @Value("${exports.queue-capacity:10}") int capacidadCola) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(hilos);
+        executor.setMaxPoolSize(hilos);
+        executor.setQueueCapacity(capacidadCola);
+        executor.setThreadNamePrefix("exportacion-");
+        executor.initialize();
+        return executor;
+    }
 }
 
 
@@ -21,7 +21,9 @@ public class ContentCachingFilter extends OncePerRequestFilter {
         if (!(request instanceof ContentCachingRequestWrapper)) {
             request = new ContentCachingRequestWrapper(request);
         }
-        if (!(response instanceof ContentCachingResponseWrapper)) {
+        // Las exportaciones escriben en streaming: envolver la respuesta la acumularía entera en memoria
+        boolean exportacion = request.getRequestURI().endsWith("/export");
+        if (!exportacion && !(response instanceof ContentCachingResponseWrapper)) {
             response = new ContentCachingResponseWrapper(response);
         }
         
@@ -1,5 +1,6 @@
 package com.yego.contractortracker.config;
 
+import com.yego.contractortracker.repository.TimedQueryExecutor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -17,6 +18,9 @@ public class DatabaseInitializer {
     @Autowired
     private JdbcTemplate jdbcTemplate;
     
+    @Autowired
+    private TimedQueryExecutor timedQueryExecutor;
+    
     @Async
     @EventListener(ApplicationReadyEvent.class)
     public void initializeTrackingHistoryTable() {
@@ -101,7 +105,9 @@ public class DatabaseInitializer {
                     "CREATE INDEX IF NOT EXISTS idx_lead_matches_external_id ON lead_matches(external_id)",
                     "CREATE INDEX IF NOT EXISTS idx_lead_matches_driver_id ON lead_matches(driver_id)",
                     "CREATE INDEX IF NOT EXISTS idx_lead_matches_lead_created_at ON lead_matches(lead_created_at)",
-                    "CREATE INDEX IF NOT EXISTS idx_lead_matches_is_discarded ON lead_matches(is_discarded)"
+                    "CREATE INDEX IF NOT EXISTS idx_lead_matches_is_discarded ON lead_matches(is_discarded)",
+                    "CREATE INDEX IF NOT EXISTS idx_lead_matches_sin_match ON lead_matches(id) " +
+                    "WHERE is_discarded = false AND (driver_id IS NULL OR driver_id = '')"
                 };
                 
                 for (String indexSql : leadMatchesIndexStatements) {
@@ -227,6 +233,9 @@ public class DatabaseInitializer {
                 logger.warn("Advertencia al crear índices de summary_daily: {}", e.getMessage());
             }
             
+            initializeSyncWatermarksTable();
+            initializeJobRegistryTable();
+            initializeDriverDailyActivityTable();
             initializeMilestoneInstancesTable();
             
             try {
@@ -241,6 +250,89 @@ public class DatabaseInitializer {
         }
     }
     
+    private void initializeSyncWatermarksTable() {
+        try {
+            logger.info("Verificando existencia de tabla sync_watermarks...");
+            
+            String createTableSql = "CREATE TABLE IF NOT EXISTS sync_watermarks (" +
+                "sync_name VARCHAR(100) PRIMARY KEY, " +
+                "watermark TIMESTAMP, " +
+                "rows_affected BIGINT NOT NULL DEFAULT 0, " +
+                "last_run TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP" +
+                ")";
+            
+            jdbcTemplate.execute(createTableSql);
+            logger.info("Tabla sync_watermarks creada o ya existe");
+        } catch (Exception e) {
+            logger.error("Error al inicializar tabla sync_watermarks: {}", e.getMessage(), e);
+        }
+    }
+    
+    private void initializeJobRegistryTable() {
+        try {
+            logger.info("Verificando existencia de tabla job_registry...");
+            
+            String createTableSql = "CREATE TABLE IF NOT EXISTS job_registry (" +
+                "job_id VARCHAR(255) PRIMARY KEY, " +
+                "job_type VARCHAR(100), " +
+                "dedup_key VARCHAR(500), " +
+                "status VARCHAR(20) NOT NULL, " +
+                "total_items INTEGER NOT NULL DEFAULT 0, " +
+                "processed_items INTEGER NOT NULL DEFAULT 0, " +
+                "error TEXT, " +
+                "created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP, " +
+                "started_at TIMESTAMP, " +
+                "finished_at TIMESTAMP, " +
+                "duration_ms BIGINT, " +
+                "last_updated TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP" +
+                ")";
+            
+            jdbcTemplate.execute(createTableSql);
+            crearIndiceConTimeout("CREATE INDEX IF NOT EXISTS idx_job_registry_status ON job_registry(status)", "job_registry (estado)");
+            crearIndiceConTimeout("CREATE INDEX IF NOT EXISTS idx_job_registry_created_at ON job_registry(created_at DESC)", "job_registry (fecha)");
+            crearIndiceConTimeout("CREATE INDEX IF NOT EXISTS idx_job_registry_finished_at ON job_registry(finished_at)", "job_registry (fin)");
+            logger.info("Tabla job_registry creada o ya existe");
+        } catch (Exception e) {
+            logger.error("Error al inicializar tabla job_registry: {}", e.getMessage(), e);
+        }
+    }
+    
+    private void initializeDriverDailyActivityTable() {
+        try {
+            logger.info("Verificando existencia de tabla driver_daily_activity...");
+            
+            // La sincronización filtra summary_daily por fecha usando esta función (y sus índices de expresión)
+            jdbcTemplate.execute("CREATE OR REPLACE FUNCTION to_date_immutable(text) RETURNS date AS $$ " +
+                "SELECT to_date($1, 'DD-MM-YYYY') $$ LANGUAGE sql IMMUTABLE STRICT");
+            crearIndiceConTimeout("CREATE INDEX IF NOT EXISTS idx_summary_daily_date_file_date ON summary_daily(to_date_immutable(date_file))", "summary_daily (fecha)");
+            
+            String createTableSql = "CREATE TABLE IF NOT EXISTS driver_daily_activity (" +
+                "driver_id VARCHAR(255) NOT NULL, " +
+                "activity_date DATE NOT NULL, " +
+                "work_seconds BIGINT, " +
+                "orders_completed INTEGER, " +
+                "last_updated TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP, " +
+                "PRIMARY KEY (driver_id, activity_date)" +
+                ")";
+            
+            jdbcTemplate.execute(createTableSql);
+            logger.info("Tabla driver_daily_activity creada o ya existe");
+            
+            String[] indexStatements = {
+                "CREATE INDEX IF NOT EXISTS idx_driver_daily_activity_date ON driver_daily_activity(activity_date)",
+                "CREATE INDEX IF NOT EXISTS idx_driver_daily_activity_driver_metrics ON driver_daily_activity(driver_id, activity_date) INCLUDE (work_seconds, orders_completed)"
+            };
+            
+            for (String indexSql : indexStatements) {
+                crearIndiceConTimeout(indexSql, "driver_daily_activity");
+            }
+            
+            logger.info("Índices de driver_daily_activity procesados");
+        } catch (Exception e) {
+            logger.error("Error al inicializar tabla driver_daily_activity: {}", e.getMessage(), e);
+        }
+    }
+    
     private void initializeMilestoneInstancesTable() {
         try {
             logger.info("Verificando existencia de tabla milestone_instances...");
@@ -268,7 +360,8 @@ public class DatabaseInitializer {
                 "CREATE INDEX IF NOT EXISTS idx_milestone_park_id ON milestone_instances(park_id)",
                 "CREATE INDEX IF NOT EXISTS idx_milestone_type_period ON milestone_instances(milestone_type, period_days)",
                 "CREATE INDEX IF NOT EXISTS idx_milestone_fulfillment_date ON milestone_instances(fulfillment_date DESC)",
-                "CREATE INDEX IF NOT EXISTS idx_milestone_calculation_date ON milestone_instances(calculation_date DESC)"
+                "CREATE INDEX IF NOT EXISTS idx_milestone_calculation_date ON milestone_instances(calculation_date DESC)",
+                "CREATE INDEX IF NOT EXISTS idx_milestone_last_updated ON milestone_instances(last_updated)"
             };
             
             for (String indexSql : indexStatements) {
@@ -428,7 +521,8 @@ public class DatabaseInitializer {
                 "CREATE INDEX IF NOT EXISTS idx_yango_transactions_driver ON yango_transactions(driver_id)",
                 "CREATE INDEX IF NOT EXISTS idx_yango_transactions_date ON yango_transactions(transaction_date)",
                 "CREATE INDEX IF NOT EXISTS idx_yango_transactions_matched ON yango_transactions(is_matched)",
-                "CREATE INDEX IF NOT EXISTS idx_yango_transactions_milestone ON yango_transactions(milestone_type)"
+                "CREATE INDEX IF NOT EXISTS idx_yango_transactions_milestone ON yango_transactions(milestone_type)",
+                "CREATE INDEX IF NOT EXISTS idx_yango_transactions_milestone_instance ON yango_transactions(milestone_instance_id)"
             };
             
             for (String indexSql : indexStatements) {
@@ -725,13 +819,10 @@ public class DatabaseInitializer {
         }
         
         try {
-            jdbcTemplate.setQueryTimeout(30);
-            jdbcTemplate.execute(indexSql);
-            jdbcTemplate.setQueryTimeout(0);
+            timedQueryExecutor.execute("crear-indice " + nombreIndiceExtraido, 30, indexSql);
             logger.debug("Índice {} creado exitosamente", nombreIndiceExtraido);
         } catch (org.springframework.dao.QueryTimeoutException e) {
             logger.warn("Timeout al crear índice {} (puede que ya exista, continuando...): {}", nombreIndiceExtraido, e.getMessage());
-            jdbcTemplate.setQueryTimeout(0);
         } catch (org.springframework.dao.DataAccessResourceFailureException e) {
             String errorMsg = e.getMessage() != null ? e.getMessage() : "";
             if (errorMsg.contains("timeout") || errorMsg.contains("timed out") || errorMsg.contains("Connection is not available")) {
@@ -739,7 +830,6 @@ public class DatabaseInitializer {
             } else {
                 logger.warn("Error al crear índice {} (continuando...): {}", nombreIndiceExtraido, e.getMessage());
             }
-            jdbcTemplate.setQueryTimeout(0);
         } catch (Exception e) {
             String errorMsg = e.getMessage() != null ? e.getMessage() : "";
             Throwable cause = e.getCause();
@@ -755,7 +845,6 @@ public class DatabaseInitializer {
             } else {
                 logger.warn("Advertencia al crear índice {} (continuando...): {}", nombreIndiceExtraido, e.getMessage());
             }
-            jdbcTemplate.setQueryTimeout(0);
         }
     }
     
@@ -21,8 +21,9 @@ public class MilestoneCronJob {
         
         try {
             String parkId = null;
-            String jobId7d = milestoneTrackingService.calcularInstanciasAsync(parkId, 7);
-            String jobId14d = milestoneTrackingService.calcularInstanciasAsync(parkId, 14);
+            // Incremental: solo drivers con ventana abierta o actividad modificada desde la última ejecución
+            String jobId7d = milestoneTrackingService.calcularInstanciasAsync(parkId, 7, null, null, null, false);
+            String jobId14d = milestoneTrackingService.calcularInstanciasAsync(parkId, 14, null, null, null, false);
             logger.info("Cálculo programado de instancias iniciado (7 días: {}, 14 días: {})", jobId7d, jobId14d);
         } catch (Exception e) {
             logger.error("Error al iniciar cálculo programado de instancias", e);
@@ -0,0 +1,31 @@
+package com.yego.contractortracker.controller;
+
+import com.yego.contractortracker.service.DashboardCacheService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.HashMap;
+import java.util.Map;
+
+@RestController
+@RequestMapping("/api/cache")
+public class DashboardCacheController {
+    
+    @Autowired
+    private DashboardCacheService dashboardCache;
+    
+    @GetMapping("/stats")
+    public ResponseEntity<Map<String, Object>> obtenerEstadisticas() {
+        return ResponseEntity.ok(dashboardCache.obtenerEstadisticas());
+    }
+    
+    @PostMapping("/invalidate")
+    public ResponseEntity<Map<String, Object>> invalidar() {
+        dashboardCache.invalidarTodo("invalidación manual");
+        Map<String, Object> response = new HashMap<>();
+        response.put("status", "success");
+        response.put("message", "Caché de dashboards invalidada");
+        return ResponseEntity.ok(response);
+    }
+}
@@ -1,5 +1,7 @@
 package com.yego.contractortracker.controller;
 
+import com.yego.contractortracker.repository.TimedQueryExecutor;
+import com.yego.contractortracker.service.DriverDirectoryService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
 import org.springframework.jdbc.core.JdbcTemplate;
@@ -21,6 +23,28 @@ public class InspectController {
     @Autowired
     private JdbcTemplate jdbcTemplate;
     
+    @Autowired
+    private TimedQueryExecutor timedQueryExecutor;
+    
+    @Autowired
+    private DriverDirectoryService driverDirectory;
+    
+    @GetMapping("/query-timeouts")
+    public ResponseEntity<Map<String, TimedQueryExecutor.RegistroTimeout>> inspectQueryTimeouts() {
+        return ResponseEntity.ok(timedQueryExecutor.obtenerTimeoutsRegistrados());
+    }
+    
+    @GetMapping("/driver-directory")
+    public ResponseEntity<Map<String, Object>> inspectDriverDirectory() {
+        return ResponseEntity.ok(driverDirectory.obtenerEstadisticas());
+    }
+    
+    @PostMapping("/driver-directory/invalidate")
+    public ResponseEntity<Void> invalidateDriverDirectory() {
+        driverDirectory.invalidar();
+        return ResponseEntity.ok().build();
+    }
+    
     @GetMapping("/drivers")
     public ResponseEntity<List<Map<String, Object>>> inspectDrivers() {
         String sql = "SELECT * FROM drivers LIMIT 5";
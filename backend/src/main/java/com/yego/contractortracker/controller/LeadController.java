@@ -1,18 +1,22 @@
 package com.yego.contractortracker.controller;
 
 import com.yego.contractortracker.dto.*;
+import com.yego.contractortracker.service.ExportacionService;
 import com.yego.contractortracker.service.LeadProcessingService;
+import com.yego.contractortracker.service.UploadJobService;
 import com.yego.contractortracker.util.WeekISOUtil;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
 
 @RestController
 @RequestMapping("/api/leads")
@@ -21,8 +25,26 @@ public class LeadController {
     @Autowired
     private LeadProcessingService leadProcessingService;
     
+    @Autowired
+    private UploadJobService uploadJobService;
+    
+    @Autowired
+    private ExportacionService exportacionService;
+    
+    private static final String[] COLUMNAS_EXPORT_CABINET = {
+        "externalId", "driverId", "leadCreatedAt", "hireDate", "dateMatch",
+        "matchScore", "isManual", "isDiscarded",
+        "leadFirstName", "leadLastName", "leadPhone",
+        "driverFullName", "driverPhone", "driverStatus",
+        "totalTrips14d", "sumWorkTimeSeconds",
+        "milestones",
+        "yangoTransactions14d", "yangoAmount14d"
+    };
+    
     @PostMapping("/upload")
-    public ResponseEntity<Map<String, Object>> uploadLeadsCSV(@RequestParam("file") MultipartFile file) {
+    public ResponseEntity<Map<String, Object>> uploadLeadsCSV(
+            @RequestParam("file") MultipartFile file,
+            @RequestParam(required = false, defaultValue = "false") boolean async) {
         Map<String, Object> response = new HashMap<>();
         
         try {
@@ -32,12 +54,24 @@ public class LeadController {
                 return ResponseEntity.badRequest().body(response);
             }
             
+            if (async) {
+                String uploadJobId = uploadJobService.encolar("leads-csv", file, leadProcessingService::procesarArchivoCSV);
+                response.put("status", "accepted");
+                response.put("message", "Archivo recibido, se procesará en segundo plano");
+                response.put("jobId", uploadJobId);
+                return ResponseEntity.accepted().body(response);
+            }
+            
             LeadProcessingResultDTO result = leadProcessingService.procesarArchivoCSV(file);
             
             response.put("status", "success");
             response.put("data", result);
             return ResponseEntity.ok(response);
             
+        } catch (RejectedExecutionException e) {
+            response.put("status", "error");
+            response.put("message", "Hay demasiadas cargas en cola, intenta de nuevo en unos minutos");
+            return ResponseEntity.status(503).body(response);
         } catch (Exception e) {
             response.put("status", "error");
             response.put("message", "Error al procesar archivo: " + e.getMessage());
@@ -224,6 +258,51 @@ public class LeadController {
         }
     }
     
+    /**
+     * Exporta los leads del cabinet con los mismos filtros que /cabinet, en CSV o NDJSON escrito en streaming.
+     * Las filas salen en el orden de la consulta (fecha del lead descendente).
+     */
+    @GetMapping("/cabinet/export")
+    public ResponseEntity<StreamingResponseBody> exportLeadsCabinet(
+            @RequestParam(value = "dateFrom", required = false) String dateFromStr,
+            @RequestParam(value = "dateTo", required = false) String dateToStr,
+            @RequestParam(value = "weekISO", required = false) String weekISO,
+            @RequestParam(value = "matchStatus", required = false) String matchStatus,
+            @RequestParam(value = "driverStatus", required = false) String driverStatus,
+            @RequestParam(value = "milestoneType", required = false) Integer milestoneType,
+            @RequestParam(value = "milestonePeriod", required = false) Integer milestonePeriod,
+            @RequestParam(value = "search", required = false) String search,
+            @RequestParam(value = "includeDiscarded", required = false) Boolean includeDiscarded,
+            @RequestParam(value = "format", defaultValue = "csv") String format,
+            @RequestParam(value = "gzip", defaultValue = "false") boolean gzip) {
+        
+        LocalDate dateFrom;
+        LocalDate dateTo;
+        try {
+            if (weekISO != null && !weekISO.isEmpty()) {
+                LocalDate[] weekRange = WeekISOUtil.getWeekRange(weekISO);
+                dateFrom = weekRange[0];
+                dateTo = weekRange[1];
+            } else {
+                dateFrom = dateFromStr != null && !dateFromStr.isEmpty() ? LocalDate.parse(dateFromStr) : null;
+                dateTo = dateToStr != null && !dateToStr.isEmpty() ? LocalDate.parse(dateToStr) : null;
+            }
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().build();
+        }
+        
+        return exportacionService.exportar("leads-cabinet", format, gzip, COLUMNAS_EXPORT_CABINET, writer ->
+            leadProcessingService.recorrerLeadsConEstado(dateFrom, dateTo, matchStatus, driverStatus, milestoneType,
+                milestonePeriod, search, includeDiscarded, lead -> writer.escribirFila(
+                    lead.getExternalId(), lead.getDriverId(), lead.getLeadCreatedAt(), lead.getHireDate(), lead.getDateMatch(),
+                    lead.getMatchScore(), lead.getIsManual(), lead.getIsDiscarded(),
+                    lead.getLeadFirstName(), lead.getLeadLastName(), lead.getLeadPhone(),
+                    lead.getDriverFullName(), lead.getDriverPhone(), lead.getDriverStatus(),
+                    lead.getTotalTrips14d(), lead.getSumWorkTimeSeconds(),
+                    ExportacionService.resumirMilestones(lead.getMilestones()),
+                    ExportacionService.contar(lead.getYangoTransactions14d()), ExportacionService.sumarMontosYango(lead.getYangoTransactions14d()))));
+    }
+    
     @GetMapping("/{externalId}/scout-suggestions")
     public ResponseEntity<Map<String, Object>> getScoutSuggestions(@PathVariable String externalId) {
         Map<String, Object> response = new HashMap<>();
@@ -2,14 +2,19 @@ package com.yego.contractortracker.controller;
 
 import com.yego.contractortracker.dto.MilestoneInstanceDTO;
 import com.yego.contractortracker.dto.MilestonePaymentViewDTO;
+import com.yego.contractortracker.service.DashboardCacheService;
+import com.yego.contractortracker.service.ExportacionService;
 import com.yego.contractortracker.service.MilestoneProgressService;
 import com.yego.contractortracker.service.MilestoneTrackingService;
+import com.yego.contractortracker.util.WeekISOUtil;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.time.LocalDate;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -25,6 +30,19 @@ public class MilestoneController {
     @Autowired
     private MilestoneProgressService progressService;
     
+    @Autowired
+    private DashboardCacheService dashboardCache;
+    
+    @Autowired
+    private ExportacionService exportacionService;
+    
+    private static final String[] COLUMNAS_EXPORT_PAGOS = {
+        "driverId", "driverName", "driverPhone", "hireDate",
+        "milestoneInstanceId", "milestoneType", "periodDays", "fulfillmentDate", "tripCount",
+        "yangoTransactionId", "amountYango", "yangoPaymentDate",
+        "hasPayment", "paymentStatus", "hasLeadMatch"
+    };
+    
     @GetMapping("/driver/{driverId}")
     public ResponseEntity<List<MilestoneInstanceDTO>> obtenerInstanciasDriver(
             @PathVariable String driverId) {
@@ -74,7 +92,8 @@ public class MilestoneController {
             @RequestParam(required = false, defaultValue = "14") Integer periodDays,
             @RequestParam(required = false) Integer milestoneType,
             @RequestParam(required = false) @org.springframework.format.annotation.DateTimeFormat(iso = org.springframework.format.annotation.DateTimeFormat.ISO.DATE) LocalDate hireDateFrom,
-            @RequestParam(required = false) @org.springframework.format.annotation.DateTimeFormat(iso = org.springframework.format.annotation.DateTimeFormat.ISO.DATE) LocalDate hireDateTo) {
+            @RequestParam(required = false) @org.springframework.format.annotation.DateTimeFormat(iso = org.springframework.format.annotation.DateTimeFormat.ISO.DATE) LocalDate hireDateTo,
+            @RequestParam(required = false, defaultValue = "false") boolean incremental) {
         try {
             if (periodDays == null) {
                 periodDays = 14;
@@ -94,7 +113,7 @@ public class MilestoneController {
                 return ResponseEntity.badRequest().body(response);
             }
             
-            String jobId = milestoneTrackingService.calcularInstanciasAsync(parkId, periodDays, milestoneType, hireDateFrom, hireDateTo);
+            String jobId = milestoneTrackingService.calcularInstanciasAsync(parkId, periodDays, milestoneType, hireDateFrom, hireDateTo, !incremental);
             Map<String, Object> response = new HashMap<>();
             String message = "Cálculo de milestones para " + periodDays + " días";
             if (milestoneType != null) {
@@ -152,6 +171,17 @@ public class MilestoneController {
         return ResponseEntity.ok(response);
     }
     
+    @GetMapping("/jobs")
+    public ResponseEntity<List<MilestoneProgressService.ProgressInfo>> listarJobs(
+            @RequestParam(required = false) String status) {
+        return ResponseEntity.ok(progressService.listarJobs(status));
+    }
+    
+    @GetMapping("/jobs/stats")
+    public ResponseEntity<Map<String, Object>> obtenerEstadisticasJobs() {
+        return ResponseEntity.ok(progressService.obtenerEstadisticas());
+    }
+    
     @PostMapping("/reprocess-all")
     public ResponseEntity<Map<String, Object>> reprocesarTodos(
             @RequestParam(required = false) String parkId,
@@ -282,7 +312,9 @@ public class MilestoneController {
             @RequestParam String weekISO,
             @RequestParam(required = false) String parkId) {
         try {
-            List<MilestonePaymentViewDTO> view = milestoneTrackingService.getMilestonePaymentViewWeekly(weekISO, parkId);
+            List<MilestonePaymentViewDTO> view = dashboardCache.obtener(DashboardCacheService.PAYMENT_VIEW,
+                Arrays.asList("weekly", weekISO, parkId), 
+                () -> milestoneTrackingService.getMilestonePaymentViewWeekly(weekISO, parkId));
             return ResponseEntity.ok(view);
         } catch (Exception e) {
             org.slf4j.Logger logger = org.slf4j.LoggerFactory.getLogger(MilestoneController.class);
@@ -296,7 +328,9 @@ public class MilestoneController {
             @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate fecha,
             @RequestParam(required = false) String parkId) {
         try {
-            List<MilestonePaymentViewDTO> view = milestoneTrackingService.getMilestonePaymentViewDaily(fecha, parkId);
+            List<MilestonePaymentViewDTO> view = dashboardCache.obtener(DashboardCacheService.PAYMENT_VIEW,
+                Arrays.asList("daily", fecha, parkId), 
+                () -> milestoneTrackingService.getMilestonePaymentViewDaily(fecha, parkId));
             return ResponseEntity.ok(view);
         } catch (Exception e) {
             org.slf4j.Logger logger = org.slf4j.LoggerFactory.getLogger(MilestoneController.class);
@@ -311,7 +345,9 @@ public class MilestoneController {
             @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate fechaHasta,
             @RequestParam(required = false) String parkId) {
         try {
-            List<MilestonePaymentViewDTO> view = milestoneTrackingService.getMilestonePaymentViewByDateRange(fechaDesde, fechaHasta, parkId);
+            List<MilestonePaymentViewDTO> view = dashboardCache.obtener(DashboardCacheService.PAYMENT_VIEW,
+                Arrays.asList("range", fechaDesde, fechaHasta, parkId), 
+                () -> milestoneTrackingService.getMilestonePaymentViewByDateRange(fechaDesde, fechaHasta, parkId));
             return ResponseEntity.ok(view);
         } catch (Exception e) {
             org.slf4j.Logger logger = org.slf4j.LoggerFactory.getLogger(MilestoneController.class);
@@ -327,7 +363,9 @@ public class MilestoneController {
             @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate fechaDesde,
             @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate fechaHasta) {
         try {
-            List<MilestonePaymentViewDTO> view = milestoneTrackingService.getMilestonePaymentViewPending(parkId, milestoneType, fechaDesde, fechaHasta);
+            List<MilestonePaymentViewDTO> view = dashboardCache.obtener(DashboardCacheService.PAYMENT_VIEW,
+                Arrays.asList("pending", parkId, milestoneType, fechaDesde, fechaHasta), 
+                () -> milestoneTrackingService.getMilestonePaymentViewPending(parkId, milestoneType, fechaDesde, fechaHasta));
             return ResponseEntity.ok(view);
         } catch (Exception e) {
             org.slf4j.Logger logger = org.slf4j.LoggerFactory.getLogger(MilestoneController.class);
@@ -335,4 +373,51 @@ public class MilestoneController {
             return ResponseEntity.status(500).build();
         }
     }
+    
+    /**
+     * Exporta la vista de pagos de milestones (semana ISO o rango de fechas de contratación) en CSV o NDJSON,
+     * escrita en streaming. Con pendingOnly=true solo salen los milestones sin pago Yango.
+     */
+    @GetMapping("/payment-view/export")
+    public ResponseEntity<StreamingResponseBody> exportMilestonePaymentView(
+            @RequestParam(required = false) String weekISO,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate fechaDesde,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate fechaHasta,
+            @RequestParam(required = false) String parkId,
+            @RequestParam(required = false) Integer milestoneType,
+            @RequestParam(defaultValue = "false") boolean pendingOnly,
+            @RequestParam(defaultValue = "csv") String format,
+            @RequestParam(defaultValue = "false") boolean gzip) {
+        
+        LocalDate desde = fechaDesde;
+        LocalDate hasta = fechaHasta;
+        if (weekISO != null && !weekISO.isEmpty()) {
+            LocalDate[] weekRange = WeekISOUtil.getWeekRange(weekISO);
+            if (weekRange == null || weekRange.length != 2) {
+                return ResponseEntity.badRequest().build();
+            }
+            desde = weekRange[0];
+            hasta = weekRange[1];
+        }
+        if (desde == null || hasta == null) {
+            return ResponseEntity.badRequest().build();
+        }
+        
+        LocalDate desdeFinal = desde;
+        LocalDate hastaFinal = hasta;
+        return exportacionService.exportar("milestones-pagos", format, gzip, COLUMNAS_EXPORT_PAGOS, writer ->
+            milestoneTrackingService.recorrerMilestonePaymentView(desdeFinal, hastaFinal, parkId, dto -> {
+                if (milestoneType != null && !milestoneType.equals(dto.getMilestoneType())) {
+                    return;
+                }
+                if (pendingOnly && Boolean.TRUE.equals(dto.getHasPayment())) {
+                    return;
+                }
+                writer.escribirFila(
+                    dto.getDriverId(), dto.getDriverName(), dto.getDriverPhone(), dto.getHireDate(),
+                    dto.getMilestoneInstanceId(), dto.getMilestoneType(), dto.getPeriodDays(), dto.getFulfillmentDate(), dto.getTripCount(),
+                    dto.getYangoTransactionId(), dto.getAmountYango(), dto.getYangoPaymentDate(),
+                    dto.getHasPayment(), dto.getPaymentStatus(), dto.getHasLeadMatch());
+            }));
+    }
 }
@@ -4,14 +4,20 @@ import com.yego.contractortracker.dto.DriverOnboardingDTO;
 import com.yego.contractortracker.dto.EvolutionMetricsDTO;
 import com.yego.contractortracker.dto.OnboardingFilterDTO;
 import com.yego.contractortracker.dto.PaginatedResponse;
+import com.yego.contractortracker.service.DashboardCacheService;
+import com.yego.contractortracker.service.DriverActivitySyncService;
+import com.yego.contractortracker.service.ExportacionService;
 import com.yego.contractortracker.service.OnboardingService;
+import com.yego.contractortracker.util.KeysetCursorUtil;
 import com.yego.contractortracker.util.WeekISOUtil;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.time.LocalDate;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -23,6 +29,27 @@ public class OnboardingController {
     @Autowired
     private OnboardingService onboardingService;
     
+    @Autowired
+    private DriverActivitySyncService driverActivitySyncService;
+    
+    @Autowired
+    private DashboardCacheService dashboardCache;
+    
+    @Autowired
+    private ExportacionService exportacionService;
+    
+    private static final String[] COLUMNAS_EXPORT_ONBOARDING = {
+        "driverId", "parkId", "channel", "fullName", "phone", "licenseNumber",
+        "startDate", "totalTrips14d", "sumWorkTimeSeconds", "hasHistoricalConnection",
+        "leadCreatedAt", "matchScore", "matchManual",
+        "scoutId", "scoutName", "scoutRegistrationDate", "scoutMatchScore",
+        "primeraConexionDate", "primerViajeDate", "diasActivos", "diasConectados",
+        "diasRegistroAConexion", "diasConexionAViaje", "diasPrimerViajeA25Viajes",
+        "tasaConversionConexion",
+        "milestones14d", "milestones7d",
+        "yangoTransactions14d", "yangoAmount14d"
+    };
+    
     @PostMapping("/by-ids")
     public ResponseEntity<List<DriverOnboardingDTO>> getDriversByIds(
             @RequestBody List<String> driverIds,
@@ -43,7 +70,9 @@ public class OnboardingController {
             @RequestParam(required = false) String channel,
             @RequestParam(required = false) String weekISO,
             @RequestParam(defaultValue = "0") int page,
-            @RequestParam(defaultValue = "50") int size) {
+            @RequestParam(defaultValue = "50") int size,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false) String countMode) {
         
         System.out.println("=== Controller recibió request ===");
         System.out.println("parkId: " + parkId);
@@ -59,6 +88,14 @@ public class OnboardingController {
         filter.setWeekISO(weekISO);
         filter.setPage(page);
         filter.setSize(size);
+        filter.setCursor(cursor);
+        filter.setCountMode(countMode);
+        
+        try {
+            KeysetCursorUtil.decodificar(cursor);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
         
         if (weekISO != null && !weekISO.isEmpty()) {
             System.out.println("Calculando rango de fechas para semana ISO: " + weekISO);
@@ -84,10 +121,55 @@ public class OnboardingController {
         System.out.println("Controller - Filtro final - startDateFrom: " + filter.getStartDateFrom() + ", startDateTo: " + filter.getStartDateTo());
         System.out.println("=== Fin Controller ===");
         
-        PaginatedResponse<DriverOnboardingDTO> results = onboardingService.getOnboarding14dPaginated(filter);
+        OnboardingFilterDTO claveFiltro = new OnboardingFilterDTO(filter.getParkId(), filter.getStartDateFrom(), 
+            filter.getStartDateTo(), filter.getChannel(), filter.getWeekISO(), filter.getPage(), filter.getSize(),
+            filter.getCursor(), filter.getCountMode());
+        PaginatedResponse<DriverOnboardingDTO> results = dashboardCache.obtener(DashboardCacheService.ONBOARDING_14D,
+            List.of(claveFiltro), () -> onboardingService.getOnboarding14dPaginated(filter));
         return ResponseEntity.ok(results);
     }
     
+    /**
+     * Exporta el onboarding 14d completo (sin paginar) en CSV o NDJSON, escrito en streaming.
+     */
+    @GetMapping("/onboarding-14d/export")
+    public ResponseEntity<StreamingResponseBody> exportOnboarding14d(
+            @RequestParam(required = false) String parkId,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate startDateFrom,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate startDateTo,
+            @RequestParam(required = false) String channel,
+            @RequestParam(required = false) String weekISO,
+            @RequestParam(defaultValue = "csv") String format,
+            @RequestParam(defaultValue = "false") boolean gzip) {
+        
+        OnboardingFilterDTO filter = new OnboardingFilterDTO();
+        filter.setParkId(parkId);
+        filter.setChannel(channel);
+        filter.setWeekISO(weekISO);
+        filter.setStartDateFrom(startDateFrom);
+        filter.setStartDateTo(startDateTo);
+        if (weekISO != null && !weekISO.isEmpty()) {
+            LocalDate[] weekRange = WeekISOUtil.getWeekRange(weekISO);
+            if (weekRange == null || weekRange.length != 2) {
+                return ResponseEntity.badRequest().build();
+            }
+            filter.setStartDateFrom(weekRange[0]);
+            filter.setStartDateTo(weekRange[1]);
+        }
+        
+        return exportacionService.exportar("onboarding-14d", format, gzip, COLUMNAS_EXPORT_ONBOARDING, writer ->
+            onboardingService.recorrerOnboarding14d(filter, d -> writer.escribirFila(
+                d.getDriverId(), d.getParkId(), d.getChannel(), d.getFullName(), d.getPhone(), d.getLicenseNumber(),
+                d.getStartDate(), d.getTotalTrips14d(), d.getSumWorkTimeSeconds(), d.getHasHistoricalConnection(),
+                d.getLeadCreatedAt(), d.getMatchScore(), d.getMatchManual(),
+                d.getScoutId(), d.getScoutName(), d.getScoutRegistrationDate(), d.getScoutMatchScore(),
+                d.getPrimeraConexionDate(), d.getPrimerViajeDate(), d.getDiasActivos(), d.getDiasConectados(),
+                d.getDiasRegistroAConexion(), d.getDiasConexionAViaje(), d.getDiasPrimerViajeA25Viajes(),
+                d.getTasaConversionConexion(),
+                ExportacionService.resumirMilestones(d.getMilestones14d()), ExportacionService.resumirMilestones(d.getMilestones7d()),
+                ExportacionService.contar(d.getYangoTransactions14d()), ExportacionService.sumarMontosYango(d.getYangoTransactions14d()))));
+    }
+    
     @PostMapping("/sync-metrics")
     public ResponseEntity<Map<String, Object>> syncMetrics(@RequestParam(required = false) String parkId) {
         Map<String, Object> response = new HashMap<>();
@@ -103,13 +185,35 @@ public class OnboardingController {
         }
     }
     
+    @PostMapping("/sync-activity")
+    public ResponseEntity<Map<String, Object>> syncActivity(@RequestParam(defaultValue = "false") boolean full) {
+        Map<String, Object> response = new HashMap<>();
+        try {
+            long filas = driverActivitySyncService.sincronizar(full);
+            if (filas < 0) {
+                response.put("status", "running");
+                response.put("message", "Ya hay una sincronización de actividad en curso");
+                return ResponseEntity.status(409).body(response);
+            }
+            response.put("status", "success");
+            response.put("rowsAffected", filas);
+            return ResponseEntity.ok(response);
+        } catch (Exception e) {
+            response.put("status", "error");
+            response.put("message", "Error al sincronizar actividad diaria: " + e.getMessage());
+            return ResponseEntity.status(500).body(response);
+        }
+    }
+    
     @GetMapping("/evolution")
     public ResponseEntity<List<EvolutionMetricsDTO>> getEvolutionMetrics(
             @RequestParam(required = false) String parkId,
             @RequestParam(defaultValue = "weeks") String periodType,
             @RequestParam(defaultValue = "4") int periods) {
         try {
-            List<EvolutionMetricsDTO> results = onboardingService.getEvolutionMetrics(parkId, periodType, periods);
+            List<EvolutionMetricsDTO> results = dashboardCache.obtener(DashboardCacheService.EVOLUTION,
+                Arrays.asList(parkId, periodType, periods), 
+                () -> onboardingService.getEvolutionMetrics(parkId, periodType, periods));
             return ResponseEntity.ok(results);
         } catch (Exception e) {
             return ResponseEntity.status(500).build();
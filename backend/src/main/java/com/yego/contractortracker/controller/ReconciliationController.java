@@ -1,6 +1,7 @@
 package com.yego.contractortracker.controller;
 
 import com.yego.contractortracker.dto.ReconciliationSummaryDTO;
+import com.yego.contractortracker.service.DashboardCacheService;
 import com.yego.contractortracker.service.ReconciliationService;
 import com.yego.contractortracker.util.WeekISOUtil;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -8,6 +9,7 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
 import java.time.LocalDate;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -19,6 +21,9 @@ public class ReconciliationController {
     @Autowired
     private ReconciliationService reconciliationService;
     
+    @Autowired
+    private DashboardCacheService dashboardCache;
+    
     @GetMapping("/summary")
     public ResponseEntity<?> getReconciliationSummary(
             @RequestParam(value = "periodType", defaultValue = "day") String periodType,
@@ -48,8 +53,13 @@ public class ReconciliationController {
                 }
             }
             
-            List<ReconciliationSummaryDTO> summaries = reconciliationService.obtenerResumenConsolidado(
-                periodType, dateFrom, dateTo, weekISOList, parkId, scoutId, channel);
+            LocalDate desde = dateFrom;
+            LocalDate hasta = dateTo;
+            List<String> semanas = weekISOList;
+            List<ReconciliationSummaryDTO> summaries = dashboardCache.obtener(DashboardCacheService.RECONCILIATION_SUMMARY,
+                Arrays.asList(periodType, desde, hasta, semanas, parkId, scoutId, channel),
+                () -> reconciliationService.obtenerResumenConsolidado(
+                    periodType, desde, hasta, semanas, parkId, scoutId, channel));
             
             return ResponseEntity.ok(summaries);
             
@@ -3,17 +3,22 @@ package com.yego.contractortracker.controller;
 import com.yego.contractortracker.dto.ScoutAffiliationControlDTO;
 import com.yego.contractortracker.dto.ScoutAffiliationControlFiltersDTO;
 import com.yego.contractortracker.dto.ScoutRegistrationDTO;
+import com.yego.contractortracker.service.ExportacionService;
 import com.yego.contractortracker.service.ScoutRegistrationService;
+import com.yego.contractortracker.service.UploadJobService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.math.BigDecimal;
 import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
 
 @RestController
 @RequestMapping("/api/scout-registrations")
@@ -22,8 +27,26 @@ public class ScoutRegistrationController {
     @Autowired
     private ScoutRegistrationService registrationService;
     
+    @Autowired
+    private UploadJobService uploadJobService;
+    
+    @Autowired
+    private ExportacionService exportacionService;
+    
+    private static final int TAMANO_MAXIMO_PAGINA_CONTROL = 500;
+    
+    private static final String[] COLUMNAS_EXPORT_CONTROL = {
+        "registrationId", "scoutId", "scoutName", "registrationDate",
+        "driverLicense", "driverName", "driverPhone", "acquisitionMedium",
+        "driverId", "isMatched", "matchScore",
+        "milestoneType7d", "tripCount7d", "milestoneFulfillmentDate7d",
+        "hasYangoPayment", "yangoPaymentAmount", "yangoPaymentDate", "yangoTransactionId"
+    };
+    
     @PostMapping("/upload")
-    public ResponseEntity<Map<String, Object>> uploadRegistrationsCSV(@RequestParam("file") MultipartFile file) {
+    public ResponseEntity<Map<String, Object>> uploadRegistrationsCSV(
+            @RequestParam("file") MultipartFile file,
+            @RequestParam(required = false, defaultValue = "false") boolean async) {
         Map<String, Object> response = new HashMap<>();
         
         try {
@@ -33,12 +56,24 @@ public class ScoutRegistrationController {
                 return ResponseEntity.badRequest().body(response);
             }
             
+            if (async) {
+                String uploadJobId = uploadJobService.encolar("scout-registrations-csv", file, registrationService::procesarArchivoCSV);
+                response.put("status", "accepted");
+                response.put("message", "Archivo recibido, se procesará en segundo plano");
+                response.put("jobId", uploadJobId);
+                return ResponseEntity.accepted().body(response);
+            }
+            
             Map<String, Object> result = registrationService.procesarArchivoCSV(file);
             
             response.put("status", "success");
             response.put("data", result);
             return ResponseEntity.ok(response);
             
+        } catch (RejectedExecutionException e) {
+            response.put("status", "error");
+            response.put("message", "Hay demasiadas cargas en cola, intenta de nuevo en unos minutos");
+            return ResponseEntity.status(503).body(response);
         } catch (Exception e) {
             response.put("status", "error");
             response.put("message", "Error al procesar archivo: " + e.getMessage());
@@ -46,6 +81,10 @@ public class ScoutRegistrationController {
         }
     }
     
+    /**
+     * Control de afiliaciones. Con size se pagina en el servidor (page empieza en 0) y la respuesta
+     * incluye page, size, totalPages y hasMore; sin size se devuelven todos los registros.
+     */
     @GetMapping("/control")
     public ResponseEntity<Map<String, Object>> getControlAfiliaciones(
             @RequestParam(value = "scoutId", required = false) String scoutId,
@@ -59,61 +98,42 @@ public class ScoutRegistrationController {
             @RequestParam(value = "driverName", required = false) String driverName,
             @RequestParam(value = "driverPhone", required = false) String driverPhone,
             @RequestParam(value = "amountMin", required = false) String amountMinStr,
-            @RequestParam(value = "amountMax", required = false) String amountMaxStr) {
+            @RequestParam(value = "amountMax", required = false) String amountMaxStr,
+            @RequestParam(value = "page", defaultValue = "0") int page,
+            @RequestParam(value = "size", required = false) Integer size) {
         
         Map<String, Object> response = new HashMap<>();
         
         try {
-            ScoutAffiliationControlFiltersDTO filters = new ScoutAffiliationControlFiltersDTO();
-            filters.setScoutId(scoutId);
-            filters.setWeekISO(weekISO);
-            
-            LocalDate fechaInicio = null;
-            LocalDate fechaFin = null;
-            
-            if (fechaInicioStr != null && !fechaInicioStr.isEmpty()) {
-                fechaInicio = LocalDate.parse(fechaInicioStr);
-            }
-            
-            if (fechaFinStr != null && !fechaFinStr.isEmpty()) {
-                fechaFin = LocalDate.parse(fechaFinStr);
-            }
-            
-            filters.setFechaInicio(fechaInicio);
-            filters.setFechaFin(fechaFin);
-            filters.setMilestoneType(milestoneType);
-            filters.setIsMatched(isMatched);
-            filters.setHasYangoPayment(hasYangoPayment);
-            filters.setAcquisitionMedium(acquisitionMedium);
-            filters.setDriverName(driverName);
-            filters.setDriverPhone(driverPhone);
-            
-            if (amountMinStr != null && !amountMinStr.isEmpty()) {
-                try {
-                    filters.setAmountMin(new BigDecimal(amountMinStr));
-                } catch (NumberFormatException e) {
-                    response.put("status", "error");
-                    response.put("message", "Formato inválido para amountMin: " + amountMinStr);
-                    return ResponseEntity.badRequest().body(response);
-                }
+            ScoutAffiliationControlFiltersDTO filters;
+            try {
+                filters = construirFiltrosControl(scoutId, weekISO, fechaInicioStr, fechaFinStr, milestoneType, isMatched,
+                    hasYangoPayment, acquisitionMedium, driverName, driverPhone, amountMinStr, amountMaxStr);
+            } catch (IllegalArgumentException e) {
+                response.put("status", "error");
+                response.put("message", e.getMessage());
+                return ResponseEntity.badRequest().body(response);
             }
             
-            if (amountMaxStr != null && !amountMaxStr.isEmpty()) {
-                try {
-                    filters.setAmountMax(new BigDecimal(amountMaxStr));
-                } catch (NumberFormatException e) {
-                    response.put("status", "error");
-                    response.put("message", "Formato inválido para amountMax: " + amountMaxStr);
-                    return ResponseEntity.badRequest().body(response);
-                }
+            if (page < 0 || (size != null && size <= 0)) {
+                response.put("status", "error");
+                response.put("message", "page debe ser >= 0 y size > 0");
+                return ResponseEntity.badRequest().body(response);
             }
             
-            List<ScoutAffiliationControlDTO> control = registrationService.obtenerControlAfiliaciones(filters);
+            int tamanoPagina = size != null ? Math.min(size, TAMANO_MAXIMO_PAGINA_CONTROL) : 0;
+            List<ScoutAffiliationControlDTO> control = registrationService.obtenerControlAfiliaciones(filters, page, tamanoPagina);
             long count = registrationService.contarRegistrosConFiltros(filters);
             
             response.put("status", "success");
             response.put("data", control);
             response.put("count", count);
+            if (tamanoPagina > 0) {
+                response.put("page", page);
+                response.put("size", tamanoPagina);
+                response.put("totalPages", (count + tamanoPagina - 1) / tamanoPagina);
+                response.put("hasMore", (long) (page + 1) * tamanoPagina < count);
+            }
             return ResponseEntity.ok(response);
             
         } catch (Exception e) {
@@ -123,6 +143,84 @@ public class ScoutRegistrationController {
         }
     }
     
+    /**
+     * Exporta el control de afiliaciones con los mismos filtros que /control, en CSV o NDJSON escrito en streaming.
+     */
+    @GetMapping("/control/export")
+    public ResponseEntity<StreamingResponseBody> exportControlAfiliaciones(
+            @RequestParam(value = "scoutId", required = false) String scoutId,
+            @RequestParam(value = "weekISO", required = false) String weekISO,
+            @RequestParam(value = "fechaInicio", required = false) String fechaInicioStr,
+            @RequestParam(value = "fechaFin", required = false) String fechaFinStr,
+            @RequestParam(value = "milestoneType", required = false) Integer milestoneType,
+            @RequestParam(value = "isMatched", required = false) Boolean isMatched,
+            @RequestParam(value = "hasYangoPayment", required = false) Boolean hasYangoPayment,
+            @RequestParam(value = "acquisitionMedium", required = false) String acquisitionMedium,
+            @RequestParam(value = "driverName", required = false) String driverName,
+            @RequestParam(value = "driverPhone", required = false) String driverPhone,
+            @RequestParam(value = "amountMin", required = false) String amountMinStr,
+            @RequestParam(value = "amountMax", required = false) String amountMaxStr,
+            @RequestParam(value = "format", defaultValue = "csv") String format,
+            @RequestParam(value = "gzip", defaultValue = "false") boolean gzip) {
+        
+        ScoutAffiliationControlFiltersDTO filters;
+        try {
+            filters = construirFiltrosControl(scoutId, weekISO, fechaInicioStr, fechaFinStr, milestoneType, isMatched,
+                hasYangoPayment, acquisitionMedium, driverName, driverPhone, amountMinStr, amountMaxStr);
+        } catch (IllegalArgumentException | DateTimeParseException e) {
+            return ResponseEntity.badRequest().build();
+        }
+        
+        return exportacionService.exportar("control-afiliaciones", format, gzip, COLUMNAS_EXPORT_CONTROL, writer ->
+            registrationService.recorrerControlAfiliaciones(filters, dto -> writer.escribirFila(
+                dto.getRegistrationId(), dto.getScoutId(), dto.getScoutName(), dto.getRegistrationDate(),
+                dto.getDriverLicense(), dto.getDriverName(), dto.getDriverPhone(), dto.getAcquisitionMedium(),
+                dto.getDriverId(), dto.getIsMatched(), dto.getMatchScore(),
+                dto.getMilestoneType7d(), dto.getTripCount7d(), dto.getMilestoneFulfillmentDate7d(),
+                dto.getHasYangoPayment(), dto.getYangoPaymentAmount(), dto.getYangoPaymentDate(), dto.getYangoTransactionId())));
+    }
+    
+    private ScoutAffiliationControlFiltersDTO construirFiltrosControl(String scoutId, String weekISO, String fechaInicioStr, String fechaFinStr,
+                                                                      Integer milestoneType, Boolean isMatched, Boolean hasYangoPayment,
+                                                                      String acquisitionMedium, String driverName, String driverPhone,
+                                                                      String amountMinStr, String amountMaxStr) {
+        ScoutAffiliationControlFiltersDTO filters = new ScoutAffiliationControlFiltersDTO();
+        filters.setScoutId(scoutId);
+        filters.setWeekISO(weekISO);
+        
+        if (fechaInicioStr != null && !fechaInicioStr.isEmpty()) {
+            filters.setFechaInicio(LocalDate.parse(fechaInicioStr));
+        }
+        
+        if (fechaFinStr != null && !fechaFinStr.isEmpty()) {
+            filters.setFechaFin(LocalDate.parse(fechaFinStr));
+        }
+        
+        filters.setMilestoneType(milestoneType);
+        filters.setIsMatched(isMatched);
+        filters.setHasYangoPayment(hasYangoPayment);
+        filters.setAcquisitionMedium(acquisitionMedium);
+        filters.setDriverName(driverName);
+        filters.setDriverPhone(driverPhone);
+        
+        if (amountMinStr != null && !amountMinStr.isEmpty()) {
+            try {
+                filters.setAmountMin(new BigDecimal(amountMinStr));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Formato inválido para amountMin: " + amountMinStr);
+            }
+        }
+        
+        if (amountMaxStr != null && !amountMaxStr.isEmpty()) {
+            try {
+                filters.setAmountMax(new BigDecimal(amountMaxStr));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Formato inválido para amountMax: " + amountMaxStr);
+            }
+        }
+        return filters;
+    }
+    
     @GetMapping("/by-scout/{scoutId}")
     public ResponseEntity<Map<String, Object>> getRegistrosPorScout(
             @PathVariable String scoutId,
@@ -0,0 +1,76 @@
+package com.yego.contractortracker.controller;
+
+import com.yego.contractortracker.service.MilestoneProgressService;
+import com.yego.contractortracker.service.UploadJobService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+@RestController
+@RequestMapping("/api/uploads")
+public class UploadJobController {
+    
+    @Autowired
+    private UploadJobService uploadJobService;
+    
+    @GetMapping
+    public ResponseEntity<List<Map<String, Object>>> listarCargas() {
+        return ResponseEntity.ok(uploadJobService.listarCargas());
+    }
+    
+    @GetMapping("/{jobId}")
+    public ResponseEntity<Map<String, Object>> obtenerEstado(@PathVariable String jobId) {
+        Map<String, Object> estado = uploadJobService.obtenerEstado(jobId);
+        if (estado == null) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok(estado);
+    }
+    
+    @GetMapping("/{jobId}/result")
+    public ResponseEntity<Map<String, Object>> obtenerResultado(@PathVariable String jobId) {
+        Map<String, Object> response = new HashMap<>();
+        Map<String, Object> estado = uploadJobService.obtenerEstado(jobId);
+        if (estado == null) {
+            response.put("status", "not_found");
+            response.put("message", "Job no encontrado o resultado expirado");
+            return ResponseEntity.status(404).body(response);
+        }
+        
+        Optional<Object> resultado = uploadJobService.obtenerResultado(jobId);
+        if (resultado.isPresent()) {
+            response.put("status", "success");
+            response.put("data", resultado.get());
+            return ResponseEntity.ok(response);
+        }
+        
+        MilestoneProgressService.ProgressInfo progreso = (MilestoneProgressService.ProgressInfo) estado.get("progreso");
+        if (progreso != null && progreso.isFinished()) {
+            response.put("status", progreso.getStatus());
+            response.put("message", progreso.getError() != null ? progreso.getError() : "La carga no produjo resultado");
+            return ResponseEntity.status("cancelled".equals(progreso.getStatus()) ? 409 : 500).body(response);
+        }
+        
+        response.put("status", progreso != null ? progreso.getStatus() : "pending");
+        response.put("progress", progreso);
+        return ResponseEntity.accepted().body(response);
+    }
+    
+    @DeleteMapping("/{jobId}")
+    public ResponseEntity<Map<String, Object>> cancelar(@PathVariable String jobId) {
+        Map<String, Object> response = new HashMap<>();
+        if (!uploadJobService.cancelar(jobId)) {
+            response.put("success", false);
+            response.put("message", "Job no encontrado o ya terminado");
+            return ResponseEntity.status(404).body(response);
+        }
+        response.put("success", true);
+        response.put("message", "Cancelación solicitada");
+        return ResponseEntity.ok(response);
+    }
+}
@@ -5,6 +5,7 @@ import com.yego.contractortracker.entity.YangoTransaction;
 import com.yego.contractortracker.service.YangoTransactionService;
 import com.yego.contractortracker.service.YangoTransactionRematchService;
 import com.yego.contractortracker.service.MilestoneProgressService;
+import com.yego.contractortracker.service.UploadJobService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.http.ResponseEntity;
@@ -15,6 +16,7 @@ import java.time.LocalDate;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
 
 @RestController
 @RequestMapping("/api/yango-transactions")
@@ -29,8 +31,14 @@ public class YangoTransactionController {
     @Autowired
     private MilestoneProgressService progressService;
     
+    @Autowired
+    private UploadJobService uploadJobService;
+    
     @PostMapping("/upload")
-    public ResponseEntity<Map<String, Object>> uploadTransactionsCSV(@RequestParam("file") MultipartFile file) {
+    public ResponseEntity<Map<String, Object>> uploadTransactionsCSV(
+            @RequestParam("file") MultipartFile file,
+            @RequestParam(required = false) String jobId,
+            @RequestParam(required = false, defaultValue = "false") boolean async) {
         Map<String, Object> response = new HashMap<>();
         
         try {
@@ -40,12 +48,24 @@ public class YangoTransactionController {
                 return ResponseEntity.badRequest().body(response);
             }
             
-            Map<String, Object> result = transactionService.procesarArchivoCSV(file);
+            if (async) {
+                String uploadJobId = uploadJobService.encolar("yango-csv", file, transactionService::procesarArchivoCSV);
+                response.put("status", "accepted");
+                response.put("message", "Archivo recibido, se procesará en segundo plano");
+                response.put("jobId", uploadJobId);
+                return ResponseEntity.accepted().body(response);
+            }
+            
+            Map<String, Object> result = transactionService.procesarArchivoCSV(file, jobId);
             
             response.put("status", "success");
             response.put("data", result);
             return ResponseEntity.ok(response);
             
+        } catch (RejectedExecutionException e) {
+            response.put("status", "error");
+            response.put("message", "Hay demasiadas cargas en cola, intenta de nuevo en unos minutos");
+            return ResponseEntity.status(503).body(response);
         } catch (Exception e) {
             response.put("status", "error");
             response.put("message", "Error al procesar archivo: " + e.getMessage());
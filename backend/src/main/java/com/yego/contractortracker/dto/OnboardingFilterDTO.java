@@ -17,5 +17,7 @@ public class OnboardingFilterDTO {
     private String weekISO;
     private Integer page = 0;
     private Integer size = 50;
+    private String cursor;
+    private String countMode;
 }
 
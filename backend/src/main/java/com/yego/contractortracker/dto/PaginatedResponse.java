@@ -16,6 +16,10 @@ public class PaginatedResponse<T> {
     private long total;
     private boolean hasMore;
     private int totalPages;
+    private String nextCursor;
+    private String countMode;
+    
+    public PaginatedResponse(List<T> data, int page, int size, long total, boolean hasMore, int totalPages) {
+        this(data, page, size, total, hasMore, totalPages, null, "exact");
+    }
 }
-
-
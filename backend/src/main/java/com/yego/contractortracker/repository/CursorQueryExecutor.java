@@ -0,0 +1,91 @@
+package com.yego.contractortracker.repository;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+import org.springframework.stereotype.Repository;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Recorre resultados grandes con un cursor del servidor: la consulta corre en una conexión propia con
+ * autocommit desactivado y exports.fetch-size, así el driver de PostgreSQL trae las filas por tandas y la
+ * memoria no depende del tamaño del resultado. Pensado para exportaciones; la conexión queda ocupada
+ * mientras dure el recorrido, incluido el tiempo que el handler tarde en escribir cada fila.
+ */
+@Repository
+public class CursorQueryExecutor {
+    
+    private static final Logger logger = LoggerFactory.getLogger(CursorQueryExecutor.class);
+    
+    @Autowired
+    private DataSource dataSource;
+    
+    @Value("${exports.fetch-size:2000}")
+    private int fetchSize;
+    
+    @Value("${exports.chunk-size:500}")
+    private int tamanoBloque;
+    
+    /**
+     * @return número de filas recorridas
+     */
+    public long recorrer(String nombreConsulta, String sql, RowCallbackHandler handler, Object... args) {
+        long inicio = System.currentTimeMillis();
+        long[] filas = {0};
+        
+        try (Connection conexion = dataSource.getConnection()) {
+            boolean autoCommitOriginal = conexion.getAutoCommit();
+            conexion.setAutoCommit(false);
+            try {
+                JdbcTemplate plantilla = new JdbcTemplate(new SingleConnectionDataSource(conexion, true));
+                plantilla.setFetchSize(fetchSize);
+                plantilla.query(sql, rs -> {
+                    filas[0]++;
+                    handler.processRow(rs);
+                }, args);
+            } finally {
+                // Solo lectura: se descarta la transacción que abrió el cursor
+                conexion.rollback();
+                conexion.setAutoCommit(autoCommitOriginal);
+            }
+        } catch (SQLException e) {
+            throw new DataAccessResourceFailureException("Error de conexión en consulta por cursor '" + nombreConsulta + "'", e);
+        }
+        
+        logger.info("Consulta por cursor '{}' recorrida: {} filas en {} ms", nombreConsulta, filas[0], System.currentTimeMillis() - inicio);
+        return filas[0];
+    }
+    
+    /**
+     * Recorre el resultado mapeando cada fila y entrega bloques de hasta exports.chunk-size elementos,
+     * para enriquecer por lotes (una consulta por bloque) sin acumular el resultado completo.
+     */
+    public <T> long recorrerEnBloques(String nombreConsulta, String sql, RowMapper<T> rowMapper,
+                                      Consumer<List<T>> procesarBloque, Object... args) {
+        int tamano = Math.max(1, tamanoBloque);
+        List<T> bloque = new ArrayList<>(tamano);
+        long filas = recorrer(nombreConsulta, sql, rs -> {
+            bloque.add(rowMapper.mapRow(rs, bloque.size()));
+            if (bloque.size() >= tamano) {
+                procesarBloque.accept(bloque);
+                bloque.clear();
+            }
+        }, args);
+        if (!bloque.isEmpty()) {
+            procesarBloque.accept(bloque);
+        }
+        return filas;
+    }
+}
@@ -0,0 +1,99 @@
+package com.yego.contractortracker.repository;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+@Repository
+public class DriverActivityQueryRepository {
+    
+    private static final int DRIVERS_POR_CONSULTA = 1000;
+    
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    
+    public static class VentanaDriver {
+        private final String driverId;
+        private final LocalDate desde;
+        private final LocalDate hasta;
+        
+        public VentanaDriver(String driverId, LocalDate desde, LocalDate hasta) {
+            this.driverId = driverId;
+            this.desde = desde;
+            this.hasta = hasta;
+        }
+        
+        public String getDriverId() { return driverId; }
+        public LocalDate getDesde() { return desde; }
+        public LocalDate getHasta() { return hasta; }
+    }
+    
+    /**
+     * Calcula, para cada driver, la primera fecha dentro de su ventana [desde, hasta] en la que
+     * el acumulado de viajes alcanza cada umbral. Se resuelve con una consulta por cada bloque de
+     * drivers en lugar de una consulta por driver.
+     *
+     * @return driverId -> (umbral -> fecha). Los umbrales no alcanzados no aparecen en el mapa.
+     */
+    public Map<String, Map<Integer, LocalDate>> obtenerFechasUmbralViajes(List<VentanaDriver> ventanas, Collection<Integer> umbrales) {
+        Map<String, Map<Integer, LocalDate>> resultado = new HashMap<>();
+        if (ventanas == null || ventanas.isEmpty() || umbrales == null || umbrales.isEmpty()) {
+            return resultado;
+        }
+        
+        for (int i = 0; i < ventanas.size(); i += DRIVERS_POR_CONSULTA) {
+            List<VentanaDriver> bloque = ventanas.subList(i, Math.min(i + DRIVERS_POR_CONSULTA, ventanas.size()));
+            consultarBloqueUmbrales(bloque, umbrales, resultado);
+        }
+        
+        return resultado;
+    }
+    
+    private void consultarBloqueUmbrales(List<VentanaDriver> bloque, Collection<Integer> umbrales, Map<String, Map<Integer, LocalDate>> resultado) {
+        String valoresVentanas = bloque.stream().map(v -> "(?, ?::date, ?::date)").collect(Collectors.joining(","));
+        String valoresUmbrales = umbrales.stream().map(u -> "(?::integer)").collect(Collectors.joining(","));
+        
+        String sql = "WITH ventanas (driver_id, desde, hasta) AS (VALUES " + valoresVentanas + "), " +
+                "umbrales (umbral) AS (VALUES " + valoresUmbrales + "), " +
+                "acumulado AS ( " +
+                "  SELECT v.driver_id, da.activity_date, " +
+                "    SUM(da.orders_completed) OVER ( " +
+                "      PARTITION BY v.driver_id ORDER BY da.activity_date " +
+                "      ROWS BETWEEN UNBOUNDED PRECEDING AND CURRENT ROW " +
+                "    ) as viajes_acumulados " +
+                "  FROM ventanas v " +
+                "  INNER JOIN driver_daily_activity da ON da.driver_id = v.driver_id " +
+                "    AND da.activity_date >= v.desde " +
+                "    AND da.activity_date <= v.hasta " +
+                "  WHERE COALESCE(da.orders_completed, 0) > 0 " +
+                ") " +
+                "SELECT a.driver_id, u.umbral, MIN(a.activity_date) as fecha " +
+                "FROM acumulado a " +
+                "INNER JOIN umbrales u ON a.viajes_acumulados >= u.umbral " +
+                "GROUP BY a.driver_id, u.umbral";
+        
+        List<Object> params = new ArrayList<>();
+        for (VentanaDriver ventana : bloque) {
+            params.add(ventana.getDriverId());
+            params.add(ventana.getDesde());
+            params.add(ventana.getHasta());
+        }
+        params.addAll(umbrales);
+        
+        jdbcTemplate.query(sql, rs -> {
+            java.sql.Date fecha = rs.getDate("fecha");
+            if (fecha != null) {
+                resultado.computeIfAbsent(rs.getString("driver_id"), k -> new HashMap<>())
+                        .put(rs.getInt("umbral"), fecha.toLocalDate());
+            }
+        }, params.toArray());
+    }
+}
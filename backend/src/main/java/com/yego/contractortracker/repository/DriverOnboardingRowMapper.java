@@ -0,0 +1,84 @@
+package com.yego.contractortracker.repository;
+
+import com.yego.contractortracker.dto.DriverOnboardingDTO;
+import com.yego.contractortracker.util.ResultSetUtil;
+import org.springframework.jdbc.core.RowMapper;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Set;
+
+/**
+ * Mapea las filas de las consultas de onboarding 14d directamente a DriverOnboardingDTO.
+ * Las consultas no devuelven todas las mismas columnas (las de conversión solo vienen de la tabla
+ * pre-calculada), así que las columnas presentes se leen una vez del primer ResultSet.
+ * Las métricas de conversión solo se leen si se pide en el constructor y la consulta las trae.
+ * Una instancia por consulta: no es thread-safe.
+ */
+public class DriverOnboardingRowMapper implements RowMapper<DriverOnboardingDTO> {
+    
+    private final boolean conMetricasConversion;
+    private Set<String> columnas;
+    
+    public DriverOnboardingRowMapper() {
+        this(false);
+    }
+    
+    public DriverOnboardingRowMapper(boolean conMetricasConversion) {
+        this.conMetricasConversion = conMetricasConversion;
+    }
+    
+    @Override
+    public DriverOnboardingDTO mapRow(ResultSet rs, int rowNum) throws SQLException {
+        if (columnas == null) {
+            columnas = ResultSetUtil.columnas(rs);
+        }
+        
+        DriverOnboardingDTO driver = new DriverOnboardingDTO();
+        driver.setDriverId(rs.getString("driver_id"));
+        driver.setParkId(rs.getString("park_id"));
+        driver.setFullName(rs.getString("full_name"));
+        driver.setPhone(rs.getString("phone"));
+        driver.setLicenseNumber(rs.getString("license_number"));
+        driver.setStartDate(ResultSetUtil.fecha(rs, "hire_date"));
+        
+        // Sin viajes cuenta como 0; sin tiempo de trabajo queda en null
+        driver.setTotalTrips14d(rs.getInt("total_trips_historical"));
+        driver.setSumWorkTimeSeconds(ResultSetUtil.largo(rs, "sum_work_time_seconds"));
+        driver.setHasHistoricalConnection(rs.getBoolean("has_historical_connection"));
+        
+        driver.setLeadCreatedAt(ResultSetUtil.fecha(rs, "lead_created_at"));
+        driver.setMatchScore(ResultSetUtil.decimal(rs, "match_score"));
+        driver.setMatchManual(ResultSetUtil.booleano(rs, "is_manual"));
+        
+        String scoutId = rs.getString("scout_id");
+        driver.setScoutId(scoutId);
+        driver.setHasScoutRegistration(scoutId != null);
+        driver.setScoutName(rs.getString("scout_name"));
+        driver.setScoutRegistrationDate(ResultSetUtil.fecha(rs, "scout_registration_date"));
+        driver.setScoutMatchScore(ResultSetUtil.decimal(rs, "scout_match_score"));
+        
+        if (columnas.contains("acquisition_channel")) {
+            driver.setChannel(rs.getString("acquisition_channel"));
+        }
+        
+        if (conMetricasConversion && columnas.contains("dias_activos")) {
+            driver.setPrimeraConexionDate(ResultSetUtil.fecha(rs, "primera_conexion_date"));
+            driver.setPrimerViajeDate(ResultSetUtil.fecha(rs, "primer_viaje_date"));
+            driver.setDiasActivos(ResultSetUtil.entero(rs, "dias_activos"));
+            driver.setDiasConectados(ResultSetUtil.entero(rs, "dias_conectados"));
+            driver.setDiasRegistroAConexion(ResultSetUtil.entero(rs, "dias_registro_a_conexion"));
+            driver.setDiasConexionAViaje(ResultSetUtil.entero(rs, "dias_conexion_a_viaje"));
+            driver.setDiasPrimerViajeA25Viajes(ResultSetUtil.entero(rs, "dias_primer_viaje_a_25_viajes"));
+            driver.setTasaConversionConexion(ResultSetUtil.decimal(rs, "tasa_conversion_conexion"));
+            driver.setTieneLead(ResultSetUtil.booleano(rs, "tiene_lead"));
+            driver.setTieneScout(ResultSetUtil.booleano(rs, "tiene_scout"));
+            driver.setMatchScoreBajo(ResultSetUtil.booleano(rs, "match_score_bajo"));
+            driver.setTieneInconsistencias(ResultSetUtil.booleano(rs, "tiene_inconsistencias"));
+        }
+        
+        driver.setDays(new ArrayList<>());
+        return driver;
+    }
+}
@@ -0,0 +1,120 @@
+package com.yego.contractortracker.repository;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.ColumnMapRowMapper;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementSetter;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.SqlTypeValue;
+import org.springframework.jdbc.core.StatementCreatorUtils;
+import org.springframework.stereotype.Repository;
+
+import java.sql.Array;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Consultas filtradas por un conjunto de ids (driver_id, scout_id...) que enlazan el conjunto como un único
+ * parámetro text[] ({@code columna = ANY(?)}) en lugar de una lista "?,?,?" del tamaño de la entrada.
+ * El texto SQL no depende del número de ids, así PostgreSQL puede preparar la sentencia y reutilizar el plan,
+ * y no hay límite de 32767 parámetros. Conjuntos mayores que queries.id-array.chunk-size se parten en bloques,
+ * por lo que la consulta debe devolver filas independientes por id (agrupar por id sí, agregar entre ids no).
+ *
+ * En los argumentos, {@link #IDS} marca cada posición donde va el arreglo de ids del bloque.
+ */
+@Repository
+public class IdArrayQueryExecutor {
+    
+    private static final Logger logger = LoggerFactory.getLogger(IdArrayQueryExecutor.class);
+    
+    public static final Object IDS = new Object() {
+        @Override
+        public String toString() {
+            return "IDS";
+        }
+    };
+    
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    
+    @Value("${queries.id-array.chunk-size:10000}")
+    private int chunkSize;
+    
+    public List<Map<String, Object>> queryForList(String sql, Collection<String> ids, Object... args) {
+        return query(sql, ids, new ColumnMapRowMapper(), args);
+    }
+    
+    public <T> List<T> query(String sql, Collection<String> ids, RowMapper<T> rowMapper, Object... args) {
+        List<T> resultado = new ArrayList<>();
+        for (List<String> bloque : partir(ids)) {
+            resultado.addAll(jdbcTemplate.query(sql, setter(bloque, args), rowMapper));
+        }
+        return resultado;
+    }
+    
+    /**
+     * Recorre las filas de todos los bloques con el handler, sin materializarlas en una lista.
+     */
+    public void query(String sql, Collection<String> ids, RowCallbackHandler handler, Object... args) {
+        for (List<String> bloque : partir(ids)) {
+            jdbcTemplate.query(sql, setter(bloque, args), handler);
+        }
+    }
+    
+    /**
+     * @return número total de filas afectadas en todos los bloques
+     */
+    public int update(String sql, Collection<String> ids, Object... args) {
+        int total = 0;
+        for (List<String> bloque : partir(ids)) {
+            total += jdbcTemplate.update(sql, setter(bloque, args));
+        }
+        return total;
+    }
+    
+    private List<List<String>> partir(Collection<String> ids) {
+        List<List<String>> bloques = new ArrayList<>();
+        if (ids == null || ids.isEmpty()) {
+            return bloques;
+        }
+        
+        List<String> unicos = new ArrayList<>(new LinkedHashSet<>(ids));
+        unicos.remove(null);
+        int tamanoBloque = Math.max(1, chunkSize);
+        for (int i = 0; i < unicos.size(); i += tamanoBloque) {
+            bloques.add(unicos.subList(i, Math.min(i + tamanoBloque, unicos.size())));
+        }
+        if (bloques.size() > 1) {
+            logger.debug("Consulta por ids partida en {} bloques de hasta {} ids ({} ids únicos)", bloques.size(), tamanoBloque, unicos.size());
+        }
+        return bloques;
+    }
+    
+    private PreparedStatementSetter setter(List<String> bloque, Object[] args) {
+        boolean tieneMarcador = false;
+        for (Object arg : args) {
+            tieneMarcador |= arg == IDS;
+        }
+        if (!tieneMarcador) {
+            throw new IllegalArgumentException("La consulta por ids necesita al menos un argumento IdArrayQueryExecutor.IDS");
+        }
+        
+        return ps -> {
+            Array arreglo = ps.getConnection().createArrayOf("text", bloque.toArray());
+            for (int i = 0; i < args.length; i++) {
+                if (args[i] == IDS) {
+                    ps.setArray(i + 1, arreglo);
+                } else {
+                    StatementCreatorUtils.setParameterValue(ps, i + 1, SqlTypeValue.TYPE_UNKNOWN, args[i]);
+                }
+            }
+        };
+    }
+}
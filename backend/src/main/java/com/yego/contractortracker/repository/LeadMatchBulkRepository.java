@@ -0,0 +1,180 @@
+package com.yego.contractortracker.repository;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.sql.Date;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Lectura paginada y escritura en batch de lead_matches para el reprocesamiento de leads,
+ * evitando cargar la tabla completa con JPA y un save por cada lead.
+ */
+@Repository
+public class LeadMatchBulkRepository {
+    
+    private static final int FILAS_POR_BATCH = 500;
+    
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    
+    /**
+     * Datos del lead necesarios para volver a hacer el matching.
+     */
+    public static class LeadPendiente {
+        private final Long id;
+        private final String externalId;
+        private final LocalDate leadCreatedAt;
+        private final String leadPhone;
+        private final String leadFirstName;
+        private final String leadLastName;
+        
+        public LeadPendiente(Long id, String externalId, LocalDate leadCreatedAt, String leadPhone, String leadFirstName, String leadLastName) {
+            this.id = id;
+            this.externalId = externalId;
+            this.leadCreatedAt = leadCreatedAt;
+            this.leadPhone = leadPhone;
+            this.leadFirstName = leadFirstName;
+            this.leadLastName = leadLastName;
+        }
+        
+        public Long getId() { return id; }
+        public String getExternalId() { return externalId; }
+        public LocalDate getLeadCreatedAt() { return leadCreatedAt; }
+        public String getLeadPhone() { return leadPhone; }
+        public String getLeadFirstName() { return leadFirstName; }
+        public String getLeadLastName() { return leadLastName; }
+    }
+    
+    /**
+     * Resultado del matching de un lead. Sin driverId el lead queda como sin match.
+     */
+    public static class ResultadoMatch {
+        private final Long id;
+        private final String driverId;
+        private final LocalDate hireDate;
+        private final Double matchScore;
+        
+        public ResultadoMatch(Long id, String driverId, LocalDate hireDate, Double matchScore) {
+            this.id = id;
+            this.driverId = driverId;
+            this.hireDate = hireDate;
+            this.matchScore = matchScore;
+        }
+    }
+    
+    public static class ResumenAlcance {
+        private final long total;
+        private final LocalDate minDate;
+        private final LocalDate maxDate;
+        
+        public ResumenAlcance(long total, LocalDate minDate, LocalDate maxDate) {
+            this.total = total;
+            this.minDate = minDate;
+            this.maxDate = maxDate;
+        }
+        
+        public long getTotal() { return total; }
+        public LocalDate getMinDate() { return minDate; }
+        public LocalDate getMaxDate() { return maxDate; }
+    }
+    
+    /**
+     * Condición SQL del alcance de reprocesamiento: all (no descartados), discarded, o unmatched (por defecto).
+     */
+    private String condicionAlcance(String scope) {
+        if ("all".equalsIgnoreCase(scope)) {
+            return "is_discarded = false";
+        }
+        if ("discarded".equalsIgnoreCase(scope)) {
+            return "is_discarded = true";
+        }
+        return "is_discarded = false AND (driver_id IS NULL OR driver_id = '')";
+    }
+    
+    public ResumenAlcance resumirAlcance(String scope) {
+        String sql = "SELECT COUNT(*) as total, MIN(lead_created_at) as min_date, MAX(lead_created_at) as max_date " +
+                     "FROM lead_matches WHERE " + condicionAlcance(scope);
+        
+        Map<String, Object> fila = jdbcTemplate.queryForMap(sql);
+        Date minDate = (Date) fila.get("min_date");
+        Date maxDate = (Date) fila.get("max_date");
+        return new ResumenAlcance(
+            ((Number) fila.get("total")).longValue(),
+            minDate != null ? minDate.toLocalDate() : null,
+            maxDate != null ? maxDate.toLocalDate() : null);
+    }
+    
+    /**
+     * Siguiente página del alcance en orden de id (keyset), a partir del id indicado (exclusivo).
+     */
+    public List<LeadPendiente> cargarPagina(String scope, long despuesDeId, int tamanoPagina) {
+        String sql = "SELECT id, external_id, lead_created_at, lead_phone, lead_first_name, lead_last_name " +
+                     "FROM lead_matches " +
+                     "WHERE " + condicionAlcance(scope) + " AND id > ? " +
+                     "ORDER BY id " +
+                     "LIMIT ?";
+        
+        return jdbcTemplate.query(sql, (rs, rowNum) -> {
+            Date leadCreatedAt = rs.getDate("lead_created_at");
+            return new LeadPendiente(
+                rs.getLong("id"),
+                rs.getString("external_id"),
+                leadCreatedAt != null ? leadCreatedAt.toLocalDate() : null,
+                rs.getString("lead_phone"),
+                rs.getString("lead_first_name"),
+                rs.getString("lead_last_name"));
+        }, despuesDeId, tamanoPagina);
+    }
+    
+    /**
+     * Escribe los resultados del matching en batches JDBC. Los leads con match actualizan driver, hire_date,
+     * score y matched_at; los que no tienen match quedan con driver_id vacío y score 0.
+     */
+    public int guardarResultados(List<ResultadoMatch> resultados) {
+        if (resultados.isEmpty()) {
+            return 0;
+        }
+        
+        String sql = "UPDATE lead_matches SET driver_id = ?, hire_date = COALESCE(?, hire_date), match_score = ?, " +
+                     "is_manual = false, is_discarded = false, matched_at = COALESCE(?, matched_at), last_updated = ? " +
+                     "WHERE id = ?";
+        
+        Timestamp ahora = Timestamp.valueOf(LocalDateTime.now());
+        List<Object[]> filas = new ArrayList<>(resultados.size());
+        for (ResultadoMatch resultado : resultados) {
+            boolean conMatch = resultado.driverId != null && !resultado.driverId.isEmpty();
+            filas.add(new Object[]{
+                conMatch ? resultado.driverId : "",
+                conMatch && resultado.hireDate != null ? Date.valueOf(resultado.hireDate) : null,
+                conMatch ? resultado.matchScore : 0.0,
+                conMatch ? ahora : null,
+                ahora,
+                resultado.id
+            });
+        }
+        
+        int[][] conteos = jdbcTemplate.batchUpdate(sql, filas, FILAS_POR_BATCH, (ps, fila) -> {
+            ps.setString(1, (String) fila[0]);
+            ps.setDate(2, (Date) fila[1]);
+            ps.setDouble(3, (Double) fila[2]);
+            ps.setTimestamp(4, (Timestamp) fila[3]);
+            ps.setTimestamp(5, (Timestamp) fila[4]);
+            ps.setLong(6, (Long) fila[5]);
+        });
+        
+        int actualizadas = 0;
+        for (int[] conteoBatch : conteos) {
+            for (int conteo : conteoBatch) {
+                actualizadas += Math.max(conteo, 0);
+            }
+        }
+        return actualizadas;
+    }
+}
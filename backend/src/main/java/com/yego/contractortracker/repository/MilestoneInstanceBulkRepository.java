@@ -0,0 +1,118 @@
+package com.yego.contractortracker.repository;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.yego.contractortracker.entity.MilestoneInstance;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Escritura masiva de milestone_instances con INSERT ... ON CONFLICT sobre el índice único
+ * idx_milestone_driver_type_period, enviada en batches JDBC en lugar de saveAll de JPA.
+ */
+@Repository
+public class MilestoneInstanceBulkRepository {
+    
+    private static final Logger logger = LoggerFactory.getLogger(MilestoneInstanceBulkRepository.class);
+    
+    // park_id no se toca en instancias existentes (igual que antes con JPA). last_updated solo avanza si cambia
+    // el contenido, así el re-matching incremental de Yango no vuelve a procesar instancias idénticas.
+    private static final String SQL_UPSERT =
+        "INSERT INTO milestone_instances (driver_id, park_id, milestone_type, period_days, fulfillment_date, " +
+        "calculation_date, trip_count, trip_details, last_updated) " +
+        "VALUES (?, ?, ?, ?, ?, ?, ?, ?::jsonb, ?) " +
+        "ON CONFLICT (driver_id, milestone_type, period_days) DO UPDATE SET " +
+        "fulfillment_date = EXCLUDED.fulfillment_date, " +
+        "calculation_date = EXCLUDED.calculation_date, " +
+        "trip_count = EXCLUDED.trip_count, " +
+        "trip_details = EXCLUDED.trip_details, " +
+        "last_updated = CASE WHEN (milestone_instances.fulfillment_date, milestone_instances.trip_count, milestone_instances.trip_details) " +
+        "IS DISTINCT FROM (EXCLUDED.fulfillment_date, EXCLUDED.trip_count, EXCLUDED.trip_details) " +
+        "THEN EXCLUDED.last_updated ELSE milestone_instances.last_updated END";
+    
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    
+    @Autowired
+    private ObjectMapper objectMapper;
+    
+    @Value("${milestones.bulk.batch-size:1000}")
+    private int batchSize;
+    
+    public int getBatchSize() {
+        return Math.max(1, batchSize);
+    }
+    
+    /**
+     * Inserta o actualiza las instancias en batches JDBC de milestones.bulk.batch-size sentencias.
+     * Cada batch se confirma por separado, así la conexión vuelve al pool entre batches.
+     *
+     * @return número de instancias insertadas o actualizadas
+     */
+    public int guardarInstancias(List<MilestoneInstance> instancias) {
+        if (instancias == null || instancias.isEmpty()) {
+            return 0;
+        }
+        
+        int tamanoBatch = getBatchSize();
+        int totalEscritas = 0;
+        Timestamp ahora = Timestamp.valueOf(LocalDateTime.now());
+        
+        for (int i = 0; i < instancias.size(); i += tamanoBatch) {
+            List<MilestoneInstance> batch = instancias.subList(i, Math.min(i + tamanoBatch, instancias.size()));
+            long inicio = System.currentTimeMillis();
+            
+            int[][] conteos = jdbcTemplate.batchUpdate(SQL_UPSERT, batch, batch.size(), (ps, instancia) -> {
+                LocalDateTime calculationDate = instancia.getCalculationDate();
+                ps.setString(1, instancia.getDriverId());
+                ps.setString(2, instancia.getParkId());
+                ps.setInt(3, instancia.getMilestoneType());
+                ps.setInt(4, instancia.getPeriodDays());
+                ps.setTimestamp(5, Timestamp.valueOf(instancia.getFulfillmentDate()));
+                ps.setTimestamp(6, calculationDate != null ? Timestamp.valueOf(calculationDate) : ahora);
+                ps.setInt(7, instancia.getTripCount() != null ? instancia.getTripCount() : 0);
+                String tripDetails = serializarTripDetails(instancia);
+                if (tripDetails != null) {
+                    ps.setString(8, tripDetails);
+                } else {
+                    ps.setNull(8, Types.VARCHAR);
+                }
+                ps.setTimestamp(9, ahora);
+            });
+            
+            int escritasBatch = 0;
+            for (int[] conteoBatch : conteos) {
+                for (int conteo : conteoBatch) {
+                    // El driver puede devolver SUCCESS_NO_INFO (-2) en batches; cuenta como fila escrita
+                    escritasBatch += conteo == java.sql.Statement.SUCCESS_NO_INFO ? 1 : Math.max(conteo, 0);
+                }
+            }
+            totalEscritas += escritasBatch;
+            
+            logger.debug("Batch de milestone_instances escrito: {} filas en {} ms ({}/{})",
+                escritasBatch, System.currentTimeMillis() - inicio, Math.min(i + tamanoBatch, instancias.size()), instancias.size());
+        }
+        
+        return totalEscritas;
+    }
+    
+    private String serializarTripDetails(MilestoneInstance instancia) {
+        if (instancia.getTripDetails() == null) {
+            return null;
+        }
+        try {
+            return objectMapper.writeValueAsString(instancia.getTripDetails());
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("trip_details no serializable para driver " + instancia.getDriverId(), e);
+        }
+    }
+}
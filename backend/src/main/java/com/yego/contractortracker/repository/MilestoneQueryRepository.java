@@ -4,7 +4,9 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Repository;
 
+import java.sql.Timestamp;
 import java.time.LocalDate;
+import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
@@ -16,12 +18,21 @@ public class MilestoneQueryRepository {
     private JdbcTemplate jdbcTemplate;
     
     public List<Map<String, Object>> obtenerDriversConViajesPorPeriodo(String parkId, int periodDays, LocalDate hireDateFrom, LocalDate hireDateTo) {
+        return obtenerDriversConViajesPorPeriodo(parkId, periodDays, hireDateFrom, hireDateTo, null);
+    }
+    
+    /**
+     * @param cambiosDesde si se informa, solo devuelve drivers cuya ventana [hire_date, hire_date + periodDays]
+     *                     sigue abierta o que tienen actividad dentro de la ventana modificada después de esa fecha;
+     *                     para el resto el resultado no puede haber cambiado desde el último cálculo
+     */
+    public List<Map<String, Object>> obtenerDriversConViajesPorPeriodo(String parkId, int periodDays, LocalDate hireDateFrom, LocalDate hireDateTo, LocalDateTime cambiosDesde) {
         List<Object> params = new ArrayList<>();
         
         String sql = "SELECT d.driver_id, d.park_id, d.hire_date, " +
-                "  SUM(COALESCE(sd.count_orders_completed, 0)) as total_viajes " +
+                "  SUM(COALESCE(da.orders_completed, 0)) as total_viajes " +
                 "FROM drivers d " +
-                "INNER JOIN summary_daily sd ON sd.driver_id = d.driver_id " +
+                "INNER JOIN driver_daily_activity da ON da.driver_id = d.driver_id " +
                 "WHERE d.park_id = ? ";
         params.add(parkId);
         
@@ -35,10 +46,20 @@ public class MilestoneQueryRepository {
             params.add(hireDateTo);
         }
         
-        sql += "  AND TO_DATE(sd.date_file, 'DD-MM-YYYY') >= d.hire_date::DATE " +
-                "  AND TO_DATE(sd.date_file, 'DD-MM-YYYY') <= (d.hire_date::DATE + INTERVAL '" + periodDays + " day') " +
+        if (cambiosDesde != null) {
+            sql += "  AND (d.hire_date::DATE >= CURRENT_DATE - " + periodDays + " " +
+                   "       OR EXISTS (SELECT 1 FROM driver_daily_activity cambio " +
+                   "                  WHERE cambio.driver_id = d.driver_id " +
+                   "                    AND cambio.last_updated > ? " +
+                   "                    AND cambio.activity_date >= d.hire_date::DATE " +
+                   "                    AND cambio.activity_date <= (d.hire_date::DATE + INTERVAL '" + periodDays + " day'))) ";
+            params.add(Timestamp.valueOf(cambiosDesde));
+        }
+        
+        sql += "  AND da.activity_date >= d.hire_date::DATE " +
+                "  AND da.activity_date <= (d.hire_date::DATE + INTERVAL '" + periodDays + " day') " +
                 "GROUP BY d.driver_id, d.park_id, d.hire_date " +
-                "HAVING SUM(COALESCE(sd.count_orders_completed, 0)) >= 1 " +
+                "HAVING SUM(COALESCE(da.orders_completed, 0)) >= 1 " +
                 "ORDER BY total_viajes DESC, d.hire_date DESC, d.driver_id";
         
         return jdbcTemplate.queryForList(sql, params.toArray());
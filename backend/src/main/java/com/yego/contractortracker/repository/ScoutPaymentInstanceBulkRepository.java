@@ -0,0 +1,80 @@
+package com.yego.contractortracker.repository;
+
+import com.yego.contractortracker.entity.ScoutPaymentInstance;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.sql.Date;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Inserción masiva de scout_payment_instances en batches JDBC. Con id IDENTITY, saveAll de JPA hace un
+ * INSERT por instancia; aquí se envían scouts.payment-instances.batch-size inserts por viaje.
+ * Las instancias no reciben el id generado.
+ */
+@Repository
+public class ScoutPaymentInstanceBulkRepository {
+    
+    private static final Logger logger = LoggerFactory.getLogger(ScoutPaymentInstanceBulkRepository.class);
+    
+    private static final String SQL_INSERT =
+        "INSERT INTO scout_payment_instances (scout_id, driver_id, milestone_type, milestone_instance_id, amount, " +
+        "registration_date, milestone_fulfillment_date, eligibility_verified, eligibility_reason, status, " +
+        "created_at, last_updated) " +
+        "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+    
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    
+    @Value("${scouts.payment-instances.batch-size:500}")
+    private int batchSize;
+    
+    /**
+     * @return número de instancias insertadas
+     */
+    public int insertarInstancias(List<ScoutPaymentInstance> instancias) {
+        if (instancias == null || instancias.isEmpty()) {
+            return 0;
+        }
+        
+        long inicio = System.currentTimeMillis();
+        Timestamp ahora = Timestamp.valueOf(LocalDateTime.now());
+        
+        int[][] conteos = jdbcTemplate.batchUpdate(SQL_INSERT, instancias, Math.max(1, batchSize), (ps, instancia) -> {
+            ps.setString(1, instancia.getScoutId());
+            ps.setString(2, instancia.getDriverId());
+            ps.setInt(3, instancia.getMilestoneType());
+            if (instancia.getMilestoneInstanceId() != null) {
+                ps.setLong(4, instancia.getMilestoneInstanceId());
+            } else {
+                ps.setNull(4, Types.BIGINT);
+            }
+            ps.setBigDecimal(5, instancia.getAmount());
+            ps.setDate(6, Date.valueOf(instancia.getRegistrationDate()));
+            ps.setTimestamp(7, Timestamp.valueOf(instancia.getMilestoneFulfillmentDate()));
+            ps.setBoolean(8, Boolean.TRUE.equals(instancia.getEligibilityVerified()));
+            ps.setString(9, instancia.getEligibilityReason());
+            ps.setString(10, instancia.getStatus());
+            ps.setTimestamp(11, instancia.getCreatedAt() != null ? Timestamp.valueOf(instancia.getCreatedAt()) : ahora);
+            ps.setTimestamp(12, ahora);
+        });
+        
+        int insertadas = 0;
+        for (int[] conteoBatch : conteos) {
+            for (int conteo : conteoBatch) {
+                // El driver puede devolver SUCCESS_NO_INFO (-2) en batches; cuenta como fila escrita
+                insertadas += conteo == java.sql.Statement.SUCCESS_NO_INFO ? 1 : Math.max(conteo, 0);
+            }
+        }
+        
+        logger.debug("Instancias de pago de scouts insertadas: {} en {} ms", insertadas, System.currentTimeMillis() - inicio);
+        return insertadas;
+    }
+}
@@ -0,0 +1,162 @@
+package com.yego.contractortracker.repository;
+
+import com.yego.contractortracker.entity.ScoutRegistration;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.SqlTypeValue;
+import org.springframework.jdbc.core.StatementCreatorUtils;
+import org.springframework.stereotype.Repository;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Lectura y escritura masiva de scout_registrations para la carga de archivos de scouts,
+ * evitando una consulta y un save de JPA por cada fila del CSV.
+ */
+@Repository
+public class ScoutRegistrationBulkRepository {
+    
+    private static final int PARES_POR_CONSULTA = 1000;
+    private static final int FILAS_POR_BATCH = 500;
+    
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    
+    /**
+     * Carga con una consulta por bloque todos los registros existentes cuyos (scout_id, registration_date)
+     * aparecen en la colección recibida.
+     */
+    public List<ScoutRegistration> buscarPorScoutYFecha(Collection<ScoutRegistration> registros) {
+        Set<List<Object>> pares = new LinkedHashSet<>();
+        for (ScoutRegistration registro : registros) {
+            if (registro.getScoutId() != null && registro.getRegistrationDate() != null) {
+                pares.add(List.of(registro.getScoutId(), registro.getRegistrationDate()));
+            }
+        }
+        
+        List<ScoutRegistration> existentes = new ArrayList<>();
+        List<List<Object>> listaPares = new ArrayList<>(pares);
+        for (int i = 0; i < listaPares.size(); i += PARES_POR_CONSULTA) {
+            List<List<Object>> bloque = listaPares.subList(i, Math.min(i + PARES_POR_CONSULTA, listaPares.size()));
+            
+            String valores = bloque.stream().map(p -> "(?, ?::date)").collect(Collectors.joining(","));
+            String sql = "SELECT sr.id, sr.scout_id, sr.registration_date, sr.driver_license, sr.driver_name, " +
+                         "sr.driver_phone, sr.acquisition_medium, sr.driver_id, sr.match_score, sr.is_matched, " +
+                         "sr.created_at, sr.last_updated " +
+                         "FROM scout_registrations sr " +
+                         "INNER JOIN (VALUES " + valores + ") v(scout_id, registration_date) " +
+                         "  ON sr.scout_id = v.scout_id AND sr.registration_date = v.registration_date " +
+                         "ORDER BY sr.id";
+            
+            List<Object> params = new ArrayList<>();
+            for (List<Object> par : bloque) {
+                params.addAll(par);
+            }
+            
+            existentes.addAll(jdbcTemplate.query(sql, (rs, rowNum) -> mapearRegistro(rs), params.toArray()));
+        }
+        
+        return existentes;
+    }
+    
+    /**
+     * Inserta los registros nuevos (sin id) y actualiza los existentes en batches JDBC.
+     * A los registros insertados se les asigna el id generado.
+     */
+    public void guardarRegistros(List<ScoutRegistration> registros) {
+        LocalDateTime ahora = LocalDateTime.now();
+        List<ScoutRegistration> nuevos = new ArrayList<>();
+        List<Object[]> actualizaciones = new ArrayList<>();
+        
+        for (ScoutRegistration registro : registros) {
+            registro.setLastUpdated(ahora);
+            if (registro.getCreatedAt() == null) {
+                registro.setCreatedAt(ahora);
+            }
+            
+            if (registro.getId() == null) {
+                nuevos.add(registro);
+            } else {
+                actualizaciones.add(new Object[]{
+                    registro.getDriverLicense(), registro.getAcquisitionMedium(), registro.getDriverId(),
+                    registro.getMatchScore(), Boolean.TRUE.equals(registro.getIsMatched()),
+                    registro.getLastUpdated(), registro.getId()
+                });
+            }
+        }
+        
+        if (!actualizaciones.isEmpty()) {
+            jdbcTemplate.batchUpdate(
+                "UPDATE scout_registrations SET driver_license = ?, acquisition_medium = ?, driver_id = ?, " +
+                "match_score = ?, is_matched = ?, last_updated = ? WHERE id = ?",
+                actualizaciones);
+        }
+        
+        for (int i = 0; i < nuevos.size(); i += FILAS_POR_BATCH) {
+            insertarBloque(nuevos.subList(i, Math.min(i + FILAS_POR_BATCH, nuevos.size())));
+        }
+    }
+    
+    private void insertarBloque(List<ScoutRegistration> bloque) {
+        String sql = "INSERT INTO scout_registrations (scout_id, registration_date, driver_license, driver_name, " +
+                     "driver_phone, acquisition_medium, driver_id, match_score, is_matched, created_at, last_updated) " +
+                     "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+        
+        jdbcTemplate.execute((ConnectionCallback<Void>) con -> {
+            try (PreparedStatement ps = con.prepareStatement(sql, new String[]{"id"})) {
+                for (ScoutRegistration r : bloque) {
+                    Object[] valores = {
+                        r.getScoutId(), r.getRegistrationDate(), r.getDriverLicense(), r.getDriverName(),
+                        r.getDriverPhone(), r.getAcquisitionMedium(), r.getDriverId(), r.getMatchScore(),
+                        Boolean.TRUE.equals(r.getIsMatched()), r.getCreatedAt(), r.getLastUpdated()
+                    };
+                    for (int i = 0; i < valores.length; i++) {
+                        StatementCreatorUtils.setParameterValue(ps, i + 1, SqlTypeValue.TYPE_UNKNOWN, valores[i]);
+                    }
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+                
+                try (ResultSet keys = ps.getGeneratedKeys()) {
+                    int i = 0;
+                    while (keys.next() && i < bloque.size()) {
+                        bloque.get(i++).setId(keys.getLong(1));
+                    }
+                }
+            }
+            return null;
+        });
+    }
+    
+    private ScoutRegistration mapearRegistro(ResultSet rs) throws SQLException {
+        ScoutRegistration registro = new ScoutRegistration();
+        registro.setId(rs.getLong("id"));
+        registro.setScoutId(rs.getString("scout_id"));
+        java.sql.Date fecha = rs.getDate("registration_date");
+        registro.setRegistrationDate(fecha != null ? fecha.toLocalDate() : null);
+        registro.setDriverLicense(rs.getString("driver_license"));
+        registro.setDriverName(rs.getString("driver_name"));
+        registro.setDriverPhone(rs.getString("driver_phone"));
+        registro.setAcquisitionMedium(rs.getString("acquisition_medium"));
+        registro.setDriverId(rs.getString("driver_id"));
+        double matchScore = rs.getDouble("match_score");
+        registro.setMatchScore(rs.wasNull() ? null : matchScore);
+        registro.setIsMatched(rs.getBoolean("is_matched"));
+        Timestamp createdAt = rs.getTimestamp("created_at");
+        registro.setCreatedAt(createdAt != null ? createdAt.toLocalDateTime() : null);
+        Timestamp lastUpdated = rs.getTimestamp("last_updated");
+        registro.setLastUpdated(lastUpdated != null ? lastUpdated.toLocalDateTime() : null);
+        return registro;
+    }
+}
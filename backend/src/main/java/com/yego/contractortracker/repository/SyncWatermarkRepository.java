@@ -0,0 +1,39 @@
+package com.yego.contractortracker.repository;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Marcas de agua de los procesos incrementales (sync_watermarks), una fila por proceso.
+ */
+@Repository
+public class SyncWatermarkRepository {
+    
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    
+    /**
+     * @return la marca de agua guardada, o null si el proceso nunca terminó una ejecución
+     */
+    public LocalDateTime obtener(String syncName) {
+        List<Timestamp> rows = jdbcTemplate.queryForList(
+            "SELECT watermark FROM sync_watermarks WHERE sync_name = ?", Timestamp.class, syncName);
+        if (rows.isEmpty() || rows.get(0) == null) {
+            return null;
+        }
+        return rows.get(0).toLocalDateTime();
+    }
+    
+    public void guardar(String syncName, LocalDateTime watermark, long filasAfectadas) {
+        jdbcTemplate.update(
+            "INSERT INTO sync_watermarks (sync_name, watermark, rows_affected, last_run) VALUES (?, ?, ?, CURRENT_TIMESTAMP) " +
+            "ON CONFLICT (sync_name) DO UPDATE SET watermark = EXCLUDED.watermark, " +
+            "rows_affected = EXCLUDED.rows_affected, last_run = EXCLUDED.last_run",
+            syncName, Timestamp.valueOf(watermark), filasAfectadas);
+    }
+}
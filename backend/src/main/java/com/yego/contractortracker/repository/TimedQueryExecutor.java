@@ -0,0 +1,138 @@
+package com.yego.contractortracker.repository;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.stereotype.Repository;
+
+import javax.sql.DataSource;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Ejecuta consultas con un timeout propio por llamada sin tocar el JdbcTemplate compartido.
+ * Cada timeout usa su propia instancia de JdbcTemplate (configurada una sola vez), así que llamadas
+ * concurrentes con timeouts distintos no se pisan. Al vencer el timeout el driver cancela la sentencia
+ * en PostgreSQL y se registra qué consulta lógica fue la que expiró.
+ *
+ * Las plantillas usan queries.fetch-size: dentro de una transacción el driver trae las filas por tandas
+ * en lugar de cargar el resultado completo.
+ */
+@Repository
+public class TimedQueryExecutor {
+    
+    private static final Logger logger = LoggerFactory.getLogger(TimedQueryExecutor.class);
+    private static final String SQLSTATE_QUERY_CANCELED = "57014";
+    
+    @Autowired
+    private DataSource dataSource;
+    
+    @Value("${queries.fetch-size:1000}")
+    private int fetchSize;
+    
+    private final Map<Integer, JdbcTemplate> plantillasPorTimeout = new ConcurrentHashMap<>();
+    private final Map<String, RegistroTimeout> timeoutsPorConsulta = new ConcurrentHashMap<>();
+    
+    public static class RegistroTimeout {
+        private final AtomicLong cantidad = new AtomicLong();
+        private volatile int timeoutSegundos;
+        private volatile LocalDateTime ultimoTimeout;
+        
+        public long getCantidad() { return cantidad.get(); }
+        public int getTimeoutSegundos() { return timeoutSegundos; }
+        public LocalDateTime getUltimoTimeout() { return ultimoTimeout; }
+    }
+    
+    /**
+     * Ejecuta la acción sobre un JdbcTemplate cuyo timeout por sentencia es timeoutSegundos.
+     * Si la consulta expira se lanza QueryTimeoutException con el nombre de la consulta en el mensaje.
+     *
+     * @param nombreConsulta nombre lógico de la consulta, usado en logs y en el registro de timeouts
+     */
+    public <T> T ejecutar(String nombreConsulta, int timeoutSegundos, Function<JdbcTemplate, T> accion) {
+        JdbcTemplate plantilla = plantillasPorTimeout.computeIfAbsent(timeoutSegundos, timeout -> {
+            JdbcTemplate nueva = new JdbcTemplate(dataSource);
+            nueva.setQueryTimeout(timeout);
+            nueva.setFetchSize(fetchSize);
+            return nueva;
+        });
+        
+        try {
+            return accion.apply(plantilla);
+        } catch (RuntimeException e) {
+            if (esTimeout(e)) {
+                registrarTimeout(nombreConsulta, timeoutSegundos);
+                throw new QueryTimeoutException(
+                    "Timeout de " + timeoutSegundos + " s en consulta '" + nombreConsulta + "'", e);
+            }
+            throw e;
+        }
+    }
+    
+    public List<Map<String, Object>> queryForList(String nombreConsulta, int timeoutSegundos, String sql, Object... args) {
+        return ejecutar(nombreConsulta, timeoutSegundos, jdbc -> jdbc.queryForList(sql, args));
+    }
+    
+    public <T> List<T> query(String nombreConsulta, int timeoutSegundos, String sql, RowMapper<T> rowMapper, Object... args) {
+        return ejecutar(nombreConsulta, timeoutSegundos, jdbc -> jdbc.query(sql, rowMapper, args));
+    }
+    
+    /**
+     * Recorre el resultado fila a fila con el handler, sin materializar una lista intermedia.
+     */
+    public void query(String nombreConsulta, int timeoutSegundos, String sql, RowCallbackHandler handler, Object... args) {
+        ejecutar(nombreConsulta, timeoutSegundos, jdbc -> {
+            jdbc.query(sql, handler, args);
+            return null;
+        });
+    }
+    
+    public void execute(String nombreConsulta, int timeoutSegundos, String sql) {
+        ejecutar(nombreConsulta, timeoutSegundos, jdbc -> {
+            jdbc.execute(sql);
+            return null;
+        });
+    }
+    
+    public Map<String, RegistroTimeout> obtenerTimeoutsRegistrados() {
+        return new LinkedHashMap<>(timeoutsPorConsulta);
+    }
+    
+    private void registrarTimeout(String nombreConsulta, int timeoutSegundos) {
+        RegistroTimeout registro = timeoutsPorConsulta.computeIfAbsent(nombreConsulta, k -> new RegistroTimeout());
+        registro.cantidad.incrementAndGet();
+        registro.timeoutSegundos = timeoutSegundos;
+        registro.ultimoTimeout = LocalDateTime.now();
+        logger.warn("Consulta '{}' cancelada por timeout ({} s). Timeouts acumulados para esta consulta: {}", 
+            nombreConsulta, timeoutSegundos, registro.cantidad.get());
+    }
+    
+    private boolean esTimeout(Throwable e) {
+        if (e instanceof QueryTimeoutException) {
+            return true;
+        }
+        for (Throwable causa = e; causa != null; causa = causa.getCause()) {
+            if (causa instanceof java.sql.SQLTimeoutException) {
+                return true;
+            }
+            if (causa instanceof SQLException && SQLSTATE_QUERY_CANCELED.equals(((SQLException) causa).getSQLState())) {
+                return true;
+            }
+            if (causa.getCause() == causa) {
+                break;
+            }
+        }
+        return false;
+    }
+}
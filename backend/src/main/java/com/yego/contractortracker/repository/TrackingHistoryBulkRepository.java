@@ -0,0 +1,162 @@
+package com.yego.contractortracker.repository;
+
+import com.yego.contractortracker.entity.ContractorTrackingHistory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.IntConsumer;
+
+/**
+ * Escritura masiva de snapshots de contractor_tracking_history con INSERT multi-fila
+ * ... ON CONFLICT (driver_id, calculation_date), evitando un flush de Hibernate por fila.
+ */
+@Repository
+public class TrackingHistoryBulkRepository {
+    
+    private static final Logger logger = LoggerFactory.getLogger(TrackingHistoryBulkRepository.class);
+    
+    private static final String[] COLUMNAS = {
+        "driver_id", "park_id", "calculation_date", "total_trips_historical", "sum_work_time_seconds",
+        "has_historical_connection", "status_registered", "status_connected", "status_with_trips",
+        "last_updated", "acquisition_channel", "primera_conexion_date", "primer_viaje_date",
+        "dias_activos", "dias_conectados", "dias_registro_a_conexion", "dias_conexion_a_viaje",
+        "dias_primer_viaje_a_25_viajes", "tasa_conversion_conexion", "tiene_lead", "tiene_scout",
+        "match_score_bajo", "tiene_inconsistencias"
+    };
+    
+    // PostgreSQL admite como máximo 65535 parámetros por sentencia
+    private static final int MAX_FILAS_POR_SENTENCIA = 65535 / COLUMNAS.length;
+    
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    
+    @Autowired
+    private IdArrayQueryExecutor idArrayQueryExecutor;
+    
+    @Value("${tracking.history.bulk-chunk-size:500}")
+    private int chunkSize;
+    
+    public int guardarSnapshots(List<ContractorTrackingHistory> snapshots) {
+        return guardarSnapshots(snapshots, null);
+    }
+    
+    /**
+     * Inserta o actualiza los snapshots en bloques de tracking.history.bulk-chunk-size filas.
+     * Cada bloque es una sentencia independiente, así la conexión vuelve al pool entre bloques.
+     *
+     * @param progreso opcional, recibe el número acumulado de filas escritas tras cada bloque
+     * @return número total de filas insertadas o actualizadas
+     */
+    public int guardarSnapshots(List<ContractorTrackingHistory> snapshots, IntConsumer progreso) {
+        if (snapshots == null || snapshots.isEmpty()) {
+            return 0;
+        }
+        
+        int tamanoBloque = Math.max(1, Math.min(chunkSize, MAX_FILAS_POR_SENTENCIA));
+        int totalEscritas = 0;
+        
+        for (int i = 0; i < snapshots.size(); i += tamanoBloque) {
+            List<ContractorTrackingHistory> bloque = snapshots.subList(i, Math.min(i + tamanoBloque, snapshots.size()));
+            totalEscritas += guardarBloque(bloque);
+            
+            logger.debug("Snapshots de tracking escritos: {}/{}", Math.min(i + tamanoBloque, snapshots.size()), snapshots.size());
+            if (progreso != null) {
+                progreso.accept(totalEscritas);
+            }
+        }
+        
+        return totalEscritas;
+    }
+    
+    private int guardarBloque(List<ContractorTrackingHistory> bloque) {
+        String filaPlaceholders = "(" + String.join(", ", Collections.nCopies(COLUMNAS.length, "?")) + ")";
+        
+        StringBuilder sql = new StringBuilder();
+        sql.append("INSERT INTO contractor_tracking_history (").append(String.join(", ", COLUMNAS)).append(") VALUES ");
+        sql.append(String.join(", ", Collections.nCopies(bloque.size(), filaPlaceholders)));
+        sql.append(" ON CONFLICT (driver_id, calculation_date) DO UPDATE SET ");
+        
+        List<String> asignaciones = new ArrayList<>();
+        for (String columna : COLUMNAS) {
+            if (!columna.equals("driver_id") && !columna.equals("calculation_date")) {
+                asignaciones.add(columna + " = EXCLUDED." + columna);
+            }
+        }
+        sql.append(String.join(", ", asignaciones));
+        
+        LocalDateTime ahora = LocalDateTime.now();
+        List<Object> params = new ArrayList<>(bloque.size() * COLUMNAS.length);
+        for (ContractorTrackingHistory history : bloque) {
+            params.add(history.getDriverId());
+            params.add(history.getParkId());
+            params.add(history.getCalculationDate() != null ? history.getCalculationDate() : ahora);
+            params.add(history.getTotalTripsHistorical() != null ? history.getTotalTripsHistorical() : 0);
+            params.add(history.getSumWorkTimeSeconds());
+            params.add(Boolean.TRUE.equals(history.getHasHistoricalConnection()));
+            params.add(Boolean.TRUE.equals(history.getStatusRegistered()));
+            params.add(Boolean.TRUE.equals(history.getStatusConnected()));
+            params.add(Boolean.TRUE.equals(history.getStatusWithTrips()));
+            params.add(ahora);
+            params.add(history.getAcquisitionChannel());
+            params.add(history.getPrimeraConexionDate());
+            params.add(history.getPrimerViajeDate());
+            params.add(history.getDiasActivos());
+            params.add(history.getDiasConectados());
+            params.add(history.getDiasRegistroAConexion());
+            params.add(history.getDiasConexionAViaje());
+            params.add(history.getDiasPrimerViajeA25Viajes());
+            params.add(history.getTasaConversionConexion());
+            params.add(history.getTieneLead());
+            params.add(history.getTieneScout());
+            params.add(history.getMatchScoreBajo());
+            params.add(history.getTieneInconsistencias());
+        }
+        
+        return jdbcTemplate.update(sql.toString(), params.toArray());
+    }
+    
+    /**
+     * Marca el canal de adquisición en el snapshot más reciente de cada driver y crea un snapshot
+     * mínimo para los drivers que aún no tienen historial. Los ids van como un único parámetro text[].
+     *
+     * @return número total de filas actualizadas o insertadas
+     */
+    public int marcarCanalAdquisicion(Collection<String> driverIds, String canal) {
+        if (driverIds == null || driverIds.isEmpty()) {
+            return 0;
+        }
+        
+        String ids = "WITH ids(driver_id) AS (SELECT unnest(?::text[])) ";
+        
+        String sqlUpdate = ids +
+            "UPDATE contractor_tracking_history cth SET acquisition_channel = ? " +
+            "FROM (SELECT h.driver_id, MAX(h.calculation_date) AS calculation_date " +
+            "      FROM contractor_tracking_history h JOIN ids ON ids.driver_id = h.driver_id " +
+            "      GROUP BY h.driver_id) ultimo " +
+            "WHERE cth.driver_id = ultimo.driver_id AND cth.calculation_date = ultimo.calculation_date";
+        
+        String sqlInsert = ids +
+            "INSERT INTO contractor_tracking_history " +
+            "(driver_id, park_id, acquisition_channel, calculation_date, total_trips_historical, " +
+            "has_historical_connection, status_registered, status_connected, status_with_trips, last_updated) " +
+            "SELECT ids.driver_id, '', ?, CURRENT_TIMESTAMP, 0, false, false, false, false, CURRENT_TIMESTAMP " +
+            "FROM ids " +
+            "WHERE NOT EXISTS (SELECT 1 FROM contractor_tracking_history cth WHERE cth.driver_id = ids.driver_id) " +
+            "ON CONFLICT (driver_id, calculation_date) DO NOTHING";
+        
+        int totalEscritas = idArrayQueryExecutor.update(sqlUpdate, driverIds, IdArrayQueryExecutor.IDS, canal);
+        totalEscritas += idArrayQueryExecutor.update(sqlInsert, driverIds, IdArrayQueryExecutor.IDS, canal);
+        
+        logger.debug("Canal de adquisición '{}' marcado para {} drivers ({} filas)", canal, driverIds.size(), totalEscritas);
+        return totalEscritas;
+    }
+}
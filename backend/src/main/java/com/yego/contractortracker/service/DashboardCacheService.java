@@ -0,0 +1,153 @@
+package com.yego.contractortracker.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Caché en memoria de las respuestas de los dashboards (onboarding, evolución, reconciliación y vista de pagos).
+ * Las entradas se indexan por región y por los filtros de la consulta, expiran por TTL y se descartan por LRU
+ * al superar el tamaño máximo. Se vacía completa cuando algún proceso publica un DatosActualizadosEvent.
+ */
+@Service
+public class DashboardCacheService {
+    
+    private static final Logger logger = LoggerFactory.getLogger(DashboardCacheService.class);
+    
+    public static final String ONBOARDING_14D = "onboarding-14d";
+    public static final String ONBOARDING_14D_COUNT = "onboarding-14d-count";
+    public static final String EVOLUTION = "evolution";
+    public static final String RECONCILIATION_SUMMARY = "reconciliation-summary";
+    public static final String PAYMENT_VIEW = "payment-view";
+    
+    @Value("${dashboard.cache.ttl-seconds:600}")
+    private long ttlSeconds;
+    
+    @Value("${dashboard.cache.max-entries:200}")
+    private int maxEntries;
+    
+    private final LinkedHashMap<List<Object>, Entrada> entradas = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, Metricas> metricasPorRegion = new HashMap<>();
+    private long generacion = 0;
+    
+    /**
+     * Publicado por los procesos de carga y recálculo cuando cambian los datos que alimentan los dashboards.
+     */
+    public static class DatosActualizadosEvent {
+        private final String origen;
+        
+        public DatosActualizadosEvent(String origen) {
+            this.origen = origen;
+        }
+        
+        public String getOrigen() { return origen; }
+    }
+    
+    private static class Entrada {
+        private final Object valor;
+        private final long expiraEn;
+        
+        Entrada(Object valor, long expiraEn) {
+            this.valor = valor;
+            this.expiraEn = expiraEn;
+        }
+    }
+    
+    private static class Metricas {
+        private final AtomicLong hits = new AtomicLong();
+        private final AtomicLong misses = new AtomicLong();
+        private final AtomicLong expiradas = new AtomicLong();
+        private final AtomicLong descartadas = new AtomicLong();
+    }
+    
+    /**
+     * Devuelve el valor cacheado para la región y los filtros dados, o lo calcula y lo guarda.
+     * El cálculo se hace fuera del lock; si entre tanto llega una invalidación, el resultado no se guarda.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T obtener(String region, List<Object> filtros, Supplier<T> calcular) {
+        List<Object> clave = new ArrayList<>();
+        clave.add(region);
+        clave.addAll(filtros);
+        
+        long generacionInicial;
+        synchronized (this) {
+            Metricas metricas = metricasPorRegion.computeIfAbsent(region, k -> new Metricas());
+            Entrada entrada = entradas.get(clave);
+            if (entrada != null) {
+                if (entrada.expiraEn > System.currentTimeMillis()) {
+                    metricas.hits.incrementAndGet();
+                    return (T) entrada.valor;
+                }
+                entradas.remove(clave);
+                metricas.expiradas.incrementAndGet();
+            }
+            metricas.misses.incrementAndGet();
+            generacionInicial = generacion;
+        }
+        
+        T valor = calcular.get();
+        
+        synchronized (this) {
+            if (generacionInicial == generacion && valor != null) {
+                entradas.put(clave, new Entrada(valor, System.currentTimeMillis() + ttlSeconds * 1000));
+                while (entradas.size() > maxEntries) {
+                    List<Object> masAntigua = entradas.keySet().iterator().next();
+                    entradas.remove(masAntigua);
+                    metricasPorRegion.computeIfAbsent((String) masAntigua.get(0), k -> new Metricas())
+                        .descartadas.incrementAndGet();
+                }
+            }
+        }
+        
+        return valor;
+    }
+    
+    public synchronized void invalidarTodo(String origen) {
+        int total = entradas.size();
+        entradas.clear();
+        generacion++;
+        logger.info("Caché de dashboards invalidada por {} ({} entradas eliminadas)", origen, total);
+    }
+    
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onDatosActualizados(DatosActualizadosEvent event) {
+        invalidarTodo(event.getOrigen());
+    }
+    
+    public synchronized Map<String, Object> obtenerEstadisticas() {
+        Map<String, Object> estadisticas = new LinkedHashMap<>();
+        estadisticas.put("entries", entradas.size());
+        estadisticas.put("maxEntries", maxEntries);
+        estadisticas.put("ttlSeconds", ttlSeconds);
+        estadisticas.put("invalidations", generacion);
+        
+        Map<String, Object> regiones = new LinkedHashMap<>();
+        for (Map.Entry<String, Metricas> entry : metricasPorRegion.entrySet()) {
+            Metricas metricas = entry.getValue();
+            long hits = metricas.hits.get();
+            long misses = metricas.misses.get();
+            
+            Map<String, Object> region = new LinkedHashMap<>();
+            region.put("hits", hits);
+            region.put("misses", misses);
+            region.put("hitRate", hits + misses > 0 ? (double) hits / (hits + misses) : 0.0);
+            region.put("expired", metricas.expiradas.get());
+            region.put("evicted", metricas.descartadas.get());
+            regiones.put(entry.getKey(), region);
+        }
+        estadisticas.put("regions", regiones);
+        
+        return estadisticas;
+    }
+}
@@ -0,0 +1,128 @@
+package com.yego.contractortracker.service;
+
+import com.yego.contractortracker.repository.SyncWatermarkRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Mantiene driver_daily_activity (driver/día con fecha tipada) a partir de summary_daily.
+ * Usa un watermark en sync_watermarks para procesar solo los días recientes; cada ejecución
+ * vuelve a leer algunos días antes del watermark para recoger correcciones tardías.
+ */
+@Service
+public class DriverActivitySyncService {
+    
+    private static final Logger logger = LoggerFactory.getLogger(DriverActivitySyncService.class);
+    private static final String SYNC_NAME = "driver_daily_activity";
+    private static final int DIAS_POR_VENTANA = 31;
+    
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+    
+    @Autowired
+    private SyncWatermarkRepository syncWatermarkRepository;
+    
+    @Value("${activity.sync.lookback-days:3}")
+    private int lookbackDays;
+    
+    private final AtomicBoolean enEjecucion = new AtomicBoolean(false);
+    
+    @Scheduled(initialDelayString = "${activity.sync.initial-delay-ms:120000}", fixedDelayString = "${activity.sync.fixed-delay-ms:900000}")
+    public void sincronizarProgramado() {
+        try {
+            sincronizar(false);
+        } catch (Exception e) {
+            logger.error("Error durante la sincronización de driver_daily_activity (cron job)", e);
+        }
+    }
+    
+    /**
+     * Sincroniza driver_daily_activity desde summary_daily.
+     *
+     * @param completo si es true ignora el watermark y reprocesa todo el histórico
+     * @return número de filas insertadas o actualizadas, o -1 si ya había una sincronización en curso
+     */
+    public long sincronizar(boolean completo) {
+        if (!enEjecucion.compareAndSet(false, true)) {
+            logger.info("Sincronización de driver_daily_activity ya en curso, omitiendo ejecución");
+            return -1;
+        }
+        
+        try {
+            long inicio = System.currentTimeMillis();
+            LocalDateTime ultimoWatermark = completo ? null : syncWatermarkRepository.obtener(SYNC_NAME);
+            LocalDate watermark = ultimoWatermark != null ? ultimoWatermark.toLocalDate() : null;
+            
+            LocalDate desde;
+            if (watermark != null) {
+                desde = watermark.minusDays(lookbackDays);
+            } else {
+                desde = jdbcTemplate.queryForObject(
+                    "SELECT MIN(to_date_immutable(date_file)) FROM summary_daily WHERE date_file IS NOT NULL", LocalDate.class);
+            }
+            LocalDate hasta = jdbcTemplate.queryForObject(
+                "SELECT MAX(to_date_immutable(date_file)) FROM summary_daily WHERE date_file IS NOT NULL", LocalDate.class);
+            
+            if (desde == null || hasta == null) {
+                logger.info("summary_daily no tiene datos para sincronizar");
+                return 0;
+            }
+            
+            logger.info("Sincronizando driver_daily_activity desde {} hasta {} (watermark: {})", desde, hasta, watermark);
+            
+            long filasAfectadas = 0;
+            LocalDate ventanaInicio = desde;
+            while (!ventanaInicio.isAfter(hasta)) {
+                LocalDate ventanaFin = ventanaInicio.plusDays(DIAS_POR_VENTANA);
+                filasAfectadas += sincronizarVentana(ventanaInicio, ventanaFin);
+                ventanaInicio = ventanaFin;
+            }
+            
+            syncWatermarkRepository.guardar(SYNC_NAME, hasta.atStartOfDay(), filasAfectadas);
+            if (filasAfectadas > 0) {
+                eventPublisher.publishEvent(new DashboardCacheService.DatosActualizadosEvent("driver-daily-activity"));
+            }
+            
+            logger.info("Sincronización de driver_daily_activity completada en {} ms. Filas insertadas/actualizadas: {}",
+                System.currentTimeMillis() - inicio, filasAfectadas);
+            return filasAfectadas;
+        } finally {
+            enEjecucion.set(false);
+        }
+    }
+    
+    private int sincronizarVentana(LocalDate desde, LocalDate hastaExclusivo) {
+        String sql = "INSERT INTO driver_daily_activity (driver_id, activity_date, work_seconds, orders_completed, last_updated) " +
+                "SELECT sd.driver_id, to_date_immutable(sd.date_file), " +
+                "  SUM(sd.sum_work_time_seconds), SUM(sd.count_orders_completed), CURRENT_TIMESTAMP " +
+                "FROM summary_daily sd " +
+                "WHERE sd.driver_id IS NOT NULL " +
+                "  AND sd.date_file IS NOT NULL " +
+                "  AND to_date_immutable(sd.date_file) >= ? " +
+                "  AND to_date_immutable(sd.date_file) < ? " +
+                "GROUP BY sd.driver_id, to_date_immutable(sd.date_file) " +
+                "ON CONFLICT (driver_id, activity_date) DO UPDATE SET " +
+                "  work_seconds = EXCLUDED.work_seconds, " +
+                "  orders_completed = EXCLUDED.orders_completed, " +
+                "  last_updated = EXCLUDED.last_updated " +
+                "WHERE driver_daily_activity.work_seconds IS DISTINCT FROM EXCLUDED.work_seconds " +
+                "   OR driver_daily_activity.orders_completed IS DISTINCT FROM EXCLUDED.orders_completed";
+        
+        int filas = jdbcTemplate.update(sql, desde, hastaExclusivo);
+        logger.debug("Ventana {} - {}: {} filas insertadas/actualizadas", desde, hastaExclusivo, filas);
+        return filas;
+    }
+}
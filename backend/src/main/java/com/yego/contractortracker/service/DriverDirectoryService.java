@@ -0,0 +1,525 @@
+package com.yego.contractortracker.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import com.yego.contractortracker.util.SimilitudUtil;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.sql.Date;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+
+/**
+ * Directorio de drivers en memoria compartido por los procesos de matching (leads, registros de scouts
+ * y transacciones Yango). Mantiene un registro compacto por driver e índices por teléfono normalizado,
+ * licencia, nombre normalizado, nombre con palabras ordenadas y palabra del nombre.
+ *
+ * La primera consulta carga los drivers desde driver.directory.initial-days atrás (o desde la fecha pedida
+ * si es anterior). Después se refresca de forma incremental con hire_date >= watermark, releyendo los
+ * últimos driver.directory.reread-days días, y se recarga completo cada driver.directory.full-reload-minutes
+ * para recoger cambios en drivers antiguos.
+ */
+@Service
+public class DriverDirectoryService {
+    
+    private static final Logger logger = LoggerFactory.getLogger(DriverDirectoryService.class);
+    
+    
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    
+    @Value("${driver.directory.refresh-seconds:60}")
+    private long refreshSeconds;
+    
+    @Value("${driver.directory.full-reload-minutes:360}")
+    private long fullReloadMinutes;
+    
+    @Value("${driver.directory.initial-days:400}")
+    private int initialDays;
+    
+    @Value("${driver.directory.reread-days:2}")
+    private int rereadDays;
+    
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private Indices indices = new Indices();
+    
+    // Estado de carga, protegido por el monitor de la instancia
+    private LocalDate cargadoDesde;
+    private LocalDate watermark;
+    private long ultimaRecargaCompleta;
+    private long ultimoRefresco;
+    private long recargasCompletas;
+    private long refrescosIncrementales;
+    
+    /**
+     * Registro compacto e inmutable de un driver, con los valores ya normalizados para los índices.
+     */
+    public static final class RegistroDriver {
+        private final String driverId;
+        private final String parkId;
+        private final String fullName;
+        private final String phone;
+        private final String licenseNumber;
+        private final LocalDate hireDate;
+        private final String nombreNormalizado;
+        private final String nombreOrdenado;
+        private final SimilitudUtil.NombreTokenizado nombreTokenizado;
+        private final String telefonoNormalizado;
+        private final String licenciaNormalizada;
+        private final int totalPalabras;
+        
+        private RegistroDriver(String driverId, String parkId, String fullName, String phone, String licenseNumber, LocalDate hireDate) {
+            this.driverId = driverId;
+            this.parkId = parkId;
+            this.fullName = fullName;
+            this.phone = phone;
+            this.licenseNumber = licenseNumber;
+            this.hireDate = hireDate;
+            this.nombreNormalizado = SimilitudUtil.normalizarNombre(fullName);
+            this.nombreTokenizado = SimilitudUtil.tokenizar(fullName);
+            this.nombreOrdenado = nombreTokenizado.getOrdenado();
+            this.telefonoNormalizado = SimilitudUtil.soloDigitos(phone);
+            this.licenciaNormalizada = normalizarLicencia(licenseNumber);
+            this.totalPalabras = palabras(nombreOrdenado).size();
+        }
+        
+        public String getDriverId() { return driverId; }
+        public String getParkId() { return parkId; }
+        public String getFullName() { return fullName; }
+        public String getPhone() { return phone; }
+        public String getLicenseNumber() { return licenseNumber; }
+        public LocalDate getHireDate() { return hireDate; }
+        public String getNombreNormalizado() { return nombreNormalizado; }
+        public String getNombreOrdenado() { return nombreOrdenado; }
+        public SimilitudUtil.NombreTokenizado getNombreTokenizado() { return nombreTokenizado; }
+        public String getTelefonoNormalizado() { return telefonoNormalizado; }
+        
+        /**
+         * Copia mutable con las mismas claves que devolvían las consultas a drivers, para el código
+         * de matching que trabaja con filas Map.
+         */
+        public Map<String, Object> aMapa() {
+            Map<String, Object> fila = new HashMap<>();
+            fila.put("driver_id", driverId);
+            fila.put("park_id", parkId);
+            fila.put("full_name", fullName);
+            fila.put("phone", phone);
+            fila.put("license_number", licenseNumber);
+            fila.put("hire_date", hireDate);
+            return fila;
+        }
+    }
+    
+    /**
+     * Las listas de cada clave se mantienen en el orden de consultarDrivers (hire_date, driver_id), también
+     * tras ampliaciones y refrescos incrementales, así que el primer candidato de una lista no depende de
+     * cómo se fue cargando el directorio.
+     */
+    private static class Indices {
+        private static final Comparator<RegistroDriver> ORDEN = Comparator
+            .comparing((RegistroDriver driver) -> driver.hireDate, Comparator.nullsLast(Comparator.naturalOrder()))
+            .thenComparing(driver -> driver.driverId);
+        
+        private final Map<String, RegistroDriver> porId = new HashMap<>();
+        private final TreeMap<LocalDate, List<RegistroDriver>> porFecha = new TreeMap<>();
+        private final Map<String, List<RegistroDriver>> porTelefono = new HashMap<>();
+        private final Map<String, List<RegistroDriver>> porLicencia = new HashMap<>();
+        private final Map<String, List<RegistroDriver>> porNombre = new HashMap<>();
+        private final Map<String, List<RegistroDriver>> porNombreOrdenado = new HashMap<>();
+        private final Map<String, List<RegistroDriver>> porPalabra = new HashMap<>();
+        
+        void guardar(RegistroDriver driver) {
+            RegistroDriver anterior = porId.put(driver.driverId, driver);
+            if (anterior != null) {
+                quitar(anterior);
+            }
+            
+            if (driver.hireDate != null) {
+                insertarOrdenado(porFecha.computeIfAbsent(driver.hireDate, k -> new ArrayList<>()), driver);
+            }
+            agregar(porTelefono, driver.telefonoNormalizado, driver);
+            agregar(porLicencia, driver.licenciaNormalizada, driver);
+            agregar(porNombre, driver.nombreNormalizado, driver);
+            agregar(porNombreOrdenado, driver.nombreOrdenado, driver);
+            for (String palabra : palabras(driver.nombreOrdenado)) {
+                agregar(porPalabra, palabra, driver);
+            }
+        }
+        
+        private void quitar(RegistroDriver driver) {
+            if (driver.hireDate != null) {
+                eliminar(porFecha, driver.hireDate, driver);
+            }
+            eliminar(porTelefono, driver.telefonoNormalizado, driver);
+            eliminar(porLicencia, driver.licenciaNormalizada, driver);
+            eliminar(porNombre, driver.nombreNormalizado, driver);
+            eliminar(porNombreOrdenado, driver.nombreOrdenado, driver);
+            for (String palabra : palabras(driver.nombreOrdenado)) {
+                eliminar(porPalabra, palabra, driver);
+            }
+        }
+        
+        private static void agregar(Map<String, List<RegistroDriver>> indice, String clave, RegistroDriver driver) {
+            if (clave != null && !clave.isEmpty()) {
+                insertarOrdenado(indice.computeIfAbsent(clave, k -> new ArrayList<>(1)), driver);
+            }
+        }
+        
+        private static void insertarOrdenado(List<RegistroDriver> lista, RegistroDriver driver) {
+            // En una carga completa las filas llegan ordenadas y siempre se agregan al final
+            int tamano = lista.size();
+            if (tamano == 0 || ORDEN.compare(lista.get(tamano - 1), driver) <= 0) {
+                lista.add(driver);
+                return;
+            }
+            int posicion = Collections.binarySearch(lista, driver, ORDEN);
+            lista.add(posicion >= 0 ? posicion : -posicion - 1, driver);
+        }
+        
+        private static <K> void eliminar(Map<K, List<RegistroDriver>> indice, K clave, RegistroDriver driver) {
+            if (clave == null) {
+                return;
+            }
+            List<RegistroDriver> lista = indice.get(clave);
+            if (lista != null) {
+                lista.remove(driver);
+                if (lista.isEmpty()) {
+                    indice.remove(clave);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Vista del directorio limitada a los drivers con hire_date en [desde, hasta]. Todas las búsquedas
+     * devuelven listas nuevas, así que el llamador puede usarlas sin bloquear el directorio.
+     */
+    public class VistaDirectorio {
+        private final LocalDate desde;
+        private final LocalDate hasta;
+        
+        private VistaDirectorio(LocalDate desde, LocalDate hasta) {
+            this.desde = desde;
+            this.hasta = hasta;
+        }
+        
+        public LocalDate getDesde() { return desde; }
+        public LocalDate getHasta() { return hasta; }
+        
+        /**
+         * Vista sobre la intersección de este rango con [desde, hasta], sin volver a refrescar el directorio.
+         */
+        public VistaDirectorio acotar(LocalDate desde, LocalDate hasta) {
+            LocalDate nuevoDesde = desde != null && desde.isAfter(this.desde) ? desde : this.desde;
+            LocalDate nuevoHasta = hasta != null && hasta.isBefore(this.hasta) ? hasta : this.hasta;
+            return new VistaDirectorio(nuevoDesde, nuevoHasta);
+        }
+        
+        public List<RegistroDriver> porTelefono(String telefono) {
+            return buscar(i -> i.porTelefono.get(SimilitudUtil.soloDigitos(telefono)));
+        }
+        
+        public List<RegistroDriver> porLicencia(String licencia) {
+            return buscar(i -> i.porLicencia.get(normalizarLicencia(licencia)));
+        }
+        
+        public List<RegistroDriver> porNombre(String nombre) {
+            return buscar(i -> i.porNombre.get(SimilitudUtil.normalizarNombre(nombre)));
+        }
+        
+        /**
+         * Drivers cuyo nombre tiene las mismas palabras que el dado, sin importar el orden ni las
+         * palabras comunes (de, la, del...).
+         */
+        public List<RegistroDriver> porNombreOrdenado(String nombre) {
+            return buscar(i -> i.porNombreOrdenado.get(SimilitudUtil.normalizarNombreParaComparacion(nombre)));
+        }
+        
+        public List<RegistroDriver> porPalabra(String palabra) {
+            return buscar(i -> i.porPalabra.get(SimilitudUtil.normalizarNombre(palabra)));
+        }
+        
+        public RegistroDriver porId(String driverId) {
+            lock.readLock().lock();
+            try {
+                RegistroDriver driver = indices.porId.get(driverId);
+                return driver != null && enRango(driver) ? driver : null;
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+        
+        public List<RegistroDriver> todos() {
+            lock.readLock().lock();
+            try {
+                List<RegistroDriver> resultado = new ArrayList<>();
+                for (List<RegistroDriver> delDia : subrango(indices).values()) {
+                    resultado.addAll(delDia);
+                }
+                return resultado;
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+        
+        public int tamano() {
+            lock.readLock().lock();
+            try {
+                int total = 0;
+                for (List<RegistroDriver> delDia : subrango(indices).values()) {
+                    total += delDia.size();
+                }
+                return total;
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+        
+        /**
+         * Recupera los drivers que comparten al menos minPalabrasComunes palabras (del nombre ordenado) con
+         * el nombre dado. Solo recorre las listas de las palabras del nombre.
+         *
+         * Si hay más de maxCandidatos se quedan los de más palabras en común y, a igualdad, los de menor unión
+         * de palabras (lo que usan los scores de similitud); los empatados con el último que entra no se
+         * cortan. El resultado se devuelve en el orden del directorio, igual que un recorrido completo.
+         */
+        public List<RegistroDriver> candidatosPorPalabras(String nombre, int minPalabrasComunes, int maxCandidatos) {
+            Set<String> palabrasNombre = palabras(SimilitudUtil.normalizarNombreParaComparacion(nombre));
+            if (palabrasNombre.isEmpty() || palabrasNombre.size() < minPalabrasComunes) {
+                return new ArrayList<>();
+            }
+            
+            Map<RegistroDriver, Integer> comunes = new HashMap<>();
+            lock.readLock().lock();
+            try {
+                for (String palabra : palabrasNombre) {
+                    List<RegistroDriver> lista = indices.porPalabra.get(palabra);
+                    if (lista == null) {
+                        continue;
+                    }
+                    for (RegistroDriver driver : lista) {
+                        if (enRango(driver)) {
+                            comunes.merge(driver, 1, Integer::sum);
+                        }
+                    }
+                }
+            } finally {
+                lock.readLock().unlock();
+            }
+            
+            List<Map.Entry<RegistroDriver, Integer>> ordenados = new ArrayList<>();
+            for (Map.Entry<RegistroDriver, Integer> entry : comunes.entrySet()) {
+                if (entry.getValue() >= minPalabrasComunes) {
+                    ordenados.add(entry);
+                }
+            }
+            
+            if (ordenados.size() > maxCandidatos) {
+                int totalNombre = palabrasNombre.size();
+                Comparator<Map.Entry<RegistroDriver, Integer>> relevancia = Comparator
+                    .comparing((Map.Entry<RegistroDriver, Integer> e) -> e.getValue(), Comparator.reverseOrder())
+                    .thenComparingInt(e -> totalNombre + e.getKey().totalPalabras - e.getValue());
+                ordenados.sort(relevancia);
+                int corte = Math.max(0, maxCandidatos);
+                while (corte > 0 && corte < ordenados.size() && relevancia.compare(ordenados.get(corte - 1), ordenados.get(corte)) == 0) {
+                    corte++;
+                }
+                ordenados = ordenados.subList(0, corte);
+            }
+            
+            List<RegistroDriver> candidatos = new ArrayList<>(ordenados.size());
+            for (Map.Entry<RegistroDriver, Integer> entry : ordenados) {
+                candidatos.add(entry.getKey());
+            }
+            candidatos.sort(Indices.ORDEN);
+            return candidatos;
+        }
+        
+        private List<RegistroDriver> buscar(Function<Indices, List<RegistroDriver>> indice) {
+            lock.readLock().lock();
+            try {
+                List<RegistroDriver> lista = indice.apply(indices);
+                if (lista == null) {
+                    return new ArrayList<>();
+                }
+                List<RegistroDriver> resultado = new ArrayList<>(lista.size());
+                for (RegistroDriver driver : lista) {
+                    if (enRango(driver)) {
+                        resultado.add(driver);
+                    }
+                }
+                return resultado;
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+        
+        private NavigableMap<LocalDate, List<RegistroDriver>> subrango(Indices actuales) {
+            return actuales.porFecha.subMap(desde, true, hasta, true);
+        }
+        
+        private boolean enRango(RegistroDriver driver) {
+            return driver.hireDate != null && !driver.hireDate.isBefore(desde) && !driver.hireDate.isAfter(hasta);
+        }
+    }
+    
+    /**
+     * Devuelve una vista de los drivers con hire_date en [desde, hasta], cargando antes los días que falten
+     * y aplicando el refresco incremental si toca.
+     */
+    public VistaDirectorio vista(LocalDate desde, LocalDate hasta) {
+        asegurarCobertura(desde);
+        return new VistaDirectorio(desde, hasta);
+    }
+    
+    /**
+     * Fuerza una recarga completa en la próxima consulta.
+     */
+    public synchronized void invalidar() {
+        ultimaRecargaCompleta = 0;
+        logger.info("Directorio de drivers invalidado, se recargará en la próxima consulta");
+    }
+    
+    public synchronized Map<String, Object> obtenerEstadisticas() {
+        Map<String, Object> estadisticas = new HashMap<>();
+        lock.readLock().lock();
+        try {
+            estadisticas.put("drivers", indices.porId.size());
+            estadisticas.put("telefonos", indices.porTelefono.size());
+            estadisticas.put("nombres", indices.porNombre.size());
+            estadisticas.put("palabras", indices.porPalabra.size());
+        } finally {
+            lock.readLock().unlock();
+        }
+        estadisticas.put("cargadoDesde", cargadoDesde);
+        estadisticas.put("watermark", watermark);
+        estadisticas.put("recargasCompletas", recargasCompletas);
+        estadisticas.put("refrescosIncrementales", refrescosIncrementales);
+        return estadisticas;
+    }
+    
+    private synchronized void asegurarCobertura(LocalDate desde) {
+        long ahora = System.currentTimeMillis();
+        LocalDate inicioPorDefecto = LocalDate.now().minusDays(initialDays);
+        
+        if (cargadoDesde == null || ahora - ultimaRecargaCompleta > fullReloadMinutes * 60_000L) {
+            LocalDate inicio = cargadoDesde != null && cargadoDesde.isBefore(inicioPorDefecto) ? cargadoDesde : inicioPorDefecto;
+            if (desde != null && desde.isBefore(inicio)) {
+                inicio = desde;
+            }
+            recargarCompleto(inicio, ahora);
+            return;
+        }
+        
+        if (desde != null && desde.isBefore(cargadoDesde)) {
+            List<RegistroDriver> anteriores = consultarDrivers("WHERE hire_date >= ? AND hire_date < ?", desde, cargadoDesde);
+            aplicar(anteriores);
+            logger.info("Directorio de drivers ampliado desde {} hasta {}: {} drivers", desde, cargadoDesde, anteriores.size());
+            cargadoDesde = desde;
+        }
+        
+        if (ahora - ultimoRefresco > refreshSeconds * 1000L) {
+            LocalDate relecturaDesde = (watermark != null ? watermark : cargadoDesde).minusDays(rereadDays);
+            List<RegistroDriver> nuevos = consultarDrivers("WHERE hire_date >= ?", relecturaDesde);
+            aplicar(nuevos);
+            actualizarWatermark(nuevos);
+            ultimoRefresco = ahora;
+            refrescosIncrementales++;
+            logger.debug("Directorio de drivers refrescado desde {}: {} drivers releídos, watermark {}",
+                relecturaDesde, nuevos.size(), watermark);
+        }
+    }
+    
+    private void recargarCompleto(LocalDate inicio, long ahora) {
+        long startTime = System.currentTimeMillis();
+        List<RegistroDriver> drivers = consultarDrivers("WHERE hire_date >= ?", inicio);
+        
+        Indices nuevos = new Indices();
+        for (RegistroDriver driver : drivers) {
+            nuevos.guardar(driver);
+        }
+        
+        lock.writeLock().lock();
+        try {
+            indices = nuevos;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        
+        cargadoDesde = inicio;
+        watermark = null;
+        actualizarWatermark(drivers);
+        ultimaRecargaCompleta = ahora;
+        ultimoRefresco = ahora;
+        recargasCompletas++;
+        
+        logger.info("Directorio de drivers cargado: {} drivers desde {} (watermark {}) en {} ms",
+            drivers.size(), inicio, watermark, System.currentTimeMillis() - startTime);
+    }
+    
+    private void aplicar(Collection<RegistroDriver> drivers) {
+        if (drivers.isEmpty()) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            for (RegistroDriver driver : drivers) {
+                indices.guardar(driver);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    private void actualizarWatermark(Collection<RegistroDriver> drivers) {
+        for (RegistroDriver driver : drivers) {
+            if (driver.hireDate != null && (watermark == null || driver.hireDate.isAfter(watermark))) {
+                watermark = driver.hireDate;
+            }
+        }
+    }
+    
+    private List<RegistroDriver> consultarDrivers(String where, Object... params) {
+        // Mismo orden que las consultas a drivers que reemplaza el directorio, con driver_id para desempatar
+        String sql = "SELECT driver_id, park_id, full_name, phone, license_number, hire_date FROM drivers " + where +
+            " ORDER BY hire_date, driver_id";
+        return jdbcTemplate.query(sql, (rs, rowNum) -> {
+            Date hireDate = rs.getDate("hire_date");
+            return new RegistroDriver(
+                rs.getString("driver_id"),
+                rs.getString("park_id"),
+                rs.getString("full_name"),
+                rs.getString("phone"),
+                rs.getString("license_number"),
+                hireDate != null ? hireDate.toLocalDate() : null);
+        }, params);
+    }
+    
+    private static String normalizarLicencia(String licencia) {
+        return licencia != null ? licencia.trim().toUpperCase() : null;
+    }
+    
+    private static Set<String> palabras(String nombreOrdenado) {
+        Set<String> palabras = new LinkedHashSet<>();
+        if (nombreOrdenado == null || nombreOrdenado.isEmpty()) {
+            return palabras;
+        }
+        Collections.addAll(palabras, nombreOrdenado.split(" "));
+        return palabras;
+    }
+}
@@ -0,0 +1,260 @@
+package com.yego.contractortracker.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.CannotGetJdbcConnectionException;
+import org.springframework.stereotype.Component;
+
+import java.sql.SQLTransientConnectionException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Ejecuta en paralelo etapas de enriquecimiento independientes entre sí (cada una hace sus propias consultas)
+ * sobre un pool acotado a onboarding.enrichment.threads hilos. Una etapa que falla queda con su valor por
+ * defecto y el resto se conserva.
+ *
+ * El llamador retiene sus propias conexiones mientras espera (la de su transacción, o en exportaciones el cursor
+ * más la que usan sus consultas), y las etapas de los hilos del pool abren conexiones nuevas. Para que esa espera
+ * no deje sin conexiones al pool de Hikari:
+ * - onboarding.enrichment.max-db-connections limita las conexiones de los hilos del pool.
+ * - Solo se paraleliza si las conexiones de los llamadores admitidos más ese presupuesto caben en
+ *   spring.datasource.hikari.maximum-pool-size menos onboarding.enrichment.pool-headroom (reservadas para el
+ *   resto de peticiones). Un llamador que no entra ejecuta todas sus etapas en secuencia, como antes.
+ * - Una etapa que no consigue permiso al momento, o cuya consulta no consigue conexión, no se descarta:
+ *   la ejecuta el llamador con sus conexiones después de las demás.
+ */
+@Component
+public class EnriquecimientoParaleloExecutor {
+    
+    private static final Logger logger = LoggerFactory.getLogger(EnriquecimientoParaleloExecutor.class);
+    
+    @Value("${onboarding.enrichment.threads:4}")
+    private int hilos;
+    
+    @Value("${onboarding.enrichment.queue-capacity:50}")
+    private int capacidadCola;
+    
+    @Value("${onboarding.enrichment.max-db-connections:4}")
+    private int maxConexiones;
+    
+    @Value("${spring.datasource.hikari.maximum-pool-size:10}")
+    private int tamanoPoolConexiones;
+    
+    @Value("${onboarding.enrichment.pool-headroom:2}")
+    private int reservaConexiones;
+    
+    private ThreadPoolExecutor executor;
+    private Semaphore conexiones;
+    private Semaphore admision;
+    
+    /**
+     * Etapa de enriquecimiento. Tras ejecutar() contiene su resultado (o el valor por defecto si falló),
+     * la duración y el error, si lo hubo.
+     */
+    public static class Etapa<T> {
+        private final String nombre;
+        private final Supplier<T> tarea;
+        private volatile T resultado;
+        private volatile long duracionMs;
+        private volatile String error;
+        private volatile boolean sinConexion;
+        
+        public Etapa(String nombre, Supplier<T> tarea, T valorPorDefecto) {
+            this.nombre = nombre;
+            this.tarea = tarea;
+            this.resultado = valorPorDefecto;
+        }
+        
+        public static Etapa<Void> deAccion(String nombre, Runnable accion) {
+            return new Etapa<>(nombre, () -> {
+                accion.run();
+                return null;
+            }, null);
+        }
+        
+        public String getNombre() { return nombre; }
+        public T getResultado() { return resultado; }
+        public long getDuracionMs() { return duracionMs; }
+        public String getError() { return error; }
+        public boolean isFallida() { return error != null; }
+    }
+    
+    @PostConstruct
+    public void inicializar() {
+        AtomicInteger contador = new AtomicInteger();
+        // Con la cola llena la etapa corre en el hilo llamador, con las conexiones del llamador
+        executor = new ThreadPoolExecutor(hilos, hilos, 60L, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(capacidadCola),
+            r -> {
+                Thread hilo = new Thread(r, "enriquecimiento-" + contador.incrementAndGet());
+                hilo.setDaemon(true);
+                return hilo;
+            },
+            new ThreadPoolExecutor.CallerRunsPolicy());
+        int presupuesto = Math.max(1, maxConexiones);
+        int conexionesLlamadores = Math.max(0, tamanoPoolConexiones - reservaConexiones - presupuesto);
+        conexiones = new Semaphore(presupuesto);
+        admision = new Semaphore(conexionesLlamadores);
+        logger.info("Pool de enriquecimiento paralelo inicializado con {} hilos, {} conexiones adicionales y {} conexiones de llamadores en paralelo",
+            hilos, presupuesto, conexionesLlamadores);
+    }
+    
+    @PreDestroy
+    public void cerrar() {
+        executor.shutdownNow();
+    }
+    
+    /**
+     * Igual que {@link #ejecutar(String, int, Etapa[])} para un llamador que retiene una conexión.
+     */
+    public int ejecutar(String contexto, Etapa<?>... etapas) {
+        return ejecutar(contexto, 1, etapas);
+    }
+    
+    /**
+     * Ejecuta las etapas en paralelo y espera a que terminen todas. La primera corre en el hilo llamador.
+     * Las etapas no deben depender entre sí; si modifican los mismos objetos, deben tocar campos distintos,
+     * y deben poder repetirse desde el principio si su primera ejecución no consiguió conexión.
+     *
+     * @param conexionesLlamador conexiones que el llamador retiene mientras espera, incluida la que usan sus etapas
+     * @return número de etapas fallidas (0 si el resultado está completo)
+     */
+    public int ejecutar(String contexto, int conexionesLlamador, Etapa<?>... etapas) {
+        long inicio = System.currentTimeMillis();
+        
+        int peso = Math.max(1, conexionesLlamador);
+        boolean admitido = etapas.length > 1 && admision.tryAcquire(peso);
+        try {
+            if (admitido) {
+                ejecutarEnParalelo(contexto, etapas);
+            } else {
+                if (etapas.length > 1) {
+                    logger.debug("Enriquecimiento {} en secuencia: sin conexiones libres para paralelizar", contexto);
+                }
+                for (Etapa<?> etapa : etapas) {
+                    ejecutarEtapa(contexto, etapa);
+                }
+            }
+        } finally {
+            if (admitido) {
+                admision.release(peso);
+            }
+        }
+        
+        long elapsedTime = System.currentTimeMillis() - inicio;
+        long sumaEtapas = 0;
+        int fallidas = 0;
+        StringBuilder detalle = new StringBuilder();
+        for (Etapa<?> etapa : etapas) {
+            sumaEtapas += etapa.duracionMs;
+            if (etapa.isFallida()) {
+                fallidas++;
+            }
+            if (detalle.length() > 0) {
+                detalle.append(", ");
+            }
+            detalle.append(etapa.nombre).append("=").append(etapa.duracionMs).append("ms").append(etapa.isFallida() ? " (fallida)" : "");
+        }
+        
+        if (fallidas > 0) {
+            logger.warn("Enriquecimiento {} con resultado parcial: {} de {} etapas fallidas en {} ms [{}]",
+                contexto, fallidas, etapas.length, elapsedTime, detalle);
+        } else {
+            logger.info("Enriquecimiento {} completado en {} ms (secuencial habría sido ~{} ms) [{}]",
+                contexto, elapsedTime, sumaEtapas, detalle);
+        }
+        return fallidas;
+    }
+    
+    private void ejecutarEnParalelo(String contexto, Etapa<?>[] etapas) {
+        Thread llamador = Thread.currentThread();
+        List<Future<Boolean>> futuros = new ArrayList<>(etapas.length);
+        for (int i = 1; i < etapas.length; i++) {
+            Etapa<?> etapa = etapas[i];
+            futuros.add(executor.submit(() -> ejecutarEtapaEnPool(contexto, etapa, llamador)));
+        }
+        ejecutarEtapa(contexto, etapas[0]);
+        
+        List<Etapa<?>> devueltas = new ArrayList<>();
+        for (int i = 0; i < futuros.size(); i++) {
+            try {
+                if (!futuros.get(i).get()) {
+                    devueltas.add(etapas[i + 1]);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                etapas[i + 1].error = "Interrumpida";
+            } catch (ExecutionException e) {
+                etapas[i + 1].error = e.getCause() != null ? e.getCause().getMessage() : e.getMessage();
+            }
+        }
+        
+        for (Etapa<?> etapa : devueltas) {
+            logger.debug("Enriquecimiento {} - etapa {} sin conexión en el pool, se ejecuta en el llamador", contexto, etapa.nombre);
+            ejecutarEtapa(contexto, etapa);
+        }
+    }
+    
+    /**
+     * @return false si la etapa no llegó a ejecutarse por falta de conexión y debe ejecutarla el llamador
+     */
+    private boolean ejecutarEtapaEnPool(String contexto, Etapa<?> etapa, Thread llamador) {
+        if (Thread.currentThread() == llamador) {
+            // Cola llena: CallerRunsPolicy la ejecuta en el llamador, con sus conexiones
+            ejecutarEtapa(contexto, etapa);
+            return true;
+        }
+        if (!conexiones.tryAcquire()) {
+            return false;
+        }
+        try {
+            ejecutarEtapa(contexto, etapa);
+            if (etapa.isFallida() && etapa.sinConexion) {
+                etapa.error = null;
+                etapa.sinConexion = false;
+                return false;
+            }
+            return true;
+        } finally {
+            conexiones.release();
+        }
+    }
+    
+    private <T> void ejecutarEtapa(String contexto, Etapa<T> etapa) {
+        long inicio = System.currentTimeMillis();
+        try {
+            etapa.resultado = etapa.tarea.get();
+        } catch (Exception e) {
+            etapa.error = e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+            etapa.sinConexion = esFaltaDeConexion(e);
+            if (etapa.sinConexion) {
+                logger.warn("Enriquecimiento {} - etapa {} sin conexión: {}", contexto, etapa.nombre, etapa.error);
+            } else {
+                logger.error("Enriquecimiento {} - error en etapa {}", contexto, etapa.nombre, e);
+            }
+        } finally {
+            etapa.duracionMs += System.currentTimeMillis() - inicio;
+        }
+    }
+    
+    private static boolean esFaltaDeConexion(Throwable e) {
+        for (Throwable causa = e; causa != null; causa = causa.getCause()) {
+            if (causa instanceof SQLTransientConnectionException || causa instanceof CannotGetJdbcConnectionException) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,175 @@
+package com.yego.contractortracker.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.yego.contractortracker.dto.MilestoneInstanceDTO;
+import com.yego.contractortracker.dto.YangoTransactionMatchedDTO;
+import com.yego.contractortracker.util.ExportWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+import org.springframework.web.context.request.async.AsyncWebRequest;
+import org.springframework.web.context.request.async.CallableProcessingInterceptor;
+import org.springframework.web.context.request.async.WebAsyncManager;
+import org.springframework.web.context.request.async.WebAsyncUtils;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.StringJoiner;
+import java.util.concurrent.Callable;
+
+/**
+ * Arma las respuestas de exportación (CSV o NDJSON, con gzip opcional) que se escriben en streaming
+ * desde el hilo de exportaciones de MVC mientras la fuente recorre su consulta por cursor.
+ * Como el estado HTTP ya se envió al empezar, un error a mitad de la exportación solo puede cortar
+ * la descarga: queda registrado en el log y el archivo llega incompleto (con gzip, inválido).
+ *
+ * El pool exportTaskExecutor y el timeout exports.timeout-ms se aplican solo a la petición de cada exportación,
+ * no a la configuración async de MVC: otros endpoints con Callable o DeferredResult siguen con los valores
+ * por defecto.
+ */
+@Service
+public class ExportacionService {
+    
+    private static final Logger logger = LoggerFactory.getLogger(ExportacionService.class);
+    
+    private static final String CLAVE_INTERCEPTOR_TIMEOUT = ExportacionService.class.getName() + ".timeout";
+    
+    @Autowired
+    private ObjectMapper objectMapper;
+    
+    @Autowired
+    @Qualifier("exportTaskExecutor")
+    private ThreadPoolTaskExecutor exportTaskExecutor;
+    
+    // Las exportaciones grandes pueden tardar minutos; el timeout por defecto del contenedor (30 s) las cortaría
+    @Value("${exports.timeout-ms:1800000}")
+    private long timeoutMs;
+    
+    @FunctionalInterface
+    public interface FuenteExportacion {
+        void escribir(ExportWriter writer) throws Exception;
+    }
+    
+    /**
+     * @param nombre prefijo del archivo descargado (se le agrega la fecha y la extensión)
+     * @return 400 si el formato no es csv ni ndjson
+     */
+    public ResponseEntity<StreamingResponseBody> exportar(String nombre, String formato, boolean gzip,
+                                                          String[] columnas, FuenteExportacion fuente) {
+        String formatoNormalizado = ExportWriter.normalizarFormato(formato);
+        if (formatoNormalizado == null) {
+            return ResponseEntity.badRequest().build();
+        }
+        
+        String archivo = nombre + "-" + LocalDate.now() + "." + formatoNormalizado + (gzip ? ".gz" : "");
+        StreamingResponseBody cuerpo = salida -> {
+            long inicio = System.currentTimeMillis();
+            logger.info("Iniciando exportación {}", archivo);
+            try (ExportWriter writer = new ExportWriter(salida, formatoNormalizado, gzip, columnas, objectMapper)) {
+                fuente.escribir(writer);
+                logger.info("Exportación {} completada: {} filas en {} ms", archivo, writer.getFilas(), System.currentTimeMillis() - inicio);
+            } catch (Exception e) {
+                IOException errorSalida = errorDeSalida(e);
+                if (errorSalida != null) {
+                    // Lo normal es que el cliente haya cortado la descarga; no es un fallo de la exportación
+                    logger.info("Exportación {} interrumpida tras {} ms: {}", archivo, System.currentTimeMillis() - inicio, errorSalida.getMessage());
+                    throw errorSalida;
+                }
+                logger.error("Error en exportación {} tras {} ms", archivo, System.currentTimeMillis() - inicio, e);
+                throw new IOException("Error en exportación " + archivo, e);
+            }
+        };
+        
+        configurarProcesamientoAsincrono();
+        
+        MediaType tipo = gzip ? MediaType.parseMediaType("application/gzip") : MediaType.parseMediaType(ExportWriter.tipoContenido(formatoNormalizado));
+        return ResponseEntity.ok()
+            .header(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition.attachment().filename(archivo).build().toString())
+            .contentType(tipo)
+            .body(cuerpo);
+    }
+    
+    /**
+     * Error de escritura en la salida: un IOException directo (al cerrar o desde la fuente) o el
+     * UncheckedIOException con que ExportWriter lo envuelve dentro de callbacks de JDBC.
+     */
+    private static IOException errorDeSalida(Exception e) {
+        if (e instanceof IOException) {
+            return (IOException) e;
+        }
+        for (Throwable causa = e; causa != null; causa = causa.getCause()) {
+            if (causa instanceof UncheckedIOException) {
+                return ((UncheckedIOException) causa).getCause();
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * El StreamingResponseBody se escribe con el WebAsyncManager de la petición actual: se le asigna el pool de
+     * exportaciones y, justo antes de iniciar el modo asíncrono, el timeout de exportación.
+     */
+    private void configurarProcesamientoAsincrono() {
+        RequestAttributes atributos = RequestContextHolder.getRequestAttributes();
+        if (!(atributos instanceof ServletRequestAttributes)) {
+            return;
+        }
+        
+        WebAsyncManager asyncManager = WebAsyncUtils.getAsyncManager(((ServletRequestAttributes) atributos).getRequest());
+        asyncManager.setTaskExecutor(exportTaskExecutor);
+        asyncManager.registerCallableInterceptor(CLAVE_INTERCEPTOR_TIMEOUT, new CallableProcessingInterceptor() {
+            @Override
+            public <T> void beforeConcurrentHandling(NativeWebRequest request, Callable<T> task) {
+                if (request instanceof AsyncWebRequest) {
+                    ((AsyncWebRequest) request).setTimeout(timeoutMs);
+                }
+            }
+        });
+    }
+    
+    /**
+     * Resumen de una lista de milestones para una celda de la exportación, p. ej. "1/7|5/14".
+     */
+    public static String resumirMilestones(List<MilestoneInstanceDTO> milestones) {
+        if (milestones == null || milestones.isEmpty()) {
+            return null;
+        }
+        StringJoiner resumen = new StringJoiner("|");
+        for (MilestoneInstanceDTO milestone : milestones) {
+            resumen.add(milestone.getMilestoneType() + "/" + milestone.getPeriodDays());
+        }
+        return resumen.toString();
+    }
+    
+    public static BigDecimal sumarMontosYango(List<YangoTransactionMatchedDTO> transacciones) {
+        BigDecimal total = BigDecimal.ZERO;
+        if (transacciones != null) {
+            for (YangoTransactionMatchedDTO transaccion : transacciones) {
+                if (transaccion.getAmountYango() != null) {
+                    total = total.add(transaccion.getAmountYango());
+                }
+            }
+        }
+        return total;
+    }
+    
+    public static int contar(List<?> lista) {
+        return lista != null ? lista.size() : 0;
+    }
+}
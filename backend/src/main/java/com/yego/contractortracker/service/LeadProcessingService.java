@@ -5,11 +5,19 @@ import com.yego.contractortracker.entity.ContractorTrackingHistory;
 import com.yego.contractortracker.entity.LeadMatch;
 import com.yego.contractortracker.entity.MilestoneInstance;
 import com.yego.contractortracker.repository.ContractorTrackingHistoryRepository;
+import com.yego.contractortracker.repository.CursorQueryExecutor;
+import com.yego.contractortracker.repository.IdArrayQueryExecutor;
+import com.yego.contractortracker.repository.LeadMatchBulkRepository;
 import com.yego.contractortracker.repository.LeadMatchRepository;
 import com.yego.contractortracker.repository.MilestoneInstanceRepository;
+import com.yego.contractortracker.repository.TrackingHistoryBulkRepository;
+import com.yego.contractortracker.util.ResultSetUtil;
+import com.yego.contractortracker.util.SimilitudUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
@@ -18,10 +26,13 @@ import org.springframework.web.multipart.MultipartFile;
 import java.io.BufferedReader;
 import java.io.InputStreamReader;
 import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 @Service
@@ -49,14 +60,55 @@ public class LeadProcessingService {
     @Autowired
     private YangoTransactionRematchService yangoTransactionRematchService;
     
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+    
+    @Autowired
+    private DriverDirectoryService driverDirectory;
+    
+    @Autowired
+    private MatchingParaleloExecutor matchingExecutor;
+    
+    @Autowired
+    private LeadMatchBulkRepository leadMatchBulkRepository;
+    
+    @Autowired
+    private MilestoneProgressService progressService;
+    
+    @Autowired
+    private TrackingHistoryBulkRepository trackingHistoryBulkRepository;
+    
+    @Autowired
+    private IdArrayQueryExecutor idArrayQueryExecutor;
+    
+    @Autowired
+    private CursorQueryExecutor cursorQueryExecutor;
+    
+    @Value("${leads.reprocess.page-size:2000}")
+    private int reprocessPageSize;
+    
     @Transactional
     public LeadProcessingResultDTO procesarArchivoCSV(MultipartFile file) {
+        return procesarArchivoCSV(file, null);
+    }
+    
+    /**
+     * @param jobId opcional; si se informa, el avance se publica en MilestoneProgressService y
+     *              el procesamiento se puede cancelar antes del matching o antes de guardar
+     */
+    @Transactional
+    public LeadProcessingResultDTO procesarArchivoCSV(MultipartFile file, String jobId) {
         logger.info("Iniciando procesamiento de archivo CSV: {}", file.getOriginalFilename());
         
         try {
             List<LeadDTO> leads = leerCSV(file);
             logger.info("Leídos {} leads del CSV", leads.size());
             
+            if (jobId != null) {
+                progressService.startProgress(jobId, "leads-csv", leads.size());
+                progressService.verificarCancelacion(jobId);
+            }
+            
             if (leads.isEmpty()) {
                 return new LeadProcessingResultDTO(0, 0, 0, 0, LocalDateTime.now(), "No se encontraron leads en el archivo", null, null);
             }
@@ -67,11 +119,8 @@ public class LeadProcessingService {
             
             logger.info("Rango de fechas de leads: {} a {}", minDate, maxDate);
             
-            List<Map<String, Object>> drivers = buscarDriversEnRango(minDate, maxDate, DEFAULT_TIME_MARGIN_DAYS);
-            logger.info("Encontrados {} drivers en rango ampliado", drivers.size());
-            
-            DriverIndex driverIndex = crearIndiceDrivers(drivers);
-            logger.info("Índice creado: {} por teléfono, {} por nombre", driverIndex.byPhone.size(), driverIndex.byName.size());
+            DriverDirectoryService.VistaDirectorio driverIndex = vistaDriversEnRango(minDate, maxDate, DEFAULT_TIME_MARGIN_DAYS);
+            logger.info("Encontrados {} drivers en rango ampliado", driverIndex.tamano());
             
             Set<String> externalIds = leads.stream()
                     .map(LeadDTO::getExternalId)
@@ -96,8 +145,12 @@ public class LeadProcessingService {
             logger.info("Iniciando matching de {} leads...", leads.size());
             int procesados = 0;
             
-            for (LeadDTO lead : leads) {
-                Optional<Map<String, Object>> mejorMatch = encontrarMejorMatchOptimizado(lead, driverIndex, DEFAULT_TIME_MARGIN_DAYS);
+            List<Optional<Map<String, Object>>> resultadosMatching = matchingExecutor.mapear("leads-csv", leads,
+                    lead -> encontrarMejorMatchOptimizado(lead, driverIndex, DEFAULT_TIME_MARGIN_DAYS));
+            
+            for (int i = 0; i < leads.size(); i++) {
+                LeadDTO lead = leads.get(i);
+                Optional<Map<String, Object>> mejorMatch = resultadosMatching.get(i);
                 
                 LeadMatch leadMatch = matchesExistentes.getOrDefault(lead.getExternalId(), new LeadMatch());
                 
@@ -159,6 +212,11 @@ public class LeadProcessingService {
                 }
             }
             
+            if (jobId != null) {
+                progressService.updateProgress(jobId, procesados, 0, 0, 0);
+                progressService.verificarCancelacion(jobId);
+            }
+            
             logger.info("Guardando {} matches en batch...", matchesParaGuardar.size());
             leadMatchRepository.saveAll(matchesParaGuardar);
             
@@ -169,10 +227,12 @@ public class LeadProcessingService {
             
             logger.info("Procesamiento completado. Matched: {}, Unmatched: {}", matchedCount, unmatchedCount);
             
+            eventPublisher.publishEvent(new DashboardCacheService.DatosActualizadosEvent("leads-csv"));
+            
             // Iniciar re-matching automático de transacciones Yango después de procesar leads
             String rematchJobId = "yango-rematch-leads-" + System.currentTimeMillis();
             logger.info("Iniciando re-matching automático de transacciones Yango. JobId: {}", rematchJobId);
-            yangoTransactionRematchService.rematchAllTransactionsAsync(rematchJobId);
+            yangoTransactionRematchService.rematchChangedTransactionsAsync(rematchJobId);
             
             return new LeadProcessingResultDTO(
                 leads.size(),
@@ -303,11 +363,11 @@ public class LeadProcessingService {
             }
             
             if (lead.getPhone() != null) {
-                telefonosUnicos.add(normalizarTelefono(lead.getPhone()));
+                telefonosUnicos.add(SimilitudUtil.limpiarTelefono(lead.getPhone()));
             }
             
             if (lead.getFirstName() != null && lead.getLastName() != null) {
-                String nombreCompleto = normalizarNombre(lead.getFirstName() + " " + lead.getLastName());
+                String nombreCompleto = SimilitudUtil.normalizarNombre(lead.getFirstName() + " " + lead.getLastName());
                 nombresUnicos.add(nombreCompleto);
             }
         }
@@ -321,121 +381,53 @@ public class LeadProcessingService {
         return mapeo;
     }
     
-    private List<Map<String, Object>> buscarDriversEnRango(LocalDate minDate, LocalDate maxDate, int marginDays) {
+    private DriverDirectoryService.VistaDirectorio vistaDriversEnRango(LocalDate minDate, LocalDate maxDate, int marginDays) {
         LocalDate fechaDesde = minDate != null ? minDate.minusDays(marginDays) : LocalDate.now().minusMonths(3);
         LocalDate fechaHasta = maxDate != null ? maxDate.plusDays(marginDays) : LocalDate.now();
         
-        String sql = "SELECT driver_id, park_id, full_name, phone, hire_date " +
-                     "FROM drivers " +
-                     "WHERE hire_date BETWEEN ? AND ? " +
-                     "ORDER BY hire_date";
-        
-        return jdbcTemplate.queryForList(sql, fechaDesde, fechaHasta);
-    }
-    
-    private static class DriverIndex {
-        Map<String, List<Map<String, Object>>> byPhone = new HashMap<>();
-        Map<String, List<Map<String, Object>>> byName = new HashMap<>();
-        Map<String, List<Map<String, Object>>> byNameWords = new HashMap<>();
-        Map<String, Map<String, Object>> byId = new HashMap<>();
+        return driverDirectory.vista(fechaDesde, fechaHasta);
     }
     
-    private DriverIndex crearIndiceDrivers(List<Map<String, Object>> drivers) {
-        DriverIndex index = new DriverIndex();
-        
-        for (Map<String, Object> driver : drivers) {
-            String driverId = (String) driver.get("driver_id");
-            String phone = (String) driver.get("phone");
-            String fullName = (String) driver.get("full_name");
-            Object hireDateObj = driver.get("hire_date");
-            
-            LocalDate hireDate = null;
-            if (hireDateObj instanceof java.sql.Date) {
-                hireDate = ((java.sql.Date) hireDateObj).toLocalDate();
-            } else if (hireDateObj instanceof LocalDate) {
-                hireDate = (LocalDate) hireDateObj;
-            }
-            
-            Map<String, Object> driverInfo = new HashMap<>();
-            driverInfo.put("driver_id", driverId);
-            driverInfo.put("phone", phone != null ? normalizarTelefono(phone) : null);
-            driverInfo.put("full_name", fullName != null ? normalizarNombre(fullName) : null);
-            driverInfo.put("hire_date", hireDate);
-            driverInfo.put("original_phone", phone);
-            driverInfo.put("original_full_name", fullName);
-            
-            index.byId.put(driverId, driverInfo);
-            
-            String normalizedPhone = phone != null ? normalizarTelefono(phone) : null;
-            if (normalizedPhone != null && !normalizedPhone.isEmpty()) {
-                index.byPhone.computeIfAbsent(normalizedPhone, k -> new ArrayList<>()).add(driverInfo);
-            }
-            
-            String normalizedName = fullName != null ? normalizarNombre(fullName) : null;
-            if (normalizedName != null && !normalizedName.isEmpty()) {
-                index.byName.computeIfAbsent(normalizedName, k -> new ArrayList<>()).add(driverInfo);
-                
-                // Índice por palabras individuales para búsqueda flexible
-                String[] palabras = normalizedName.split("\\s+");
-                for (String palabra : palabras) {
-                    if (palabra.length() >= 3) { // Solo palabras de 3+ caracteres
-                        index.byNameWords.computeIfAbsent(palabra, k -> new ArrayList<>()).add(driverInfo);
-                    }
-                }
-            }
-        }
-        
-        return index;
-    }
-    
-    private Optional<Map<String, Object>> encontrarMejorMatchOptimizado(LeadDTO lead, DriverIndex index, int marginDays) {
+    private Optional<Map<String, Object>> encontrarMejorMatchOptimizado(LeadDTO lead, DriverDirectoryService.VistaDirectorio index, int marginDays) {
         return encontrarMejorMatchConSimilitud(lead, index, marginDays, true, true, 0.5, 0.7, 2, false);
     }
     
     private Optional<Map<String, Object>> encontrarMejorMatchConSimilitud(
-            LeadDTO lead, DriverIndex index, int marginDays,
+            LeadDTO lead, DriverDirectoryService.VistaDirectorio index, int marginDays,
             boolean matchByPhone, boolean matchByName,
             double nameThreshold, double phoneThreshold,
             int minWordsMatch, boolean ignoreSecondLastName) {
         
-        String leadPhone = lead.getPhone() != null ? normalizarTelefono(lead.getPhone()) : null;
+        String leadPhone = lead.getPhone() != null ? SimilitudUtil.limpiarTelefono(lead.getPhone()) : null;
         String leadNameOriginal = null;
         if (lead.getFirstName() != null && lead.getLastName() != null) {
             leadNameOriginal = lead.getFirstName() + " " + lead.getLastName();
         }
-        String leadName = leadNameOriginal != null ? normalizarNombre(leadNameOriginal) : null;
+        String leadName = leadNameOriginal != null ? SimilitudUtil.normalizarNombre(leadNameOriginal) : null;
+        SimilitudUtil.NombreTokenizado leadNombreTokenizado = SimilitudUtil.tokenizar(leadNameOriginal);
         
         Set<String> driverIdsCandidatos = new HashSet<>();
         
         // Búsqueda exacta inicial (rápida)
         if (leadPhone != null && !leadPhone.isEmpty() && matchByPhone) {
-            List<Map<String, Object>> driversPorTelefono = index.byPhone.get(leadPhone);
-            if (driversPorTelefono != null) {
-                for (Map<String, Object> driver : driversPorTelefono) {
-                    driverIdsCandidatos.add((String) driver.get("driver_id"));
-                }
+            for (DriverDirectoryService.RegistroDriver driver : index.porTelefono(leadPhone)) {
+                driverIdsCandidatos.add(driver.getDriverId());
             }
         }
         
         if (leadName != null && !leadName.isEmpty() && matchByName) {
-            List<Map<String, Object>> driversPorNombre = index.byName.get(leadName);
-            if (driversPorNombre != null) {
-                for (Map<String, Object> driver : driversPorNombre) {
-                    driverIdsCandidatos.add((String) driver.get("driver_id"));
-                }
+            for (DriverDirectoryService.RegistroDriver driver : index.porNombre(leadName)) {
+                driverIdsCandidatos.add(driver.getDriverId());
             }
         }
         
         // Búsqueda flexible por palabras individuales si no hay match exacto
         if (driverIdsCandidatos.isEmpty() && matchByName && leadNameOriginal != null) {
-            String[] palabras = normalizarNombreParaComparacion(leadNameOriginal).split("\\s+");
+            String[] palabras = SimilitudUtil.normalizarNombreParaComparacion(leadNameOriginal).split("\\s+");
             for (String palabra : palabras) {
-                if (palabra.length() >= 3 && index.byNameWords != null) {
-                    List<Map<String, Object>> driversPorPalabra = index.byNameWords.get(palabra);
-                    if (driversPorPalabra != null) {
-                        for (Map<String, Object> driver : driversPorPalabra) {
-                            driverIdsCandidatos.add((String) driver.get("driver_id"));
-                        }
+                if (palabra.length() >= 3) {
+                    for (DriverDirectoryService.RegistroDriver driver : index.porPalabra(palabra)) {
+                        driverIdsCandidatos.add(driver.getDriverId());
                     }
                 }
             }
@@ -444,12 +436,12 @@ public class LeadProcessingService {
         // Si aún no hay candidatos y hay teléfono, buscar por similitud de teléfono
         if (driverIdsCandidatos.isEmpty() && matchByPhone && leadPhone != null && !leadPhone.isEmpty()) {
             // Buscar en todos los drivers del índice (última opción, más lento)
-            for (Map<String, Object> driver : index.byId.values()) {
-                String driverPhone = (String) driver.get("phone");
+            for (DriverDirectoryService.RegistroDriver driver : index.todos()) {
+                String driverPhone = driver.getPhone();
                 if (driverPhone != null) {
-                    double phoneSim = calcularSimilitudTelefono(leadPhone, driverPhone, phoneThreshold);
+                    double phoneSim = SimilitudUtil.similitudTelefono(leadPhone, driverPhone);
                     if (phoneSim >= phoneThreshold) {
-                        driverIdsCandidatos.add((String) driver.get("driver_id"));
+                        driverIdsCandidatos.add(driver.getDriverId());
                     }
                 }
             }
@@ -462,23 +454,24 @@ public class LeadProcessingService {
         List<Map<String, Object>> posiblesMatches = new ArrayList<>();
         
         for (String driverId : driverIdsCandidatos) {
-            Map<String, Object> driver = index.byId.get(driverId);
+            DriverDirectoryService.RegistroDriver driver = index.porId(driverId);
             if (driver == null) continue;
             
-            String driverPhone = (String) driver.get("phone");
-            String driverNameOriginal = (String) driver.get("original_full_name");
-            LocalDate hireDate = (LocalDate) driver.get("hire_date");
+            String driverPhone = driver.getPhone();
+            String driverNameOriginal = driver.getFullName();
+            LocalDate hireDate = driver.getHireDate();
             
             // Calcular similitudes
             double phoneSim = 0.0;
             double nameSim = 0.0;
             
             if (matchByPhone && leadPhone != null && driverPhone != null) {
-                phoneSim = calcularSimilitudTelefono(leadPhone, driverPhone, phoneThreshold);
+                phoneSim = SimilitudUtil.similitudTelefono(leadPhone, driverPhone);
             }
             
             if (matchByName && leadNameOriginal != null && driverNameOriginal != null) {
-                nameSim = calcularSimilitudNombre(leadNameOriginal, driverNameOriginal, nameThreshold, minWordsMatch, ignoreSecondLastName);
+                nameSim = SimilitudUtil.similitudNombreConTypos(leadNombreTokenizado, driver.getNombreTokenizado(),
+                    nameThreshold, minWordsMatch, ignoreSecondLastName);
             }
             
             // Determinar si hay match
@@ -524,7 +517,7 @@ public class LeadProcessingService {
         // Logging detallado para debugging
         Double nameSim = (Double) mejorMatch.get("name_sim");
         Double phoneSim = (Double) mejorMatch.get("phone_sim");
-        String driverNameOriginal = (String) index.byId.get(mejorMatch.get("driver_id")).get("original_full_name");
+        String driverNameOriginal = index.porId((String) mejorMatch.get("driver_id")).getFullName();
         
         if (nameSim != null && nameSim > 0.0 && nameSim < 1.0) {
             logger.info("Match por similitud de nombre - Lead: '{}' vs Driver: '{}' - NameSim: {:.2f}, PhoneSim: {:.2f}, Score: {:.2f}",
@@ -571,225 +564,6 @@ public class LeadProcessingService {
         return 0.0;
     }
     
-    private String normalizarTelefono(String phone) {
-        if (phone == null) {
-            return null;
-        }
-        return phone.replaceAll("[\\s\\-\\(\\)]", "").trim();
-    }
-    
-    private String normalizarNombre(String name) {
-        if (name == null) {
-            return null;
-        }
-        return name.toLowerCase()
-                .replace("á", "a").replace("é", "e").replace("í", "i")
-                .replace("ó", "o").replace("ú", "u").replace("ñ", "n")
-                .replaceAll("\\s+", " ")
-                .trim();
-    }
-    
-    private String normalizarNombreParaComparacion(String name) {
-        if (name == null || name.trim().isEmpty()) {
-            return null;
-        }
-        
-        // Normalización básica
-        String normalized = name.toLowerCase()
-                .replace("á", "a").replace("é", "e").replace("í", "i")
-                .replace("ó", "o").replace("ú", "u").replace("ñ", "n")
-                .replaceAll("\\s+", " ")
-                .trim();
-        
-        // Dividir en palabras y filtrar palabras muy comunes
-        String[] palabras = normalized.split("\\s+");
-        List<String> palabrasFiltradas = new ArrayList<>();
-        Set<String> palabrasComunes = Set.of("de", "la", "del", "los", "las", "y", "e");
-        
-        for (String palabra : palabras) {
-            if (!palabrasComunes.contains(palabra) && palabra.length() > 1) {
-                palabrasFiltradas.add(palabra);
-            }
-        }
-        
-        // Ordenar alfabéticamente para manejar orden invertido
-        Collections.sort(palabrasFiltradas);
-        
-        return String.join(" ", palabrasFiltradas);
-    }
-    
-    private double calcularSimilitudNombre(String nombre1, String nombre2, double threshold, int minWordsMatch, boolean ignoreSecondLastName) {
-        if (nombre1 == null || nombre2 == null) {
-            return 0.0;
-        }
-        
-        String norm1 = normalizarNombreParaComparacion(nombre1);
-        String norm2 = normalizarNombreParaComparacion(nombre2);
-        
-        if (norm1 == null || norm2 == null || norm1.isEmpty() || norm2.isEmpty()) {
-            return 0.0;
-        }
-        
-        // Coincidencia exacta después de normalización
-        if (norm1.equals(norm2)) {
-            return 1.0;
-        }
-        
-        // Dividir en palabras
-        String[] palabras1 = norm1.split("\\s+");
-        String[] palabras2 = norm2.split("\\s+");
-        
-        // Si ignoreSecondLastName, tomar solo las primeras 2-3 palabras
-        if (ignoreSecondLastName) {
-            if (palabras1.length > 2) {
-                palabras1 = Arrays.copyOf(palabras1, 2);
-            }
-            if (palabras2.length > 2) {
-                palabras2 = Arrays.copyOf(palabras2, 2);
-            }
-        }
-        
-        Set<String> set1 = new HashSet<>(Arrays.asList(palabras1));
-        Set<String> set2 = new HashSet<>(Arrays.asList(palabras2));
-        
-        // Calcular intersección (palabras comunes)
-        Set<String> interseccion = new HashSet<>(set1);
-        interseccion.retainAll(set2);
-        
-        // Calcular unión
-        Set<String> union = new HashSet<>(set1);
-        union.addAll(set2);
-        
-        // Jaccard similarity
-        if (union.isEmpty()) {
-            return 0.0;
-        }
-        
-        double jaccard = (double) interseccion.size() / union.size();
-        
-        // Verificar si hay suficientes palabras coincidentes
-        if (interseccion.size() >= minWordsMatch && jaccard >= threshold) {
-            // Ajustar score si hay palabras similares (typos menores)
-            double adjustedScore = jaccard;
-            List<String> palabrasSimilares = new ArrayList<>();
-            for (String p1 : set1) {
-                for (String p2 : set2) {
-                    if (!p1.equals(p2) && calcularDistanciaLevenshtein(p1, p2) <= 2 && Math.max(p1.length(), p2.length()) >= 4) {
-                        // Palabras similares (typo menor)
-                        palabrasSimilares.add(p1 + "~" + p2);
-                        adjustedScore = Math.max(adjustedScore, jaccard + 0.2);
-                        break;
-                    }
-                }
-            }
-            
-            // Logging detallado si hay match por similitud
-            if (adjustedScore > jaccard || interseccion.size() > 0) {
-                logger.debug("Similitud nombre - '{}' vs '{}': Intersección: {}, Unión: {}, Jaccard: {}, Ajustado: {}, Palabras similares: {}",
-                    nombre1, nombre2, interseccion.size(), union.size(), 
-                    String.format("%.2f", jaccard), String.format("%.2f", adjustedScore), palabrasSimilares);
-            }
-            
-            return Math.min(adjustedScore, 1.0);
-        }
-        
-        return 0.0;
-    }
-    
-    private int calcularDistanciaLevenshtein(String s1, String s2) {
-        if (s1 == null || s2 == null) {
-            return Integer.MAX_VALUE;
-        }
-        if (s1.equals(s2)) {
-            return 0;
-        }
-        if (s1.length() == 0) {
-            return s2.length();
-        }
-        if (s2.length() == 0) {
-            return s1.length();
-        }
-        
-        int[][] dp = new int[s1.length() + 1][s2.length() + 1];
-        
-        for (int i = 0; i <= s1.length(); i++) {
-            dp[i][0] = i;
-        }
-        for (int j = 0; j <= s2.length(); j++) {
-            dp[0][j] = j;
-        }
-        
-        for (int i = 1; i <= s1.length(); i++) {
-            for (int j = 1; j <= s2.length(); j++) {
-                if (s1.charAt(i - 1) == s2.charAt(j - 1)) {
-                    dp[i][j] = dp[i - 1][j - 1];
-                } else {
-                    dp[i][j] = Math.min(Math.min(dp[i - 1][j] + 1, dp[i][j - 1] + 1), dp[i - 1][j - 1] + 1);
-                }
-            }
-        }
-        
-        return dp[s1.length()][s2.length()];
-    }
-    
-    private double calcularSimilitudTelefono(String telefono1, String telefono2, double threshold) {
-        if (telefono1 == null || telefono2 == null) {
-            return 0.0;
-        }
-        
-        String norm1 = normalizarTelefono(telefono1);
-        String norm2 = normalizarTelefono(telefono2);
-        
-        if (norm1.isEmpty() || norm2.isEmpty()) {
-            return 0.0;
-        }
-        
-        // Coincidencia exacta
-        if (norm1.equals(norm2)) {
-            return 1.0;
-        }
-        
-        // Comparar últimos 7-9 dígitos (ignorar código de país/prefijo)
-        int len1 = norm1.length();
-        int len2 = norm2.length();
-        
-        int minLen = Math.min(len1, len2);
-        int maxLen = Math.max(len1, len2);
-        
-        // Si las longitudes son muy diferentes, no es match
-        if (maxLen - minLen > 3) {
-            return 0.0;
-        }
-        
-        // Comparar últimos dígitos (mínimo 7)
-        int compareLen = Math.min(minLen, 9);
-        String last1 = len1 >= compareLen ? norm1.substring(len1 - compareLen) : norm1;
-        String last2 = len2 >= compareLen ? norm2.substring(len2 - compareLen) : norm2;
-        
-        // Calcular diferencias
-        int diferencias = 0;
-        int minCompare = Math.min(last1.length(), last2.length());
-        for (int i = 0; i < minCompare; i++) {
-            if (last1.charAt(i) != last2.charAt(i)) {
-                diferencias++;
-            }
-        }
-        diferencias += Math.abs(last1.length() - last2.length());
-        
-        // Calcular similitud basada en diferencias
-        if (diferencias == 0) {
-            return 1.0;
-        } else if (diferencias == 1) {
-            return 0.9;
-        } else if (diferencias == 2) {
-            return 0.7;
-        } else if (diferencias <= 3 && minCompare >= 7) {
-            return 0.5;
-        }
-        
-        return 0.0;
-    }
-    
     private void actualizarCanalAdquisicion(String driverId) {
         Optional<ContractorTrackingHistory> latest = trackingHistoryRepository.findLatestByDriverId(driverId);
         
@@ -820,22 +594,20 @@ public class LeadProcessingService {
         
         String sql = "UPDATE contractor_tracking_history " +
                      "SET acquisition_channel = 'cabinet' " +
-                     "WHERE driver_id IN (" + 
-                     driverIds.stream().map(id -> "?").collect(Collectors.joining(",")) + ")";
+                     "WHERE driver_id = ANY(?)";
         
-        jdbcTemplate.update(sql, driverIds.toArray());
+        idArrayQueryExecutor.update(sql, driverIds, IdArrayQueryExecutor.IDS);
         
         String sqlInsert = "INSERT INTO contractor_tracking_history " +
                           "(driver_id, park_id, acquisition_channel, calculation_date, total_trips_historical, " +
                           "has_historical_connection, status_registered, status_connected, status_with_trips, last_updated) " +
                           "SELECT d.driver_id, d.park_id, 'cabinet', CURRENT_TIMESTAMP, 0, false, false, false, false, CURRENT_TIMESTAMP " +
                           "FROM drivers d " +
-                          "WHERE d.driver_id IN (" + 
-                          driverIds.stream().map(id -> "?").collect(Collectors.joining(",")) + ") " +
+                          "WHERE d.driver_id = ANY(?) " +
                           "AND NOT EXISTS (SELECT 1 FROM contractor_tracking_history cth WHERE cth.driver_id = d.driver_id)";
         
         try {
-            jdbcTemplate.update(sqlInsert, driverIds.toArray());
+            idArrayQueryExecutor.update(sqlInsert, driverIds, IdArrayQueryExecutor.IDS);
         } catch (Exception e) {
             logger.warn("Error al insertar nuevos registros de tracking history: {}", e.getMessage());
         }
@@ -898,6 +670,7 @@ public class LeadProcessingService {
         leadMatchRepository.save(match);
         
         actualizarCanalAdquisicion(driverId);
+        eventPublisher.publishEvent(new DashboardCacheService.DatosActualizadosEvent("lead-match-manual"));
     }
     
     @Transactional
@@ -907,6 +680,7 @@ public class LeadProcessingService {
         
         match.setIsDiscarded(true);
         leadMatchRepository.save(match);
+        eventPublisher.publishEvent(new DashboardCacheService.DatosActualizadosEvent("lead-descartado"));
     }
     
     @Transactional
@@ -918,103 +692,96 @@ public class LeadProcessingService {
         boolean matchByName = config.getMatchByName() != null ? config.getMatchByName() : true;
         double threshold = config.getMatchThreshold() != null ? config.getMatchThreshold() : 0.5;
         
-        List<LeadMatch> leadsToReprocess;
         String scope = (config.getReprocessScope() != null) ? config.getReprocessScope() : "unmatched";
+        LeadMatchBulkRepository.ResumenAlcance alcance = leadMatchBulkRepository.resumirAlcance(scope);
         
-        if ("all".equalsIgnoreCase(scope)) {
-            leadsToReprocess = leadMatchRepository.findAll().stream()
-                    .filter(lm -> !lm.getIsDiscarded())
-                    .collect(Collectors.toList());
-        } else if ("unmatched".equalsIgnoreCase(scope)) {
-            leadsToReprocess = leadMatchRepository.findUnmatchedLeads();
-        } else if ("discarded".equalsIgnoreCase(scope)) {
-            leadsToReprocess = leadMatchRepository.findAll().stream()
-                    .filter(lm -> lm.getIsDiscarded())
-                    .collect(Collectors.toList());
-        } else {
-            leadsToReprocess = leadMatchRepository.findUnmatchedLeads();
-        }
-        
-        if (leadsToReprocess.isEmpty()) {
+        if (alcance.getTotal() == 0) {
             return new LeadProcessingResultDTO(0, 0, 0, 0, LocalDateTime.now(), "No hay leads para reprocesar", null, null);
         }
         
-        LocalDate minDate = leadsToReprocess.stream()
-                .map(LeadMatch::getLeadCreatedAt)
-                .filter(Objects::nonNull)
-                .min(LocalDate::compareTo)
-                .orElse(LocalDate.now().minusMonths(3));
+        LocalDate minDate = alcance.getMinDate() != null ? alcance.getMinDate() : LocalDate.now().minusMonths(3);
+        LocalDate maxDate = alcance.getMaxDate() != null ? alcance.getMaxDate() : LocalDate.now();
         
-        LocalDate maxDate = leadsToReprocess.stream()
-                .map(LeadMatch::getLeadCreatedAt)
-                .filter(Objects::nonNull)
-                .max(LocalDate::compareTo)
-                .orElse(LocalDate.now());
+        DriverDirectoryService.VistaDirectorio driverIndex = vistaDriversEnRango(minDate, maxDate, timeMargin);
         
-        List<Map<String, Object>> drivers = buscarDriversEnRango(minDate, maxDate, timeMargin);
-        DriverIndex driverIndex = crearIndiceDrivers(drivers);
+        logger.info("Reprocesando {} leads (scope={}) en páginas de {}", alcance.getTotal(), scope, reprocessPageSize);
         
+        int processedCount = 0;
         int matchedCount = 0;
         int unmatchedCount = 0;
+        long ultimoId = 0;
         
-        for (LeadMatch leadMatch : leadsToReprocess) {
-            LeadDTO lead = new LeadDTO();
-            lead.setExternalId(leadMatch.getExternalId());
-            lead.setLeadCreatedAt(leadMatch.getLeadCreatedAt());
-            // Recuperar datos originales del lead desde LeadMatch
-            lead.setPhone(leadMatch.getLeadPhone());
-            lead.setFirstName(leadMatch.getLeadFirstName());
-            lead.setLastName(leadMatch.getLeadLastName());
+        while (true) {
+            List<LeadMatchBulkRepository.LeadPendiente> pagina = leadMatchBulkRepository.cargarPagina(scope, ultimoId, reprocessPageSize);
+            if (pagina.isEmpty()) {
+                break;
+            }
+            ultimoId = pagina.get(pagina.size() - 1).getId();
+            
+            List<LeadDTO> leads = new ArrayList<>(pagina.size());
+            for (LeadMatchBulkRepository.LeadPendiente pendiente : pagina) {
+                LeadDTO lead = new LeadDTO();
+                lead.setExternalId(pendiente.getExternalId());
+                lead.setLeadCreatedAt(pendiente.getLeadCreatedAt());
+                // Recuperar datos originales del lead desde lead_matches
+                lead.setPhone(pendiente.getLeadPhone());
+                lead.setFirstName(pendiente.getLeadFirstName());
+                lead.setLastName(pendiente.getLeadLastName());
+                leads.add(lead);
+            }
             
-            Optional<Map<String, Object>> mejorMatch = encontrarMejorMatchConReglasOptimizado(
-                    lead, driverIndex, timeMargin, matchByPhone, matchByName, threshold, config);
+            List<Optional<Map<String, Object>>> resultadosMatching = matchingExecutor.mapear("leads-reprocesar", leads,
+                    lead -> encontrarMejorMatchConReglasOptimizado(lead, driverIndex, timeMargin, matchByPhone, matchByName, threshold, config));
             
-            if (mejorMatch.isPresent()) {
-                Map<String, Object> match = mejorMatch.get();
-                String driverId = (String) match.get("driver_id");
-                Double score = (Double) match.get("score");
-                LocalDate hireDate = (LocalDate) match.get("hire_date");
-                
-                leadMatch.setDriverId(driverId);
-                leadMatch.setHireDate(hireDate);
-                leadMatch.setMatchScore(score);
-                leadMatch.setIsManual(false);
-                leadMatch.setIsDiscarded(false);
-                leadMatch.setMatchedAt(LocalDateTime.now());
-                leadMatchRepository.save(leadMatch);
+            List<LeadMatchBulkRepository.ResultadoMatch> resultados = new ArrayList<>(pagina.size());
+            Set<String> driversMatcheados = new LinkedHashSet<>();
+            for (int i = 0; i < pagina.size(); i++) {
+                Long leadId = pagina.get(i).getId();
+                Optional<Map<String, Object>> mejorMatch = resultadosMatching.get(i);
                 
-                actualizarCanalAdquisicion(driverId);
-                matchedCount++;
-            } else {
-                leadMatch.setDriverId("");
-                leadMatch.setMatchScore(0.0);
-                leadMatch.setIsManual(false);
-                leadMatch.setIsDiscarded(false);
-                leadMatchRepository.save(leadMatch);
-                unmatchedCount++;
+                if (mejorMatch.isPresent()) {
+                    Map<String, Object> match = mejorMatch.get();
+                    String driverId = (String) match.get("driver_id");
+                    resultados.add(new LeadMatchBulkRepository.ResultadoMatch(
+                            leadId, driverId, (LocalDate) match.get("hire_date"), (Double) match.get("score")));
+                    driversMatcheados.add(driverId);
+                    matchedCount++;
+                } else {
+                    resultados.add(new LeadMatchBulkRepository.ResultadoMatch(leadId, null, null, 0.0));
+                    unmatchedCount++;
+                }
             }
+            
+            leadMatchBulkRepository.guardarResultados(resultados);
+            trackingHistoryBulkRepository.marcarCanalAdquisicion(driversMatcheados, "cabinet");
+            processedCount += pagina.size();
+            
+            logger.info("Reprocesamiento de leads: {}/{} procesados ({} matcheados, {} sin match)",
+                    processedCount, alcance.getTotal(), matchedCount, unmatchedCount);
         }
         
+        eventPublisher.publishEvent(new DashboardCacheService.DatosActualizadosEvent("leads-reprocesar"));
+        
         // Iniciar re-matching automático de transacciones Yango después de reprocesar leads
         String rematchJobId = "yango-rematch-reprocess-" + System.currentTimeMillis();
         logger.info("Iniciando re-matching automático de transacciones Yango después de reprocesamiento. JobId: {}", rematchJobId);
-        yangoTransactionRematchService.rematchAllTransactionsAsync(rematchJobId);
+        yangoTransactionRematchService.rematchChangedTransactionsAsync(rematchJobId);
         
         return new LeadProcessingResultDTO(
-                leadsToReprocess.size(),
+                processedCount,
                 matchedCount,
                 unmatchedCount,
                 0,
                 LocalDateTime.now(),
                 String.format("Reprocesados %d leads: %d matcheados, %d sin match", 
-                        leadsToReprocess.size(), matchedCount, unmatchedCount),
+                        processedCount, matchedCount, unmatchedCount),
                 minDate,
                 maxDate
         );
     }
     
     private Optional<Map<String, Object>> encontrarMejorMatchConReglasOptimizado(
-            LeadDTO lead, DriverIndex index, 
+            LeadDTO lead, DriverDirectoryService.VistaDirectorio index, 
             int marginDays, boolean matchByPhone, boolean matchByName, double threshold,
             LeadReprocessConfig config) {
         
@@ -1157,7 +924,7 @@ public class LeadProcessingService {
         LocalDate fechaHasta = lead.getLeadCreatedAt().plusDays(3);
         
         String leadName = construirNombreCompleto(lead.getLeadFirstName(), lead.getLeadLastName());
-        String normalizedLeadName = leadName != null ? normalizarNombre(leadName) : null;
+        String normalizedLeadName = leadName != null ? SimilitudUtil.normalizarNombre(leadName) : null;
         
         StringBuilder sql = new StringBuilder();
         sql.append("SELECT sr.id, sr.scout_id, sr.registration_date, sr.driver_name, ");
@@ -1245,15 +1012,15 @@ public class LeadProcessingService {
         
         String scoutDriverName = (String) scoutReg.get("driver_name");
         String leadName = construirNombreCompleto(lead.getLeadFirstName(), lead.getLeadLastName());
-        String normalizedLeadName = leadName != null ? normalizarNombre(leadName) : null;
-        String normalizedScoutName = scoutDriverName != null ? normalizarNombre(scoutDriverName) : null;
+        String normalizedLeadName = leadName != null ? SimilitudUtil.normalizarNombre(leadName) : null;
+        String normalizedScoutName = scoutDriverName != null ? SimilitudUtil.normalizarNombre(scoutDriverName) : null;
         
         double scoreNombre = 0.0;
         if (normalizedLeadName != null && normalizedScoutName != null) {
             if (normalizedLeadName.equals(normalizedScoutName)) {
                 scoreNombre = 1.0;
             } else {
-                scoreNombre = calcularSimilitudNombre(normalizedLeadName, normalizedScoutName, 0.7, 2, false);
+                scoreNombre = SimilitudUtil.similitudNombreConTypos(normalizedLeadName, normalizedScoutName, 0.7, 2, false);
             }
         }
         
@@ -1269,6 +1036,7 @@ public class LeadProcessingService {
         lead.setScoutMatchScore(scoreTotal);
         lead.setScoutMatchDate(LocalDateTime.now());
         leadMatchRepository.save(lead);
+        eventPublisher.publishEvent(new DashboardCacheService.DatosActualizadosEvent("lead-scout-registration"));
     }
     
     private String construirNombreCompleto(String firstName, String lastName) {
@@ -1298,6 +1066,100 @@ public class LeadProcessingService {
         logger.info("Obteniendo leads para cabinet con filtros - dateFrom: {}, dateTo: {}, matchStatus: {}, driverStatus: {}, milestoneType: {}, milestonePeriod: {}, search: {}, includeDiscarded: {}",
                 dateFrom, dateTo, matchStatus, driverStatus, milestoneType, milestonePeriod, search, includeDiscarded);
         
+        List<Object> params = new ArrayList<>();
+        String sql = construirConsultaLeadsCabinet(dateFrom, dateTo, matchStatus, search, includeDiscarded, params);
+        
+        try {
+            List<LeadCabinetDTO> leads = jdbcTemplate.query(sql, (rs, rowNum) -> mapearLeadCabinet(rs), params.toArray());
+            logger.info("Se obtuvieron {} leads para cabinet", leads.size());
+            
+            leads.removeIf(lead -> !cumpleEstadoDriver(lead, driverStatus));
+            asignarMilestonesLeads(leads, milestoneType, milestonePeriod);
+            cargarTransaccionesYango14dParaLeads(leads);
+            
+            Collections.sort(leads, (lead1, lead2) -> {
+                boolean hasMilestones1 = lead1.getMilestones() != null && !lead1.getMilestones().isEmpty();
+                boolean hasMilestones2 = lead2.getMilestones() != null && !lead2.getMilestones().isEmpty();
+                
+                if (hasMilestones1 && !hasMilestones2) {
+                    return -1;
+                }
+                if (!hasMilestones1 && hasMilestones2) {
+                    return 1;
+                }
+                
+                LocalDate date1 = lead1.getLeadCreatedAt();
+                LocalDate date2 = lead2.getLeadCreatedAt();
+                
+                if (date1 != null && date2 != null) {
+                    int dateCompare = date2.compareTo(date1);
+                    if (dateCompare != 0) {
+                        return dateCompare;
+                    }
+                } else if (date1 != null) {
+                    return -1;
+                } else if (date2 != null) {
+                    return 1;
+                }
+                
+                String extId1 = lead1.getExternalId();
+                String extId2 = lead2.getExternalId();
+                if (extId1 != null && extId2 != null) {
+                    return extId1.compareTo(extId2);
+                }
+                return 0;
+            });
+            
+            logger.info("Retornando {} leads para cabinet después de aplicar filtros", leads.size());
+            return leads;
+            
+        } catch (Exception e) {
+            logger.error("Error al obtener leads para cabinet", e);
+            logger.error("SQL ejecutado: {}", sql);
+            logger.error("Parámetros: {}", params);
+            throw new RuntimeException("Error al obtener leads para cabinet: " + e.getMessage(), e);
+        }
+    }
+    
+    /**
+     * Mismos leads y filtros que obtenerTodosLosLeadsConEstado, recorridos por cursor para exportaciones.
+     * Milestones y transacciones Yango se cargan por bloques. El orden es el de la consulta
+     * (lead_created_at DESC, external_id): no se adelantan los leads con milestones, porque eso exige
+     * tener el resultado completo en memoria.
+     *
+     * @return número de leads entregados al consumidor
+     */
+    public long recorrerLeadsConEstado(
+            LocalDate dateFrom,
+            LocalDate dateTo,
+            String matchStatus,
+            String driverStatus,
+            Integer milestoneType,
+            Integer milestonePeriod,
+            String search,
+            Boolean includeDiscarded,
+            Consumer<LeadCabinetDTO> consumidor) {
+        
+        List<Object> params = new ArrayList<>();
+        String sql = construirConsultaLeadsCabinet(dateFrom, dateTo, matchStatus, search, includeDiscarded, params);
+        long[] entregados = {0};
+        
+        cursorQueryExecutor.recorrerEnBloques("leads-cabinet-export", sql, (rs, rowNum) -> mapearLeadCabinet(rs), bloque -> {
+            List<LeadCabinetDTO> leads = new ArrayList<>(bloque);
+            leads.removeIf(lead -> !cumpleEstadoDriver(lead, driverStatus));
+            asignarMilestonesLeads(leads, milestoneType, milestonePeriod);
+            cargarTransaccionesYango14dParaLeads(leads);
+            for (LeadCabinetDTO lead : leads) {
+                consumidor.accept(lead);
+            }
+            entregados[0] += leads.size();
+        }, params.toArray());
+        
+        return entregados[0];
+    }
+    
+    private String construirConsultaLeadsCabinet(LocalDate dateFrom, LocalDate dateTo, String matchStatus,
+                                                 String search, Boolean includeDiscarded, List<Object> params) {
         StringBuilder sql = new StringBuilder();
         sql.append("SELECT ");
         sql.append("  lm.external_id, ");
@@ -1312,25 +1174,23 @@ public class LeadProcessingService {
         sql.append("  lm.lead_last_name, ");
         sql.append("  d.full_name as driver_full_name, ");
         sql.append("  d.phone as driver_phone, ");
-        sql.append("  d.hire_date as driver_hire_date ");
-        sql.append("  COALESCE(SUM(CASE WHEN sd.driver_id IS NOT NULL ");
-        sql.append("    AND TO_DATE(sd.date_file, 'DD-MM-YYYY') >= d.hire_date ");
-        sql.append("    AND TO_DATE(sd.date_file, 'DD-MM-YYYY') < d.hire_date + INTERVAL '14 days' ");
-        sql.append("    THEN sd.count_orders_completed ELSE 0 END), 0) as total_trips_14d, ");
-        sql.append("  SUM(CASE WHEN sd.driver_id IS NOT NULL ");
-        sql.append("    AND TO_DATE(sd.date_file, 'DD-MM-YYYY') >= d.hire_date ");
-        sql.append("    AND TO_DATE(sd.date_file, 'DD-MM-YYYY') < d.hire_date + INTERVAL '14 days' ");
-        sql.append("    THEN sd.sum_work_time_seconds ELSE NULL END) as sum_work_time_seconds ");
+        sql.append("  d.hire_date as driver_hire_date, ");
+        sql.append("  COALESCE(SUM(CASE WHEN da.driver_id IS NOT NULL ");
+        sql.append("    AND da.activity_date >= d.hire_date ");
+        sql.append("    AND da.activity_date < d.hire_date + INTERVAL '14 days' ");
+        sql.append("    THEN da.orders_completed ELSE 0 END), 0) as total_trips_14d, ");
+        sql.append("  SUM(CASE WHEN da.driver_id IS NOT NULL ");
+        sql.append("    AND da.activity_date >= d.hire_date ");
+        sql.append("    AND da.activity_date < d.hire_date + INTERVAL '14 days' ");
+        sql.append("    THEN da.work_seconds ELSE NULL END) as sum_work_time_seconds ");
         sql.append("FROM lead_matches lm ");
         sql.append("LEFT JOIN drivers d ON (lm.driver_id IS NOT NULL AND lm.driver_id != '' AND lm.driver_id = d.driver_id) ");
-        sql.append("LEFT JOIN summary_daily sd ON (d.driver_id IS NOT NULL AND d.driver_id = sd.driver_id ");
+        sql.append("LEFT JOIN driver_daily_activity da ON (d.driver_id IS NOT NULL AND d.driver_id = da.driver_id ");
         sql.append("  AND d.hire_date IS NOT NULL ");
-        sql.append("  AND TO_DATE(sd.date_file, 'DD-MM-YYYY') >= d.hire_date ");
-        sql.append("  AND TO_DATE(sd.date_file, 'DD-MM-YYYY') < d.hire_date + INTERVAL '14 days') ");
+        sql.append("  AND da.activity_date >= d.hire_date ");
+        sql.append("  AND da.activity_date < d.hire_date + INTERVAL '14 days') ");
         sql.append("WHERE 1=1 ");
         
-        List<Object> params = new ArrayList<>();
-        
         if (dateFrom != null) {
             sql.append("AND lm.lead_created_at >= ? ");
             params.add(dateFrom);
@@ -1373,203 +1233,101 @@ public class LeadProcessingService {
         sql.append("  lm.lead_phone, lm.lead_first_name, lm.lead_last_name, ");
         sql.append("  d.full_name, d.phone, d.hire_date ");
         sql.append("ORDER BY lm.lead_created_at DESC NULLS LAST, lm.external_id ");
+        return sql.toString();
+    }
+    
+    private LeadCabinetDTO mapearLeadCabinet(ResultSet rs) throws SQLException {
+        LeadCabinetDTO lead = new LeadCabinetDTO();
+        lead.setExternalId(rs.getString("external_id"));
+        
+        String driverId = rs.getString("driver_id");
+        lead.setDriverId(driverId != null && !driverId.isEmpty() ? driverId : null);
+        
+        lead.setLeadCreatedAt(ResultSetUtil.fecha(rs, "lead_created_at"));
+        lead.setHireDate(ResultSetUtil.fecha(rs, "hire_date"));
+        lead.setDateMatch(lead.getHireDate() != null && lead.getLeadCreatedAt() != null && 
+                lead.getHireDate().equals(lead.getLeadCreatedAt()));
+        
+        lead.setMatchScore(ResultSetUtil.decimal(rs, "match_score"));
+        lead.setIsManual(rs.getBoolean("is_manual"));
+        lead.setIsDiscarded(rs.getBoolean("is_discarded"));
+        
+        lead.setLeadPhone(rs.getString("lead_phone"));
+        lead.setLeadFirstName(rs.getString("lead_first_name"));
+        lead.setLeadLastName(rs.getString("lead_last_name"));
+        
+        lead.setDriverFullName(rs.getString("driver_full_name"));
+        lead.setDriverPhone(rs.getString("driver_phone"));
+        
+        lead.setTotalTrips14d(rs.getInt("total_trips_14d"));
+        lead.setSumWorkTimeSeconds(ResultSetUtil.largo(rs, "sum_work_time_seconds"));
+        
+        if (lead.getTotalTrips14d() > 0) {
+            lead.setDriverStatus("activo_con_viajes");
+        } else if (lead.getSumWorkTimeSeconds() != null && lead.getSumWorkTimeSeconds() > 0) {
+            lead.setDriverStatus("conecto_sin_viajes");
+        } else if (lead.getDriverId() != null) {
+            lead.setDriverStatus("solo_registro");
+        } else {
+            lead.setDriverStatus(null);
+        }
+        return lead;
+    }
+    
+    private boolean cumpleEstadoDriver(LeadCabinetDTO lead, String driverStatus) {
+        if (driverStatus == null || driverStatus.equals("all") || lead.getDriverStatus() == null) {
+            return true;
+        }
+        return lead.getDriverStatus().equals(driverStatus);
+    }
+    
+    /**
+     * Asigna a cada lead sus milestones (filtrados por tipo y periodo) y, si se filtra por milestone,
+     * descarta los leads con driver que no tienen ninguno.
+     */
+    private void asignarMilestonesLeads(List<LeadCabinetDTO> leads, Integer milestoneType, Integer milestonePeriod) {
+        Set<String> driverIds = new HashSet<>();
+        for (LeadCabinetDTO lead : leads) {
+            if (lead.getDriverId() != null) {
+                driverIds.add(lead.getDriverId());
+            }
+        }
         
-        try {
-            List<Map<String, Object>> rows = jdbcTemplate.queryForList(sql.toString(), params.toArray());
-            logger.info("Se obtuvieron {} leads para cabinet", rows.size());
-            
-            List<LeadCabinetDTO> leads = new ArrayList<>();
-            Set<String> driverIds = new HashSet<>();
-            
-            for (Map<String, Object> row : rows) {
-                LeadCabinetDTO lead = new LeadCabinetDTO();
-                lead.setExternalId((String) row.get("external_id"));
-                
-                String driverId = (String) row.get("driver_id");
-                lead.setDriverId(driverId != null && !driverId.isEmpty() ? driverId : null);
-                
-                Object leadCreatedAtObj = row.get("lead_created_at");
-                if (leadCreatedAtObj instanceof java.sql.Date) {
-                    lead.setLeadCreatedAt(((java.sql.Date) leadCreatedAtObj).toLocalDate());
-                } else if (leadCreatedAtObj instanceof LocalDate) {
-                    lead.setLeadCreatedAt((LocalDate) leadCreatedAtObj);
-                }
-                
-                Object hireDateObj = row.get("hire_date");
-                if (hireDateObj != null) {
-                    if (hireDateObj instanceof java.sql.Date) {
-                        lead.setHireDate(((java.sql.Date) hireDateObj).toLocalDate());
-                    } else if (hireDateObj instanceof LocalDate) {
-                        lead.setHireDate((LocalDate) hireDateObj);
-                    }
-                }
-                
-                lead.setDateMatch(lead.getHireDate() != null && lead.getLeadCreatedAt() != null && 
-                        lead.getHireDate().equals(lead.getLeadCreatedAt()));
-                
-                Object matchScoreObj = row.get("match_score");
-                if (matchScoreObj != null && matchScoreObj instanceof Number) {
-                    lead.setMatchScore(((Number) matchScoreObj).doubleValue());
-                }
-                
-                Object isManualObj = row.get("is_manual");
-                if (isManualObj instanceof Boolean) {
-                    lead.setIsManual((Boolean) isManualObj);
-                } else if (isManualObj instanceof String) {
-                    lead.setIsManual(Boolean.parseBoolean((String) isManualObj));
-                } else {
-                    lead.setIsManual(false);
-                }
-                
-                Object isDiscardedObj = row.get("is_discarded");
-                if (isDiscardedObj instanceof Boolean) {
-                    lead.setIsDiscarded((Boolean) isDiscardedObj);
-                } else if (isDiscardedObj instanceof String) {
-                    lead.setIsDiscarded(Boolean.parseBoolean((String) isDiscardedObj));
-                } else {
-                    lead.setIsDiscarded(false);
-                }
-                
-                lead.setLeadPhone((String) row.get("lead_phone"));
-                lead.setLeadFirstName((String) row.get("lead_first_name"));
-                lead.setLeadLastName((String) row.get("lead_last_name"));
-                
-                lead.setDriverFullName((String) row.get("driver_full_name"));
-                lead.setDriverPhone((String) row.get("driver_phone"));
-                
-                
-                Object totalTripsObj = row.get("total_trips_14d");
-                if (totalTripsObj != null && totalTripsObj instanceof Number) {
-                    lead.setTotalTrips14d(((Number) totalTripsObj).intValue());
-                } else {
-                    lead.setTotalTrips14d(0);
-                }
-                
-                Object sumWorkTimeObj = row.get("sum_work_time_seconds");
-                if (sumWorkTimeObj != null && sumWorkTimeObj instanceof Number) {
-                    lead.setSumWorkTimeSeconds(((Number) sumWorkTimeObj).longValue());
-                }
-                
-                if (lead.getTotalTrips14d() != null && lead.getTotalTrips14d() > 0) {
-                    lead.setDriverStatus("activo_con_viajes");
-                } else if (lead.getSumWorkTimeSeconds() != null && lead.getSumWorkTimeSeconds() > 0) {
-                    lead.setDriverStatus("conecto_sin_viajes");
-                } else if (lead.getDriverId() != null && !lead.getDriverId().isEmpty()) {
-                    lead.setDriverStatus("solo_registro");
-                } else {
-                    lead.setDriverStatus(null);
-                }
-                
-                if (driverStatus != null && !driverStatus.equals("all") && lead.getDriverStatus() != null) {
-                    if (!lead.getDriverStatus().equals(driverStatus)) {
-                        continue;
-                    }
-                }
-                
-                if (lead.getDriverId() != null && !lead.getDriverId().isEmpty()) {
-                    driverIds.add(lead.getDriverId());
-                }
-                
-                leads.add(lead);
+        Map<String, List<MilestoneInstance>> milestonesByDriver = new HashMap<>();
+        if (!driverIds.isEmpty()) {
+            List<MilestoneInstance> allMilestones = milestoneInstanceRepository.findByDriverIdIn(driverIds);
+            for (MilestoneInstance mi : allMilestones) {
+                milestonesByDriver.computeIfAbsent(mi.getDriverId(), k -> new ArrayList<>()).add(mi);
             }
-            
-            Map<String, List<MilestoneInstance>> milestonesByDriver = new HashMap<>();
-            if (!driverIds.isEmpty()) {
-                List<MilestoneInstance> allMilestones = milestoneInstanceRepository.findByDriverIdIn(driverIds);
-                for (MilestoneInstance mi : allMilestones) {
-                    milestonesByDriver.computeIfAbsent(mi.getDriverId(), k -> new ArrayList<>()).add(mi);
+        }
+        
+        for (LeadCabinetDTO lead : leads) {
+            List<MilestoneInstanceDTO> milestoneDTOs = new ArrayList<>();
+            for (MilestoneInstance mi : milestonesByDriver.getOrDefault(lead.getDriverId(), Collections.emptyList())) {
+                if (milestoneType != null && !mi.getMilestoneType().equals(milestoneType)) {
+                    continue;
                 }
-            }
-            
-            for (LeadCabinetDTO lead : leads) {
-                if (lead.getDriverId() != null && milestonesByDriver.containsKey(lead.getDriverId())) {
-                    List<MilestoneInstance> driverMilestones = milestonesByDriver.get(lead.getDriverId());
-                    List<MilestoneInstanceDTO> milestoneDTOs = new ArrayList<>();
-                    
-                    for (MilestoneInstance mi : driverMilestones) {
-                        if (milestoneType != null && !mi.getMilestoneType().equals(milestoneType)) {
-                            continue;
-                        }
-                        if (milestonePeriod != null && !mi.getPeriodDays().equals(milestonePeriod)) {
-                            continue;
-                        }
-                        
-                        MilestoneInstanceDTO dto = new MilestoneInstanceDTO();
-                        dto.setId(mi.getId());
-                        dto.setDriverId(mi.getDriverId());
-                        dto.setParkId(mi.getParkId());
-                        dto.setMilestoneType(mi.getMilestoneType());
-                        dto.setPeriodDays(mi.getPeriodDays());
-                        dto.setFulfillmentDate(mi.getFulfillmentDate());
-                        dto.setCalculationDate(mi.getCalculationDate());
-                        dto.setTripCount(mi.getTripCount());
-                        dto.setTripDetails(null);
-                        milestoneDTOs.add(dto);
-                    }
-                    
-                    lead.setMilestones(milestoneDTOs);
-                } else {
-                    lead.setMilestones(new ArrayList<>());
+                if (milestonePeriod != null && !mi.getPeriodDays().equals(milestonePeriod)) {
+                    continue;
                 }
                 
-                if (milestoneType != null || milestonePeriod != null) {
-                    if (lead.getMilestones().isEmpty() && lead.getDriverId() != null) {
-                        continue;
-                    }
-                }
+                MilestoneInstanceDTO dto = new MilestoneInstanceDTO();
+                dto.setId(mi.getId());
+                dto.setDriverId(mi.getDriverId());
+                dto.setParkId(mi.getParkId());
+                dto.setMilestoneType(mi.getMilestoneType());
+                dto.setPeriodDays(mi.getPeriodDays());
+                dto.setFulfillmentDate(mi.getFulfillmentDate());
+                dto.setCalculationDate(mi.getCalculationDate());
+                dto.setTripCount(mi.getTripCount());
+                dto.setTripDetails(null);
+                milestoneDTOs.add(dto);
             }
-            
-            leads.removeIf(lead -> {
-                if (milestoneType != null || milestonePeriod != null) {
-                    return lead.getMilestones().isEmpty() && lead.getDriverId() != null;
-                }
-                return false;
-            });
-            
-            cargarTransaccionesYango14dParaLeads(leads);
-            
-            Collections.sort(leads, (lead1, lead2) -> {
-                boolean hasMilestones1 = lead1.getMilestones() != null && !lead1.getMilestones().isEmpty();
-                boolean hasMilestones2 = lead2.getMilestones() != null && !lead2.getMilestones().isEmpty();
-                
-                if (hasMilestones1 && !hasMilestones2) {
-                    return -1;
-                }
-                if (!hasMilestones1 && hasMilestones2) {
-                    return 1;
-                }
-                
-                LocalDate date1 = lead1.getLeadCreatedAt();
-                LocalDate date2 = lead2.getLeadCreatedAt();
-                
-                if (date1 != null && date2 != null) {
-                    int dateCompare = date2.compareTo(date1);
-                    if (dateCompare != 0) {
-                        return dateCompare;
-                    }
-                } else if (date1 != null) {
-                    return -1;
-                } else if (date2 != null) {
-                    return 1;
-                }
-                
-                String extId1 = lead1.getExternalId();
-                String extId2 = lead2.getExternalId();
-                if (extId1 != null && extId2 != null) {
-                    return extId1.compareTo(extId2);
-                }
-                return 0;
-            });
-            
-            logger.info("Retornando {} leads para cabinet después de aplicar filtros", leads.size());
-            return leads;
-            
-        } catch (Exception e) {
-            logger.error("Error al obtener leads para cabinet", e);
-            logger.error("SQL ejecutado: {}", sql.toString());
-            logger.error("Parámetros: {}", params);
-            e.printStackTrace();
-            throw new RuntimeException("Error al obtener leads para cabinet: " + e.getMessage(), e);
+            lead.setMilestones(milestoneDTOs);
+        }
+        
+        if (milestoneType != null || milestonePeriod != null) {
+            leads.removeIf(lead -> lead.getMilestones().isEmpty() && lead.getDriverId() != null);
         }
     }
     
@@ -0,0 +1,132 @@
+package com.yego.contractortracker.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.function.Function;
+
+/**
+ * Ejecuta la etapa de matching (función pura por elemento) repartiendo la lista en particiones contiguas
+ * sobre un ForkJoinPool acotado a matching.parallelism hilos. Cada resultado se escribe en la posición de
+ * su elemento, así que la lista devuelta tiene el mismo orden (y los mismos resultados) que un recorrido
+ * secuencial. Listas pequeñas se procesan en el hilo llamador.
+ */
+@Component
+public class MatchingParaleloExecutor {
+    
+    private static final Logger logger = LoggerFactory.getLogger(MatchingParaleloExecutor.class);
+    
+    @Value("${matching.parallelism:0}")
+    private int parallelism;
+    
+    @Value("${matching.min-items-per-partition:250}")
+    private int minElementosPorParticion;
+    
+    private ForkJoinPool pool;
+    
+    private static class ResultadoParticion {
+        private final int particion;
+        private final int elementos;
+        private final long duracionMs;
+        
+        ResultadoParticion(int particion, int elementos, long duracionMs) {
+            this.particion = particion;
+            this.elementos = elementos;
+            this.duracionMs = duracionMs;
+        }
+        
+        double porSegundo() {
+            return elementos * 1000.0 / Math.max(1, duracionMs);
+        }
+    }
+    
+    @PostConstruct
+    public void inicializar() {
+        int hilos = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+        ForkJoinPool.ForkJoinWorkerThreadFactory fabrica = p -> {
+            ForkJoinWorkerThread hilo = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(p);
+            hilo.setName("matching-" + hilo.getPoolIndex());
+            return hilo;
+        };
+        pool = new ForkJoinPool(hilos, fabrica, null, false);
+        logger.info("Pool de matching paralelo inicializado con {} hilos", hilos);
+    }
+    
+    @PreDestroy
+    public void cerrar() {
+        pool.shutdown();
+    }
+    
+    /**
+     * Aplica la función a cada elemento y devuelve los resultados en el mismo orden que la lista de entrada.
+     * La función no debe modificar estado compartido.
+     */
+    @SuppressWarnings("unchecked")
+    public <T, R> List<R> mapear(String etapa, List<T> elementos, Function<T, R> funcion) {
+        if (elementos == null || elementos.isEmpty()) {
+            return new ArrayList<>();
+        }
+        
+        long startTime = System.currentTimeMillis();
+        Object[] resultados = new Object[elementos.size()];
+        int particiones = Math.max(1, Math.min(pool.getParallelism() * 4, elementos.size() / Math.max(1, minElementosPorParticion)));
+        int tamanoParticion = (elementos.size() + particiones - 1) / particiones;
+        
+        List<ResultadoParticion> estadisticas = new ArrayList<>(particiones);
+        if (particiones == 1) {
+            estadisticas.add(procesarParticion(0, elementos, 0, elementos.size(), funcion, resultados));
+        } else {
+            List<ForkJoinTask<ResultadoParticion>> tareas = new ArrayList<>(particiones);
+            for (int p = 0; p < particiones; p++) {
+                int numero = p;
+                int desde = p * tamanoParticion;
+                int hasta = Math.min(desde + tamanoParticion, elementos.size());
+                if (desde >= hasta) {
+                    break;
+                }
+                tareas.add(pool.submit(() -> procesarParticion(numero, elementos, desde, hasta, funcion, resultados)));
+            }
+            for (ForkJoinTask<ResultadoParticion> tarea : tareas) {
+                estadisticas.add(tarea.join());
+            }
+        }
+        
+        long elapsedTime = System.currentTimeMillis() - startTime;
+        double minPorSegundo = Double.MAX_VALUE;
+        double maxPorSegundo = 0.0;
+        for (ResultadoParticion resultado : estadisticas) {
+            logger.debug("Matching {} - partición {}: {} elementos en {} ms ({} /s)", etapa, resultado.particion,
+                resultado.elementos, resultado.duracionMs, String.format("%.0f", resultado.porSegundo()));
+            minPorSegundo = Math.min(minPorSegundo, resultado.porSegundo());
+            maxPorSegundo = Math.max(maxPorSegundo, resultado.porSegundo());
+        }
+        logger.info("Matching {} completado: {} elementos en {} particiones ({} hilos) en {} ms. Throughput por partición: min {} /s, max {} /s, total {} /s",
+            etapa, elementos.size(), estadisticas.size(), pool.getParallelism(), elapsedTime,
+            String.format("%.0f", minPorSegundo), String.format("%.0f", maxPorSegundo),
+            String.format("%.0f", elementos.size() * 1000.0 / Math.max(1, elapsedTime)));
+        
+        List<R> lista = new ArrayList<>(resultados.length);
+        for (Object resultado : resultados) {
+            lista.add((R) resultado);
+        }
+        return lista;
+    }
+    
+    private <T, R> ResultadoParticion procesarParticion(int particion, List<T> elementos, int desde, int hasta,
+                                                       Function<T, R> funcion, Object[] resultados) {
+        long inicio = System.currentTimeMillis();
+        for (int i = desde; i < hasta; i++) {
+            resultados[i] = funcion.apply(elementos.get(i));
+        }
+        return new ResultadoParticion(particion, hasta - desde, System.currentTimeMillis() - inicio);
+    }
+}
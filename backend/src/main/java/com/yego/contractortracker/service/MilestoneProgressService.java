@@ -1,16 +1,65 @@
 package com.yego.contractortracker.service;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
-import java.util.Map;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
 
+/**
+ * Registro de jobs en segundo plano (milestones, re-matching Yango, cargas CSV).
+ * Los jobs terminados se purgan por antigüedad y por cantidad, los jobs con clave de deduplicación
+ * se ejecutan una sola vez a la vez, y opcionalmente cada job se guarda en job_registry para
+ * poder consultarlo tras un reinicio. Las filas de job_registry se conservan jobs.registry.retention-days días,
+ * independientemente de cuándo se purguen de memoria, y los jobId que no están ni en memoria ni en job_registry se recuerdan un tiempo para que un cliente que
+ * sigue consultando un job desconocido no vaya a la base de datos en cada petición.
+ */
 @Service
 public class MilestoneProgressService {
     
+    private static final Logger logger = LoggerFactory.getLogger(MilestoneProgressService.class);
+    private static final int MAX_JOBS_NO_ENCONTRADOS = 10_000;
+    
     private final Map<String, ProgressInfo> progressMap = new ConcurrentHashMap<>();
+    private final Map<String, String> jobsActivosPorClave = new HashMap<>();
+    private final Map<String, MetricasTipo> metricasPorTipo = new ConcurrentHashMap<>();
+    // jobId -> instante (ms) hasta el que se responde "no existe" sin consultar job_registry
+    private final Map<String, Long> jobsNoEncontrados = new ConcurrentHashMap<>();
+    
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    
+    @Value("${jobs.registry.ttl-minutes:120}")
+    private long ttlMinutes;
+    
+    @Value("${jobs.registry.max-finished:500}")
+    private int maxFinished;
+    
+    @Value("${jobs.registry.persist:true}")
+    private boolean persistir;
+    
+    @Value("${jobs.registry.retention-days:30}")
+    private long retencionDias;
+    
+    @Value("${jobs.registry.not-found-cache-seconds:300}")
+    private long noEncontradoSegundos;
     
     public static class ProgressInfo {
+        private String jobId;
+        private String jobType;
+        private String dedupKey;
         private String status;
         private int totalDrivers;
         private int processedDrivers;
@@ -19,11 +68,25 @@ public class MilestoneProgressService {
         private int milestone25Count;
         private String periodType;
         private String error;
+        private LocalDateTime createdAt;
+        private LocalDateTime startedAt;
+        private LocalDateTime finishedAt;
+        private volatile boolean cancelRequested;
         
         public ProgressInfo() {
             this.status = "pending";
+            this.createdAt = LocalDateTime.now();
         }
         
+        public String getJobId() { return jobId; }
+        public void setJobId(String jobId) { this.jobId = jobId; }
+        
+        public String getJobType() { return jobType; }
+        public void setJobType(String jobType) { this.jobType = jobType; }
+        
+        public String getDedupKey() { return dedupKey; }
+        public void setDedupKey(String dedupKey) { this.dedupKey = dedupKey; }
+        
         public String getStatus() { return status; }
         public void setStatus(String status) { this.status = status; }
         
@@ -48,19 +111,143 @@ public class MilestoneProgressService {
         public String getError() { return error; }
         public void setError(String error) { this.error = error; }
         
+        public LocalDateTime getCreatedAt() { return createdAt; }
+        public void setCreatedAt(LocalDateTime createdAt) { this.createdAt = createdAt; }
+        
+        public LocalDateTime getStartedAt() { return startedAt; }
+        public void setStartedAt(LocalDateTime startedAt) { this.startedAt = startedAt; }
+        
+        public LocalDateTime getFinishedAt() { return finishedAt; }
+        public void setFinishedAt(LocalDateTime finishedAt) { this.finishedAt = finishedAt; }
+        
+        public boolean isCancelRequested() { return cancelRequested; }
+        public void setCancelRequested(boolean cancelRequested) { this.cancelRequested = cancelRequested; }
+        
         public int getProgressPercentage() {
             if (totalDrivers == 0) return 0;
             return (int) ((processedDrivers * 100.0) / totalDrivers);
         }
+        
+        public boolean isFinished() {
+            return "completed".equals(status) || "failed".equals(status) || "cancelled".equals(status);
+        }
+        
+        /** Tiempo en cola desde la creación hasta el inicio, en ms. */
+        public Long getQueueTimeMs() {
+            if (startedAt == null) return null;
+            return Duration.between(createdAt, startedAt).toMillis();
+        }
+        
+        /** Tiempo de ejecución, en ms; para jobs en curso es el tiempo transcurrido hasta ahora. */
+        public Long getDurationMs() {
+            if (startedAt == null) return null;
+            return Duration.between(startedAt, finishedAt != null ? finishedAt : LocalDateTime.now()).toMillis();
+        }
+        
+        public Double getItemsPerSecond() {
+            Long duracion = getDurationMs();
+            if (duracion == null || duracion == 0) return null;
+            return processedDrivers * 1000.0 / duracion;
+        }
+    }
+    
+    private static class MetricasTipo {
+        long completados;
+        long fallidos;
+        long cancelados;
+        long deduplicados;
+        long duracionTotalMs;
+        long duracionMaximaMs;
+        long ultimaDuracionMs;
+        
+        synchronized void registrarFin(ProgressInfo info) {
+            if ("cancelled".equals(info.getStatus())) {
+                cancelados++;
+            } else if ("failed".equals(info.getStatus())) {
+                fallidos++;
+            } else {
+                completados++;
+            }
+            long duracion = info.getDurationMs() != null ? info.getDurationMs() : 0;
+            duracionTotalMs += duracion;
+            duracionMaximaMs = Math.max(duracionMaximaMs, duracion);
+            ultimaDuracionMs = duracion;
+        }
+        
+        synchronized void registrarDeduplicado() {
+            deduplicados++;
+        }
+        
+        synchronized Map<String, Object> aMapa() {
+            long terminados = completados + fallidos + cancelados;
+            Map<String, Object> mapa = new LinkedHashMap<>();
+            mapa.put("completados", completados);
+            mapa.put("fallidos", fallidos);
+            mapa.put("cancelados", cancelados);
+            mapa.put("deduplicados", deduplicados);
+            mapa.put("duracionPromedioMs", terminados > 0 ? duracionTotalMs / terminados : 0);
+            mapa.put("duracionMaximaMs", duracionMaximaMs);
+            mapa.put("ultimaDuracionMs", ultimaDuracionMs);
+            return mapa;
+        }
+    }
+    
+    /**
+     * Registra un job pendiente con clave de deduplicación. Si ya hay un job pendiente o en curso
+     * con la misma clave, no registra nada y devuelve el jobId existente. Sin clave no se deduplica.
+     * Un job ya registrado y sin terminar (por ejemplo, en cola sin clave) conserva su createdAt y toma la clave.
+     *
+     * @return el jobId que atenderá la solicitud (el recibido o el ya activo)
+     */
+    public String reservarJob(String jobId, String jobType, String dedupKey) {
+        ProgressInfo info;
+        synchronized (jobsActivosPorClave) {
+            String existente = dedupKey != null ? jobsActivosPorClave.get(dedupKey) : null;
+            if (existente != null) {
+                ProgressInfo infoExistente = progressMap.get(existente);
+                if (infoExistente != null && !infoExistente.isFinished()) {
+                    metricas(jobType).registrarDeduplicado();
+                    logger.info("Job {} deduplicado: ya existe {} para la clave {}", jobId, existente, dedupKey);
+                    return existente;
+                }
+            }
+            
+            info = progressMap.get(jobId);
+            if (info == null || info.isFinished()) {
+                info = new ProgressInfo();
+                info.setJobId(jobId);
+                progressMap.put(jobId, info);
+            }
+            info.setJobType(jobType);
+            info.setDedupKey(dedupKey);
+            jobsNoEncontrados.remove(jobId);
+            if (dedupKey != null) {
+                jobsActivosPorClave.put(dedupKey, jobId);
+            }
+        }
+        persistir(info);
+        return jobId;
     }
     
     public void startProgress(String jobId, String periodType, int totalDrivers) {
-        ProgressInfo info = new ProgressInfo();
+        ProgressInfo info = progressMap.computeIfAbsent(jobId, id -> {
+            ProgressInfo nuevo = new ProgressInfo();
+            nuevo.setJobId(id);
+            return nuevo;
+        });
         info.setStatus("running");
         info.setPeriodType(periodType);
+        if (info.getJobType() == null) {
+            info.setJobType(periodType);
+        }
         info.setTotalDrivers(totalDrivers);
         info.setProcessedDrivers(0);
-        progressMap.put(jobId, info);
+        info.setError(null);
+        info.setFinishedAt(null);
+        if (info.getStartedAt() == null) {
+            info.setStartedAt(LocalDateTime.now());
+        }
+        persistir(info);
     }
     
     public void updateProgress(String jobId, int processed, int milestone1, int milestone5, int milestone25) {
@@ -74,36 +261,267 @@ public class MilestoneProgressService {
     }
     
     public void completeProgress(String jobId) {
+        finalizar(jobId, "completed", null);
+    }
+    
+    public void failProgress(String jobId, String error) {
+        // Un job que falla después de pedir su cancelación se da por cancelado
+        finalizar(jobId, isCancelacionSolicitada(jobId) ? "cancelled" : "failed", error);
+    }
+    
+    public void cancelProgress(String jobId) {
+        finalizar(jobId, "cancelled", "Cancelado por el usuario");
+    }
+    
+    /**
+     * Marca el job para cancelación; el proceso lo detecta en su siguiente punto de control.
+     *
+     * @return false si el job no existe o ya terminó
+     */
+    public boolean solicitarCancelacion(String jobId) {
         ProgressInfo info = progressMap.get(jobId);
-        if (info != null) {
-            info.setStatus("completed");
+        if (info == null || info.isFinished()) {
+            return false;
         }
+        info.setCancelRequested(true);
+        return true;
     }
     
-    public void failProgress(String jobId, String error) {
+    public boolean isCancelacionSolicitada(String jobId) {
+        ProgressInfo info = jobId != null ? progressMap.get(jobId) : null;
+        return info != null && info.isCancelRequested();
+    }
+    
+    /**
+     * Punto de control para procesos largos: lanza CancellationException si se pidió cancelar el job.
+     */
+    public void verificarCancelacion(String jobId) {
+        if (isCancelacionSolicitada(jobId)) {
+            throw new CancellationException("Job " + jobId + " cancelado");
+        }
+    }
+    
+    private void finalizar(String jobId, String status, String error) {
         ProgressInfo info = progressMap.get(jobId);
-        if (info != null) {
-            info.setStatus("failed");
+        if (info == null || info.isFinished()) {
+            return;
+        }
+        
+        info.setStatus(status);
+        if (error != null) {
             info.setError(error);
         }
+        LocalDateTime ahora = LocalDateTime.now();
+        if (info.getStartedAt() == null) {
+            info.setStartedAt(ahora);
+        }
+        info.setFinishedAt(ahora);
+        liberarClave(info);
+        
+        metricas(info.getJobType()).registrarFin(info);
+        logger.debug("Job {} ({}) {} en {} ms", jobId, info.getJobType(), status, info.getDurationMs());
+        persistir(info);
     }
     
     public ProgressInfo getProgress(String jobId) {
-        return progressMap.get(jobId);
+        ProgressInfo info = progressMap.get(jobId);
+        if (info != null || !persistir) {
+            return info;
+        }
+        
+        Long noEncontradoHasta = jobsNoEncontrados.get(jobId);
+        if (noEncontradoHasta != null && noEncontradoHasta > System.currentTimeMillis()) {
+            return null;
+        }
+        
+        info = cargarPersistido(jobId);
+        if (info == null) {
+            if (jobsNoEncontrados.size() >= MAX_JOBS_NO_ENCONTRADOS) {
+                jobsNoEncontrados.clear();
+            }
+            jobsNoEncontrados.put(jobId, System.currentTimeMillis() + noEncontradoSegundos * 1000);
+        } else {
+            jobsNoEncontrados.remove(jobId);
+        }
+        return info;
     }
     
     public void clearProgress(String jobId) {
-        progressMap.remove(jobId);
+        ProgressInfo info = progressMap.remove(jobId);
+        if (info != null) {
+            liberarClave(info);
+        }
+    }
+    
+    /**
+     * Jobs del registro en memoria, más recientes primero, opcionalmente filtrados por estado.
+     */
+    public List<ProgressInfo> listarJobs(String status) {
+        return progressMap.values().stream()
+            .filter(info -> status == null || status.equalsIgnoreCase(info.getStatus()))
+            .sorted(Comparator.comparing(ProgressInfo::getCreatedAt).reversed())
+            .collect(Collectors.toList());
+    }
+    
+    public Map<String, Object> obtenerEstadisticas() {
+        Map<String, Long> porEstado = progressMap.values().stream()
+            .collect(Collectors.groupingBy(ProgressInfo::getStatus, TreeMap::new, Collectors.counting()));
+        
+        Map<String, Object> porTipo = new TreeMap<>();
+        metricasPorTipo.forEach((tipo, metricas) -> porTipo.put(tipo, metricas.aMapa()));
+        
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("jobsEnRegistro", progressMap.size());
+        stats.put("porEstado", porEstado);
+        synchronized (jobsActivosPorClave) {
+            stats.put("clavesActivas", new TreeMap<>(jobsActivosPorClave));
+        }
+        stats.put("porTipo", porTipo);
+        stats.put("ttlMinutes", ttlMinutes);
+        stats.put("retentionDays", retencionDias);
+        stats.put("maxFinished", maxFinished);
+        stats.put("persistencia", persistir);
+        return stats;
+    }
+    
+    /**
+     * Elimina de memoria los jobs terminados hace más de jobs.registry.ttl-minutes y, si aún quedan
+     * más de jobs.registry.max-finished terminados, los más antiguos. En job_registry se borran los
+     * terminados hace más de jobs.registry.retention-days días.
+     */
+    @Scheduled(fixedDelayString = "${jobs.registry.cleanup-interval-ms:60000}")
+    public void purgarFinalizados() {
+        LocalDateTime limite = LocalDateTime.now().minusMinutes(ttlMinutes);
+        int purgados = 0;
+        
+        List<ProgressInfo> finalizados = new ArrayList<>();
+        for (ProgressInfo info : progressMap.values()) {
+            if (!info.isFinished()) {
+                continue;
+            }
+            if (info.getFinishedAt() != null && info.getFinishedAt().isBefore(limite)) {
+                progressMap.remove(info.getJobId());
+                purgados++;
+            } else {
+                finalizados.add(info);
+            }
+        }
+        
+        if (finalizados.size() > maxFinished) {
+            finalizados.sort(Comparator.comparing(ProgressInfo::getFinishedAt, Comparator.nullsFirst(Comparator.naturalOrder())));
+            for (ProgressInfo info : finalizados.subList(0, finalizados.size() - maxFinished)) {
+                progressMap.remove(info.getJobId());
+                purgados++;
+            }
+        }
+        
+        if (purgados > 0) {
+            logger.debug("Registro de jobs: {} jobs terminados purgados, {} en memoria", purgados, progressMap.size());
+        }
+        
+        long ahora = System.currentTimeMillis();
+        jobsNoEncontrados.values().removeIf(hasta -> hasta <= ahora);
+        
+        if (persistir) {
+            try {
+                LocalDateTime limiteRegistro = LocalDateTime.now().minusDays(retencionDias);
+                int borrados = jdbcTemplate.update("DELETE FROM job_registry WHERE finished_at < ?", Timestamp.valueOf(limiteRegistro));
+                if (borrados > 0) {
+                    logger.debug("Registro de jobs: {} jobs terminados borrados de job_registry", borrados);
+                }
+            } catch (Exception e) {
+                logger.warn("No se pudieron purgar los jobs terminados de job_registry: {}", e.getMessage());
+            }
+        }
+    }
+    
+    /**
+     * Los jobs que quedaron pendientes o en curso en job_registry al apagar la aplicación no van a terminar.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void marcarJobsInterrumpidos() {
+        if (!persistir) {
+            return;
+        }
+        try {
+            int interrumpidos = jdbcTemplate.update(
+                "UPDATE job_registry SET status = 'failed', error = 'Interrumpido por reinicio de la aplicación', " +
+                "finished_at = CURRENT_TIMESTAMP WHERE status IN ('pending', 'running')");
+            if (interrumpidos > 0) {
+                logger.info("Registro de jobs: {} jobs marcados como interrumpidos", interrumpidos);
+            }
+        } catch (Exception e) {
+            logger.debug("No se pudo revisar job_registry al iniciar: {}", e.getMessage());
+        }
+    }
+    
+    private MetricasTipo metricas(String jobType) {
+        return metricasPorTipo.computeIfAbsent(jobType != null ? jobType : "desconocido", tipo -> new MetricasTipo());
+    }
+    
+    private void liberarClave(ProgressInfo info) {
+        if (info.getDedupKey() == null) {
+            return;
+        }
+        synchronized (jobsActivosPorClave) {
+            jobsActivosPorClave.remove(info.getDedupKey(), info.getJobId());
+        }
+    }
+    
+    private void persistir(ProgressInfo info) {
+        if (!persistir) {
+            return;
+        }
+        try {
+            jdbcTemplate.update(
+                "INSERT INTO job_registry (job_id, job_type, dedup_key, status, total_items, processed_items, error, " +
+                "created_at, started_at, finished_at, duration_ms, last_updated) " +
+                "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, CURRENT_TIMESTAMP) " +
+                "ON CONFLICT (job_id) DO UPDATE SET job_type = EXCLUDED.job_type, status = EXCLUDED.status, " +
+                "total_items = EXCLUDED.total_items, processed_items = EXCLUDED.processed_items, error = EXCLUDED.error, " +
+                "started_at = EXCLUDED.started_at, finished_at = EXCLUDED.finished_at, " +
+                "duration_ms = EXCLUDED.duration_ms, last_updated = EXCLUDED.last_updated",
+                info.getJobId(), info.getJobType(), info.getDedupKey(), info.getStatus(),
+                info.getTotalDrivers(), info.getProcessedDrivers(), info.getError(),
+                Timestamp.valueOf(info.getCreatedAt()),
+                info.getStartedAt() != null ? Timestamp.valueOf(info.getStartedAt()) : null,
+                info.getFinishedAt() != null ? Timestamp.valueOf(info.getFinishedAt()) : null,
+                info.isFinished() ? info.getDurationMs() : null);
+        } catch (Exception e) {
+            logger.warn("No se pudo guardar el job {} en job_registry: {}", info.getJobId(), e.getMessage());
+        }
+    }
+    
+    private ProgressInfo cargarPersistido(String jobId) {
+        try {
+            List<Map<String, Object>> filas = jdbcTemplate.queryForList(
+                "SELECT job_id, job_type, dedup_key, status, total_items, processed_items, error, " +
+                "created_at, started_at, finished_at FROM job_registry WHERE job_id = ?", jobId);
+            if (filas.isEmpty()) {
+                return null;
+            }
+            
+            Map<String, Object> fila = filas.get(0);
+            ProgressInfo info = new ProgressInfo();
+            info.setJobId((String) fila.get("job_id"));
+            info.setJobType((String) fila.get("job_type"));
+            info.setDedupKey((String) fila.get("dedup_key"));
+            info.setStatus((String) fila.get("status"));
+            info.setPeriodType((String) fila.get("job_type"));
+            info.setTotalDrivers(((Number) fila.get("total_items")).intValue());
+            info.setProcessedDrivers(((Number) fila.get("processed_items")).intValue());
+            info.setError((String) fila.get("error"));
+            info.setCreatedAt(((Timestamp) fila.get("created_at")).toLocalDateTime());
+            if (fila.get("started_at") != null) {
+                info.setStartedAt(((Timestamp) fila.get("started_at")).toLocalDateTime());
+            }
+            if (fila.get("finished_at") != null) {
+                info.setFinishedAt(((Timestamp) fila.get("finished_at")).toLocalDateTime());
+            }
+            return info;
+        } catch (Exception e) {
+            logger.warn("No se pudo leer el job {} de job_registry: {}", jobId, e.getMessage());
+            return null;
+        }
     }
 }
-
-
-
-
-
-
-
-
-
-
-
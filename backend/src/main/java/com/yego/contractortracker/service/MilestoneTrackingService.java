@@ -4,19 +4,28 @@ import com.yego.contractortracker.dto.MilestoneInstanceDTO;
 import com.yego.contractortracker.dto.MilestonePaymentViewDTO;
 import com.yego.contractortracker.dto.MilestoneTripDetailDTO;
 import com.yego.contractortracker.entity.MilestoneInstance;
+import com.yego.contractortracker.repository.CursorQueryExecutor;
+import com.yego.contractortracker.repository.DriverActivityQueryRepository;
+import com.yego.contractortracker.repository.IdArrayQueryExecutor;
+import com.yego.contractortracker.repository.MilestoneInstanceBulkRepository;
 import com.yego.contractortracker.repository.MilestoneInstanceRepository;
+import com.yego.contractortracker.repository.SyncWatermarkRepository;
+import com.yego.contractortracker.util.ResultSetUtil;
 import com.yego.contractortracker.util.WeekISOUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
-import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.util.*;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 @Service
@@ -26,6 +35,32 @@ public class MilestoneTrackingService {
     private static final String DEFAULT_PARK_ID = "08e20910d81d42658d4334d3f6d10ac0";
     private static final int[] MILESTONE_TYPES = {1, 5, 25};
     
+    private static final String SQL_PAYMENT_VIEW =
+        "SELECT " +
+        "  mi.id as milestone_instance_id, " +
+        "  mi.driver_id, " +
+        "  d.full_name as driver_name, " +
+        "  d.phone as driver_phone, " +
+        "  d.hire_date, " +
+        "  mi.milestone_type, " +
+        "  mi.period_days, " +
+        "  mi.fulfillment_date, " +
+        "  mi.trip_count, " +
+        "  yt.id as yango_transaction_id, " +
+        "  yt.amount_yango, " +
+        "  yt.transaction_date as yango_payment_date, " +
+        "  CASE WHEN yt.id IS NOT NULL THEN true ELSE false END as has_payment, " +
+        "  CASE WHEN lm.driver_id IS NOT NULL THEN true ELSE false END as has_lead_match " +
+        "FROM milestone_instances mi " +
+        "INNER JOIN drivers d ON d.driver_id = mi.driver_id " +
+        "INNER JOIN lead_matches lm ON lm.driver_id = mi.driver_id AND lm.is_discarded = false " +
+        "LEFT JOIN yango_transactions yt ON yt.milestone_instance_id = mi.id " +
+        "WHERE mi.period_days = 14 " +
+        "  AND mi.park_id = ? " +
+        "  AND DATE(d.hire_date) >= ? " +
+        "  AND DATE(d.hire_date) <= ? " +
+        "ORDER BY d.hire_date DESC, mi.driver_id, mi.milestone_type ";
+    
     @Autowired
     private JdbcTemplate jdbcTemplate;
     
@@ -44,8 +79,70 @@ public class MilestoneTrackingService {
     @Autowired
     private YangoTransactionRematchService yangoTransactionRematchService;
     
+    @Autowired
+    private DriverActivityQueryRepository driverActivityQueryRepository;
+    
+    @Autowired
+    private SyncWatermarkRepository syncWatermarkRepository;
+    
+    @Autowired
+    private MilestoneInstanceBulkRepository milestoneInstanceBulkRepository;
+    
+    @Autowired
+    private IdArrayQueryExecutor idArrayQueryExecutor;
+    
+    @Autowired
+    private CursorQueryExecutor cursorQueryExecutor;
+    
+    // Margen restado a la marca de agua: driver_daily_activity.last_updated usa la hora de la base de datos
+    @Value("${milestones.incremental.watermark-overlap-seconds:300}")
+    private long watermarkOverlapSeconds;
+    
     private static final int BATCH_SIZE = 10;
     
+    // Por clave (park, período): el cálculo en curso y, como mucho, uno en cola detrás de él
+    private final Map<String, SolicitudCalculo> solicitudesEnCurso = new HashMap<>();
+    private final Map<String, SolicitudCalculo> solicitudesEnCola = new HashMap<>();
+    
+    private static class SolicitudCalculo {
+        private final String jobId;
+        private final String parkId;
+        private final int periodDays;
+        private final Integer milestoneType;
+        private final LocalDate hireDateFrom;
+        private final LocalDate hireDateTo;
+        private final boolean incremental;
+        
+        SolicitudCalculo(String jobId, String parkId, int periodDays, Integer milestoneType, LocalDate hireDateFrom, LocalDate hireDateTo, boolean incremental) {
+            this.jobId = jobId;
+            this.parkId = parkId;
+            this.periodDays = periodDays;
+            this.milestoneType = milestoneType;
+            this.hireDateFrom = hireDateFrom;
+            this.hireDateTo = hireDateTo;
+            this.incremental = incremental;
+        }
+        
+        boolean esCompletaSinFiltros() {
+            return !incremental && milestoneType == null && hireDateFrom == null && hireDateTo == null;
+        }
+        
+        /**
+         * Un cálculo completo sin filtros cubre cualquier otra solicitud del mismo park y período;
+         * cualquier otro solo cubre solicitudes idénticas.
+         */
+        boolean cubre(SolicitudCalculo otra) {
+            return esCompletaSinFiltros() || (incremental == otra.incremental
+                    && Objects.equals(milestoneType, otra.milestoneType)
+                    && Objects.equals(hireDateFrom, otra.hireDateFrom)
+                    && Objects.equals(hireDateTo, otra.hireDateTo));
+        }
+        
+        SolicitudCalculo ampliadaACompleta() {
+            return new SolicitudCalculo(jobId, parkId, periodDays, null, null, null, false);
+        }
+    }
+    
     public String calcularInstanciasAsync(String parkId, int periodDays) {
         return calcularInstanciasAsync(parkId, periodDays, null);
     }
@@ -55,26 +152,50 @@ public class MilestoneTrackingService {
     }
     
     public String calcularInstanciasAsync(String parkId, int periodDays, Integer milestoneType, LocalDate hireDateFrom, LocalDate hireDateTo) {
+        return calcularInstanciasAsync(parkId, periodDays, milestoneType, hireDateFrom, hireDateTo, true);
+    }
+    
+    /**
+     * Todos los cálculos de un mismo park y período escriben en milestone_instances, así que nunca corren dos
+     * a la vez. Si ya hay uno en curso que cubre la solicitud (el mismo cálculo, o uno completo sin filtros)
+     * se devuelve su jobId. Si no la cubre (por ejemplo, se pide un cálculo completo mientras corre el
+     * incremental del cron) la solicitud queda en cola y empieza cuando termine el actual. En la cola hay
+     * como mucho un job por park y período: una solicitud que el job en cola no cubre lo amplía a cálculo
+     * completo sin filtros.
+     *
+     * @param completo si es false y no hay filtros, solo recalcula los drivers con ventana abierta o con
+     *                 actividad modificada desde la última ejecución (marca de agua en sync_watermarks);
+     *                 con filtros, o sin marca de agua previa, el cálculo es siempre completo
+     * @return el jobId que atenderá la solicitud (el recibido, el que está en curso o el que está en cola)
+     */
+    public String calcularInstanciasAsync(String parkId, int periodDays, Integer milestoneType, LocalDate hireDateFrom, LocalDate hireDateTo, boolean completo) {
         try {
             parkId = parkId != null && !parkId.isEmpty() ? parkId : DEFAULT_PARK_ID;
+            boolean incremental = !completo && milestoneType == null && hireDateFrom == null && hireDateTo == null;
             String jobId = "milestone-" + periodDays + "d-";
             if (milestoneType != null) {
                 jobId += milestoneType + "-";
             } else {
                 jobId += "all-";
             }
+            if (incremental) {
+                jobId += "inc-";
+            }
             jobId += System.currentTimeMillis();
             
-            logger.info("Iniciando cálculo asíncrono de milestones - jobId: {}, parkId: {}, periodDays: {}, milestoneType: {}, hireDateFrom: {}, hireDateTo: {}", 
-                    jobId, parkId, periodDays, milestoneType, hireDateFrom, hireDateTo);
-            
-            MilestoneTrackingService self = applicationContext.getBean(MilestoneTrackingService.class);
-            self.calcularInstanciasAsyncInternal(jobId, parkId, periodDays, milestoneType, hireDateFrom, hireDateTo);
+            SolicitudCalculo solicitud = new SolicitudCalculo(jobId, parkId, periodDays, milestoneType, hireDateFrom, hireDateTo, incremental);
+            String dedupKey = claveDedup(parkId, periodDays);
+            synchronized (solicitudesEnCurso) {
+                String jobActivo = progressService.reservarJob(jobId, tipoJob(periodDays), dedupKey);
+                if (!jobActivo.equals(jobId)) {
+                    return reutilizarOEncolar(dedupKey, jobActivo, solicitud);
+                }
+                solicitudesEnCurso.put(dedupKey, solicitud);
+            }
             
-            // Iniciar re-matching automático de transacciones Yango en paralelo
-            String rematchJobId = "yango-rematch-milestones-" + System.currentTimeMillis();
-            logger.info("Iniciando re-matching automático de transacciones Yango en paralelo. JobId: {}", rematchJobId);
-            yangoTransactionRematchService.rematchAllTransactionsAsync(rematchJobId);
+            logger.info("Iniciando cálculo asíncrono de milestones - jobId: {}, parkId: {}, periodDays: {}, milestoneType: {}, hireDateFrom: {}, hireDateTo: {}, incremental: {}", 
+                    jobId, parkId, periodDays, milestoneType, hireDateFrom, hireDateTo, incremental);
+            iniciarCalculo(solicitud);
             
             logger.info("Cálculo asíncrono iniciado - jobId: {} (el procesamiento continuará en segundo plano)", jobId);
             return jobId;
@@ -85,41 +206,142 @@ public class MilestoneTrackingService {
         }
     }
     
+    /**
+     * Llamar con el lock de solicitudesEnCurso tomado y con jobActivo en curso para la clave.
+     */
+    private String reutilizarOEncolar(String dedupKey, String jobActivo, SolicitudCalculo solicitud) {
+        SolicitudCalculo enCurso = solicitudesEnCurso.get(dedupKey);
+        if (enCurso != null && enCurso.cubre(solicitud)) {
+            logger.info("Cálculo de milestones ya en curso para {} - se reutiliza jobId: {}", dedupKey, jobActivo);
+            return jobActivo;
+        }
+        
+        SolicitudCalculo enCola = solicitudesEnCola.get(dedupKey);
+        if (enCola == null) {
+            // Se registra sin clave: la toma al salir de la cola
+            progressService.reservarJob(solicitud.jobId, tipoJob(solicitud.periodDays), null);
+            solicitudesEnCola.put(dedupKey, solicitud);
+            logger.info("Cálculo de milestones {} en cola detrás de {} para {}", solicitud.jobId, jobActivo, dedupKey);
+            return solicitud.jobId;
+        }
+        if (!enCola.cubre(solicitud)) {
+            solicitudesEnCola.put(dedupKey, enCola.ampliadaACompleta());
+            logger.info("Cálculo de milestones en cola {} ampliado a completo sin filtros para {}", enCola.jobId, dedupKey);
+        } else {
+            logger.info("Cálculo de milestones ya en cola para {} - se reutiliza jobId: {}", dedupKey, enCola.jobId);
+        }
+        return enCola.jobId;
+    }
+    
+    private void iniciarCalculo(SolicitudCalculo solicitud) {
+        MilestoneTrackingService self = applicationContext.getBean(MilestoneTrackingService.class);
+        try {
+            self.calcularInstanciasAsyncInternal(solicitud.jobId, solicitud.parkId, solicitud.periodDays, solicitud.milestoneType,
+                    solicitud.hireDateFrom, solicitud.hireDateTo, solicitud.incremental);
+        } catch (RuntimeException e) {
+            progressService.failProgress(solicitud.jobId, e.getMessage());
+            synchronized (solicitudesEnCurso) {
+                solicitudesEnCurso.remove(claveDedup(solicitud.parkId, solicitud.periodDays), solicitud);
+            }
+            throw e;
+        }
+    }
+    
+    /**
+     * Al terminar el cálculo en curso de la clave, arranca el que esté en cola detrás de él, si lo hay.
+     */
+    private void iniciarSiguienteEnCola(String parkId, int periodDays, String jobIdTerminado) {
+        String dedupKey = claveDedup(parkId, periodDays);
+        SolicitudCalculo siguiente;
+        synchronized (solicitudesEnCurso) {
+            SolicitudCalculo enCurso = solicitudesEnCurso.get(dedupKey);
+            if (enCurso != null && enCurso.jobId.equals(jobIdTerminado)) {
+                solicitudesEnCurso.remove(dedupKey);
+            }
+            siguiente = solicitudesEnCola.remove(dedupKey);
+            if (siguiente == null) {
+                return;
+            }
+            if (progressService.isCancelacionSolicitada(siguiente.jobId)) {
+                progressService.cancelProgress(siguiente.jobId);
+                logger.info("Cálculo de milestones en cola {} cancelado antes de empezar", siguiente.jobId);
+                return;
+            }
+            String jobActivo = progressService.reservarJob(siguiente.jobId, tipoJob(periodDays), dedupKey);
+            if (!jobActivo.equals(siguiente.jobId)) {
+                // Otra solicitud tomó la clave entre el fin del job y este punto: sigue en cola detrás de ella
+                solicitudesEnCola.put(dedupKey, siguiente);
+                return;
+            }
+            solicitudesEnCurso.put(dedupKey, siguiente);
+        }
+        
+        logger.info("Iniciando cálculo de milestones en cola - jobId: {}, parkId: {}, periodDays: {}, milestoneType: {}, hireDateFrom: {}, hireDateTo: {}, incremental: {}",
+                siguiente.jobId, parkId, periodDays, siguiente.milestoneType, siguiente.hireDateFrom, siguiente.hireDateTo, siguiente.incremental);
+        try {
+            iniciarCalculo(siguiente);
+        } catch (RuntimeException e) {
+            logger.error("No se pudo iniciar el cálculo de milestones en cola {}", siguiente.jobId, e);
+        }
+    }
+    
+    private static String claveDedup(String parkId, int periodDays) {
+        return "milestones|" + parkId + "|" + periodDays;
+    }
+    
+    private static String tipoJob(int periodDays) {
+        return "milestones-" + periodDays + "d";
+    }
+    
     @org.springframework.scheduling.annotation.Async("taskExecutor")
-    public void calcularInstanciasAsyncInternal(String jobId, String parkId, int periodDays, Integer milestoneType, LocalDate hireDateFrom, LocalDate hireDateTo) {
+    public void calcularInstanciasAsyncInternal(String jobId, String parkId, int periodDays, Integer milestoneType, LocalDate hireDateFrom, LocalDate hireDateTo, boolean incremental) {
         try {
             logger.info("Ejecutando cálculo asíncrono - jobId: {}, periodDays: {}, milestoneType: {}", jobId, periodDays, milestoneType);
-            procesarInstanciasAsync(jobId, parkId, periodDays, milestoneType, hireDateFrom, hireDateTo);
+            procesarInstanciasAsync(jobId, parkId, periodDays, milestoneType, hireDateFrom, hireDateTo, incremental);
             progressService.completeProgress(jobId);
+            applicationContext.publishEvent(new DashboardCacheService.DatosActualizadosEvent("milestones-" + periodDays + "d"));
             logger.info("Cálculo asíncrono completado exitosamente - jobId: {}", jobId);
+            
+            // Re-matching de transacciones Yango sobre las instancias recién escritas
+            String rematchJobId = "yango-rematch-milestones-" + System.currentTimeMillis();
+            logger.info("Iniciando re-matching incremental de transacciones Yango. JobId: {}", rematchJobId);
+            yangoTransactionRematchService.rematchChangedTransactionsAsync(rematchJobId);
         } catch (Exception e) {
             logger.error("Error en cálculo asíncrono de milestones para {} días - jobId: {}", periodDays, jobId, e);
             e.printStackTrace();
             progressService.failProgress(jobId, e.getMessage());
+        } finally {
+            iniciarSiguienteEnCola(parkId, periodDays, jobId);
         }
     }
     
-    private void procesarInstanciasAsync(String jobId, String parkId, int periodDays, Integer milestoneTypeFilter, LocalDate hireDateFrom, LocalDate hireDateTo) {
+    private void procesarInstanciasAsync(String jobId, String parkId, int periodDays, Integer milestoneTypeFilter, LocalDate hireDateFrom, LocalDate hireDateTo, boolean incremental) {
         String periodType = periodDays + " días";
         try {
             logger.info("Iniciando procesamiento de milestones - jobId: {}, periodDays: {}, milestoneTypeFilter: {}", jobId, periodDays, milestoneTypeFilter);
             LocalDateTime calculationDate = LocalDateTime.now();
             
-            List<Map<String, Object>> rows = milestoneQueryRepository.obtenerDriversConViajesPorPeriodo(parkId, periodDays, hireDateFrom, hireDateTo);
-            logger.info("Drivers encontrados para procesar: {}", rows.size());
-            progressService.startProgress(jobId, periodType, rows.size());
+            // La marca de agua solo la mantienen los cálculos sin filtros, que cubren todo el park
+            boolean sinFiltros = milestoneTypeFilter == null && hireDateFrom == null && hireDateTo == null;
+            String syncName = "milestones_" + periodDays + "d_" + parkId;
+            LocalDateTime cambiosDesde = incremental ? syncWatermarkRepository.obtener(syncName) : null;
+            if (incremental && cambiosDesde == null) {
+                logger.info("Sin marca de agua previa para {}, se hace un cálculo completo", syncName);
+            }
             
-            Set<String> driverIds = rows.stream()
-                    .map(row -> (String) row.get("driver_id"))
-                    .collect(Collectors.toSet());
+            List<Map<String, Object>> rows = milestoneQueryRepository.obtenerDriversConViajesPorPeriodo(parkId, periodDays, hireDateFrom, hireDateTo, cambiosDesde);
+            logger.info("Drivers encontrados para procesar: {}{}", rows.size(), 
+                    cambiosDesde != null ? " (ventana abierta o actividad modificada desde " + cambiosDesde + ")" : "");
+            progressService.startProgress(jobId, periodType, rows.size());
             
-            Map<String, MilestoneInstance> existingInstancesMap = cargarInstanciasExistentes(driverIds, periodDays);
+            Map<String, Map<Integer, LocalDate>> fechasCumplimiento = calcularFechasCumplimientoMilestones(rows, periodDays);
             
             int processed = 0;
             int savedCount = 0;
             int milestone1Count = 0;
             int milestone5Count = 0;
             int milestone25Count = 0;
+            int tamanoBatchEscritura = milestoneInstanceBulkRepository.getBatchSize();
             List<MilestoneInstance> batchToSave = new ArrayList<>();
             
             for (int i = 0; i < rows.size(); i++) {
@@ -159,19 +381,18 @@ public class MilestoneTrackingService {
                         continue;
                     }
                     
-                    String instanceKey = driverId + "-" + milestoneType + "-" + periodDays;
-                    MilestoneInstance instance = existingInstancesMap.get(instanceKey);
-                    
-                    if (instance == null) {
-                        instance = new MilestoneInstance();
-                        instance.setDriverId(driverId);
-                        instance.setParkId(driverParkId);
-                        instance.setMilestoneType(milestoneType);
-                        instance.setPeriodDays(periodDays);
-                    }
+                    // El upsert resuelve si la instancia ya existe, no hace falta cargarla antes
+                    MilestoneInstance instance = new MilestoneInstance();
+                    instance.setDriverId(driverId);
+                    instance.setParkId(driverParkId);
+                    instance.setMilestoneType(milestoneType);
+                    instance.setPeriodDays(periodDays);
                     
                     // Calcular fecha real de cumplimiento del milestone
-                    LocalDate fechaCumplimiento = calcularFechaCumplimientoMilestone(driverId, hireDate, milestoneType, periodDays);
+                    LocalDate fechaCumplimiento = fechasCumplimiento.getOrDefault(driverId, Collections.emptyMap()).get(milestoneType);
+                    if (fechaCumplimiento == null) {
+                        fechaCumplimiento = hireDate.plusDays(periodDays - 1);
+                    }
                     instance.setFulfillmentDate(fechaCumplimiento.atStartOfDay());
                     instance.setCalculationDate(calculationDate);
                     instance.setTripCount(totalViajes);
@@ -186,8 +407,8 @@ public class MilestoneTrackingService {
                 
                 processed++;
                 
-                if (batchToSave.size() >= BATCH_SIZE) {
-                    guardarBatch(batchToSave);
+                if (batchToSave.size() >= tamanoBatchEscritura) {
+                    milestoneInstanceBulkRepository.guardarInstancias(batchToSave);
                     batchToSave.clear();
                 }
                 
@@ -197,13 +418,17 @@ public class MilestoneTrackingService {
             }
             
             if (!batchToSave.isEmpty()) {
-                guardarBatch(batchToSave);
+                milestoneInstanceBulkRepository.guardarInstancias(batchToSave);
             }
             
             progressService.updateProgress(jobId, processed, milestone1Count, milestone5Count, milestone25Count);
             logger.info("Completado período {}: {} instancias guardadas. Milestones: 1={}, 5={}, 25={}", 
                     periodType, savedCount, milestone1Count, milestone5Count, milestone25Count);
             
+            if (sinFiltros) {
+                syncWatermarkRepository.guardar(syncName, calculationDate.minusSeconds(watermarkOverlapSeconds), savedCount);
+            }
+            
         } catch (Exception e) {
             logger.error("Error al calcular instancias async para período de {} días - jobId: {}", periodDays, jobId, e);
             progressService.failProgress(jobId, e.getMessage());
@@ -211,129 +436,6 @@ public class MilestoneTrackingService {
         }
     }
     
-    private Map<String, MilestoneInstance> cargarInstanciasExistentes(Set<String> driverIds, int periodDays) {
-        if (driverIds == null || driverIds.isEmpty()) {
-            return new HashMap<>();
-        }
-        
-        Map<String, MilestoneInstance> existingMap = new HashMap<>();
-        
-        try {
-            if (driverIds.size() > 1000) {
-                List<String> driverList = new ArrayList<>(driverIds);
-                for (int i = 0; i < driverList.size(); i += 1000) {
-                    int end = Math.min(i + 1000, driverList.size());
-                    List<String> batch = driverList.subList(i, end);
-                    cargarBatchInstanciasExistentes(batch, periodDays, existingMap);
-                }
-            } else {
-                cargarBatchInstanciasExistentes(new ArrayList<>(driverIds), periodDays, existingMap);
-            }
-        } catch (Exception e) {
-            logger.warn("Error al cargar instancias existentes, continuando sin cache: {}", e.getMessage());
-        }
-        
-        return existingMap;
-    }
-    
-    private void cargarBatchInstanciasExistentes(List<String> driverIds, int periodDays, Map<String, MilestoneInstance> existingMap) {
-        if (driverIds.isEmpty()) return;
-        
-        try {
-            String placeholders = driverIds.stream().map(id -> "?").collect(Collectors.joining(","));
-            String sql = "SELECT * FROM milestone_instances WHERE driver_id IN (" + placeholders + ") AND period_days = ?";
-            
-            List<Object> params = new ArrayList<>();
-            params.addAll(driverIds);
-            params.add(periodDays);
-            
-            List<Map<String, Object>> rows = jdbcTemplate.queryForList(sql, params.toArray());
-            
-            for (Map<String, Object> row : rows) {
-                MilestoneInstance instance = new MilestoneInstance();
-                instance.setId(((Number) row.get("id")).longValue());
-                instance.setDriverId((String) row.get("driver_id"));
-                instance.setParkId((String) row.get("park_id"));
-                instance.setMilestoneType(((Number) row.get("milestone_type")).intValue());
-                instance.setPeriodDays(((Number) row.get("period_days")).intValue());
-                instance.setTripCount(((Number) row.get("trip_count")).intValue());
-                
-                Object fulfillmentDateObj = row.get("fulfillment_date");
-                if (fulfillmentDateObj instanceof java.sql.Timestamp) {
-                    instance.setFulfillmentDate(((java.sql.Timestamp) fulfillmentDateObj).toLocalDateTime());
-                }
-                
-                Object calculationDateObj = row.get("calculation_date");
-                if (calculationDateObj instanceof java.sql.Timestamp) {
-                    instance.setCalculationDate(((java.sql.Timestamp) calculationDateObj).toLocalDateTime());
-                }
-                
-                String key = instance.getDriverId() + "-" + instance.getMilestoneType() + "-" + instance.getPeriodDays();
-                existingMap.put(key, instance);
-            }
-        } catch (Exception e) {
-            logger.warn("Error al cargar batch de instancias existentes: {}", e.getMessage());
-        }
-    }
-    
-    @Transactional
-    private void guardarBatch(List<MilestoneInstance> instances) {
-        if (instances.isEmpty()) return;
-        
-        try {
-            milestoneInstanceRepository.saveAll(instances);
-            logger.debug("Batch guardado exitosamente: {} instancias guardadas", instances.size());
-            
-            // Log detallado de tipos de milestones guardados
-            long milestone1Count = instances.stream().filter(i -> i.getMilestoneType() == 1).count();
-            long milestone5Count = instances.stream().filter(i -> i.getMilestoneType() == 5).count();
-            long milestone25Count = instances.stream().filter(i -> i.getMilestoneType() == 25).count();
-            logger.debug("Desglose del batch: milestone1={}, milestone5={}, milestone25={}", 
-                    milestone1Count, milestone5Count, milestone25Count);
-        } catch (org.springframework.dao.DataIntegrityViolationException e) {
-            logger.debug("Error de integridad en batch, guardando individualmente (puede haber duplicados): {}", e.getMessage());
-            guardarInstanciasIndividualmente(instances);
-        } catch (Exception e) {
-            logger.warn("Error al guardar batch, intentando individualmente: {}", e.getMessage());
-            guardarInstanciasIndividualmente(instances);
-        }
-    }
-    
-    private void guardarInstanciasIndividualmente(List<MilestoneInstance> instances) {
-        int savedCount = 0;
-        int updatedCount = 0;
-        int errorCount = 0;
-        
-        for (MilestoneInstance instance : instances) {
-            try {
-                Optional<MilestoneInstance> existing = milestoneInstanceRepository
-                        .findByDriverIdAndMilestoneTypeAndPeriodDays(
-                                instance.getDriverId(), 
-                                instance.getMilestoneType(), 
-                                instance.getPeriodDays());
-                
-                if (existing.isPresent()) {
-                    MilestoneInstance existingInstance = existing.get();
-                    existingInstance.setTripCount(instance.getTripCount());
-                    existingInstance.setCalculationDate(instance.getCalculationDate());
-                    existingInstance.setFulfillmentDate(instance.getFulfillmentDate());
-                    milestoneInstanceRepository.save(existingInstance);
-                    updatedCount++;
-                } else {
-                    milestoneInstanceRepository.save(instance);
-                    savedCount++;
-                }
-            } catch (Exception ex) {
-                errorCount++;
-                logger.debug("Error al guardar instancia individual: driver={}, milestone={}, period={}, error={}", 
-                        instance.getDriverId(), instance.getMilestoneType(), instance.getPeriodDays(), ex.getMessage());
-            }
-        }
-        
-        logger.info("Guardado individual completado: {} nuevos, {} actualizados, {} errores", 
-                savedCount, updatedCount, errorCount);
-    }
-    
     public List<MilestoneInstanceDTO> obtenerInstanciasDriver(String driverId) {
         List<MilestoneInstance> instances = milestoneInstanceRepository.findByDriverId(driverId);
         return convertirADTOs(instances);
@@ -451,80 +553,45 @@ public class MilestoneTrackingService {
     }
     
     /**
-     * Calcula la fecha real en que se alcanzó el milestone dentro del período.
-     * Retorna la fecha del primer día donde el acumulado de viajes >= milestoneType.
-     * 
-     * @param driverId ID del driver
-     * @param hireDate Fecha de contratación
-     * @param milestoneType Tipo de milestone (1, 5, 25)
-     * @param periodDays Días del período (14)
-     * @return Fecha de cumplimiento del milestone, o hireDate + periodDays - 1 si no se alcanza
+     * Calcula la fecha real en que se alcanzó cada milestone dentro del período para todos los drivers.
+     * Para cada driver y tipo de milestone retorna el primer día donde el acumulado de viajes >= milestoneType,
+     * considerando la ventana [hireDate, hireDate + periodDays - 1]. Los milestones no alcanzados no aparecen
+     * en el mapa; el llamador usa el último día del período como fallback.
      */
-    private LocalDate calcularFechaCumplimientoMilestone(String driverId, LocalDate hireDate, int milestoneType, int periodDays) {
-        try {
-            LocalDate fechaFin = hireDate.plusDays(periodDays - 1);
-            
-            // Consultar viajes por día ordenados por fecha
-            String sql = "SELECT TO_DATE(sd.date_file, 'DD-MM-YYYY') as fecha, " +
-                    "  COALESCE(sd.count_orders_completed, 0) as viajes " +
-                    "FROM summary_daily sd " +
-                    "WHERE sd.driver_id = ? " +
-                    "  AND TO_DATE(sd.date_file, 'DD-MM-YYYY') >= ? " +
-                    "  AND TO_DATE(sd.date_file, 'DD-MM-YYYY') <= ? " +
-                    "ORDER BY TO_DATE(sd.date_file, 'DD-MM-YYYY') ASC";
-            
-            List<Map<String, Object>> rows = jdbcTemplate.queryForList(sql, driverId, hireDate, fechaFin);
-            
-            if (rows.isEmpty()) {
-                // Si no hay datos, retornar último día del período
-                return fechaFin;
-            }
-            
-            int acumulado = 0;
-            for (Map<String, Object> row : rows) {
-                Object fechaObj = row.get("fecha");
-                Object viajesObj = row.get("viajes");
-                
-                if (fechaObj == null || viajesObj == null) continue;
-                
-                LocalDate fecha;
-                if (fechaObj instanceof java.sql.Date) {
-                    fecha = ((java.sql.Date) fechaObj).toLocalDate();
-                } else if (fechaObj instanceof LocalDate) {
-                    fecha = (LocalDate) fechaObj;
-                } else {
-                    continue;
-                }
-                
-                int viajes = ((Number) viajesObj).intValue();
-                acumulado += viajes;
-                
-                // Si alcanzamos el milestone, retornar esta fecha
-                if (acumulado >= milestoneType) {
-                    logger.debug("Milestone {} alcanzado para driver {} en fecha {}", milestoneType, driverId, fecha);
-                    return fecha;
-                }
+    private Map<String, Map<Integer, LocalDate>> calcularFechasCumplimientoMilestones(List<Map<String, Object>> rows, int periodDays) {
+        List<DriverActivityQueryRepository.VentanaDriver> ventanas = new ArrayList<>();
+        for (Map<String, Object> row : rows) {
+            Object hireDateObj = row.get("hire_date");
+            LocalDate hireDate = null;
+            if (hireDateObj instanceof java.sql.Date) {
+                hireDate = ((java.sql.Date) hireDateObj).toLocalDate();
+            } else if (hireDateObj instanceof LocalDate) {
+                hireDate = (LocalDate) hireDateObj;
             }
+            if (hireDate == null) continue;
             
-            // Si no se alcanzó el milestone en el período, retornar último día
-            logger.debug("Milestone {} no alcanzado completamente para driver {} en período, retornando último día", milestoneType, driverId);
-            return fechaFin;
-            
+            ventanas.add(new DriverActivityQueryRepository.VentanaDriver(
+                (String) row.get("driver_id"), hireDate, hireDate.plusDays(periodDays - 1)));
+        }
+        
+        List<Integer> umbrales = Arrays.stream(MILESTONE_TYPES).boxed().collect(Collectors.toList());
+        try {
+            return driverActivityQueryRepository.obtenerFechasUmbralViajes(ventanas, umbrales);
         } catch (Exception e) {
-            logger.error("Error al calcular fecha de cumplimiento del milestone {} para driver {}: {}", milestoneType, driverId, e.getMessage(), e);
-            // En caso de error, retornar último día del período como fallback
-            return hireDate.plusDays(periodDays - 1);
+            logger.error("Error al calcular fechas de cumplimiento de milestones para {} drivers: {}", ventanas.size(), e.getMessage(), e);
+            // En caso de error, el llamador usa el último día del período como fallback
+            return new HashMap<>();
         }
     }
     
     public int obtenerTotalViajesDriver(String driverId, int periodDays) {
         try {
-            String sql = "SELECT SUM(COALESCE(sd.count_orders_completed, 0)) as total_viajes " +
+            String sql = "SELECT SUM(COALESCE(da.orders_completed, 0)) as total_viajes " +
                     "FROM drivers d " +
-                    "INNER JOIN summary_daily sd ON sd.driver_id = d.driver_id " +
+                    "INNER JOIN driver_daily_activity da ON da.driver_id = d.driver_id " +
                     "WHERE d.driver_id = ? " +
-                    "  AND TO_DATE(sd.date_file, 'DD-MM-YYYY') >= d.hire_date::DATE " +
-                    "  AND TO_DATE(sd.date_file, 'DD-MM-YYYY') <= (d.hire_date::DATE + INTERVAL '" + periodDays + " day')";
+                    "  AND da.activity_date >= d.hire_date::DATE " +
+                    "  AND da.activity_date <= (d.hire_date::DATE + INTERVAL '" + periodDays + " day')";
             
             List<Map<String, Object>> rows = jdbcTemplate.queryForList(sql, driverId);
             if (!rows.isEmpty()) {
@@ -548,14 +615,9 @@ public class MilestoneTrackingService {
         Map<String, List<MilestoneInstanceDTO>> result = new HashMap<>();
         
         try {
-            String placeholders = driverIds.stream().map(id -> "?").collect(Collectors.joining(","));
-            String sql = "SELECT * FROM milestone_instances WHERE driver_id IN (" + placeholders + ") AND period_days = ?";
+            String sql = "SELECT * FROM milestone_instances WHERE driver_id = ANY(?) AND period_days = ?";
             
-            List<Object> params = new ArrayList<>();
-            params.addAll(driverIds);
-            params.add(periodDays);
-            
-            List<Map<String, Object>> rows = jdbcTemplate.queryForList(sql, params.toArray());
+            List<Map<String, Object>> rows = idArrayQueryExecutor.queryForList(sql, driverIds, IdArrayQueryExecutor.IDS, periodDays);
             
             for (Map<String, Object> row : rows) {
                 String driverId = (String) row.get("driver_id");
@@ -671,6 +733,7 @@ public class MilestoneTrackingService {
             String sql = "DELETE FROM milestone_instances WHERE park_id = ?";
             int deleted = jdbcTemplate.update(sql, parkId);
             logger.info("Milestones eliminados: {} para parkId: {}", deleted, parkId);
+            applicationContext.publishEvent(new DashboardCacheService.DatosActualizadosEvent("milestones-limpieza"));
         } catch (Exception e) {
             logger.error("Error al limpiar milestones para parkId: {}", parkId, e);
             throw new RuntimeException("Error al limpiar milestones: " + e.getMessage(), e);
@@ -709,142 +772,73 @@ public class MilestoneTrackingService {
     }
     
     public List<MilestonePaymentViewDTO> getMilestonePaymentViewByDateRange(LocalDate fechaDesde, LocalDate fechaHasta, String parkId) {
-        StringBuilder sql = new StringBuilder();
-        sql.append("SELECT ");
-        sql.append("  mi.id as milestone_instance_id, ");
-        sql.append("  mi.driver_id, ");
-        sql.append("  d.full_name as driver_name, ");
-        sql.append("  d.phone as driver_phone, ");
-        sql.append("  d.hire_date, ");
-        sql.append("  mi.milestone_type, ");
-        sql.append("  mi.period_days, ");
-        sql.append("  mi.fulfillment_date, ");
-        sql.append("  mi.trip_count, ");
-        sql.append("  yt.id as yango_transaction_id, ");
-        sql.append("  yt.amount_yango, ");
-        sql.append("  yt.transaction_date as yango_payment_date, ");
-        sql.append("  CASE WHEN yt.id IS NOT NULL THEN true ELSE false END as has_payment, ");
-        sql.append("  CASE WHEN lm.driver_id IS NOT NULL THEN true ELSE false END as has_lead_match ");
-        sql.append("FROM milestone_instances mi ");
-        sql.append("INNER JOIN drivers d ON d.driver_id = mi.driver_id ");
-        sql.append("INNER JOIN lead_matches lm ON lm.driver_id = mi.driver_id AND lm.is_discarded = false ");
-        sql.append("LEFT JOIN yango_transactions yt ON yt.milestone_instance_id = mi.id ");
-        sql.append("WHERE mi.period_days = 14 ");
-        sql.append("  AND mi.park_id = ? ");
-        sql.append("  AND DATE(d.hire_date) >= ? ");
-        sql.append("  AND DATE(d.hire_date) <= ? ");
-        sql.append("ORDER BY d.hire_date DESC, mi.driver_id, mi.milestone_type ");
-        
         try {
-            List<Map<String, Object>> rows = jdbcTemplate.queryForList(
-                sql.toString(), 
-                parkId, 
-                fechaDesde, 
-                fechaHasta
-            );
-            
-            List<MilestonePaymentViewDTO> result = new ArrayList<>();
             LocalDate now = LocalDate.now();
-            
-            for (Map<String, Object> row : rows) {
-                MilestonePaymentViewDTO dto = new MilestonePaymentViewDTO();
-                
-                // Driver info
-                dto.setDriverId((String) row.get("driver_id"));
-                dto.setDriverName((String) row.get("driver_name"));
-                dto.setDriverPhone((String) row.get("driver_phone"));
-                Object hireDateObj = row.get("hire_date");
-                if (hireDateObj instanceof java.sql.Date) {
-                    dto.setHireDate(((java.sql.Date) hireDateObj).toLocalDate());
-                } else if (hireDateObj instanceof LocalDate) {
-                    dto.setHireDate((LocalDate) hireDateObj);
-                }
-                
-                // Milestone info
-                Object milestoneIdObj = row.get("milestone_instance_id");
-                if (milestoneIdObj instanceof Number) {
-                    dto.setMilestoneInstanceId(((Number) milestoneIdObj).longValue());
-                }
-                Object milestoneTypeObj = row.get("milestone_type");
-                if (milestoneTypeObj instanceof Number) {
-                    dto.setMilestoneType(((Number) milestoneTypeObj).intValue());
-                }
-                Object periodDaysObj = row.get("period_days");
-                if (periodDaysObj instanceof Number) {
-                    dto.setPeriodDays(((Number) periodDaysObj).intValue());
-                }
-                Object fulfillmentDateObj = row.get("fulfillment_date");
-                if (fulfillmentDateObj instanceof java.sql.Timestamp) {
-                    dto.setFulfillmentDate(((java.sql.Timestamp) fulfillmentDateObj).toLocalDateTime());
-                } else if (fulfillmentDateObj instanceof LocalDateTime) {
-                    dto.setFulfillmentDate((LocalDateTime) fulfillmentDateObj);
-                }
-                Object tripCountObj = row.get("trip_count");
-                if (tripCountObj instanceof Number) {
-                    dto.setTripCount(((Number) tripCountObj).intValue());
-                }
-                
-                // Yango payment info
-                Object yangoTransactionIdObj = row.get("yango_transaction_id");
-                if (yangoTransactionIdObj instanceof Number) {
-                    dto.setYangoTransactionId(((Number) yangoTransactionIdObj).longValue());
-                }
-                Object amountYangoObj = row.get("amount_yango");
-                if (amountYangoObj instanceof BigDecimal) {
-                    dto.setAmountYango((BigDecimal) amountYangoObj);
-                } else if (amountYangoObj instanceof Number) {
-                    dto.setAmountYango(BigDecimal.valueOf(((Number) amountYangoObj).doubleValue()));
-                }
-                Object yangoPaymentDateObj = row.get("yango_payment_date");
-                if (yangoPaymentDateObj instanceof java.sql.Timestamp) {
-                    dto.setYangoPaymentDate(((java.sql.Timestamp) yangoPaymentDateObj).toLocalDateTime());
-                } else if (yangoPaymentDateObj instanceof LocalDateTime) {
-                    dto.setYangoPaymentDate((LocalDateTime) yangoPaymentDateObj);
-                }
-                Object hasPaymentObj = row.get("has_payment");
-                if (hasPaymentObj instanceof Boolean) {
-                    dto.setHasPayment((Boolean) hasPaymentObj);
-                } else {
-                    dto.setHasPayment(false);
-                }
-                
-                // Lead match info
-                Object hasLeadMatchObj = row.get("has_lead_match");
-                if (hasLeadMatchObj instanceof Boolean) {
-                    dto.setHasLeadMatch((Boolean) hasLeadMatchObj);
-                } else {
-                    // Si hay INNER JOIN con lead_matches, siempre será true
-                    dto.setHasLeadMatch(true);
-                }
-                
-                // Payment status
-                if (dto.getHasPayment() != null && dto.getHasPayment()) {
-                    dto.setPaymentStatus("paid");
-                } else {
-                    LocalDate fulfillmentDate = dto.getFulfillmentDate() != null ? 
-                        dto.getFulfillmentDate().toLocalDate() : null;
-                    if (fulfillmentDate != null) {
-                        long daysSinceFulfillment = java.time.temporal.ChronoUnit.DAYS.between(fulfillmentDate, now);
-                        if (daysSinceFulfillment <= 7) {
-                            dto.setPaymentStatus("pending");
-                        } else {
-                            dto.setPaymentStatus("missing");
-                        }
-                    } else {
-                        dto.setPaymentStatus("missing");
-                    }
-                }
-                
-                result.add(dto);
-            }
-            
-            return result;
+            return jdbcTemplate.query(SQL_PAYMENT_VIEW, (rs, rowNum) -> mapearPaymentView(rs, now), parkId, fechaDesde, fechaHasta);
         } catch (Exception e) {
             logger.error("Error al ejecutar consulta de vista de pagos: {}", e.getMessage(), e);
             throw new RuntimeException("Error al obtener vista de pagos: " + e.getMessage(), e);
         }
     }
     
+    /**
+     * Misma vista que getMilestonePaymentViewByDateRange, recorrida por cursor para exportaciones:
+     * cada fila se entrega al consumidor sin acumular el resultado.
+     */
+    public long recorrerMilestonePaymentView(LocalDate fechaDesde, LocalDate fechaHasta, String parkId, Consumer<MilestonePaymentViewDTO> consumidor) {
+        String parkIdEfectivo = parkId != null && !parkId.isEmpty() ? parkId : DEFAULT_PARK_ID;
+        LocalDate now = LocalDate.now();
+        return cursorQueryExecutor.recorrer("milestones-payment-view-export", SQL_PAYMENT_VIEW,
+            rs -> consumidor.accept(mapearPaymentView(rs, now)), parkIdEfectivo, fechaDesde, fechaHasta);
+    }
+    
+    private MilestonePaymentViewDTO mapearPaymentView(ResultSet rs, LocalDate now) throws SQLException {
+        MilestonePaymentViewDTO dto = new MilestonePaymentViewDTO();
+        
+        // Driver info
+        dto.setDriverId(rs.getString("driver_id"));
+        dto.setDriverName(rs.getString("driver_name"));
+        dto.setDriverPhone(rs.getString("driver_phone"));
+        dto.setHireDate(ResultSetUtil.fecha(rs, "hire_date"));
+        
+        // Milestone info
+        dto.setMilestoneInstanceId(ResultSetUtil.largo(rs, "milestone_instance_id"));
+        dto.setMilestoneType(ResultSetUtil.entero(rs, "milestone_type"));
+        dto.setPeriodDays(ResultSetUtil.entero(rs, "period_days"));
+        dto.setFulfillmentDate(ResultSetUtil.fechaHora(rs, "fulfillment_date"));
+        dto.setTripCount(ResultSetUtil.entero(rs, "trip_count"));
+        
+        // Yango payment info
+        dto.setYangoTransactionId(ResultSetUtil.largo(rs, "yango_transaction_id"));
+        dto.setAmountYango(rs.getBigDecimal("amount_yango"));
+        dto.setYangoPaymentDate(ResultSetUtil.fechaHora(rs, "yango_payment_date"));
+        dto.setHasPayment(rs.getBoolean("has_payment"));
+        
+        // Lead match info: con el INNER JOIN a lead_matches siempre es true
+        Boolean hasLeadMatch = ResultSetUtil.booleano(rs, "has_lead_match");
+        dto.setHasLeadMatch(hasLeadMatch != null ? hasLeadMatch : true);
+        
+        // Payment status
+        if (dto.getHasPayment()) {
+            dto.setPaymentStatus("paid");
+        } else {
+            LocalDate fulfillmentDate = dto.getFulfillmentDate() != null ? 
+                dto.getFulfillmentDate().toLocalDate() : null;
+            if (fulfillmentDate != null) {
+                long daysSinceFulfillment = java.time.temporal.ChronoUnit.DAYS.between(fulfillmentDate, now);
+                if (daysSinceFulfillment <= 7) {
+                    dto.setPaymentStatus("pending");
+                } else {
+                    dto.setPaymentStatus("missing");
+                }
+            } else {
+                dto.setPaymentStatus("missing");
+            }
+        }
+        
+        return dto;
+    }
+    
     public List<MilestonePaymentViewDTO> getMilestonePaymentViewPending(String parkId, Integer milestoneType, LocalDate fechaDesde, LocalDate fechaHasta) {
         // Si no se especifica rango de fechas, usar un rango amplio (últimos 6 meses)
         if (fechaDesde == null) {
@@ -8,11 +8,19 @@ import com.yego.contractortracker.dto.PaginatedResponse;
 import com.yego.contractortracker.entity.ContractorTrackingHistory;
 import com.yego.contractortracker.entity.MilestoneInstance;
 import com.yego.contractortracker.repository.ContractorTrackingHistoryRepository;
+import com.yego.contractortracker.repository.CursorQueryExecutor;
+import com.yego.contractortracker.repository.DriverActivityQueryRepository;
+import com.yego.contractortracker.repository.DriverOnboardingRowMapper;
+import com.yego.contractortracker.repository.IdArrayQueryExecutor;
 import com.yego.contractortracker.repository.MilestoneInstanceRepository;
+import com.yego.contractortracker.repository.TimedQueryExecutor;
+import com.yego.contractortracker.repository.TrackingHistoryBulkRepository;
 import com.yego.contractortracker.service.MilestoneTrackingService;
+import com.yego.contractortracker.util.KeysetCursorUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.CannotGetJdbcConnectionException;
 import org.springframework.dao.DataAccessResourceFailureException;
@@ -27,12 +35,17 @@ import java.util.Locale;
 import java.util.*;
 import java.util.Set;
 import java.util.HashSet;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 @Service
 public class OnboardingService {
     
     private static final Logger logger = LoggerFactory.getLogger(OnboardingService.class);
     private static final String DEFAULT_PARK_ID = "08e20910d81d42658d4334d3f6d10ac0";
+    private static final int UMBRAL_25_VIAJES = 25;
+    private static final Pattern PATRON_FILAS_ESTIMADAS = Pattern.compile("rows=(\\d+)");
     
     @Autowired
     private JdbcTemplate jdbcTemplate;
@@ -49,7 +62,31 @@ public class OnboardingService {
     @Autowired
     private YangoTransactionService yangoTransactionService;
     
-    @Transactional
+    @Autowired
+    private DriverActivityQueryRepository driverActivityQueryRepository;
+    
+    @Autowired
+    private TrackingHistoryBulkRepository trackingHistoryBulkRepository;
+    
+    @Autowired
+    private TimedQueryExecutor timedQueryExecutor;
+    
+    @Autowired
+    private DashboardCacheService dashboardCache;
+    
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+    
+    @Autowired
+    private EnriquecimientoParaleloExecutor enriquecimientoParalelo;
+    
+    @Autowired
+    private IdArrayQueryExecutor idArrayQueryExecutor;
+    
+    @Autowired
+    private CursorQueryExecutor cursorQueryExecutor;
+    
+    // Sin @Transactional: las lecturas y cada bloque de escritura usan la conexión solo lo necesario
     public void calculateAndSaveMetrics(String parkId) {
         parkId = parkId != null && !parkId.isEmpty() ? parkId : DEFAULT_PARK_ID;
         LocalDateTime calculationDate = LocalDateTime.now();
@@ -61,11 +98,11 @@ public class OnboardingService {
         sql.append("  d.driver_id, ");
         sql.append("  d.park_id, ");
         sql.append("  d.hire_date, ");
-        sql.append("  COALESCE(SUM(CASE WHEN TO_DATE(sd.date_file, 'DD-MM-YYYY') >= d.hire_date AND TO_DATE(sd.date_file, 'DD-MM-YYYY') < d.hire_date + INTERVAL '14 days' THEN sd.sum_work_time_seconds ELSE NULL END), NULL) as sum_work_time_seconds, ");
-        sql.append("  COALESCE(SUM(CASE WHEN TO_DATE(sd.date_file, 'DD-MM-YYYY') >= d.hire_date AND TO_DATE(sd.date_file, 'DD-MM-YYYY') < d.hire_date + INTERVAL '14 days' THEN COALESCE(sd.count_orders_completed, 0) ELSE 0 END), 0) as total_trips_historical, ");
-        sql.append("  CASE WHEN COUNT(CASE WHEN TO_DATE(sd.date_file, 'DD-MM-YYYY') >= d.hire_date AND TO_DATE(sd.date_file, 'DD-MM-YYYY') < d.hire_date + INTERVAL '14 days' AND COALESCE(sd.sum_work_time_seconds, 0) > 0 THEN 1 END) > 0 THEN true ELSE false END as has_historical_connection ");
+        sql.append("  COALESCE(SUM(CASE WHEN da.activity_date >= d.hire_date AND da.activity_date < d.hire_date + INTERVAL '14 days' THEN da.work_seconds ELSE NULL END), NULL) as sum_work_time_seconds, ");
+        sql.append("  COALESCE(SUM(CASE WHEN da.activity_date >= d.hire_date AND da.activity_date < d.hire_date + INTERVAL '14 days' THEN COALESCE(da.orders_completed, 0) ELSE 0 END), 0) as total_trips_historical, ");
+        sql.append("  CASE WHEN COUNT(CASE WHEN da.activity_date >= d.hire_date AND da.activity_date < d.hire_date + INTERVAL '14 days' AND COALESCE(da.work_seconds, 0) > 0 THEN 1 END) > 0 THEN true ELSE false END as has_historical_connection ");
         sql.append("FROM drivers d ");
-        sql.append("LEFT JOIN summary_daily sd ON sd.driver_id = d.driver_id ");
+        sql.append("LEFT JOIN driver_daily_activity da ON da.driver_id = d.driver_id ");
         sql.append("WHERE d.park_id = ? ");
         sql.append("GROUP BY d.driver_id, d.park_id, d.hire_date ");
         sql.append("ORDER BY d.driver_id");
@@ -100,12 +137,33 @@ public class OnboardingService {
                 basicMetrics.put(driverId, row);
             }
             
-            Map<String, Map<String, Object>> detailedMetrics = calcularMetricasDetalladas(driverIds, hireDates);
-            Map<String, Map<String, Object>> leadData = obtenerDatosLeads(driverIds);
-            Map<String, Map<String, Object>> scoutData = obtenerDatosScouts(driverIds);
-            Map<String, String> acquisitionChannels = obtenerCanalesAdquisicion(driverIds);
+            EnriquecimientoParaleloExecutor.Etapa<Map<String, Map<String, Object>>> etapaDetalladas = new EnriquecimientoParaleloExecutor.Etapa<>(
+                "metricasDetalladas", () -> calcularMetricasDetalladas(driverIds, hireDates), new HashMap<>());
+            EnriquecimientoParaleloExecutor.Etapa<Map<String, Map<String, Object>>> etapaLeads = new EnriquecimientoParaleloExecutor.Etapa<>(
+                "leads", () -> obtenerDatosLeads(driverIds), new HashMap<>());
+            EnriquecimientoParaleloExecutor.Etapa<Map<String, Map<String, Object>>> etapaScouts = new EnriquecimientoParaleloExecutor.Etapa<>(
+                "scouts", () -> obtenerDatosScouts(driverIds), new HashMap<>());
+            EnriquecimientoParaleloExecutor.Etapa<Map<String, String>> etapaCanales = new EnriquecimientoParaleloExecutor.Etapa<>(
+                "canalesAdquisicion", () -> obtenerCanalesAdquisicion(driverIds), new HashMap<>());
+            enriquecimientoParalelo.ejecutar("métricas históricas " + parkId, etapaDetalladas, etapaLeads, etapaScouts, etapaCanales);
             
-            int savedCount = 0;
+            Map<String, Map<String, Object>> detailedMetrics = etapaDetalladas.getResultado();
+            Map<String, Map<String, Object>> leadData = etapaLeads.getResultado();
+            Map<String, Map<String, Object>> scoutData = etapaScouts.getResultado();
+            Map<String, String> acquisitionChannels = etapaCanales.getResultado();
+            
+            List<DriverActivityQueryRepository.VentanaDriver> ventanas25Viajes = new ArrayList<>();
+            for (String driverId : driverIds) {
+                Map<String, Object> detailed = detailedMetrics.get(driverId);
+                LocalDate primerViaje = detailed != null ? obtenerFecha(detailed.get("primerViaje")) : null;
+                LocalDate hireDate = hireDates.get(driverId);
+                if (primerViaje != null && hireDate != null) {
+                    ventanas25Viajes.add(new DriverActivityQueryRepository.VentanaDriver(driverId, primerViaje, hireDate.plusDays(14)));
+                }
+            }
+            Map<String, LocalDate> fechas25Viajes = calcularFechas25Viajes(ventanas25Viajes);
+            
+            List<ContractorTrackingHistory> snapshots = new ArrayList<>(driverIds.size());
             for (String driverId : driverIds) {
                 Map<String, Object> basic = basicMetrics.get(driverId);
                 Map<String, Object> detailed = detailedMetrics.getOrDefault(driverId, new HashMap<>());
@@ -163,7 +221,7 @@ public class OnboardingService {
                 
                 Integer diasPrimerViajeA25Viajes = null;
                 if (primerViaje != null && hireDate != null) {
-                    LocalDate fecha25Viajes = calcularFecha25Viajes(driverId, primerViaje, hireDate);
+                    LocalDate fecha25Viajes = fechas25Viajes.get(driverId);
                     if (fecha25Viajes != null) {
                         diasPrimerViajeA25Viajes = (int) java.time.temporal.ChronoUnit.DAYS.between(primerViaje, fecha25Viajes);
                     }
@@ -216,11 +274,15 @@ public class OnboardingService {
                 history.setMatchScoreBajo(matchScoreBajo);
                 history.setTieneInconsistencias(tieneInconsistencias);
                 
-                trackingHistoryRepository.save(history);
-                savedCount++;
+                snapshots.add(history);
             }
             
+            int totalSnapshots = snapshots.size();
+            int savedCount = trackingHistoryBulkRepository.guardarSnapshots(snapshots, escritos ->
+                logger.info("Guardando métricas históricas: {}/{} drivers", escritos, totalSnapshots));
+            
             logger.info("Métricas calculadas y guardadas exitosamente para {} drivers", savedCount);
+            eventPublisher.publishEvent(new DashboardCacheService.DatosActualizadosEvent("tracking-history"));
         } catch (Exception e) {
             logger.error("Error al calcular y guardar métricas para parkId: {}", parkId, e);
             throw e;
@@ -234,24 +296,21 @@ public class OnboardingService {
         }
         
         try {
-            String placeholders = driverIds.stream().map(id -> "?").collect(java.util.stream.Collectors.joining(","));
-            
             StringBuilder sql = new StringBuilder();
             sql.append("SELECT ");
-            sql.append("  sd.driver_id, ");
-            sql.append("  MIN(CASE WHEN COALESCE(sd.sum_work_time_seconds, 0) > 0 THEN TO_DATE(sd.date_file, 'DD-MM-YYYY') END) as primera_conexion_date, ");
-            sql.append("  MIN(CASE WHEN COALESCE(sd.count_orders_completed, 0) > 0 THEN TO_DATE(sd.date_file, 'DD-MM-YYYY') END) as primer_viaje_date, ");
-            sql.append("  COUNT(DISTINCT CASE WHEN COALESCE(sd.count_orders_completed, 0) > 0 THEN TO_DATE(sd.date_file, 'DD-MM-YYYY') END) as dias_activos, ");
-            sql.append("  COUNT(DISTINCT CASE WHEN COALESCE(sd.sum_work_time_seconds, 0) > 0 THEN TO_DATE(sd.date_file, 'DD-MM-YYYY') END) as dias_conectados ");
-            sql.append("FROM summary_daily sd ");
-            sql.append("INNER JOIN drivers d ON sd.driver_id = d.driver_id ");
-            sql.append("WHERE sd.driver_id IN (").append(placeholders).append(") ");
-            sql.append("  AND TO_DATE(sd.date_file, 'DD-MM-YYYY') >= d.hire_date ");
-            sql.append("  AND TO_DATE(sd.date_file, 'DD-MM-YYYY') < d.hire_date + INTERVAL '14 days' ");
-            sql.append("GROUP BY sd.driver_id");
-            
-            List<Object> params = new ArrayList<>(driverIds);
-            List<Map<String, Object>> rows = jdbcTemplate.queryForList(sql.toString(), params.toArray());
+            sql.append("  da.driver_id, ");
+            sql.append("  MIN(CASE WHEN COALESCE(da.work_seconds, 0) > 0 THEN da.activity_date END) as primera_conexion_date, ");
+            sql.append("  MIN(CASE WHEN COALESCE(da.orders_completed, 0) > 0 THEN da.activity_date END) as primer_viaje_date, ");
+            sql.append("  COUNT(DISTINCT CASE WHEN COALESCE(da.orders_completed, 0) > 0 THEN da.activity_date END) as dias_activos, ");
+            sql.append("  COUNT(DISTINCT CASE WHEN COALESCE(da.work_seconds, 0) > 0 THEN da.activity_date END) as dias_conectados ");
+            sql.append("FROM driver_daily_activity da ");
+            sql.append("INNER JOIN drivers d ON da.driver_id = d.driver_id ");
+            sql.append("WHERE da.driver_id = ANY(?) ");
+            sql.append("  AND da.activity_date >= d.hire_date ");
+            sql.append("  AND da.activity_date < d.hire_date + INTERVAL '14 days' ");
+            sql.append("GROUP BY da.driver_id");
+            
+            List<Map<String, Object>> rows = idArrayQueryExecutor.queryForList(sql.toString(), driverIds, IdArrayQueryExecutor.IDS);
             
             for (Map<String, Object> row : rows) {
                 String driverId = (String) row.get("driver_id");
@@ -266,22 +325,19 @@ public class OnboardingService {
             StringBuilder sqlPrimeraConexion = new StringBuilder();
             sqlPrimeraConexion.append("SELECT ");
             sqlPrimeraConexion.append("  primera.driver_id, ");
-            sqlPrimeraConexion.append("  CASE WHEN COALESCE(sd.count_orders_completed, 0) > 0 THEN 1 ELSE 0 END as tiene_viajes ");
+            sqlPrimeraConexion.append("  CASE WHEN COALESCE(da.orders_completed, 0) > 0 THEN 1 ELSE 0 END as tiene_viajes ");
             sqlPrimeraConexion.append("FROM ( ");
-            sqlPrimeraConexion.append("  SELECT sd2.driver_id, MIN(CASE WHEN COALESCE(sd2.sum_work_time_seconds, 0) > 0 THEN TO_DATE(sd2.date_file, 'DD-MM-YYYY') END) as primera_conexion ");
-            sqlPrimeraConexion.append("  FROM summary_daily sd2 ");
-            sqlPrimeraConexion.append("  INNER JOIN drivers d2 ON sd2.driver_id = d2.driver_id ");
-            sqlPrimeraConexion.append("  WHERE sd2.driver_id IN (").append(placeholders).append(") ");
-            sqlPrimeraConexion.append("    AND TO_DATE(sd2.date_file, 'DD-MM-YYYY') >= d2.hire_date ");
-            sqlPrimeraConexion.append("    AND TO_DATE(sd2.date_file, 'DD-MM-YYYY') < d2.hire_date + INTERVAL '14 days' ");
-            sqlPrimeraConexion.append("  GROUP BY sd2.driver_id ");
+            sqlPrimeraConexion.append("  SELECT da2.driver_id, MIN(CASE WHEN COALESCE(da2.work_seconds, 0) > 0 THEN da2.activity_date END) as primera_conexion ");
+            sqlPrimeraConexion.append("  FROM driver_daily_activity da2 ");
+            sqlPrimeraConexion.append("  INNER JOIN drivers d2 ON da2.driver_id = d2.driver_id ");
+            sqlPrimeraConexion.append("  WHERE da2.driver_id = ANY(?) ");
+            sqlPrimeraConexion.append("    AND da2.activity_date >= d2.hire_date ");
+            sqlPrimeraConexion.append("    AND da2.activity_date < d2.hire_date + INTERVAL '14 days' ");
+            sqlPrimeraConexion.append("  GROUP BY da2.driver_id ");
             sqlPrimeraConexion.append(") primera ");
-            sqlPrimeraConexion.append("LEFT JOIN summary_daily sd ON sd.driver_id = primera.driver_id AND TO_DATE(sd.date_file, 'DD-MM-YYYY') = primera.primera_conexion ");
-            sqlPrimeraConexion.append("WHERE primera.driver_id IN (").append(placeholders).append(")");
+            sqlPrimeraConexion.append("LEFT JOIN driver_daily_activity da ON da.driver_id = primera.driver_id AND da.activity_date = primera.primera_conexion ");
             
-            List<Object> paramsPrimeraConexion = new ArrayList<>(driverIds);
-            paramsPrimeraConexion.addAll(driverIds);
-            List<Map<String, Object>> rowsPrimeraConexion = jdbcTemplate.queryForList(sqlPrimeraConexion.toString(), paramsPrimeraConexion.toArray());
+            List<Map<String, Object>> rowsPrimeraConexion = idArrayQueryExecutor.queryForList(sqlPrimeraConexion.toString(), driverIds, IdArrayQueryExecutor.IDS);
             
             for (Map<String, Object> row : rowsPrimeraConexion) {
                 String driverId = (String) row.get("driver_id");
@@ -308,10 +364,9 @@ public class OnboardingService {
         }
         
         try {
-            String placeholders = driverIds.stream().map(id -> "?").collect(java.util.stream.Collectors.joining(","));
-            String sql = "SELECT driver_id, lead_created_at, match_score, is_manual FROM lead_matches WHERE driver_id IN (" + placeholders + ") AND is_discarded = false ORDER BY driver_id, matched_at DESC";
+            String sql = "SELECT driver_id, lead_created_at, match_score, is_manual FROM lead_matches WHERE driver_id = ANY(?) AND is_discarded = false ORDER BY driver_id, matched_at DESC";
             
-            List<Map<String, Object>> rows = jdbcTemplate.queryForList(sql, driverIds.toArray());
+            List<Map<String, Object>> rows = idArrayQueryExecutor.queryForList(sql, driverIds, IdArrayQueryExecutor.IDS);
             Map<String, Map<String, Object>> latestByDriver = new HashMap<>();
             
             for (Map<String, Object> row : rows) {
@@ -343,14 +398,13 @@ public class OnboardingService {
         }
         
         try {
-            String placeholders = driverIds.stream().map(id -> "?").collect(java.util.stream.Collectors.joining(","));
             String sql = "SELECT sr.driver_id, sr.scout_id, sr.registration_date, sr.match_score, s.scout_name " +
                         "FROM scout_registrations sr " +
                         "LEFT JOIN scouts s ON sr.scout_id = s.scout_id " +
-                        "WHERE sr.driver_id IN (" + placeholders + ") AND sr.is_matched = true AND sr.driver_id IS NOT NULL " +
+                        "WHERE sr.driver_id = ANY(?) AND sr.is_matched = true AND sr.driver_id IS NOT NULL " +
                         "ORDER BY sr.driver_id, sr.registration_date DESC";
             
-            List<Map<String, Object>> rows = jdbcTemplate.queryForList(sql, driverIds.toArray());
+            List<Map<String, Object>> rows = idArrayQueryExecutor.queryForList(sql, driverIds, IdArrayQueryExecutor.IDS);
             Map<String, Map<String, Object>> latestByDriver = new HashMap<>();
             
             for (Map<String, Object> row : rows) {
@@ -383,13 +437,12 @@ public class OnboardingService {
         }
         
         try {
-            String placeholders = driverIds.stream().map(id -> "?").collect(java.util.stream.Collectors.joining(","));
             String sql = "SELECT DISTINCT ON (driver_id) driver_id, acquisition_channel " +
                         "FROM contractor_tracking_history " +
-                        "WHERE driver_id IN (" + placeholders + ") " +
+                        "WHERE driver_id = ANY(?) " +
                         "ORDER BY driver_id, calculation_date DESC";
             
-            List<Map<String, Object>> rows = jdbcTemplate.queryForList(sql, driverIds.toArray());
+            List<Map<String, Object>> rows = idArrayQueryExecutor.queryForList(sql, driverIds, IdArrayQueryExecutor.IDS);
             for (Map<String, Object> row : rows) {
                 String driverId = (String) row.get("driver_id");
                 String channel = (String) row.get("acquisition_channel");
@@ -794,6 +847,7 @@ public class OnboardingService {
         int page = filter.getPage() != null ? filter.getPage() : 0;
         int size = filter.getSize() != null ? filter.getSize() : 50;
         int offset = page * size;
+        Object[] cursor = KeysetCursorUtil.decodificar(filter.getCursor());
         
         StringBuilder countSql = new StringBuilder();
         countSql.append("SELECT COUNT(DISTINCT d.driver_id) ");
@@ -826,7 +880,9 @@ public class OnboardingService {
             }
         }
         
-        long total = jdbcTemplate.queryForObject(countSql.toString(), countParams.toArray(), Long.class);
+        String countSqlFinal = countSql.toString();
+        long total = contarTotalPaginacion(filter, "history", countSqlFinal,
+            countSqlFinal.replace("SELECT COUNT(DISTINCT d.driver_id) ", "SELECT d.driver_id "), countParams);
         
         StringBuilder sql = new StringBuilder();
         sql.append("SELECT ");
@@ -907,20 +963,16 @@ public class OnboardingService {
             }
         }
         
+        if (cursor != null) {
+            sql.append("  AND ").append(KeysetCursorUtil.condicionSiguiente(cursor, "d.hire_date", "d.driver_id", params)).append(" ");
+        }
+        
         sql.append("ORDER BY d.hire_date DESC, d.driver_id ");
-        sql.append("LIMIT ? OFFSET ?");
-        params.add(size);
-        params.add(offset);
+        agregarLimitePaginacion(sql, params, size, cursor != null ? 0 : offset);
         
         try {
-            List<Map<String, Object>> rows = jdbcTemplate.queryForList(sql.toString(), params.toArray());
-            List<DriverOnboardingDTO> drivers = mapearFilasADrivers(rows);
-            cargarTransaccionesYango14d(drivers);
-            
-            int totalPages = (int) Math.ceil((double) total / size);
-            boolean hasMore = (page + 1) < totalPages;
-            
-            return new PaginatedResponse<>(drivers, page, size, total, hasMore, totalPages);
+            List<DriverOnboardingDTO> drivers = jdbcTemplate.query(sql.toString(), new DriverOnboardingRowMapper(), params.toArray());
+            return construirPaginaOnboarding(drivers, filter, page, size, total);
         } catch (Exception e) {
             logger.error("Error al leer datos históricos, calculando en tiempo real como fallback", e);
             return getOnboarding14dRealTimePaginated(filter);
@@ -936,6 +988,7 @@ public class OnboardingService {
         int page = filter.getPage() != null ? filter.getPage() : 0;
         int size = filter.getSize() != null ? filter.getSize() : 50;
         int offset = page * size;
+        Object[] cursor = KeysetCursorUtil.decodificar(filter.getCursor());
         
         long startTime = System.currentTimeMillis();
         logger.info("Leyendo datos pre-calculados desde contractor_tracking_history para parkId: {} (página {}, tamaño {})", parkId, page, size);
@@ -956,10 +1009,9 @@ public class OnboardingService {
             countParams.add(filter.getStartDateTo());
         }
         countSql.append(") ");
-        countSql.append("SELECT COUNT(*) FROM filtered_drivers");
-        
-        Long totalObj = jdbcTemplate.queryForObject(countSql.toString(), countParams.toArray(), Long.class);
-        long total = totalObj != null ? totalObj : 0L;
+        String countSqlBase = countSql.toString();
+        long total = contarTotalPaginacion(filter, "real-time", countSqlBase + "SELECT COUNT(*) FROM filtered_drivers",
+            countSqlBase + "SELECT driver_id FROM filtered_drivers", countParams);
         
         StringBuilder sql = new StringBuilder();
         sql.append("WITH filtered_drivers AS ( ");
@@ -976,6 +1028,9 @@ public class OnboardingService {
             sql.append("    AND hire_date <= ? ");
             params.add(filter.getStartDateTo());
         }
+        if (cursor != null) {
+            sql.append("    AND ").append(KeysetCursorUtil.condicionSiguiente(cursor, "hire_date", "driver_id", params)).append(" ");
+        }
         sql.append("), latest_tracking AS ( ");
         sql.append("  SELECT DISTINCT ON (cth.driver_id) ");
         sql.append("    cth.driver_id, ");
@@ -990,13 +1045,13 @@ public class OnboardingService {
         sql.append("), driver_trips_time_fallback AS ( ");
         sql.append("  SELECT ");
         sql.append("    fd.driver_id, ");
-        sql.append("    COALESCE(SUM(sd.count_orders_completed), 0) as total_trips_from_sd, ");
-        sql.append("    SUM(sd.sum_work_time_seconds) as sum_work_time_from_sd, ");
-        sql.append("    CASE WHEN COUNT(CASE WHEN COALESCE(sd.sum_work_time_seconds, 0) > 0 THEN 1 END) > 0 THEN true ELSE false END as has_connection_from_sd ");
+        sql.append("    COALESCE(SUM(da.orders_completed), 0) as total_trips_from_sd, ");
+        sql.append("    SUM(da.work_seconds) as sum_work_time_from_sd, ");
+        sql.append("    CASE WHEN COUNT(CASE WHEN COALESCE(da.work_seconds, 0) > 0 THEN 1 END) > 0 THEN true ELSE false END as has_connection_from_sd ");
         sql.append("  FROM filtered_drivers fd ");
-        sql.append("  LEFT JOIN summary_daily sd ON sd.driver_id = fd.driver_id ");
-        sql.append("    AND to_date_immutable(sd.date_file) >= fd.hire_date ");
-        sql.append("    AND to_date_immutable(sd.date_file) < fd.hire_date + INTERVAL '14 days' ");
+        sql.append("  LEFT JOIN driver_daily_activity da ON da.driver_id = fd.driver_id ");
+        sql.append("    AND da.activity_date >= fd.hire_date ");
+        sql.append("    AND da.activity_date < fd.hire_date + INTERVAL '14 days' ");
         sql.append("  GROUP BY fd.driver_id ");
         sql.append("), latest_lead_match AS ( ");
         sql.append("  SELECT DISTINCT ON (lm.driver_id) ");
@@ -1067,179 +1122,141 @@ public class OnboardingService {
         }
         
         sql.append("ORDER BY fd.hire_date DESC, fd.driver_id ");
-        sql.append("LIMIT ? OFFSET ?");
-        params.add(size);
-        params.add(offset);
+        agregarLimitePaginacion(sql, params, size, cursor != null ? 0 : offset);
         
         String finalSql = sql.toString();
-        logger.debug("Ejecutando consulta optimizada paginada: página {}, tamaño {}", page, size);
+        logger.debug("Ejecutando consulta optimizada paginada: página {}, tamaño {}, con cursor: {}", page, size, cursor != null);
         
         try {
-            jdbcTemplate.setQueryTimeout(90);
-            List<Map<String, Object>> rows = jdbcTemplate.queryForList(finalSql, params.toArray());
-            jdbcTemplate.setQueryTimeout(0);
+            List<DriverOnboardingDTO> drivers = timedQueryExecutor.query(
+                "onboarding-14d-paginado", 90, finalSql, new DriverOnboardingRowMapper(), params.toArray());
             long executionTime = System.currentTimeMillis() - startTime;
-            logger.info("Consulta paginada ejecutada exitosamente en {} ms. Filas retornadas: {}", executionTime, rows.size());
-            
-            List<DriverOnboardingDTO> drivers = mapearFilasADrivers(rows);
-            cargarTransaccionesYango14d(drivers);
-            
-            int totalPages = (int) Math.ceil((double) total / size);
-            boolean hasMore = (page + 1) < totalPages;
+            logger.info("Consulta paginada ejecutada exitosamente en {} ms. Filas retornadas: {}", executionTime, drivers.size());
             
-            return new PaginatedResponse<>(drivers, page, size, total, hasMore, totalPages);
+            return construirPaginaOnboarding(drivers, filter, page, size, total);
         } catch (Exception e) {
             logger.error("Error al ejecutar consulta SQL paginada en tiempo real", e);
             return new PaginatedResponse<>(new ArrayList<>(), page, size, 0, false, 0);
         }
     }
     
-    private List<DriverOnboardingDTO> mapearFilasADrivers(List<Map<String, Object>> rows) {
-        List<DriverOnboardingDTO> drivers = new ArrayList<>();
-        
-        for (Map<String, Object> row : rows) {
-            DriverOnboardingDTO driver = new DriverOnboardingDTO();
-            driver.setDriverId((String) row.get("driver_id"));
-            driver.setParkId((String) row.get("park_id"));
-            driver.setChannel(null);
-            driver.setFullName((String) row.get("full_name"));
-            driver.setPhone((String) row.get("phone"));
-            driver.setLicenseNumber((String) row.get("license_number"));
-            
-            Object hireDateObj = row.get("hire_date");
-            if (hireDateObj instanceof java.sql.Date) {
-                driver.setStartDate(((java.sql.Date) hireDateObj).toLocalDate());
-            } else if (hireDateObj instanceof java.sql.Timestamp) {
-                driver.setStartDate(((java.sql.Timestamp) hireDateObj).toLocalDateTime().toLocalDate());
-            } else if (hireDateObj instanceof LocalDate) {
-                driver.setStartDate((LocalDate) hireDateObj);
-            }
-            
-            driver.setStatus14d(null);
-            
-            Object totalTripsObj = row.get("total_trips_historical");
-            if (totalTripsObj != null) {
-                if (totalTripsObj instanceof Number) {
-                    driver.setTotalTrips14d(((Number) totalTripsObj).intValue());
-                } else {
-                    driver.setTotalTrips14d(0);
-                }
-            } else {
-                driver.setTotalTrips14d(0);
-            }
-            
-            driver.setTotalOnlineTime14d(null);
-            
-            Object sumWorkTimeObj = row.get("sum_work_time_seconds");
-            if (sumWorkTimeObj != null) {
-                if (sumWorkTimeObj instanceof Number) {
-                    driver.setSumWorkTimeSeconds(((Number) sumWorkTimeObj).longValue());
-                } else {
-                    driver.setSumWorkTimeSeconds(null);
-                }
-            } else {
-                driver.setSumWorkTimeSeconds(null);
-            }
-            
-            Object hasHistoricalConnectionObj = row.get("has_historical_connection");
-            if (hasHistoricalConnectionObj != null) {
-                if (hasHistoricalConnectionObj instanceof Boolean) {
-                    driver.setHasHistoricalConnection((Boolean) hasHistoricalConnectionObj);
-                } else if (hasHistoricalConnectionObj instanceof String) {
-                    driver.setHasHistoricalConnection(Boolean.parseBoolean((String) hasHistoricalConnectionObj));
-                } else {
-                    driver.setHasHistoricalConnection(false);
-                }
-            } else {
-                driver.setHasHistoricalConnection(false);
-            }
-            
+    /**
+     * Con cursor se pagina por keyset (sin OFFSET). En ambos casos se pide una fila de más
+     * para saber si hay página siguiente sin depender del COUNT.
+     */
+    private void agregarLimitePaginacion(StringBuilder sql, List<Object> params, int size, int offset) {
+        if (offset > 0) {
+            sql.append("LIMIT ? OFFSET ?");
+            params.add(size + 1);
+            params.add(offset);
+        } else {
+            sql.append("LIMIT ?");
+            params.add(size + 1);
+        }
+    }
+    
+    private PaginatedResponse<DriverOnboardingDTO> construirPaginaOnboarding(List<DriverOnboardingDTO> drivers, OnboardingFilterDTO filter,
+                                                                            int page, int size, long total) {
+        boolean hasMore = drivers.size() > size;
+        if (hasMore) {
+            drivers = new ArrayList<>(drivers.subList(0, size));
+        }
+        
+        for (DriverOnboardingDTO driver : drivers) {
             calcularStatus14d(driver);
-            
-            Object leadCreatedAtObj = row.get("lead_created_at");
-            if (leadCreatedAtObj != null) {
-                if (leadCreatedAtObj instanceof java.sql.Date) {
-                    driver.setLeadCreatedAt(((java.sql.Date) leadCreatedAtObj).toLocalDate());
-                } else if (leadCreatedAtObj instanceof LocalDate) {
-                    driver.setLeadCreatedAt((LocalDate) leadCreatedAtObj);
-                }
-            }
-            
-            Object matchScoreObj = row.get("match_score");
-            if (matchScoreObj != null) {
-                if (matchScoreObj instanceof Number) {
-                    driver.setMatchScore(((Number) matchScoreObj).doubleValue());
-                }
-            }
-            
-            Object isManualObj = row.get("is_manual");
-            if (isManualObj != null) {
-                if (isManualObj instanceof Boolean) {
-                    driver.setMatchManual((Boolean) isManualObj);
-                } else if (isManualObj instanceof String) {
-                    driver.setMatchManual(Boolean.parseBoolean((String) isManualObj));
-                }
-            }
-            
-            Object scoutIdObj = row.get("scout_id");
-            if (scoutIdObj != null) {
-                driver.setScoutId((String) scoutIdObj);
-                driver.setHasScoutRegistration(true);
-            } else {
-                driver.setHasScoutRegistration(false);
-            }
-            
-            Object scoutNameObj = row.get("scout_name");
-            if (scoutNameObj != null) {
-                driver.setScoutName((String) scoutNameObj);
-            }
-            
-            Object scoutRegistrationDateObj = row.get("scout_registration_date");
-            if (scoutRegistrationDateObj != null) {
-                if (scoutRegistrationDateObj instanceof java.sql.Date) {
-                    driver.setScoutRegistrationDate(((java.sql.Date) scoutRegistrationDateObj).toLocalDate());
-                } else if (scoutRegistrationDateObj instanceof LocalDate) {
-                    driver.setScoutRegistrationDate((LocalDate) scoutRegistrationDateObj);
-                }
-            }
-            
-            Object scoutMatchScoreObj = row.get("scout_match_score");
-            if (scoutMatchScoreObj != null) {
-                if (scoutMatchScoreObj instanceof Number) {
-                    driver.setScoutMatchScore(((Number) scoutMatchScoreObj).doubleValue());
-                }
-            }
-            
-            Object channelObj = row.get("acquisition_channel");
-            if (channelObj != null) {
-                driver.setChannel((String) channelObj);
-            }
-            
-            driver.setDays(new ArrayList<>());
-            driver.setMilestones14d(null);
-            driver.setMilestones7d(null);
-            
-            drivers.add(driver);
+        }
+        cargarTransaccionesYango14d(drivers);
+        
+        String nextCursor = null;
+        if (hasMore && !drivers.isEmpty()) {
+            DriverOnboardingDTO ultimo = drivers.get(drivers.size() - 1);
+            nextCursor = KeysetCursorUtil.codificar(ultimo.getStartDate(), ultimo.getDriverId());
         }
         
-        return drivers;
+        int totalPages = total >= 0 ? (int) Math.ceil((double) total / size) : -1;
+        return new PaginatedResponse<>(drivers, page, size, total, hasMore, totalPages, nextCursor, modoConteo(filter));
     }
     
-    @Transactional(readOnly = true)
-    private List<DriverOnboardingDTO> getOnboarding14dRealTime(OnboardingFilterDTO filter) {
+    private String modoConteo(OnboardingFilterDTO filter) {
+        String countMode = filter.getCountMode() != null ? filter.getCountMode().toLowerCase() : "exact";
+        switch (countMode) {
+            case "cached":
+            case "approximate":
+            case "none":
+                return countMode;
+            default:
+                return "exact";
+        }
+    }
+    
+    /**
+     * Total de la paginación según filter.countMode: exact (por defecto) ejecuta el COUNT, cached reutiliza
+     * el COUNT exacto guardado en la caché de dashboards, approximate usa la estimación de filas del planner
+     * y none no cuenta (devuelve -1).
+     */
+    private long contarTotalPaginacion(OnboardingFilterDTO filter, String origen, String countSql, String sqlEstimacion, List<Object> params) {
+        switch (modoConteo(filter)) {
+            case "none":
+                return -1;
+            case "approximate":
+                try {
+                    List<String> plan = jdbcTemplate.queryForList("EXPLAIN " + sqlEstimacion, String.class, params.toArray());
+                    Matcher matcher = PATRON_FILAS_ESTIMADAS.matcher(plan.isEmpty() ? "" : plan.get(0));
+                    if (matcher.find()) {
+                        return Long.parseLong(matcher.group(1));
+                    }
+                } catch (Exception e) {
+                    logger.warn("No se pudo estimar el total de onboarding-14d, usando COUNT exacto: {}", e.getMessage());
+                }
+                return contarExacto(countSql, params);
+            case "cached":
+                return dashboardCache.obtener(DashboardCacheService.ONBOARDING_14D_COUNT,
+                    Arrays.asList(origen, filter.getParkId(), filter.getStartDateFrom(), filter.getStartDateTo(), filter.getChannel()),
+                    () -> contarExacto(countSql, params));
+            default:
+                return contarExacto(countSql, params);
+        }
+    }
+    
+    private long contarExacto(String countSql, List<Object> params) {
+        Long total = jdbcTemplate.queryForObject(countSql, Long.class, params.toArray());
+        return total != null ? total : 0L;
+    }
+    
+    /**
+     * Onboarding 14d completo (sin el LIMIT de la vista) recorrido por cursor para exportaciones.
+     * Los drivers se enriquecen por bloques con las mismas etapas que la vista, así la memoria
+     * depende del tamaño de bloque y no del total de drivers.
+     *
+     * @return número de drivers entregados al consumidor
+     */
+    public long recorrerOnboarding14d(OnboardingFilterDTO filter, Consumer<DriverOnboardingDTO> consumidor) {
         String parkId = filter.getParkId() != null && !filter.getParkId().isEmpty() 
             ? filter.getParkId() 
             : DEFAULT_PARK_ID;
         
-        long startTime = System.currentTimeMillis();
-        logger.info("Leyendo datos pre-calculados desde contractor_tracking_history para parkId: {}", parkId);
+        List<Object> params = new ArrayList<>();
+        String sql = construirConsultaOnboardingTiempoReal(filter, parkId, params);
+        DriverOnboardingRowMapper mapper = new DriverOnboardingRowMapper(true);
         
+        return cursorQueryExecutor.recorrerEnBloques("onboarding-14d-export", sql, mapper, bloque -> {
+            enriquecerDrivers("exportación onboarding", bloque, 2);
+            for (DriverOnboardingDTO driver : bloque) {
+                consumidor.accept(driver);
+            }
+        }, params.toArray());
+    }
+    
+    /**
+     * Consulta de onboarding 14d desde contractor_tracking_history con respaldo en driver_daily_activity,
+     * ordenada por hire_date y sin LIMIT (cada llamador agrega el suyo).
+     */
+    private String construirConsultaOnboardingTiempoReal(OnboardingFilterDTO filter, String parkId, List<Object> params) {
         StringBuilder sql = new StringBuilder();
         sql.append("WITH filtered_drivers AS ( ");
         sql.append("  SELECT driver_id, park_id, hire_date, full_name, phone, license_number ");
         sql.append("  FROM drivers ");
         sql.append("  WHERE park_id = ? ");
-        List<Object> params = new ArrayList<>();
         params.add(parkId);
         if (filter.getStartDateFrom() != null) {
             sql.append("    AND hire_date >= ? ");
@@ -1263,13 +1280,13 @@ public class OnboardingService {
         sql.append("), driver_trips_time_fallback AS ( ");
         sql.append("  SELECT ");
         sql.append("    fd.driver_id, ");
-        sql.append("    COALESCE(SUM(sd.count_orders_completed), 0) as total_trips_from_sd, ");
-        sql.append("    SUM(sd.sum_work_time_seconds) as sum_work_time_from_sd, ");
-        sql.append("    CASE WHEN COUNT(CASE WHEN COALESCE(sd.sum_work_time_seconds, 0) > 0 THEN 1 END) > 0 THEN true ELSE false END as has_connection_from_sd ");
+        sql.append("    COALESCE(SUM(da.orders_completed), 0) as total_trips_from_sd, ");
+        sql.append("    SUM(da.work_seconds) as sum_work_time_from_sd, ");
+        sql.append("    CASE WHEN COUNT(CASE WHEN COALESCE(da.work_seconds, 0) > 0 THEN 1 END) > 0 THEN true ELSE false END as has_connection_from_sd ");
         sql.append("  FROM filtered_drivers fd ");
-        sql.append("  LEFT JOIN summary_daily sd ON sd.driver_id = fd.driver_id ");
-        sql.append("    AND to_date_immutable(sd.date_file) >= fd.hire_date ");
-        sql.append("    AND to_date_immutable(sd.date_file) < fd.hire_date + INTERVAL '14 days' ");
+        sql.append("  LEFT JOIN driver_daily_activity da ON da.driver_id = fd.driver_id ");
+        sql.append("    AND da.activity_date >= fd.hire_date ");
+        sql.append("    AND da.activity_date < fd.hire_date + INTERVAL '14 days' ");
         sql.append("  GROUP BY fd.driver_id ");
         sql.append("), latest_lead_match AS ( ");
         sql.append("  SELECT DISTINCT ON (lm.driver_id) ");
@@ -1340,281 +1357,74 @@ public class OnboardingService {
         }
         
         sql.append("ORDER BY fd.hire_date DESC, fd.driver_id ");
-        sql.append("LIMIT 5000");
+        return sql.toString();
+    }
+    
+    @Transactional(readOnly = true)
+    private List<DriverOnboardingDTO> getOnboarding14dRealTime(OnboardingFilterDTO filter) {
+        String parkId = filter.getParkId() != null && !filter.getParkId().isEmpty() 
+            ? filter.getParkId() 
+            : DEFAULT_PARK_ID;
         
-        String finalSql = sql.toString();
+        long startTime = System.currentTimeMillis();
+        logger.info("Leyendo datos pre-calculados desde contractor_tracking_history para parkId: {}", parkId);
+        
+        List<Object> params = new ArrayList<>();
+        String finalSql = construirConsultaOnboardingTiempoReal(filter, parkId, params) + "LIMIT 5000";
         logger.debug("Ejecutando consulta optimizada desde tabla pre-calculada: {}", finalSql);
         
         try {
-            jdbcTemplate.setQueryTimeout(90);
-            List<Map<String, Object>> rows = jdbcTemplate.queryForList(finalSql, params.toArray());
-            jdbcTemplate.setQueryTimeout(0);
+            List<DriverOnboardingDTO> drivers = new ArrayList<>();
+            DriverOnboardingRowMapper mapper = new DriverOnboardingRowMapper(true);
+            boolean[] hasValidData = {false};
+            timedQueryExecutor.query("onboarding-14d-precalculado", 90, finalSql, rs -> {
+                if (!hasValidData[0]) {
+                    hasValidData[0] = rs.getObject("total_trips_historical") != null || rs.getObject("sum_work_time_seconds") != null;
+                }
+                drivers.add(mapper.mapRow(rs, drivers.size()));
+            }, params.toArray());
             long executionTime = System.currentTimeMillis() - startTime;
-            logger.info("Consulta desde tabla pre-calculada ejecutada exitosamente en {} ms. Filas retornadas: {}", executionTime, rows.size());
+            logger.info("Consulta desde tabla pre-calculada ejecutada exitosamente en {} ms. Filas retornadas: {}", executionTime, drivers.size());
             
             if (executionTime > 5000) {
                 logger.warn("ADVERTENCIA: La consulta tardó {} ms (más de 5 segundos).", executionTime);
             }
             
-            boolean hasValidData = false;
-            for (Map<String, Object> row : rows) {
-                Object totalTrips = row.get("total_trips_historical");
-                Object sumWorkTime = row.get("sum_work_time_seconds");
-                boolean hasTrips = totalTrips != null && totalTrips instanceof Number && ((Number) totalTrips).intValue() > 0;
-                boolean hasWorkTime = sumWorkTime != null && sumWorkTime instanceof Number && ((Number) sumWorkTime).longValue() > 0;
-                if (hasTrips || hasWorkTime || row.get("total_trips_historical") != null || row.get("sum_work_time_seconds") != null) {
-                    hasValidData = true;
-                    break;
-                }
-            }
-            
-            if (!hasValidData && !rows.isEmpty()) {
-                logger.info("Tabla pre-calculada no tiene datos válidos, calculando desde summary_daily en tiempo real...");
+            if (!hasValidData[0] && !drivers.isEmpty()) {
+                logger.info("Tabla pre-calculada no tiene datos válidos, calculando desde driver_daily_activity en tiempo real...");
                 return getOnboarding14dRealTimeFromSummaryDaily(filter);
             }
-        
-            List<DriverOnboardingDTO> drivers = new ArrayList<>();
+            
+            enriquecerDrivers("onboarding tiempo real", drivers);
             
             int countWithTrips = 0;
             int countWithWorkTime = 0;
             int countRegistered = 0;
-        
-            for (Map<String, Object> row : rows) {
-                DriverOnboardingDTO driver = new DriverOnboardingDTO();
-                driver.setDriverId((String) row.get("driver_id"));
-                driver.setParkId((String) row.get("park_id"));
-                driver.setChannel(null);
-                driver.setFullName((String) row.get("full_name"));
-                driver.setPhone((String) row.get("phone"));
-                driver.setLicenseNumber((String) row.get("license_number"));
-                
-                Object hireDateObj = row.get("hire_date");
-                if (hireDateObj instanceof java.sql.Date) {
-                    driver.setStartDate(((java.sql.Date) hireDateObj).toLocalDate());
-                } else if (hireDateObj instanceof java.sql.Timestamp) {
-                    driver.setStartDate(((java.sql.Timestamp) hireDateObj).toLocalDateTime().toLocalDate());
-                } else if (hireDateObj instanceof LocalDate) {
-                    driver.setStartDate((LocalDate) hireDateObj);
-                }
-                
-                driver.setStatus14d(null);
-                
-                Object totalTripsObj = row.get("total_trips_historical");
-                if (totalTripsObj != null) {
-                    if (totalTripsObj instanceof Number) {
-                        driver.setTotalTrips14d(((Number) totalTripsObj).intValue());
-                    } else {
-                        driver.setTotalTrips14d(0);
-                    }
-                } else {
-                    driver.setTotalTrips14d(0);
-                }
-                
-                driver.setTotalOnlineTime14d(null);
-                
-                Object sumWorkTimeObj = row.get("sum_work_time_seconds");
-                if (sumWorkTimeObj != null) {
-                    if (sumWorkTimeObj instanceof Number) {
-                        driver.setSumWorkTimeSeconds(((Number) sumWorkTimeObj).longValue());
-                    } else {
-                        driver.setSumWorkTimeSeconds(null);
-                    }
-                } else {
-                    driver.setSumWorkTimeSeconds(null);
-                }
-                
-                Object hasHistoricalConnectionObj = row.get("has_historical_connection");
-                if (hasHistoricalConnectionObj != null) {
-                    if (hasHistoricalConnectionObj instanceof Boolean) {
-                        driver.setHasHistoricalConnection((Boolean) hasHistoricalConnectionObj);
-                    } else if (hasHistoricalConnectionObj instanceof String) {
-                        driver.setHasHistoricalConnection(Boolean.parseBoolean((String) hasHistoricalConnectionObj));
-                    } else {
-                        driver.setHasHistoricalConnection(false);
-                    }
-                } else {
-                    driver.setHasHistoricalConnection(false);
-                }
-                
-                Object leadCreatedAtObj = row.get("lead_created_at");
-                if (leadCreatedAtObj != null) {
-                    if (leadCreatedAtObj instanceof java.sql.Date) {
-                        driver.setLeadCreatedAt(((java.sql.Date) leadCreatedAtObj).toLocalDate());
-                    } else if (leadCreatedAtObj instanceof LocalDate) {
-                        driver.setLeadCreatedAt((LocalDate) leadCreatedAtObj);
-                    }
-                }
-                
-                Object matchScoreObj = row.get("match_score");
-                if (matchScoreObj != null) {
-                    if (matchScoreObj instanceof Number) {
-                        driver.setMatchScore(((Number) matchScoreObj).doubleValue());
-                    }
-                }
-                
-                Object isManualObj = row.get("is_manual");
-                if (isManualObj != null) {
-                    if (isManualObj instanceof Boolean) {
-                        driver.setMatchManual((Boolean) isManualObj);
-                    } else if (isManualObj instanceof String) {
-                        driver.setMatchManual(Boolean.parseBoolean((String) isManualObj));
-                    }
-                }
-                
-                Object scoutIdObj = row.get("scout_id");
-                if (scoutIdObj != null) {
-                    driver.setScoutId((String) scoutIdObj);
-                    driver.setHasScoutRegistration(true);
-                } else {
-                    driver.setHasScoutRegistration(false);
+            for (DriverOnboardingDTO driver : drivers) {
+                if (driver.getTotalTrips14d() != null && driver.getTotalTrips14d() > 0) {
+                    countWithTrips++;
                 }
-                
-                Object scoutNameObj = row.get("scout_name");
-                if (scoutNameObj != null) {
-                    driver.setScoutName((String) scoutNameObj);
+                if (driver.getSumWorkTimeSeconds() != null && driver.getSumWorkTimeSeconds() > 0) {
+                    countWithWorkTime++;
                 }
-                
-                Object scoutRegistrationDateObj = row.get("scout_registration_date");
-                if (scoutRegistrationDateObj != null) {
-                    if (scoutRegistrationDateObj instanceof java.sql.Date) {
-                        driver.setScoutRegistrationDate(((java.sql.Date) scoutRegistrationDateObj).toLocalDate());
-                    } else if (scoutRegistrationDateObj instanceof LocalDate) {
-                        driver.setScoutRegistrationDate((LocalDate) scoutRegistrationDateObj);
-                    }
-                }
-                
-                Object scoutMatchScoreObj = row.get("scout_match_score");
-                if (scoutMatchScoreObj != null) {
-                    if (scoutMatchScoreObj instanceof Number) {
-                        driver.setScoutMatchScore(((Number) scoutMatchScoreObj).doubleValue());
-                    }
-                }
-                
-                Object channelObj = row.get("acquisition_channel");
-                if (channelObj != null) {
-                    driver.setChannel((String) channelObj);
-                }
-                
-                Object primeraConexionObj = row.get("primera_conexion_date");
-                if (primeraConexionObj != null) {
-                    driver.setPrimeraConexionDate(obtenerFecha(primeraConexionObj));
-                }
-                
-                Object primerViajeObj = row.get("primer_viaje_date");
-                if (primerViajeObj != null) {
-                    driver.setPrimerViajeDate(obtenerFecha(primerViajeObj));
-                }
-                
-                Object diasActivosObj = row.get("dias_activos");
-                if (diasActivosObj != null) {
-                    driver.setDiasActivos(obtenerInteger(diasActivosObj));
-                }
-                
-                Object diasConectadosObj = row.get("dias_conectados");
-                if (diasConectadosObj != null) {
-                    driver.setDiasConectados(obtenerInteger(diasConectadosObj));
-                }
-                
-                Object diasRegistroAConexionObj = row.get("dias_registro_a_conexion");
-                if (diasRegistroAConexionObj != null) {
-                    driver.setDiasRegistroAConexion(obtenerInteger(diasRegistroAConexionObj));
-                }
-                
-                Object diasConexionAViajeObj = row.get("dias_conexion_a_viaje");
-                if (diasConexionAViajeObj != null) {
-                    driver.setDiasConexionAViaje(obtenerInteger(diasConexionAViajeObj));
-                }
-                
-                Object diasPrimerViajeA25ViajesObj = row.get("dias_primer_viaje_a_25_viajes");
-                if (diasPrimerViajeA25ViajesObj != null) {
-                    driver.setDiasPrimerViajeA25Viajes(obtenerInteger(diasPrimerViajeA25ViajesObj));
-                }
-                
-                Object tasaConversionObj = row.get("tasa_conversion_conexion");
-                if (tasaConversionObj != null) {
-                    driver.setTasaConversionConexion(obtenerDouble(tasaConversionObj));
-                }
-                
-                Object tieneLeadObj = row.get("tiene_lead");
-                if (tieneLeadObj != null) {
-                    driver.setTieneLead(obtenerBoolean(tieneLeadObj));
-                }
-                
-                Object tieneScoutObj = row.get("tiene_scout");
-                if (tieneScoutObj != null) {
-                    driver.setTieneScout(obtenerBoolean(tieneScoutObj));
-                }
-                
-                Object matchScoreBajoObj = row.get("match_score_bajo");
-                if (matchScoreBajoObj != null) {
-                    driver.setMatchScoreBajo(obtenerBoolean(matchScoreBajoObj));
-                }
-                
-                Object tieneInconsistenciasObj = row.get("tiene_inconsistencias");
-                if (tieneInconsistenciasObj != null) {
-                    driver.setTieneInconsistencias(obtenerBoolean(tieneInconsistenciasObj));
-                }
-                
-                driver.setDays(new ArrayList<>());
-                
-                driver.setMilestones14d(null);
-                driver.setMilestones7d(null);
-                
-                if (driver.getTotalTrips14d() != null && driver.getTotalTrips14d() > 0) {
-                    countWithTrips++;
-                }
-                if (driver.getSumWorkTimeSeconds() != null && driver.getSumWorkTimeSeconds() > 0) {
-                    countWithWorkTime++;
-                }
-                if ((driver.getSumWorkTimeSeconds() == null || driver.getSumWorkTimeSeconds() == 0) && 
-                    (driver.getTotalTrips14d() == null || driver.getTotalTrips14d() == 0)) {
-                    countRegistered++;
-                }
-                
-                drivers.add(driver);
-            }
-            
-            actualizarDriversConMilestones(drivers);
-            
-            countWithTrips = 0;
-            countWithWorkTime = 0;
-            countRegistered = 0;
-            for (DriverOnboardingDTO driver : drivers) {
-                if (driver.getTotalTrips14d() != null && driver.getTotalTrips14d() > 0) {
-                    countWithTrips++;
-                }
-                if (driver.getSumWorkTimeSeconds() != null && driver.getSumWorkTimeSeconds() > 0) {
-                    countWithWorkTime++;
-                }
-                if ((driver.getSumWorkTimeSeconds() == null || driver.getSumWorkTimeSeconds() == 0) && 
-                    (driver.getTotalTrips14d() == null || driver.getTotalTrips14d() == 0)) {
-                    countRegistered++;
+                if ((driver.getSumWorkTimeSeconds() == null || driver.getSumWorkTimeSeconds() == 0) && 
+                    (driver.getTotalTrips14d() == null || driver.getTotalTrips14d() == 0)) {
+                    countRegistered++;
                 }
             }
             
             logger.info("Estadísticas desde tabla pre-calculada - Total: {}, Con viajes: {}, Con tiempo trabajo: {}, Registrados: {}", 
                 drivers.size(), countWithTrips, countWithWorkTime, countRegistered);
         
-            logger.debug("Iniciando carga de transacciones Yango para {} drivers", drivers.size());
-            cargarTransaccionesYango14d(drivers);
-            logger.debug("Carga de transacciones Yango completada");
-            
-            logger.debug("Calculando métricas de conversión para {} drivers", drivers.size());
-            calcularMetricasConversion(drivers);
-            logger.debug("Cálculo de métricas de conversión completado");
-        
             return drivers;
         } catch (org.springframework.jdbc.CannotGetJdbcConnectionException e) {
-            jdbcTemplate.setQueryTimeout(0);
             logger.error("Error de conexión a la base de datos. El servidor PostgreSQL puede estar saturado o no disponible.", e);
             logger.warn("Retornando lista vacía debido a problemas de conexión. Por favor, verifica el estado del servidor PostgreSQL.");
             return new ArrayList<>();
         } catch (org.springframework.dao.QueryTimeoutException e) {
-            jdbcTemplate.setQueryTimeout(0);
             logger.error("Timeout al ejecutar consulta en tiempo real (90 segundos). Retornando lista vacía.", e);
             return new ArrayList<>();
         } catch (org.springframework.dao.DataAccessResourceFailureException e) {
-            jdbcTemplate.setQueryTimeout(0);
             String errorMessage = e.getMessage() != null ? e.getMessage() : "";
             Throwable cause = e.getCause();
             String causeMessage = cause != null && cause.getMessage() != null ? cause.getMessage() : "";
@@ -1636,7 +1446,6 @@ public class OnboardingService {
             logger.error("Parámetros: {}", params);
             return new ArrayList<>();
         } catch (Exception e) {
-            jdbcTemplate.setQueryTimeout(0);
             String errorMessage = e.getMessage() != null ? e.getMessage() : "";
             Throwable cause = e.getCause();
             String causeMessage = cause != null && cause.getMessage() != null ? cause.getMessage() : "";
@@ -1667,7 +1476,7 @@ public class OnboardingService {
             : DEFAULT_PARK_ID;
         
         long startTime = System.currentTimeMillis();
-        logger.info("Calculando datos históricos completos desde summary_daily en tiempo real para parkId: {}", parkId);
+        logger.info("Calculando datos históricos completos desde driver_daily_activity en tiempo real para parkId: {}", parkId);
         
         StringBuilder sql = new StringBuilder();
         sql.append("WITH filtered_drivers AS ( ");
@@ -1694,13 +1503,13 @@ public class OnboardingService {
         sql.append("), driver_trips_time AS ( ");
         sql.append("  SELECT ");
         sql.append("    fd.driver_id, ");
-        sql.append("    COALESCE(SUM(sd.count_orders_completed), 0) as total_trips_historical, ");
-        sql.append("    SUM(sd.sum_work_time_seconds) as sum_work_time_seconds, ");
-        sql.append("    CASE WHEN COUNT(CASE WHEN COALESCE(sd.sum_work_time_seconds, 0) > 0 THEN 1 END) > 0 THEN true ELSE false END as has_historical_connection ");
+        sql.append("    COALESCE(SUM(da.orders_completed), 0) as total_trips_historical, ");
+        sql.append("    SUM(da.work_seconds) as sum_work_time_seconds, ");
+        sql.append("    CASE WHEN COUNT(CASE WHEN COALESCE(da.work_seconds, 0) > 0 THEN 1 END) > 0 THEN true ELSE false END as has_historical_connection ");
         sql.append("  FROM filtered_drivers fd ");
-        sql.append("  LEFT JOIN summary_daily sd ON sd.driver_id = fd.driver_id ");
-        sql.append("    AND to_date_immutable(sd.date_file) >= fd.hire_date ");
-        sql.append("    AND to_date_immutable(sd.date_file) < fd.hire_date + INTERVAL '14 days' ");
+        sql.append("  LEFT JOIN driver_daily_activity da ON da.driver_id = fd.driver_id ");
+        sql.append("    AND da.activity_date >= fd.hire_date ");
+        sql.append("    AND da.activity_date < fd.hire_date + INTERVAL '14 days' ");
         sql.append("  GROUP BY fd.driver_id ");
         sql.append("), latest_lead_match AS ( ");
         sql.append("  SELECT DISTINCT ON (lm.driver_id) ");
@@ -1769,160 +1578,23 @@ public class OnboardingService {
         params.add(offset);
         
         String finalSql = sql.toString();
-        logger.debug("Ejecutando SQL optimizado calculando desde summary_daily en tiempo real: {}", finalSql);
+        logger.debug("Ejecutando SQL optimizado calculando desde driver_daily_activity en tiempo real: {}", finalSql);
         
         try {
-            jdbcTemplate.setQueryTimeout(45);
-            List<Map<String, Object>> rows = jdbcTemplate.queryForList(finalSql, params.toArray());
-            jdbcTemplate.setQueryTimeout(0);
+            List<DriverOnboardingDTO> drivers = timedQueryExecutor.query(
+                "onboarding-14d-driver-daily-activity", 45, finalSql, new DriverOnboardingRowMapper(), params.toArray());
             long executionTime = System.currentTimeMillis() - startTime;
-            logger.info("Consulta desde summary_daily ejecutada exitosamente en {} ms. Filas retornadas: {}", executionTime, rows.size());
+            logger.info("Consulta desde driver_daily_activity ejecutada exitosamente en {} ms. Filas retornadas: {}", executionTime, drivers.size());
             
             if (executionTime > 10000) {
                 logger.warn("ADVERTENCIA: La consulta tardó {} ms (más de 10 segundos). Considerar optimización adicional.", executionTime);
             }
-        
-            List<DriverOnboardingDTO> drivers = new ArrayList<>();
+            
+            enriquecerDrivers("onboarding summary diario", drivers);
             
             int countWithTrips = 0;
             int countWithWorkTime = 0;
             int countRegistered = 0;
-        
-            for (Map<String, Object> row : rows) {
-                DriverOnboardingDTO driver = new DriverOnboardingDTO();
-                driver.setDriverId((String) row.get("driver_id"));
-                driver.setParkId((String) row.get("park_id"));
-                driver.setChannel((String) row.get("acquisition_channel"));
-                driver.setFullName((String) row.get("full_name"));
-                driver.setPhone((String) row.get("phone"));
-                driver.setLicenseNumber((String) row.get("license_number"));
-                
-                Object hireDateObj = row.get("hire_date");
-                if (hireDateObj instanceof java.sql.Date) {
-                    driver.setStartDate(((java.sql.Date) hireDateObj).toLocalDate());
-                } else if (hireDateObj instanceof java.sql.Timestamp) {
-                    driver.setStartDate(((java.sql.Timestamp) hireDateObj).toLocalDateTime().toLocalDate());
-                } else if (hireDateObj instanceof LocalDate) {
-                    driver.setStartDate((LocalDate) hireDateObj);
-                }
-                
-                driver.setStatus14d(null);
-                
-                Object totalTripsObj = row.get("total_trips_historical");
-                if (totalTripsObj != null) {
-                    if (totalTripsObj instanceof Number) {
-                        driver.setTotalTrips14d(((Number) totalTripsObj).intValue());
-                    } else {
-                        driver.setTotalTrips14d(0);
-                    }
-                } else {
-                    driver.setTotalTrips14d(0);
-                }
-                
-                driver.setTotalOnlineTime14d(null);
-                
-                Object sumWorkTimeObj = row.get("sum_work_time_seconds");
-                if (sumWorkTimeObj != null) {
-                    if (sumWorkTimeObj instanceof Number) {
-                        driver.setSumWorkTimeSeconds(((Number) sumWorkTimeObj).longValue());
-                    } else {
-                        driver.setSumWorkTimeSeconds(null);
-                    }
-                } else {
-                    driver.setSumWorkTimeSeconds(null);
-                }
-                
-                Object hasHistoricalConnectionObj = row.get("has_historical_connection");
-                if (hasHistoricalConnectionObj != null) {
-                    if (hasHistoricalConnectionObj instanceof Boolean) {
-                        driver.setHasHistoricalConnection((Boolean) hasHistoricalConnectionObj);
-                    } else if (hasHistoricalConnectionObj instanceof String) {
-                        driver.setHasHistoricalConnection(Boolean.parseBoolean((String) hasHistoricalConnectionObj));
-                    } else {
-                        driver.setHasHistoricalConnection(false);
-                    }
-                } else {
-                    driver.setHasHistoricalConnection(false);
-                }
-                
-                Object leadCreatedAtObj = row.get("lead_created_at");
-                if (leadCreatedAtObj != null) {
-                    if (leadCreatedAtObj instanceof java.sql.Date) {
-                        driver.setLeadCreatedAt(((java.sql.Date) leadCreatedAtObj).toLocalDate());
-                    } else if (leadCreatedAtObj instanceof LocalDate) {
-                        driver.setLeadCreatedAt((LocalDate) leadCreatedAtObj);
-                    }
-                }
-                
-                Object matchScoreObj = row.get("match_score");
-                if (matchScoreObj != null) {
-                    if (matchScoreObj instanceof Number) {
-                        driver.setMatchScore(((Number) matchScoreObj).doubleValue());
-                    }
-                }
-                
-                Object isManualObj = row.get("is_manual");
-                if (isManualObj != null) {
-                    if (isManualObj instanceof Boolean) {
-                        driver.setMatchManual((Boolean) isManualObj);
-                    } else if (isManualObj instanceof String) {
-                        driver.setMatchManual(Boolean.parseBoolean((String) isManualObj));
-                    }
-                }
-                
-                Object scoutIdObj = row.get("scout_id");
-                if (scoutIdObj != null) {
-                    driver.setScoutId((String) scoutIdObj);
-                    driver.setHasScoutRegistration(true);
-                } else {
-                    driver.setHasScoutRegistration(false);
-                }
-                
-                Object scoutNameObj = row.get("scout_name");
-                if (scoutNameObj != null) {
-                    driver.setScoutName((String) scoutNameObj);
-                }
-                
-                Object scoutRegistrationDateObj = row.get("scout_registration_date");
-                if (scoutRegistrationDateObj != null) {
-                    if (scoutRegistrationDateObj instanceof java.sql.Date) {
-                        driver.setScoutRegistrationDate(((java.sql.Date) scoutRegistrationDateObj).toLocalDate());
-                    } else if (scoutRegistrationDateObj instanceof LocalDate) {
-                        driver.setScoutRegistrationDate((LocalDate) scoutRegistrationDateObj);
-                    }
-                }
-                
-                Object scoutMatchScoreObj = row.get("scout_match_score");
-                if (scoutMatchScoreObj != null) {
-                    if (scoutMatchScoreObj instanceof Number) {
-                        driver.setScoutMatchScore(((Number) scoutMatchScoreObj).doubleValue());
-                    }
-                }
-                
-                driver.setDays(new ArrayList<>());
-                
-                driver.setMilestones14d(null);
-                driver.setMilestones7d(null);
-                
-                if (driver.getTotalTrips14d() != null && driver.getTotalTrips14d() > 0) {
-                    countWithTrips++;
-                }
-                if (driver.getSumWorkTimeSeconds() != null && driver.getSumWorkTimeSeconds() > 0) {
-                    countWithWorkTime++;
-                }
-                if ((driver.getSumWorkTimeSeconds() == null || driver.getSumWorkTimeSeconds() == 0) && 
-                    (driver.getTotalTrips14d() == null || driver.getTotalTrips14d() == 0)) {
-                    countRegistered++;
-                }
-                
-                drivers.add(driver);
-            }
-            
-            actualizarDriversConMilestones(drivers);
-            
-            countWithTrips = 0;
-            countWithWorkTime = 0;
-            countRegistered = 0;
             for (DriverOnboardingDTO driver : drivers) {
                 if (driver.getTotalTrips14d() != null && driver.getTotalTrips14d() > 0) {
                     countWithTrips++;
@@ -1936,20 +1608,15 @@ public class OnboardingService {
                 }
             }
             
-            logger.info("Estadísticas de cálculo desde summary_daily en tiempo real - Total: {}, Con viajes: {}, Con tiempo trabajo: {}, Registrados: {}", 
+            logger.info("Estadísticas de cálculo desde driver_daily_activity en tiempo real - Total: {}, Con viajes: {}, Con tiempo trabajo: {}, Registrados: {}", 
                 drivers.size(), countWithTrips, countWithWorkTime, countRegistered);
         
-            cargarTransaccionesYango14d(drivers);
-            calcularMetricasConversion(drivers);
-        
             return drivers;
         } catch (org.springframework.dao.QueryTimeoutException e) {
-            jdbcTemplate.setQueryTimeout(0);
-            logger.error("Timeout al ejecutar consulta desde summary_daily (45 segundos). Retornando lista vacía.", e);
+            logger.error("Timeout al ejecutar consulta desde driver_daily_activity (45 segundos). Retornando lista vacía.", e);
             return new ArrayList<>();
         } catch (Exception e) {
-            jdbcTemplate.setQueryTimeout(0);
-            logger.error("Error al ejecutar consulta SQL desde summary_daily en tiempo real", e);
+            logger.error("Error al ejecutar consulta SQL desde driver_daily_activity en tiempo real", e);
             logger.error("SQL: {}", finalSql);
             logger.error("Parámetros: {}", params);
             return new ArrayList<>();
@@ -1973,12 +1640,12 @@ public class OnboardingService {
         sql.append("  d.phone, ");
         sql.append("  d.hire_date, ");
         sql.append("  d.license_number, ");
-        sql.append("  COALESCE(SUM(sd.count_orders_completed), 0) as total_trips_14d, ");
-        sql.append("  COALESCE(SUM(sd.sum_work_time_seconds), NULL) as sum_work_time_seconds, ");
+        sql.append("  COALESCE(SUM(da.orders_completed), 0) as total_trips_14d, ");
+        sql.append("  COALESCE(SUM(da.work_seconds), NULL) as sum_work_time_seconds, ");
         sql.append("  CASE WHEN EXISTS ( ");
-        sql.append("    SELECT 1 FROM summary_daily sd_hist ");
-        sql.append("    WHERE sd_hist.driver_id = d.driver_id ");
-        sql.append("      AND COALESCE(sd_hist.sum_work_time_seconds, 0) > 0 ");
+        sql.append("    SELECT 1 FROM driver_daily_activity da_hist ");
+        sql.append("    WHERE da_hist.driver_id = d.driver_id ");
+        sql.append("      AND COALESCE(da_hist.work_seconds, 0) > 0 ");
         sql.append("  ) THEN true ELSE false END as has_historical_connection, ");
         sql.append("  (SELECT cth.acquisition_channel FROM contractor_tracking_history cth ");
         sql.append("   WHERE cth.driver_id = d.driver_id ORDER BY cth.calculation_date DESC LIMIT 1) as acquisition_channel, ");
@@ -1990,7 +1657,7 @@ public class OnboardingService {
         sql.append("  sr.scout_registration_date, ");
         sql.append("  sr.scout_match_score ");
         sql.append("FROM drivers d ");
-        sql.append("LEFT JOIN summary_daily sd ON d.driver_id = sd.driver_id ");
+        sql.append("LEFT JOIN driver_daily_activity da ON d.driver_id = da.driver_id ");
         sql.append("LEFT JOIN ( ");
         sql.append("  SELECT DISTINCT ON (driver_id) driver_id, lead_created_at, match_score, is_manual ");
         sql.append("  FROM lead_matches ");
@@ -2016,14 +1683,7 @@ public class OnboardingService {
         sql.append("ORDER BY d.hire_date DESC, d.driver_id");
         
         try {
-            String placeholders = driverIds.stream().map(id -> "?").collect(java.util.stream.Collectors.joining(","));
-            String sqlWithPlaceholders = sql.toString().replace("d.driver_id = ANY(?)", "d.driver_id IN (" + placeholders + ")");
-            
-            List<Object> params = new ArrayList<>();
-            params.add(parkId);
-            params.addAll(driverIds);
-            
-            List<Map<String, Object>> rows = jdbcTemplate.queryForList(sqlWithPlaceholders, params.toArray());
+            List<Map<String, Object>> rows = idArrayQueryExecutor.queryForList(sql.toString(), driverIds, parkId, IdArrayQueryExecutor.IDS);
             logger.info("Se obtuvieron {} drivers por IDs", rows.size());
             
             List<DriverOnboardingDTO> drivers = new ArrayList<>();
@@ -2096,10 +1756,7 @@ public class OnboardingService {
                 drivers.add(driver);
             }
             
-            actualizarDriversConMilestones(drivers);
-            
-            cargarTransaccionesYango14d(drivers);
-            calcularMetricasConversion(drivers);
+            enriquecerDrivers("drivers por IDs", drivers);
             
             return drivers;
         } catch (Exception e) {
@@ -2122,6 +1779,36 @@ public class OnboardingService {
         }
     }
     
+    private void enriquecerDrivers(String contexto, List<DriverOnboardingDTO> drivers) {
+        enriquecerDrivers(contexto, drivers, 1);
+    }
+    
+    /**
+     * Completa los drivers con milestones, transacciones Yango y métricas de conversión. Las tres etapas
+     * escriben campos distintos del DTO, así que corren en paralelo cuando EnriquecimientoParaleloExecutor
+     * tiene conexiones libres y en secuencia si no.
+     *
+     * @param conexionesLlamador conexiones que retiene el hilo llamador mientras espera: una en las vistas,
+     *                           dos en la exportación (el cursor, que es privado de CursorQueryExecutor,
+     *                           y la que usan las consultas de la primera etapa)
+     */
+    private void enriquecerDrivers(String contexto, List<DriverOnboardingDTO> drivers, int conexionesLlamador) {
+        if (drivers == null || drivers.isEmpty()) {
+            return;
+        }
+        
+        enriquecimientoParalelo.ejecutar(contexto + " (" + drivers.size() + " drivers)", conexionesLlamador,
+            EnriquecimientoParaleloExecutor.Etapa.deAccion("milestones", () -> actualizarDriversConMilestones(drivers)),
+            EnriquecimientoParaleloExecutor.Etapa.deAccion("transaccionesYango", () -> cargarTransaccionesYango14d(drivers)),
+            EnriquecimientoParaleloExecutor.Etapa.deAccion("metricasConversion", () -> calcularMetricasConversion(drivers)));
+        
+        for (DriverOnboardingDTO driver : drivers) {
+            if (driver.getYangoTransactions14d() == null) {
+                driver.setYangoTransactions14d(new ArrayList<>());
+            }
+        }
+    }
+    
     private void actualizarDriversConMilestones(List<DriverOnboardingDTO> drivers) {
         if (drivers == null || drivers.isEmpty()) {
             return;
@@ -2344,24 +2031,21 @@ public class OnboardingService {
                 return;
             }
             
-            String placeholders = driverIds.stream().map(id -> "?").collect(java.util.stream.Collectors.joining(","));
-            
             StringBuilder sql = new StringBuilder();
             sql.append("SELECT ");
-            sql.append("  sd.driver_id, ");
-            sql.append("  MIN(CASE WHEN COALESCE(sd.sum_work_time_seconds, 0) > 0 THEN TO_DATE(sd.date_file, 'DD-MM-YYYY') END) as primera_conexion_date, ");
-            sql.append("  MIN(CASE WHEN COALESCE(sd.count_orders_completed, 0) > 0 THEN TO_DATE(sd.date_file, 'DD-MM-YYYY') END) as primer_viaje_date, ");
-            sql.append("  COUNT(DISTINCT CASE WHEN COALESCE(sd.count_orders_completed, 0) > 0 THEN TO_DATE(sd.date_file, 'DD-MM-YYYY') END) as dias_activos, ");
-            sql.append("  COUNT(DISTINCT CASE WHEN COALESCE(sd.sum_work_time_seconds, 0) > 0 THEN TO_DATE(sd.date_file, 'DD-MM-YYYY') END) as dias_conectados ");
-            sql.append("FROM summary_daily sd ");
-            sql.append("INNER JOIN drivers d ON sd.driver_id = d.driver_id ");
-            sql.append("WHERE sd.driver_id IN (").append(placeholders).append(") ");
-            sql.append("  AND TO_DATE(sd.date_file, 'DD-MM-YYYY') <= d.hire_date + INTERVAL '14 days' ");
-            sql.append("GROUP BY sd.driver_id");
+            sql.append("  da.driver_id, ");
+            sql.append("  MIN(CASE WHEN COALESCE(da.work_seconds, 0) > 0 THEN da.activity_date END) as primera_conexion_date, ");
+            sql.append("  MIN(CASE WHEN COALESCE(da.orders_completed, 0) > 0 THEN da.activity_date END) as primer_viaje_date, ");
+            sql.append("  COUNT(DISTINCT CASE WHEN COALESCE(da.orders_completed, 0) > 0 THEN da.activity_date END) as dias_activos, ");
+            sql.append("  COUNT(DISTINCT CASE WHEN COALESCE(da.work_seconds, 0) > 0 THEN da.activity_date END) as dias_conectados ");
+            sql.append("FROM driver_daily_activity da ");
+            sql.append("INNER JOIN drivers d ON da.driver_id = d.driver_id ");
+            sql.append("WHERE da.driver_id = ANY(?) ");
+            sql.append("  AND da.activity_date <= d.hire_date + INTERVAL '14 days' ");
+            sql.append("GROUP BY da.driver_id");
             
             Map<String, Map<String, Object>> fechasPorDriver = new HashMap<>();
-            List<Object> params = new ArrayList<>(driverIds);
-            List<Map<String, Object>> rows = jdbcTemplate.queryForList(sql.toString(), params.toArray());
+            List<Map<String, Object>> rows = idArrayQueryExecutor.queryForList(sql.toString(), driverIds, IdArrayQueryExecutor.IDS);
             
             for (Map<String, Object> row : rows) {
                 String driverId = (String) row.get("driver_id");
@@ -2378,21 +2062,18 @@ public class OnboardingService {
                 StringBuilder sqlPrimeraConexion = new StringBuilder();
                 sqlPrimeraConexion.append("SELECT ");
                 sqlPrimeraConexion.append("  primera.driver_id, ");
-                sqlPrimeraConexion.append("  CASE WHEN COALESCE(sd.count_orders_completed, 0) > 0 THEN 1 ELSE 0 END as tiene_viajes ");
+                sqlPrimeraConexion.append("  CASE WHEN COALESCE(da.orders_completed, 0) > 0 THEN 1 ELSE 0 END as tiene_viajes ");
                 sqlPrimeraConexion.append("FROM ( ");
-                sqlPrimeraConexion.append("  SELECT sd2.driver_id, MIN(CASE WHEN COALESCE(sd2.sum_work_time_seconds, 0) > 0 THEN TO_DATE(sd2.date_file, 'DD-MM-YYYY') END) as primera_conexion ");
-                sqlPrimeraConexion.append("  FROM summary_daily sd2 ");
-                sqlPrimeraConexion.append("  INNER JOIN drivers d2 ON sd2.driver_id = d2.driver_id ");
-                sqlPrimeraConexion.append("  WHERE sd2.driver_id IN (").append(placeholders).append(") ");
-                sqlPrimeraConexion.append("    AND TO_DATE(sd2.date_file, 'DD-MM-YYYY') <= d2.hire_date + INTERVAL '14 days' ");
-                sqlPrimeraConexion.append("  GROUP BY sd2.driver_id ");
+                sqlPrimeraConexion.append("  SELECT da2.driver_id, MIN(CASE WHEN COALESCE(da2.work_seconds, 0) > 0 THEN da2.activity_date END) as primera_conexion ");
+                sqlPrimeraConexion.append("  FROM driver_daily_activity da2 ");
+                sqlPrimeraConexion.append("  INNER JOIN drivers d2 ON da2.driver_id = d2.driver_id ");
+                sqlPrimeraConexion.append("  WHERE da2.driver_id = ANY(?) ");
+                sqlPrimeraConexion.append("    AND da2.activity_date <= d2.hire_date + INTERVAL '14 days' ");
+                sqlPrimeraConexion.append("  GROUP BY da2.driver_id ");
                 sqlPrimeraConexion.append(") primera ");
-                sqlPrimeraConexion.append("LEFT JOIN summary_daily sd ON sd.driver_id = primera.driver_id AND TO_DATE(sd.date_file, 'DD-MM-YYYY') = primera.primera_conexion ");
-                sqlPrimeraConexion.append("WHERE primera.driver_id IN (").append(placeholders).append(")");
+                sqlPrimeraConexion.append("LEFT JOIN driver_daily_activity da ON da.driver_id = primera.driver_id AND da.activity_date = primera.primera_conexion ");
                 
-                List<Object> paramsPrimeraConexion = new ArrayList<>(driverIds);
-                paramsPrimeraConexion.addAll(driverIds);
-                List<Map<String, Object>> rowsPrimeraConexion = jdbcTemplate.queryForList(sqlPrimeraConexion.toString(), paramsPrimeraConexion.toArray());
+                List<Map<String, Object>> rowsPrimeraConexion = idArrayQueryExecutor.queryForList(sqlPrimeraConexion.toString(), driverIds, IdArrayQueryExecutor.IDS);
                 for (Map<String, Object> row : rowsPrimeraConexion) {
                     String driverId = (String) row.get("driver_id");
                     Map<String, Object> fechas = fechasPorDriver.get(driverId);
@@ -2479,14 +2160,6 @@ public class OnboardingService {
                     driver.setTasaConversionConexion(tasa);
                 }
                 
-                if (driver.getPrimerViajeDate() != null && driver.getStartDate() != null) {
-                    LocalDate fecha25Viajes = calcularFecha25Viajes(driver.getDriverId(), driver.getPrimerViajeDate(), driver.getStartDate());
-                    if (fecha25Viajes != null) {
-                        long dias = java.time.temporal.ChronoUnit.DAYS.between(driver.getPrimerViajeDate(), fecha25Viajes);
-                        driver.setDiasPrimerViajeA25Viajes((int) dias);
-                    }
-                }
-                
                 driver.setTieneLead(driver.getLeadCreatedAt() != null);
                 driver.setTieneScout(driver.getHasScoutRegistration() != null && driver.getHasScoutRegistration());
                 
@@ -2524,58 +2197,47 @@ public class OnboardingService {
                 }
             }
             
+            List<DriverActivityQueryRepository.VentanaDriver> ventanas25Viajes = new ArrayList<>();
+            for (DriverOnboardingDTO driver : drivers) {
+                if (driver.getPrimerViajeDate() != null && driver.getStartDate() != null) {
+                    ventanas25Viajes.add(new DriverActivityQueryRepository.VentanaDriver(
+                        driver.getDriverId(), driver.getPrimerViajeDate(), driver.getStartDate().plusDays(14)));
+                }
+            }
+            
+            Map<String, LocalDate> fechas25Viajes = calcularFechas25Viajes(ventanas25Viajes);
+            for (DriverOnboardingDTO driver : drivers) {
+                LocalDate fecha25Viajes = fechas25Viajes.get(driver.getDriverId());
+                if (fecha25Viajes != null && driver.getPrimerViajeDate() != null) {
+                    long dias = java.time.temporal.ChronoUnit.DAYS.between(driver.getPrimerViajeDate(), fecha25Viajes);
+                    driver.setDiasPrimerViajeA25Viajes((int) dias);
+                }
+            }
+            
         } catch (Exception e) {
             logger.error("Error al calcular métricas de conversión", e);
         }
     }
     
-    private LocalDate calcularFecha25Viajes(String driverId, LocalDate primerViajeDate, LocalDate startDate) {
+    private Map<String, LocalDate> calcularFechas25Viajes(List<DriverActivityQueryRepository.VentanaDriver> ventanas) {
+        Map<String, LocalDate> resultado = new HashMap<>();
+        if (ventanas.isEmpty()) {
+            return resultado;
+        }
+        
         try {
-            LocalDate fechaLimite = startDate.plusDays(14);
-            
-            StringBuilder sql = new StringBuilder();
-            sql.append("WITH viajes_acumulados AS ( ");
-            sql.append("  SELECT ");
-            sql.append("    TO_DATE(sd.date_file, 'DD-MM-YYYY') as date, ");
-            sql.append("    COALESCE(sd.count_orders_completed, 0) as viajes_dia, ");
-            sql.append("    SUM(COALESCE(sd.count_orders_completed, 0)) OVER ( ");
-            sql.append("      ORDER BY TO_DATE(sd.date_file, 'DD-MM-YYYY') ");
-            sql.append("      ROWS BETWEEN UNBOUNDED PRECEDING AND CURRENT ROW ");
-            sql.append("    ) as viajes_acumulados ");
-            sql.append("  FROM summary_daily sd ");
-            sql.append("  WHERE sd.driver_id = ? ");
-            sql.append("    AND TO_DATE(sd.date_file, 'DD-MM-YYYY') >= ? ");
-            sql.append("    AND TO_DATE(sd.date_file, 'DD-MM-YYYY') <= ? ");
-            sql.append("    AND COALESCE(sd.count_orders_completed, 0) > 0 ");
-            sql.append("  ORDER BY TO_DATE(sd.date_file, 'DD-MM-YYYY') ");
-            sql.append(") ");
-            sql.append("SELECT date ");
-            sql.append("FROM viajes_acumulados ");
-            sql.append("WHERE viajes_acumulados >= 25 ");
-            sql.append("ORDER BY date ");
-            sql.append("LIMIT 1");
-            
-            List<Map<String, Object>> rows = jdbcTemplate.queryForList(
-                sql.toString(), 
-                driverId, 
-                java.sql.Date.valueOf(primerViajeDate),
-                java.sql.Date.valueOf(fechaLimite)
-            );
-            
-            if (!rows.isEmpty()) {
-                Object dateObj = rows.get(0).get("date");
-                if (dateObj instanceof java.sql.Date) {
-                    return ((java.sql.Date) dateObj).toLocalDate();
-                } else if (dateObj instanceof java.sql.Timestamp) {
-                    return ((java.sql.Timestamp) dateObj).toLocalDateTime().toLocalDate();
-                } else if (dateObj instanceof LocalDate) {
-                    return (LocalDate) dateObj;
+            Map<String, Map<Integer, LocalDate>> fechasPorDriver = driverActivityQueryRepository.obtenerFechasUmbralViajes(
+                ventanas, Collections.singletonList(UMBRAL_25_VIAJES));
+            for (Map.Entry<String, Map<Integer, LocalDate>> entry : fechasPorDriver.entrySet()) {
+                LocalDate fecha = entry.getValue().get(UMBRAL_25_VIAJES);
+                if (fecha != null) {
+                    resultado.put(entry.getKey(), fecha);
                 }
             }
         } catch (Exception e) {
-            logger.error("Error al calcular fecha de 25 viajes para driver {}", driverId, e);
+            logger.error("Error al calcular fecha de 25 viajes para {} drivers", ventanas.size(), e);
         }
-        return null;
+        return resultado;
     }
     
     public List<EvolutionMetricsDTO> getEvolutionMetrics(String parkId, String periodType, int periods) {
@@ -2602,12 +2264,12 @@ public class OnboardingService {
             } else {
                 sql.append("    TO_CHAR(d.hire_date, 'YYYY-MM') as period, ");
             }
-            sql.append("    CASE WHEN COUNT(CASE WHEN TO_DATE(sd.date_file, 'DD-MM-YYYY') >= d.hire_date AND TO_DATE(sd.date_file, 'DD-MM-YYYY') < d.hire_date + INTERVAL '14 days' AND COALESCE(sd.sum_work_time_seconds, 0) > 0 THEN 1 END) > 0 THEN true ELSE false END as has_connection, ");
-            sql.append("    COALESCE(SUM(CASE WHEN TO_DATE(sd.date_file, 'DD-MM-YYYY') >= d.hire_date AND TO_DATE(sd.date_file, 'DD-MM-YYYY') < d.hire_date + INTERVAL '14 days' THEN COALESCE(sd.count_orders_completed, 0) ELSE 0 END), 0) as total_trips, ");
-            sql.append("    COALESCE(SUM(CASE WHEN TO_DATE(sd.date_file, 'DD-MM-YYYY') >= d.hire_date AND TO_DATE(sd.date_file, 'DD-MM-YYYY') < d.hire_date + INTERVAL '14 days' AND COALESCE(sd.sum_work_time_seconds, 0) > 0 THEN 1 ELSE 0 END), 0) as dias_conectados, ");
-            sql.append("    COALESCE(SUM(CASE WHEN TO_DATE(sd.date_file, 'DD-MM-YYYY') >= d.hire_date AND TO_DATE(sd.date_file, 'DD-MM-YYYY') < d.hire_date + INTERVAL '14 days' AND COALESCE(sd.count_orders_completed, 0) > 0 THEN 1 ELSE 0 END), 0) as dias_activos ");
+            sql.append("    CASE WHEN COUNT(CASE WHEN da.activity_date >= d.hire_date AND da.activity_date < d.hire_date + INTERVAL '14 days' AND COALESCE(da.work_seconds, 0) > 0 THEN 1 END) > 0 THEN true ELSE false END as has_connection, ");
+            sql.append("    COALESCE(SUM(CASE WHEN da.activity_date >= d.hire_date AND da.activity_date < d.hire_date + INTERVAL '14 days' THEN COALESCE(da.orders_completed, 0) ELSE 0 END), 0) as total_trips, ");
+            sql.append("    COALESCE(SUM(CASE WHEN da.activity_date >= d.hire_date AND da.activity_date < d.hire_date + INTERVAL '14 days' AND COALESCE(da.work_seconds, 0) > 0 THEN 1 ELSE 0 END), 0) as dias_conectados, ");
+            sql.append("    COALESCE(SUM(CASE WHEN da.activity_date >= d.hire_date AND da.activity_date < d.hire_date + INTERVAL '14 days' AND COALESCE(da.orders_completed, 0) > 0 THEN 1 ELSE 0 END), 0) as dias_activos ");
             sql.append("  FROM drivers d ");
-            sql.append("  LEFT JOIN summary_daily sd ON sd.driver_id = d.driver_id ");
+            sql.append("  LEFT JOIN driver_daily_activity da ON da.driver_id = d.driver_id ");
             sql.append("  WHERE d.park_id = ? ");
             sql.append("    AND d.hire_date >= ? ");
             sql.append("    AND d.hire_date <= ? ");
@@ -1,12 +1,6 @@
 package com.yego.contractortracker.service;
 
 import com.yego.contractortracker.dto.ReconciliationSummaryDTO;
-import com.yego.contractortracker.entity.MilestoneInstance;
-import com.yego.contractortracker.entity.ScoutRegistration;
-import com.yego.contractortracker.entity.YangoTransaction;
-import com.yego.contractortracker.repository.MilestoneInstanceRepository;
-import com.yego.contractortracker.repository.ScoutRegistrationRepository;
-import com.yego.contractortracker.repository.YangoTransactionRepository;
 import com.yego.contractortracker.util.WeekISOUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -29,15 +23,6 @@ public class ReconciliationService {
     @Autowired
     private JdbcTemplate jdbcTemplate;
     
-    @Autowired
-    private ScoutRegistrationRepository scoutRegistrationRepository;
-    
-    @Autowired
-    private MilestoneInstanceRepository milestoneInstanceRepository;
-    
-    @Autowired
-    private YangoTransactionRepository yangoTransactionRepository;
-    
     @Transactional(readOnly = true)
     public List<ReconciliationSummaryDTO> obtenerResumenConsolidado(
             String periodType,
@@ -89,198 +74,268 @@ public class ReconciliationService {
             }
         }
         
-        List<ReconciliationSummaryDTO> summaries = new ArrayList<>();
-        
+        List<LocalDate[]> rangos = new ArrayList<>();
         for (LocalDate period : periods) {
             LocalDate periodEnd = "day".equals(periodType) ? period : period.plusDays(6);
             if (periodEnd.isAfter(dateTo)) {
                 periodEnd = dateTo;
             }
-            
-            ReconciliationSummaryDTO summary = calcularResumenParaPeriodo(period, periodEnd, periodType, parkId, scoutId, channel);
-            summaries.add(summary);
+            rangos.add(new LocalDate[]{period, periodEnd});
         }
         
-        return summaries;
+        return calcularResumenes(rangos, periodType, parkId);
     }
     
-    private ReconciliationSummaryDTO calcularResumenParaPeriodo(
-            LocalDate periodStart,
-            LocalDate periodEnd,
-            String periodType,
-            String parkId,
-            String scoutId,
-            String channel) {
-        
-        ReconciliationSummaryDTO summary = new ReconciliationSummaryDTO();
-        summary.setPeriod(periodType.equals("day") ? periodStart.toString() : 
-            String.format("%04d-W%02d", periodStart.get(java.time.temporal.WeekFields.ISO.weekBasedYear()),
-                periodStart.get(java.time.temporal.WeekFields.ISO.weekOfWeekBasedYear())));
-        summary.setPeriodType(periodType);
-        
-        ReconciliationSummaryDTO.TotalsDTO totals = new ReconciliationSummaryDTO.TotalsDTO();
-        
-        String sql = "SELECT COUNT(DISTINCT d.driver_id) as total " +
-                     "FROM drivers d " +
-                     "WHERE d.park_id = ? AND d.hire_date BETWEEN ? AND ?";
-        
-        Long registrados = jdbcTemplate.queryForObject(sql, Long.class, parkId, periodStart, periodEnd);
-        totals.setRegistrados(registrados != null ? registrados : 0L);
-        
-        sql = "SELECT COUNT(DISTINCT d.driver_id) as total " +
-              "FROM drivers d " +
-              "INNER JOIN lead_matches lm ON d.driver_id = lm.driver_id " +
-              "LEFT JOIN ( " +
-              "  SELECT DISTINCT ON (driver_id) driver_id, acquisition_channel " +
-              "  FROM contractor_tracking_history " +
-              "  ORDER BY driver_id, calculation_date DESC " +
-              ") cth ON cth.driver_id = d.driver_id " +
-              "WHERE d.park_id = ? AND d.hire_date BETWEEN ? AND ? " +
-              "AND COALESCE(cth.acquisition_channel, '') = 'cabinet'";
+    /**
+     * Calcula el resumen de todos los periodos a la vez: cada métrica se obtiene con una sola consulta
+     * agrupada por índice de periodo, así el número de consultas no depende de cuántos periodos se pidan.
+     */
+    private List<ReconciliationSummaryDTO> calcularResumenes(List<LocalDate[]> periodos, String periodType, String parkId) {
+        long inicio = System.currentTimeMillis();
         
-        Long porCabinet = jdbcTemplate.queryForObject(sql, Long.class, parkId, periodStart, periodEnd);
-        totals.setPorCabinet(porCabinet != null ? porCabinet : 0L);
-        totals.setPorOtrosMedios(totals.getRegistrados() - totals.getPorCabinet());
-        
-        sql = "SELECT COUNT(DISTINCT d.driver_id) as total " +
-              "FROM drivers d " +
-              "INNER JOIN summary_daily sd ON d.driver_id = sd.driver_id " +
-              "WHERE d.park_id = ? AND d.hire_date BETWEEN ? AND ? " +
-              "AND COALESCE(sd.sum_work_time_seconds, 0) > 0";
-        
-        Long conectados = jdbcTemplate.queryForObject(sql, Long.class, parkId, periodStart, periodEnd);
-        totals.setConectados(conectados != null ? conectados : 0L);
-        
-        sql = "SELECT COUNT(DISTINCT d.driver_id) as total " +
-              "FROM drivers d " +
-              "INNER JOIN summary_daily sd ON d.driver_id = sd.driver_id " +
-              "WHERE d.park_id = ? AND d.hire_date BETWEEN ? AND ? " +
-              "AND COALESCE(sd.count_orders_completed, 0) > 0 " +
-              "AND TO_DATE(sd.date_file, 'DD-MM-YYYY') >= d.hire_date " +
-              "AND TO_DATE(sd.date_file, 'DD-MM-YYYY') < d.hire_date + INTERVAL '7 days'";
-        
-        Long conViajes7d = jdbcTemplate.queryForObject(sql, Long.class, parkId, periodStart, periodEnd);
-        totals.setConViajes7d(conViajes7d != null ? conViajes7d : 0L);
-        
-        sql = "SELECT COUNT(DISTINCT d.driver_id) as total " +
-              "FROM drivers d " +
-              "INNER JOIN summary_daily sd ON d.driver_id = sd.driver_id " +
-              "WHERE d.park_id = ? AND d.hire_date BETWEEN ? AND ? " +
-              "AND COALESCE(sd.count_orders_completed, 0) > 0 " +
-              "AND TO_DATE(sd.date_file, 'DD-MM-YYYY') >= d.hire_date " +
-              "AND TO_DATE(sd.date_file, 'DD-MM-YYYY') < d.hire_date + INTERVAL '14 days'";
-        
-        Long conViajes14d = jdbcTemplate.queryForObject(sql, Long.class, parkId, periodStart, periodEnd);
-        totals.setConViajes14d(conViajes14d != null ? conViajes14d : 0L);
-        
-        List<MilestoneInstance> milestones1 = milestoneInstanceRepository.findByParkIdAndMilestoneTypeAndPeriodDays(
-            parkId, 1, 14);
-        List<MilestoneInstance> milestones5 = milestoneInstanceRepository.findByParkIdAndMilestoneTypeAndPeriodDays(
-            parkId, 5, 14);
-        List<MilestoneInstance> milestones25 = milestoneInstanceRepository.findByParkIdAndMilestoneTypeAndPeriodDays(
-            parkId, 25, 14);
-        
-        totals.setConMilestone1((long) milestones1.stream()
-            .filter(m -> {
-                LocalDate fulfillmentDate = m.getFulfillmentDate().toLocalDate();
-                return !fulfillmentDate.isBefore(periodStart) && !fulfillmentDate.isAfter(periodEnd);
-            })
-            .count());
-        totals.setConMilestone5((long) milestones5.stream()
-            .filter(m -> {
-                LocalDate fulfillmentDate = m.getFulfillmentDate().toLocalDate();
-                return !fulfillmentDate.isBefore(periodStart) && !fulfillmentDate.isAfter(periodEnd);
-            })
-            .count());
-        totals.setConMilestone25((long) milestones25.stream()
-            .filter(m -> {
-                LocalDate fulfillmentDate = m.getFulfillmentDate().toLocalDate();
-                return !fulfillmentDate.isBefore(periodStart) && !fulfillmentDate.isAfter(periodEnd);
-            })
-            .count());
-        
-        List<YangoTransaction> transacciones = yangoTransactionRepository.findAll().stream()
-            .filter(t -> {
-                if (!t.getIsMatched()) return false;
-                LocalDate transactionDate = t.getTransactionDate().toLocalDate();
-                return transactionDate.isAfter(periodStart.minusDays(1)) && !transactionDate.isAfter(periodEnd);
-            })
-            .collect(Collectors.toList());
-        
-        totals.setConPagoYango((long) transacciones.size());
-        
-        summary.setTotals(totals);
-        
-        List<ReconciliationSummaryDTO.ScoutSummaryDTO> byScout = calcularResumenPorScout(
-            periodStart, periodEnd, parkId);
-        summary.setByScout(byScout);
-        
-        ReconciliationSummaryDTO.ConversionMetricsDTO metrics = calcularMetricasConversion(totals);
-        summary.setConversionMetrics(metrics);
+        List<ReconciliationSummaryDTO> summaries = new ArrayList<>();
+        if (periodos.isEmpty()) {
+            return summaries;
+        }
         
-        ReconciliationSummaryDTO.InconsistenciesDTO inconsistencies = calcularInconsistencias(
-            periodStart, periodEnd, parkId);
-        summary.setInconsistencies(inconsistencies);
+        Map<Integer, ReconciliationSummaryDTO.TotalsDTO> totalesPorPeriodo = calcularTotalesDrivers(periodos, parkId);
+        Map<Integer, ReconciliationSummaryDTO.InconsistenciesDTO> inconsistenciasPorPeriodo = new HashMap<>();
+        calcularTotalesMilestones(periodos, parkId, totalesPorPeriodo, inconsistenciasPorPeriodo);
+        calcularTotalesYango(periodos, totalesPorPeriodo, inconsistenciasPorPeriodo);
+        calcularLeadsSinMatch(periodos, inconsistenciasPorPeriodo);
+        Map<Integer, List<ReconciliationSummaryDTO.ScoutSummaryDTO>> scoutsPorPeriodo = calcularResumenPorScout(periodos);
         
-        String sqlLastUpdated = "SELECT MAX(last_updated) FROM lead_matches";
+        String lastUpdated;
         try {
-            LocalDateTime lastUpdated = jdbcTemplate.queryForObject(sqlLastUpdated, LocalDateTime.class);
-            summary.setLastUpdated(lastUpdated != null ? lastUpdated.toString() : LocalDateTime.now().toString());
+            LocalDateTime maxLastUpdated = jdbcTemplate.queryForObject("SELECT MAX(last_updated) FROM lead_matches", LocalDateTime.class);
+            lastUpdated = maxLastUpdated != null ? maxLastUpdated.toString() : LocalDateTime.now().toString();
         } catch (Exception e) {
-            summary.setLastUpdated(LocalDateTime.now().toString());
+            lastUpdated = LocalDateTime.now().toString();
         }
         
-        return summary;
-    }
-    
-    private List<ReconciliationSummaryDTO.ScoutSummaryDTO> calcularResumenPorScout(
-            LocalDate periodStart,
-            LocalDate periodEnd,
-            String parkId) {
-        
-        List<ScoutRegistration> registrations = scoutRegistrationRepository.findByRegistrationDateBetween(
-            periodStart, periodEnd);
-        
-        Map<String, ReconciliationSummaryDTO.ScoutSummaryDTO> scoutMap = new HashMap<>();
-        
-        for (ScoutRegistration reg : registrations) {
-            String scoutId = reg.getScoutId();
-            ReconciliationSummaryDTO.ScoutSummaryDTO summary = scoutMap.getOrDefault(scoutId,
-                new ReconciliationSummaryDTO.ScoutSummaryDTO(scoutId, scoutId, 0L, 0L, 0L, 0L, 0L, 0L));
+        for (int i = 0; i < periodos.size(); i++) {
+            LocalDate periodStart = periodos.get(i)[0];
             
-            summary.setCount(summary.getCount() + 1);
-            summary.setRegistrados(summary.getRegistrados() + 1);
+            ReconciliationSummaryDTO summary = new ReconciliationSummaryDTO();
+            summary.setPeriod(periodType.equals("day") ? periodStart.toString() : 
+                String.format("%04d-W%02d", periodStart.get(java.time.temporal.WeekFields.ISO.weekBasedYear()),
+                    periodStart.get(java.time.temporal.WeekFields.ISO.weekOfWeekBasedYear())));
+            summary.setPeriodType(periodType);
             
-            if (reg.getIsMatched() && reg.getDriverId() != null) {
-                String sql = "SELECT COUNT(*) FROM summary_daily sd " +
-                             "WHERE sd.driver_id = ? AND COALESCE(sd.sum_work_time_seconds, 0) > 0";
-                Long conectado = jdbcTemplate.queryForObject(sql, Long.class, reg.getDriverId());
-                if (conectado != null && conectado > 0) {
-                    summary.setConectados(summary.getConectados() + 1);
-                }
-                
-                sql = "SELECT COUNT(*) FROM summary_daily sd " +
-                      "WHERE sd.driver_id = ? AND COALESCE(sd.count_orders_completed, 0) > 0";
-                Long conViajes = jdbcTemplate.queryForObject(sql, Long.class, reg.getDriverId());
-                if (conViajes != null && conViajes > 0) {
-                    summary.setConViajes(summary.getConViajes() + 1);
-                }
-                
-                List<MilestoneInstance> milestones = milestoneInstanceRepository.findByDriverId(reg.getDriverId());
-                if (!milestones.isEmpty()) {
-                    summary.setConMilestones(summary.getConMilestones() + 1);
-                }
-                
-                List<YangoTransaction> transacciones = yangoTransactionRepository.findByDriverId(reg.getDriverId());
-                if (!transacciones.isEmpty()) {
-                    summary.setConPago(summary.getConPago() + 1);
-                }
-            }
+            ReconciliationSummaryDTO.TotalsDTO totals = totalesPorPeriodo.computeIfAbsent(i, k -> totalesVacios());
+            summary.setTotals(totals);
+            summary.setByScout(scoutsPorPeriodo.getOrDefault(i, new ArrayList<>()));
+            summary.setConversionMetrics(calcularMetricasConversion(totals));
             
-            scoutMap.put(scoutId, summary);
+            ReconciliationSummaryDTO.InconsistenciesDTO inconsistencies = 
+                inconsistenciasPorPeriodo.computeIfAbsent(i, k -> inconsistenciasVacias());
+            inconsistencies.setSinPago(inconsistencies.getMilestoneSinPago());
+            summary.setInconsistencies(inconsistencies);
+            
+            summary.setLastUpdated(lastUpdated);
+            summaries.add(summary);
         }
         
-        return new ArrayList<>(scoutMap.values());
+        logger.info("Resumen de reconciliación calculado para {} periodos en {} ms", 
+            periodos.size(), System.currentTimeMillis() - inicio);
+        
+        return summaries;
+    }
+    
+    private String ctePeriodos(List<LocalDate[]> periodos) {
+        return "periodos (idx, period_start, period_end) AS (VALUES " +
+               periodos.stream().map(p -> "(?::integer, ?::date, ?::date)").collect(Collectors.joining(",")) +
+               ")";
+    }
+    
+    private List<Object> parametrosPeriodos(List<LocalDate[]> periodos) {
+        List<Object> params = new ArrayList<>();
+        for (int i = 0; i < periodos.size(); i++) {
+            params.add(i);
+            params.add(periodos.get(i)[0]);
+            params.add(periodos.get(i)[1]);
+        }
+        return params;
+    }
+    
+    private Map<Integer, ReconciliationSummaryDTO.TotalsDTO> calcularTotalesDrivers(List<LocalDate[]> periodos, String parkId) {
+        String sql = "WITH " + ctePeriodos(periodos) + ", " +
+                     "drivers_periodo AS ( " +
+                     "  SELECT p.idx, d.driver_id, d.hire_date " +
+                     "  FROM drivers d " +
+                     "  INNER JOIN periodos p ON d.hire_date BETWEEN p.period_start AND p.period_end " +
+                     "  WHERE d.park_id = ? " +
+                     "), " +
+                     "actividad AS ( " +
+                     "  SELECT dp.driver_id, dp.hire_date, " +
+                     "    BOOL_OR(COALESCE(da.work_seconds, 0) > 0) as conectado, " +
+                     "    BOOL_OR(COALESCE(da.orders_completed, 0) > 0 AND da.activity_date >= dp.hire_date " +
+                     "      AND da.activity_date < dp.hire_date + INTERVAL '7 days') as viajes_7d, " +
+                     "    BOOL_OR(COALESCE(da.orders_completed, 0) > 0 AND da.activity_date >= dp.hire_date " +
+                     "      AND da.activity_date < dp.hire_date + INTERVAL '14 days') as viajes_14d " +
+                     "  FROM (SELECT DISTINCT driver_id, hire_date FROM drivers_periodo) dp " +
+                     "  INNER JOIN driver_daily_activity da ON da.driver_id = dp.driver_id " +
+                     "  GROUP BY dp.driver_id, dp.hire_date " +
+                     "), " +
+                     "canal AS ( " +
+                     "  SELECT DISTINCT ON (driver_id) driver_id, acquisition_channel " +
+                     "  FROM contractor_tracking_history " +
+                     "  WHERE driver_id IN (SELECT driver_id FROM drivers_periodo) " +
+                     "  ORDER BY driver_id, calculation_date DESC " +
+                     ") " +
+                     "SELECT dp.idx, " +
+                     "  COUNT(DISTINCT dp.driver_id) as registrados, " +
+                     "  COUNT(DISTINCT dp.driver_id) FILTER (WHERE COALESCE(cth.acquisition_channel, '') = 'cabinet' " +
+                     "    AND EXISTS (SELECT 1 FROM lead_matches lm WHERE lm.driver_id = dp.driver_id)) as por_cabinet, " +
+                     "  COUNT(DISTINCT dp.driver_id) FILTER (WHERE a.conectado) as conectados, " +
+                     "  COUNT(DISTINCT dp.driver_id) FILTER (WHERE a.viajes_7d) as con_viajes_7d, " +
+                     "  COUNT(DISTINCT dp.driver_id) FILTER (WHERE a.viajes_14d) as con_viajes_14d " +
+                     "FROM drivers_periodo dp " +
+                     "LEFT JOIN actividad a ON a.driver_id = dp.driver_id AND a.hire_date = dp.hire_date " +
+                     "LEFT JOIN canal cth ON cth.driver_id = dp.driver_id " +
+                     "GROUP BY dp.idx";
+        
+        List<Object> params = parametrosPeriodos(periodos);
+        params.add(parkId);
+        
+        Map<Integer, ReconciliationSummaryDTO.TotalsDTO> totales = new HashMap<>();
+        jdbcTemplate.query(sql, rs -> {
+            ReconciliationSummaryDTO.TotalsDTO totals = totalesVacios();
+            totals.setRegistrados(rs.getLong("registrados"));
+            totals.setPorCabinet(rs.getLong("por_cabinet"));
+            totals.setPorOtrosMedios(totals.getRegistrados() - totals.getPorCabinet());
+            totals.setConectados(rs.getLong("conectados"));
+            totals.setConViajes7d(rs.getLong("con_viajes_7d"));
+            totals.setConViajes14d(rs.getLong("con_viajes_14d"));
+            totales.put(rs.getInt("idx"), totals);
+        }, params.toArray());
+        
+        return totales;
+    }
+    
+    private void calcularTotalesMilestones(List<LocalDate[]> periodos, String parkId,
+                                           Map<Integer, ReconciliationSummaryDTO.TotalsDTO> totales,
+                                           Map<Integer, ReconciliationSummaryDTO.InconsistenciesDTO> inconsistencias) {
+        String sql = "WITH " + ctePeriodos(periodos) + ", " +
+                     "milestones_periodo AS ( " +
+                     "  SELECT p.idx, mi.milestone_type, mi.period_days, " +
+                     "    NOT EXISTS ( " +
+                     "      SELECT 1 FROM yango_transactions t " +
+                     "      WHERE t.milestone_instance_id = mi.id AND t.driver_id = mi.driver_id " +
+                     "    ) as sin_pago " +
+                     "  FROM milestone_instances mi " +
+                     "  INNER JOIN periodos p ON CAST(mi.fulfillment_date AS DATE) BETWEEN p.period_start AND p.period_end " +
+                     "  WHERE mi.park_id = ? " +
+                     ") " +
+                     "SELECT idx, " +
+                     "  COUNT(*) FILTER (WHERE period_days = 14 AND milestone_type = 1) as con_milestone_1, " +
+                     "  COUNT(*) FILTER (WHERE period_days = 14 AND milestone_type = 5) as con_milestone_5, " +
+                     "  COUNT(*) FILTER (WHERE period_days = 14 AND milestone_type = 25) as con_milestone_25, " +
+                     "  COUNT(*) FILTER (WHERE sin_pago) as milestone_sin_pago " +
+                     "FROM milestones_periodo " +
+                     "GROUP BY idx";
+        
+        List<Object> params = parametrosPeriodos(periodos);
+        params.add(parkId);
+        
+        jdbcTemplate.query(sql, rs -> {
+            int idx = rs.getInt("idx");
+            ReconciliationSummaryDTO.TotalsDTO totals = totales.computeIfAbsent(idx, k -> totalesVacios());
+            totals.setConMilestone1(rs.getLong("con_milestone_1"));
+            totals.setConMilestone5(rs.getLong("con_milestone_5"));
+            totals.setConMilestone25(rs.getLong("con_milestone_25"));
+            inconsistencias.computeIfAbsent(idx, k -> inconsistenciasVacias())
+                .setMilestoneSinPago(rs.getLong("milestone_sin_pago"));
+        }, params.toArray());
+    }
+    
+    private void calcularTotalesYango(List<LocalDate[]> periodos,
+                                      Map<Integer, ReconciliationSummaryDTO.TotalsDTO> totales,
+                                      Map<Integer, ReconciliationSummaryDTO.InconsistenciesDTO> inconsistencias) {
+        String sql = "WITH " + ctePeriodos(periodos) + " " +
+                     "SELECT p.idx, " +
+                     "  COUNT(*) as con_pago_yango, " +
+                     "  COUNT(*) FILTER (WHERE t.milestone_instance_id IS NULL) as pago_sin_milestone " +
+                     "FROM yango_transactions t " +
+                     "INNER JOIN periodos p ON CAST(t.transaction_date AS DATE) BETWEEN p.period_start AND p.period_end " +
+                     "WHERE t.is_matched = true " +
+                     "GROUP BY p.idx";
+        
+        jdbcTemplate.query(sql, rs -> {
+            int idx = rs.getInt("idx");
+            totales.computeIfAbsent(idx, k -> totalesVacios()).setConPagoYango(rs.getLong("con_pago_yango"));
+            inconsistencias.computeIfAbsent(idx, k -> inconsistenciasVacias())
+                .setPagoSinMilestone(rs.getLong("pago_sin_milestone"));
+        }, parametrosPeriodos(periodos).toArray());
+    }
+    
+    private void calcularLeadsSinMatch(List<LocalDate[]> periodos,
+                                       Map<Integer, ReconciliationSummaryDTO.InconsistenciesDTO> inconsistencias) {
+        String sql = "WITH " + ctePeriodos(periodos) + " " +
+                     "SELECT p.idx, COUNT(*) as total " +
+                     "FROM lead_matches lm " +
+                     "INNER JOIN periodos p ON lm.lead_created_at BETWEEN p.period_start AND p.period_end " +
+                     "WHERE lm.is_discarded = false " +
+                     "AND (lm.driver_id IS NULL OR lm.driver_id = '') " +
+                     "GROUP BY p.idx";
+        
+        jdbcTemplate.query(sql, rs -> {
+            inconsistencias.computeIfAbsent(rs.getInt("idx"), k -> inconsistenciasVacias())
+                .setSinMatch(rs.getLong("total"));
+        }, parametrosPeriodos(periodos).toArray());
+    }
+    
+    private Map<Integer, List<ReconciliationSummaryDTO.ScoutSummaryDTO>> calcularResumenPorScout(List<LocalDate[]> periodos) {
+        String sql = "WITH " + ctePeriodos(periodos) + ", " +
+                     "registros AS ( " +
+                     "  SELECT p.idx, sr.scout_id, sr.driver_id, " +
+                     "    (sr.is_matched AND sr.driver_id IS NOT NULL) as matcheado " +
+                     "  FROM scout_registrations sr " +
+                     "  INNER JOIN periodos p ON sr.registration_date BETWEEN p.period_start AND p.period_end " +
+                     "), " +
+                     "drivers_registro AS ( " +
+                     "  SELECT DISTINCT driver_id FROM registros WHERE matcheado " +
+                     "), " +
+                     "estado_driver AS ( " +
+                     "  SELECT dr.driver_id, " +
+                     "    EXISTS (SELECT 1 FROM driver_daily_activity da " +
+                     "      WHERE da.driver_id = dr.driver_id AND COALESCE(da.work_seconds, 0) > 0) as conectado, " +
+                     "    EXISTS (SELECT 1 FROM driver_daily_activity da " +
+                     "      WHERE da.driver_id = dr.driver_id AND COALESCE(da.orders_completed, 0) > 0) as con_viajes, " +
+                     "    EXISTS (SELECT 1 FROM milestone_instances mi WHERE mi.driver_id = dr.driver_id) as con_milestones, " +
+                     "    EXISTS (SELECT 1 FROM yango_transactions t WHERE t.driver_id = dr.driver_id) as con_pago " +
+                     "  FROM drivers_registro dr " +
+                     ") " +
+                     "SELECT r.idx, r.scout_id, " +
+                     "  COUNT(*) as registrados, " +
+                     "  COUNT(*) FILTER (WHERE r.matcheado AND ed.conectado) as conectados, " +
+                     "  COUNT(*) FILTER (WHERE r.matcheado AND ed.con_viajes) as con_viajes, " +
+                     "  COUNT(*) FILTER (WHERE r.matcheado AND ed.con_milestones) as con_milestones, " +
+                     "  COUNT(*) FILTER (WHERE r.matcheado AND ed.con_pago) as con_pago " +
+                     "FROM registros r " +
+                     "LEFT JOIN estado_driver ed ON ed.driver_id = r.driver_id " +
+                     "GROUP BY r.idx, r.scout_id " +
+                     "ORDER BY r.idx, r.scout_id";
+        
+        Map<Integer, List<ReconciliationSummaryDTO.ScoutSummaryDTO>> resultado = new HashMap<>();
+        jdbcTemplate.query(sql, rs -> {
+            String scoutId = rs.getString("scout_id");
+            long registrados = rs.getLong("registrados");
+            resultado.computeIfAbsent(rs.getInt("idx"), k -> new ArrayList<>()).add(
+                new ReconciliationSummaryDTO.ScoutSummaryDTO(scoutId, scoutId, registrados, registrados,
+                    rs.getLong("conectados"), rs.getLong("con_viajes"), 
+                    rs.getLong("con_milestones"), rs.getLong("con_pago")));
+        }, parametrosPeriodos(periodos).toArray());
+        
+        return resultado;
+    }
+    
+    private ReconciliationSummaryDTO.TotalsDTO totalesVacios() {
+        return new ReconciliationSummaryDTO.TotalsDTO(0L, 0L, 0L, 0L, 0L, 0L, 0L, 0L, 0L, 0L);
+    }
+    
+    private ReconciliationSummaryDTO.InconsistenciesDTO inconsistenciasVacias() {
+        return new ReconciliationSummaryDTO.InconsistenciesDTO(0L, 0L, 0L, 0L);
     }
     
     private ReconciliationSummaryDTO.ConversionMetricsDTO calcularMetricasConversion(
@@ -313,64 +368,13 @@ public class ReconciliationService {
         return metrics;
     }
     
-    private ReconciliationSummaryDTO.InconsistenciesDTO calcularInconsistencias(
-            LocalDate periodStart,
-            LocalDate periodEnd,
-            String parkId) {
-        
-        ReconciliationSummaryDTO.InconsistenciesDTO inconsistencies = 
-            new ReconciliationSummaryDTO.InconsistenciesDTO();
-        
-        String sqlLeads = "SELECT COUNT(*) as total " +
-                          "FROM lead_matches lm " +
-                          "WHERE lm.is_discarded = false " +
-                          "AND (lm.driver_id IS NULL OR lm.driver_id = '') " +
-                          "AND lm.lead_created_at BETWEEN ? AND ?";
-        
-        Long sinMatch = jdbcTemplate.queryForObject(sqlLeads, Long.class, periodStart, periodEnd);
-        inconsistencies.setSinMatch(sinMatch != null ? sinMatch : 0L);
-        
-        List<MilestoneInstance> milestones = milestoneInstanceRepository.findAll().stream()
-            .filter(m -> {
-                if (!m.getParkId().equals(parkId)) return false;
-                LocalDate fulfillmentDate = m.getFulfillmentDate().toLocalDate();
-                return !fulfillmentDate.isBefore(periodStart) && !fulfillmentDate.isAfter(periodEnd);
-            })
-            .collect(Collectors.toList());
-        
-        long milestoneSinPago = milestones.stream()
-            .filter(m -> {
-                List<YangoTransaction> trans = yangoTransactionRepository.findByDriverId(m.getDriverId());
-                return trans.stream().noneMatch(t -> 
-                    t.getMilestoneInstanceId() != null && 
-                    t.getMilestoneInstanceId().equals(m.getId()));
-            })
-            .count();
-        inconsistencies.setMilestoneSinPago(milestoneSinPago);
-        
-        List<YangoTransaction> transacciones = yangoTransactionRepository.findAll().stream()
-            .filter(t -> {
-                if (!t.getIsMatched()) return false;
-                LocalDate transactionDate = t.getTransactionDate().toLocalDate();
-                return transactionDate.isAfter(periodStart.minusDays(1)) && !transactionDate.isAfter(periodEnd);
-            })
-            .collect(Collectors.toList());
-        
-        long pagoSinMilestone = transacciones.stream()
-            .filter(t -> t.getMilestoneInstanceId() == null)
-            .count();
-        inconsistencies.setPagoSinMilestone(pagoSinMilestone);
-        
-        inconsistencies.setSinPago(milestoneSinPago);
-        
-        return inconsistencies;
-    }
-    
     @Transactional(readOnly = true)
     public ReconciliationSummaryDTO obtenerCierreDiaAnterior(String parkId) {
         parkId = parkId != null && !parkId.isEmpty() ? parkId : DEFAULT_PARK_ID;
         LocalDate ayer = LocalDate.now().minusDays(1);
-        return calcularResumenParaPeriodo(ayer, ayer, "day", parkId, null, null);
+        List<LocalDate[]> periodos = new ArrayList<>();
+        periodos.add(new LocalDate[]{ayer, ayer});
+        return calcularResumenes(periodos, "day", parkId).get(0);
     }
 }
 
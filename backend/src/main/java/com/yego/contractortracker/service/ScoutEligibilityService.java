@@ -0,0 +1,207 @@
+package com.yego.contractortracker.service;
+
+import com.yego.contractortracker.entity.ScoutPaymentConfig;
+import com.yego.contractortracker.repository.ScoutPaymentConfigRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.sql.Date;
+import java.time.LocalDate;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Elegibilidad de scouts para pagos: un scout es elegible en un día de registro si ese día registró al menos
+ * min_registrations_required drivers (con match) que se conectaron min_connection_seconds el día de su hire_date.
+ *
+ * Los conteos de registros con conexión por (scout_id, registration_date) se calculan con una única consulta
+ * agrupada por rango de fechas, para todos los scouts, y se guardan por día en memoria. Un día cargado se
+ * reutiliza hasta que llega un DatosActualizadosEvent (nuevos registros, matches o actividad), vence
+ * scouts.elegibilidad.ttl-seconds o cambia min_connection_seconds en la configuración. El mínimo de registros
+ * se aplica al evaluar, así que cambiarlo no requiere recalcular.
+ */
+@Service
+public class ScoutEligibilityService {
+    
+    private static final Logger logger = LoggerFactory.getLogger(ScoutEligibilityService.class);
+    private static final int MIN_REGISTROS_DEFECTO = 8;
+    private static final int MIN_SEGUNDOS_DEFECTO = 1;
+    
+    private static final String SQL_CONTEOS =
+        "SELECT sr.scout_id, sr.registration_date, COUNT(DISTINCT sr.driver_id) AS registros_con_conexion " +
+        "FROM scout_registrations sr " +
+        "INNER JOIN drivers d ON d.driver_id = sr.driver_id " +
+        "INNER JOIN driver_daily_activity da ON da.driver_id = d.driver_id " +
+        "    AND da.activity_date = d.hire_date " +
+        "    AND COALESCE(da.work_seconds, 0) >= ? " +
+        "WHERE sr.registration_date >= ? " +
+        "    AND sr.registration_date <= ? " +
+        "    AND sr.is_matched = true " +
+        "GROUP BY sr.scout_id, sr.registration_date";
+    
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    
+    @Autowired
+    private ScoutPaymentConfigRepository configRepository;
+    
+    @Value("${scouts.elegibilidad.ttl-seconds:3600}")
+    private long ttlSeconds;
+    
+    // Conteos por día y por scout; el mapa de cada día no se modifica después de guardarlo
+    private final Map<LocalDate, DiaCargado> dias = new HashMap<>();
+    private int segundosCargados = -1;
+    private long generacion = 0;
+    
+    private static class DiaCargado {
+        private final Map<String, Integer> conteosPorScout;
+        private final long expiraEn;
+        
+        DiaCargado(Map<String, Integer> conteosPorScout, long expiraEn) {
+            this.conteosPorScout = conteosPorScout;
+            this.expiraEn = expiraEn;
+        }
+    }
+    
+    /**
+     * Vista de la elegibilidad para un rango de fechas, con la configuración leída una vez.
+     * Las consultas se resuelven en memoria.
+     */
+    public static final class Evaluador {
+        private final LocalDate desde;
+        private final LocalDate hasta;
+        private final int minRegistros;
+        private final Map<LocalDate, Map<String, Integer>> conteos;
+        
+        private Evaluador(LocalDate desde, LocalDate hasta, int minRegistros, Map<LocalDate, Map<String, Integer>> conteos) {
+            this.desde = desde;
+            this.hasta = hasta;
+            this.minRegistros = minRegistros;
+            this.conteos = conteos;
+        }
+        
+        public int getMinRegistros() {
+            return minRegistros;
+        }
+        
+        public int contarRegistrosConConexion(String scoutId, LocalDate registrationDate) {
+            if (registrationDate.isBefore(desde) || registrationDate.isAfter(hasta)) {
+                throw new IllegalArgumentException("Fecha " + registrationDate + " fuera del rango cargado " + desde + " - " + hasta);
+            }
+            return conteos.getOrDefault(registrationDate, Collections.emptyMap()).getOrDefault(scoutId, 0);
+        }
+        
+        public boolean esElegible(String scoutId, LocalDate registrationDate) {
+            return contarRegistrosConConexion(scoutId, registrationDate) >= minRegistros;
+        }
+    }
+    
+    public boolean esElegible(String scoutId, LocalDate registrationDate) {
+        return evaluador(registrationDate, registrationDate).esElegible(scoutId, registrationDate);
+    }
+    
+    /**
+     * Carga (o toma de la caché) los conteos de todos los scouts entre desde y hasta, ambos incluidos.
+     * Los días que falten se consultan juntos en una sola consulta agrupada.
+     */
+    public Evaluador evaluador(LocalDate desde, LocalDate hasta) {
+        if (desde.isAfter(hasta)) {
+            throw new IllegalArgumentException("Rango de fechas inválido: " + desde + " - " + hasta);
+        }
+        
+        ScoutPaymentConfig config = configRepository.findByIsActiveTrue().stream()
+                .findFirst()
+                .orElse(null);
+        int minRegistros = config != null && config.getMinRegistrationsRequired() != null
+                ? config.getMinRegistrationsRequired()
+                : MIN_REGISTROS_DEFECTO;
+        int minSegundos = config != null && config.getMinConnectionSeconds() != null
+                ? config.getMinConnectionSeconds()
+                : MIN_SEGUNDOS_DEFECTO;
+        
+        Map<LocalDate, Map<String, Integer>> conteos = new HashMap<>();
+        LocalDate primerFaltante = null;
+        LocalDate ultimoFaltante = null;
+        long generacionInicial;
+        
+        synchronized (this) {
+            if (segundosCargados != minSegundos) {
+                if (!dias.isEmpty()) {
+                    logger.info("min_connection_seconds cambió de {} a {}, se descartan los conteos de elegibilidad", segundosCargados, minSegundos);
+                }
+                dias.clear();
+                segundosCargados = minSegundos;
+                generacion++;
+            }
+            
+            long ahora = System.currentTimeMillis();
+            for (LocalDate dia = desde; !dia.isAfter(hasta); dia = dia.plusDays(1)) {
+                DiaCargado cargado = dias.get(dia);
+                if (cargado != null && cargado.expiraEn > ahora) {
+                    conteos.put(dia, cargado.conteosPorScout);
+                } else {
+                    if (primerFaltante == null) {
+                        primerFaltante = dia;
+                    }
+                    ultimoFaltante = dia;
+                }
+            }
+            generacionInicial = generacion;
+        }
+        
+        if (primerFaltante != null) {
+            Map<LocalDate, Map<String, Integer>> cargados = cargarConteos(primerFaltante, ultimoFaltante, minSegundos);
+            conteos.putAll(cargados);
+            
+            synchronized (this) {
+                // Si llegó una invalidación mientras se consultaba, el resultado se usa pero no se guarda
+                if (generacionInicial == generacion) {
+                    long expiraEn = System.currentTimeMillis() + ttlSeconds * 1000;
+                    for (Map.Entry<LocalDate, Map<String, Integer>> entry : cargados.entrySet()) {
+                        dias.put(entry.getKey(), new DiaCargado(entry.getValue(), expiraEn));
+                    }
+                }
+            }
+        }
+        
+        return new Evaluador(desde, hasta, minRegistros, conteos);
+    }
+    
+    private Map<LocalDate, Map<String, Integer>> cargarConteos(LocalDate desde, LocalDate hasta, int minSegundos) {
+        long inicio = System.currentTimeMillis();
+        
+        Map<LocalDate, Map<String, Integer>> conteos = new HashMap<>();
+        for (LocalDate dia = desde; !dia.isAfter(hasta); dia = dia.plusDays(1)) {
+            conteos.put(dia, new HashMap<>());
+        }
+        
+        int[] filas = {0};
+        jdbcTemplate.query(SQL_CONTEOS, rs -> {
+            conteos.get(rs.getDate("registration_date").toLocalDate())
+                .put(rs.getString("scout_id"), rs.getInt("registros_con_conexion"));
+            filas[0]++;
+        }, minSegundos, Date.valueOf(desde), Date.valueOf(hasta));
+        
+        logger.debug("Conteos de elegibilidad de scouts cargados para {} - {}: {} pares (scout, día) en {} ms",
+            desde, hasta, filas[0], System.currentTimeMillis() - inicio);
+        return conteos;
+    }
+    
+    public synchronized void invalidar(String origen) {
+        int total = dias.size();
+        dias.clear();
+        generacion++;
+        logger.debug("Conteos de elegibilidad de scouts invalidados por {} ({} días descartados)", origen, total);
+    }
+    
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onDatosActualizados(DashboardCacheService.DatosActualizadosEvent event) {
+        invalidar(event.getOrigen());
+    }
+}
@@ -44,33 +44,18 @@ public class ScoutPaymentInstanceService {
     @Autowired
     private JdbcTemplate jdbcTemplate;
     
+    @Autowired
+    private IdArrayQueryExecutor idArrayQueryExecutor;
+    
+    @Autowired
+    private ScoutPaymentInstanceBulkRepository instanceBulkRepository;
+    
+    @Autowired
+    private ScoutEligibilityService eligibilityService;
+    
     public boolean verificarElegibilidadScout(String scoutId, LocalDate registrationDate) {
         try {
-            ScoutPaymentConfig config = configRepository.findByIsActiveTrue().stream()
-                    .findFirst()
-                    .orElse(null);
-            
-            int minRegistrations = config != null && config.getMinRegistrationsRequired() != null 
-                    ? config.getMinRegistrationsRequired() 
-                    : 8;
-            int minSeconds = config != null && config.getMinConnectionSeconds() != null 
-                    ? config.getMinConnectionSeconds() 
-                    : 1;
-            
-            String sql = "SELECT COUNT(DISTINCT sr.driver_id) as registros_con_conexion " +
-                        "FROM scout_registrations sr " +
-                        "INNER JOIN drivers d ON d.driver_id = sr.driver_id " +
-                        "INNER JOIN summary_daily sd ON sd.driver_id = d.driver_id " +
-                        "    AND TO_DATE(sd.date_file, 'DD-MM-YYYY') = d.hire_date " +
-                        "    AND COALESCE(sd.sum_work_time_seconds, 0) >= ? " +
-                        "WHERE sr.scout_id = ? " +
-                        "    AND sr.registration_date = ? " +
-                        "    AND sr.is_matched = true " +
-                        "HAVING COUNT(DISTINCT sr.driver_id) >= ?";
-            
-            List<Map<String, Object>> results = jdbcTemplate.queryForList(sql, minSeconds, scoutId, registrationDate, minRegistrations);
-            
-            boolean elegible = !results.isEmpty();
+            boolean elegible = eligibilityService.esElegible(scoutId, registrationDate);
             logger.debug("Elegibilidad scout {} para fecha {}: {}", scoutId, registrationDate, elegible);
             return elegible;
         } catch (Exception e) {
@@ -93,53 +78,24 @@ public class ScoutPaymentInstanceService {
         }
         
         try {
-            ScoutPaymentConfig config = configRepository.findByIsActiveTrue().stream()
-                    .findFirst()
-                    .orElse(null);
-            
-            int minRegistrations = config != null && config.getMinRegistrationsRequired() != null 
-                    ? config.getMinRegistrationsRequired() 
-                    : 8;
-            int minSeconds = config != null && config.getMinConnectionSeconds() != null 
-                    ? config.getMinConnectionSeconds() 
-                    : 1;
-            
-            // Agrupar por fecha de registro para hacer consulta batch
-            Map<LocalDate, Set<String>> driversPorFecha = new HashMap<>();
-            for (Map.Entry<String, LocalDate> entry : driverRegistrationDates.entrySet()) {
-                LocalDate fecha = entry.getValue();
+            // Inicializar todos como no elegibles
+            LocalDate fechaMin = null;
+            LocalDate fechaMax = null;
+            for (LocalDate fecha : driverRegistrationDates.values()) {
+                elegibilidad.put(scoutId + "-" + fecha, false);
                 if (fecha != null) {
-                    driversPorFecha.computeIfAbsent(fecha, k -> new HashSet<>()).add(entry.getKey());
+                    fechaMin = fechaMin == null || fecha.isBefore(fechaMin) ? fecha : fechaMin;
+                    fechaMax = fechaMax == null || fecha.isAfter(fechaMax) ? fecha : fechaMax;
                 }
             }
             
-            // Inicializar todos como no elegibles
-            for (Map.Entry<String, LocalDate> entry : driverRegistrationDates.entrySet()) {
-                String key = scoutId + "-" + entry.getValue();
-                elegibilidad.put(key, false);
-            }
-            
-            // Verificar elegibilidad por cada fecha única
-            for (Map.Entry<LocalDate, Set<String>> fechaEntry : driversPorFecha.entrySet()) {
-                LocalDate registrationDate = fechaEntry.getKey();
-                
-                String sql = "SELECT COUNT(DISTINCT sr.driver_id) as registros_con_conexion " +
-                            "FROM scout_registrations sr " +
-                            "INNER JOIN drivers d ON d.driver_id = sr.driver_id " +
-                            "INNER JOIN summary_daily sd ON sd.driver_id = d.driver_id " +
-                            "    AND TO_DATE(sd.date_file, 'DD-MM-YYYY') = d.hire_date " +
-                            "    AND COALESCE(sd.sum_work_time_seconds, 0) >= ? " +
-                            "WHERE sr.scout_id = ? " +
-                            "    AND sr.registration_date = ? " +
-                            "    AND sr.is_matched = true " +
-                            "HAVING COUNT(DISTINCT sr.driver_id) >= ?";
-                
-                List<Map<String, Object>> results = jdbcTemplate.queryForList(
-                        sql, minSeconds, scoutId, registrationDate, minRegistrations);
-                
-                boolean esElegible = !results.isEmpty();
-                String key = scoutId + "-" + registrationDate;
-                elegibilidad.put(key, esElegible);
+            if (fechaMin != null) {
+                ScoutEligibilityService.Evaluador evaluador = eligibilityService.evaluador(fechaMin, fechaMax);
+                for (LocalDate fecha : new HashSet<>(driverRegistrationDates.values())) {
+                    if (fecha != null) {
+                        elegibilidad.put(scoutId + "-" + fecha, evaluador.esElegible(scoutId, fecha));
+                    }
+                }
             }
             
         } catch (Exception e) {
@@ -150,6 +106,11 @@ public class ScoutPaymentInstanceService {
         return elegibilidad;
     }
     
+    /**
+     * Crea las instancias de pago que falten para los milestones de los drivers registrados por el scout en el rango.
+     * La elegibilidad sale de ScoutEligibilityService y las instancias nuevas se insertan en batch,
+     * por lo que las devueltas no traen id.
+     */
     @Transactional
     public List<ScoutPaymentInstance> crearInstanciasDesdeMilestones(String scoutId, LocalDate fechaDesde, LocalDate fechaHasta) {
         logger.info("Creando instancias de pago para scout {} desde {} hasta {}", scoutId, fechaDesde, fechaHasta);
@@ -189,16 +150,28 @@ public class ScoutPaymentInstanceService {
                         (date1, date2) -> date1.isBefore(date2) ? date1 : date2
                 ));
         
+        // Milestones, instancias existentes y elegibilidad se cargan una vez para todos los tipos
+        Map<Integer, List<MilestoneInstance>> milestonesPorTipo = milestoneInstanceRepository
+                .findByDriverIdInAndPeriodDays(driverIds, SCOUT_PERIOD_DAYS).stream()
+                .filter(m -> m.getMilestoneType() != null)
+                .collect(Collectors.groupingBy(MilestoneInstance::getMilestoneType));
+        // Sin captura de errores: si falla la consulta no se deben crear instancias duplicadas
+        Set<String> instanciasExistentes = new HashSet<>();
+        idArrayQueryExecutor.query(
+                "SELECT driver_id, milestone_type FROM scout_payment_instances WHERE scout_id = ? AND driver_id = ANY(?)",
+                driverIds, rs -> {
+                    instanciasExistentes.add(rs.getString("driver_id") + "-" + rs.getInt("milestone_type"));
+                }, scoutId, IdArrayQueryExecutor.IDS);
+        ScoutEligibilityService.Evaluador evaluador = eligibilityService.evaluador(
+                Collections.min(driverRegistrationDates.values()), Collections.max(driverRegistrationDates.values()));
+        
         for (Integer milestoneType : SCOUT_MILESTONE_TYPES) {
             ScoutPaymentConfig config = configs.get(milestoneType);
             if (config == null || !config.getIsActive()) {
                 continue;
             }
             
-            List<MilestoneInstance> milestones = milestoneInstanceRepository.findByDriverIdInAndPeriodDays(
-                    driverIds, SCOUT_PERIOD_DAYS).stream()
-                    .filter(m -> m.getMilestoneType() != null && m.getMilestoneType().equals(milestoneType))
-                    .collect(Collectors.toList());
+            List<MilestoneInstance> milestones = milestonesPorTipo.getOrDefault(milestoneType, Collections.emptyList());
             
             for (MilestoneInstance milestone : milestones) {
                 String driverId = milestone.getDriverId();
@@ -209,11 +182,11 @@ public class ScoutPaymentInstanceService {
                     continue;
                 }
                 
-                if (instanceRepository.findByScoutIdAndDriverIdAndMilestoneType(scoutId, driverId, milestoneType).isPresent()) {
+                if (instanciasExistentes.contains(driverId + "-" + milestoneType)) {
                     continue;
                 }
                 
-                boolean elegible = verificarElegibilidadScout(scoutId, registrationDate);
+                boolean elegible = evaluador.esElegible(scoutId, registrationDate);
                 String razon = elegible ? "Elegible" : "Scout no cumple requisito de 8 registros con conexión el día de registro";
                 
                 ScoutPaymentInstance instance = new ScoutPaymentInstance();
@@ -230,12 +203,13 @@ public class ScoutPaymentInstanceService {
                 instance.setCreatedAt(LocalDateTime.now());
                 instance.setLastUpdated(LocalDateTime.now());
                 
-                instanciasCreadas.add(instanceRepository.save(instance));
+                instanciasCreadas.add(instance);
                 logger.debug("Instancia creada: scout={}, driver={}, milestone={}, elegible={}", 
                         scoutId, driverId, milestoneType, elegible);
             }
         }
         
+        instanceBulkRepository.insertarInstancias(instanciasCreadas);
         logger.info("Creadas {} instancias de pago para scout {}", instanciasCreadas.size(), scoutId);
         return instanciasCreadas;
     }
@@ -245,10 +219,9 @@ public class ScoutPaymentInstanceService {
             return new HashMap<>();
         }
         
-        String placeholders = driverIds.stream().map(id -> "?").collect(Collectors.joining(","));
-        String sql = "SELECT driver_id, hire_date FROM drivers WHERE driver_id IN (" + placeholders + ")";
+        String sql = "SELECT driver_id, hire_date FROM drivers WHERE driver_id = ANY(?)";
         
-        List<Map<String, Object>> rows = jdbcTemplate.queryForList(sql, driverIds.toArray());
+        List<Map<String, Object>> rows = idArrayQueryExecutor.queryForList(sql, driverIds, IdArrayQueryExecutor.IDS);
         Map<String, LocalDate> hireDates = new HashMap<>();
         
         for (Map<String, Object> row : rows) {
@@ -314,9 +287,8 @@ public class ScoutPaymentInstanceService {
         }
         
         if (!driverIds.isEmpty()) {
-            String placeholders = driverIds.stream().map(id -> "?").collect(Collectors.joining(","));
-            String sql = "SELECT driver_id, full_name FROM drivers WHERE driver_id IN (" + placeholders + ")";
-            List<Map<String, Object>> rows = jdbcTemplate.queryForList(sql, driverIds.toArray());
+            String sql = "SELECT driver_id, full_name FROM drivers WHERE driver_id = ANY(?)";
+            List<Map<String, Object>> rows = idArrayQueryExecutor.queryForList(sql, driverIds, IdArrayQueryExecutor.IDS);
             for (Map<String, Object> row : rows) {
                 driverNames.put((String) row.get("driver_id"), (String) row.get("full_name"));
             }
@@ -421,7 +393,7 @@ public class ScoutPaymentInstanceService {
             StringBuilder sql = new StringBuilder();
             sql.append("SELECT driver_id, ");
             sql.append("  CASE WHEN COUNT(*) > 0 THEN true ELSE false END as tiene_conexion ");
-            sql.append("FROM summary_daily sd ");
+            sql.append("FROM driver_daily_activity da ");
             sql.append("WHERE (");
             
             List<Object> params = new ArrayList<>();
@@ -430,14 +402,14 @@ public class ScoutPaymentInstanceService {
                 if (!first) {
                     sql.append(" OR ");
                 }
-                sql.append("(sd.driver_id = ? AND TO_DATE(sd.date_file, 'DD-MM-YYYY') = ?)");
+                sql.append("(da.driver_id = ? AND da.activity_date = ?)");
                 params.add(entry.getKey());
                 params.add(entry.getValue());
                 first = false;
             }
             
             sql.append(") ");
-            sql.append("  AND COALESCE(sd.sum_work_time_seconds, 0) > 0 ");
+            sql.append("  AND COALESCE(da.work_seconds, 0) > 0 ");
             sql.append("GROUP BY driver_id");
             
             List<Map<String, Object>> results = jdbcTemplate.queryForList(sql.toString(), params.toArray());
@@ -495,17 +467,12 @@ public class ScoutPaymentInstanceService {
         }
         
         try {
-            String placeholders = driverIds.stream().map(id -> "?").collect(Collectors.joining(","));
             String sql = "SELECT * FROM scout_payment_instances " +
                         "WHERE scout_id = ? " +
-                        "  AND driver_id IN (" + placeholders + ") " +
+                        "  AND driver_id = ANY(?) " +
                         "  AND milestone_type IN (1, 5, 25)";
             
-            List<Object> params = new ArrayList<>();
-            params.add(scoutId);
-            params.addAll(driverIds);
-            
-            List<Map<String, Object>> rows = jdbcTemplate.queryForList(sql, params.toArray());
+            List<Map<String, Object>> rows = idArrayQueryExecutor.queryForList(sql, driverIds, scoutId, IdArrayQueryExecutor.IDS);
             Map<String, ScoutPaymentInstance> instancesMap = new HashMap<>();
             
             for (Map<String, Object> row : rows) {
@@ -563,10 +530,9 @@ public class ScoutPaymentInstanceService {
         }
         
         try {
-            String placeholders = driverIds.stream().map(id -> "?").collect(Collectors.joining(","));
-            String sql = "SELECT driver_id, full_name FROM drivers WHERE driver_id IN (" + placeholders + ")";
+            String sql = "SELECT driver_id, full_name FROM drivers WHERE driver_id = ANY(?)";
             
-            List<Map<String, Object>> rows = jdbcTemplate.queryForList(sql, driverIds.toArray());
+            List<Map<String, Object>> rows = idArrayQueryExecutor.queryForList(sql, driverIds, IdArrayQueryExecutor.IDS);
             Map<String, String> nombres = new HashMap<>();
             
             for (Map<String, Object> row : rows) {
@@ -601,10 +567,9 @@ public class ScoutPaymentInstanceService {
         }
         
         try {
-            String placeholders = driverIds.stream().map(id -> "?").collect(Collectors.joining(","));
-            String sql = "SELECT driver_id, phone FROM drivers WHERE driver_id IN (" + placeholders + ")";
+            String sql = "SELECT driver_id, phone FROM drivers WHERE driver_id = ANY(?)";
             
-            List<Map<String, Object>> rows = jdbcTemplate.queryForList(sql, driverIds.toArray());
+            List<Map<String, Object>> rows = idArrayQueryExecutor.queryForList(sql, driverIds, IdArrayQueryExecutor.IDS);
             Map<String, String> telefonos = new HashMap<>();
             
             for (Map<String, Object> row : rows) {
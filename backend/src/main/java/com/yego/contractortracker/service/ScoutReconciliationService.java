@@ -5,6 +5,7 @@ import com.yego.contractortracker.repository.ScoutRegistrationRepository;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -19,6 +20,9 @@ public class ScoutReconciliationService {
     @Autowired
     private ScoutRegistrationRepository scoutRegistrationRepository;
     
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+    
     @Transactional
     public Map<String, Object> reconciliarMatches() {
         logger.info("Iniciando conciliación de matches de scouts");
@@ -93,6 +97,8 @@ public class ScoutReconciliationService {
         resultado.put("noMatcheadosYango", noMatcheadosYango);
         resultado.put("totalProcesados", registrosMatcheados.size() + noMatcheados.size());
         
+        eventPublisher.publishEvent(new DashboardCacheService.DatosActualizadosEvent("scout-reconciliacion"));
+        
         logger.info("Conciliación completada: {} doble matches, {} solo scout_reg, {} solo yango, {} no matcheados scout_reg, {} no matcheados yango",
             dobleMatches, soloScoutRegistration, soloYangoTransaction, noMatcheadosScoutReg, noMatcheadosYango);
         
@@ -113,6 +119,8 @@ public class ScoutReconciliationService {
                 logger.info("Eliminado registro yango_transaction: id={}", reg.getId());
             }
         }
+        
+        eventPublisher.publishEvent(new DashboardCacheService.DatosActualizadosEvent("scout-eliminar-doble-match"));
     }
 }
 
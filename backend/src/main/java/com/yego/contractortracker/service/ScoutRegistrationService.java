@@ -3,20 +3,24 @@ package com.yego.contractortracker.service;
 import com.yego.contractortracker.dto.ScoutAffiliationControlDTO;
 import com.yego.contractortracker.dto.ScoutAffiliationControlFiltersDTO;
 import com.yego.contractortracker.dto.ScoutRegistrationDTO;
+import com.yego.contractortracker.util.ResultSetUtil;
 import com.yego.contractortracker.util.WeekISOUtil;
+import com.yego.contractortracker.util.SimilitudUtil;
 import com.yego.contractortracker.entity.MilestoneInstance;
 import com.yego.contractortracker.entity.Scout;
 import com.yego.contractortracker.entity.ScoutRegistration;
 import com.yego.contractortracker.entity.YangoTransaction;
+import com.yego.contractortracker.repository.CursorQueryExecutor;
+import com.yego.contractortracker.repository.IdArrayQueryExecutor;
 import com.yego.contractortracker.repository.LeadMatchRepository;
-import com.yego.contractortracker.repository.MilestoneInstanceRepository;
+import com.yego.contractortracker.repository.ScoutRegistrationBulkRepository;
 import com.yego.contractortracker.repository.ScoutRegistrationRepository;
 import com.yego.contractortracker.repository.ScoutRepository;
-import com.yego.contractortracker.repository.YangoTransactionRepository;
 import com.yego.contractortracker.entity.LeadMatch;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
@@ -26,9 +30,12 @@ import java.io.BufferedReader;
 import java.io.InputStreamReader;
 import java.nio.charset.StandardCharsets;
 import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.util.*;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 @Service
@@ -41,6 +48,9 @@ public class ScoutRegistrationService {
     @Autowired
     private ScoutRegistrationRepository registrationRepository;
     
+    @Autowired
+    private ScoutRegistrationBulkRepository registrationBulkRepository;
+    
     @Autowired
     private ScoutRepository scoutRepository;
     
@@ -48,72 +58,99 @@ public class ScoutRegistrationService {
     private JdbcTemplate jdbcTemplate;
     
     @Autowired
-    private MilestoneInstanceRepository milestoneInstanceRepository;
+    private ScoutService scoutService;
+    
+    @Autowired
+    private LeadMatchRepository leadMatchRepository;
     
     @Autowired
-    private YangoTransactionRepository yangoTransactionRepository;
+    private ApplicationEventPublisher eventPublisher;
     
     @Autowired
-    private ScoutService scoutService;
+    private DriverDirectoryService driverDirectory;
     
     @Autowired
-    private LeadMatchRepository leadMatchRepository;
+    private MilestoneProgressService progressService;
+    
+    @Autowired
+    private CursorQueryExecutor cursorQueryExecutor;
+    
+    @Autowired
+    private IdArrayQueryExecutor idArrayQueryExecutor;
     
     @Transactional
     public Map<String, Object> procesarArchivoCSV(MultipartFile file) {
+        return procesarArchivoCSV(file, null);
+    }
+    
+    /**
+     * @param jobId opcional; si se informa, el avance se publica en MilestoneProgressService y
+     *              el procesamiento se puede cancelar entre etapas (todo corre en una transacción)
+     */
+    @Transactional
+    public Map<String, Object> procesarArchivoCSV(MultipartFile file, String jobId) {
         logger.info("Iniciando procesamiento de archivo CSV de registros de scouts: {}", file.getOriginalFilename());
         
         try {
             List<ScoutRegistration> registros = leerCSV(file);
             logger.info("Leídos {} registros del CSV", registros.size());
             
+            if (jobId != null) {
+                progressService.startProgress(jobId, "scout-registrations-csv", registros.size());
+                progressService.verificarCancelacion(jobId);
+            }
+            
             if (registros.isEmpty()) {
                 return crearResultado(0, 0, 0, "No se encontraron registros en el archivo", null, null);
             }
             
+            // Una sola carga de los registros existentes para todos los (scout, fecha) del archivo
+            Map<String, ScoutRegistration> existentesPorClave = new HashMap<>();
+            for (ScoutRegistration existente : registrationBulkRepository.buscarPorScoutYFecha(registros)) {
+                existentesPorClave.putIfAbsent(claveRegistro(existente), existente);
+            }
+            logger.info("Cargados {} registros existentes para los (scout, fecha) del archivo", existentesPorClave.size());
+            
             int duplicados = 0;
             List<ScoutRegistration> registrosParaProcesar = new ArrayList<>();
+            Set<ScoutRegistration> yaIncluidos = Collections.newSetFromMap(new IdentityHashMap<>());
             
             for (ScoutRegistration registro : registros) {
-                List<ScoutRegistration> existentes = registrationRepository.findByScoutIdAndRegistrationDateBetween(
-                    registro.getScoutId(),
-                    registro.getRegistrationDate(),
-                    registro.getRegistrationDate()
-                );
-                
-                Optional<ScoutRegistration> existente = existentes.stream()
-                    .filter(e -> Objects.equals(e.getDriverPhone(), registro.getDriverPhone()) &&
-                                 Objects.equals(e.getDriverName(), registro.getDriverName()) &&
-                                 Objects.equals(e.getRegistrationDate(), registro.getRegistrationDate()))
-                    .findFirst();
+                String clave = claveRegistro(registro);
+                ScoutRegistration regExistente = existentesPorClave.get(clave);
                 
-                if (existente.isPresent()) {
-                    ScoutRegistration regExistente = existente.get();
+                if (regExistente != null) {
                     regExistente.setDriverLicense(registro.getDriverLicense());
                     regExistente.setAcquisitionMedium(registro.getAcquisitionMedium());
-                    registrosParaProcesar.add(regExistente);
+                    if (yaIncluidos.add(regExistente)) {
+                        registrosParaProcesar.add(regExistente);
+                    }
                     duplicados++;
                 } else {
+                    // Las repeticiones dentro del mismo archivo actualizan el primer registro en vez de duplicarlo
+                    existentesPorClave.put(clave, registro);
+                    yaIncluidos.add(registro);
                     registrosParaProcesar.add(registro);
                 }
             }
             
             logger.info("Registros del CSV: {}, Duplicados (actualizados): {}, Nuevos: {}", 
-                registros.size(), duplicados, registrosParaProcesar.size() - duplicados);
+                registros.size(), duplicados, registros.size() - duplicados);
             
             registros = registrosParaProcesar;
             
             hacerMatchConDrivers(registros);
-            hacerMatchConLeads(registros);
+            progressService.verificarCancelacion(jobId);
             
-            for (ScoutRegistration registro : registros) {
-                if (registro.getId() != null) {
-                    registrationRepository.save(registro);
-                } else {
-                    registrationRepository.save(registro);
-                }
+            // Guardar antes del matching con leads para que los registros nuevos ya tengan id
+            registrationBulkRepository.guardarRegistros(registros);
+            if (jobId != null) {
+                progressService.updateProgress(jobId, registros.size(), 0, 0, 0);
+                progressService.verificarCancelacion(jobId);
             }
             
+            hacerMatchConLeads(registros);
+            
             int matchedCount = (int) registros.stream().filter(ScoutRegistration::getIsMatched).count();
             int unmatchedCount = registros.size() - matchedCount;
             
@@ -131,6 +168,8 @@ public class ScoutRegistrationService {
             
             logger.info("Procesamiento completado. Matched: {}, Unmatched: {}", matchedCount, unmatchedCount);
             
+            eventPublisher.publishEvent(new DashboardCacheService.DatosActualizadosEvent("scout-registrations-csv"));
+            
             return crearResultado(registros.size(), matchedCount, unmatchedCount, 
                 String.format("Procesados %d registros: %d matcheados, %d sin match", 
                     registros.size(), matchedCount, unmatchedCount),
@@ -142,6 +181,11 @@ public class ScoutRegistrationService {
         }
     }
     
+    private String claveRegistro(ScoutRegistration registro) {
+        return registro.getScoutId() + "|" + registro.getRegistrationDate() + "|" + 
+               registro.getDriverPhone() + "|" + registro.getDriverName();
+    }
+    
     private List<ScoutRegistration> leerCSV(MultipartFile file) throws Exception {
         List<ScoutRegistration> registros = new ArrayList<>();
         
@@ -264,7 +308,7 @@ public class ScoutRegistrationService {
     }
     
     private Scout obtenerOCrearScout(String nombre) {
-        String normalizedName = normalizarNombre(nombre);
+        String normalizedName = SimilitudUtil.normalizarNombre(nombre);
         Optional<Scout> existing = scoutRepository.findByScoutName(normalizedName);
         
         if (existing.isPresent()) {
@@ -274,17 +318,6 @@ public class ScoutRegistrationService {
         return scoutService.crearOActualizarScout(nombre);
     }
     
-    private String normalizarNombre(String name) {
-        if (name == null) {
-            return null;
-        }
-        return name.toLowerCase()
-                .replace("á", "a").replace("é", "e").replace("í", "i")
-                .replace("ó", "o").replace("ú", "u").replace("ñ", "n")
-                .replaceAll("\\s+", " ")
-                .trim();
-    }
-    
     private String[] parseCSVLine(String line) {
         List<String> values = new ArrayList<>();
         boolean inQuotes = false;
@@ -334,10 +367,8 @@ public class ScoutRegistrationService {
         logger.info("Buscando drivers con hire_date entre {} y {} (margen: {} días antes, {} días después)", 
             fechaDesde, fechaHasta, DAYS_BEFORE_REGISTRATION, DAYS_AFTER_REGISTRATION);
         
-        List<Map<String, Object>> drivers = buscarDriversEnRango(fechaDesde, fechaHasta);
-        logger.info("Encontrados {} drivers en rango ampliado", drivers.size());
-        
-        DriverIndex driverIndex = crearIndiceDrivers(drivers);
+        DriverDirectoryService.VistaDirectorio driverIndex = driverDirectory.vista(fechaDesde, fechaHasta);
+        logger.info("Encontrados {} drivers en rango ampliado", driverIndex.tamano());
         
         int matchedCount = 0;
         for (ScoutRegistration registro : registros) {
@@ -430,7 +461,7 @@ public class ScoutRegistrationService {
         for (LeadMatch lead : leads) {
             String leadName = construirNombreCompleto(lead.getLeadFirstName(), lead.getLeadLastName());
             if (leadName != null && !leadName.trim().isEmpty()) {
-                String normalizedName = normalizarNombre(leadName);
+                String normalizedName = SimilitudUtil.normalizarNombre(leadName);
                 leadsByName.computeIfAbsent(normalizedName, k -> new ArrayList<>()).add(lead);
             }
         }
@@ -445,7 +476,7 @@ public class ScoutRegistrationService {
                 continue;
             }
             
-            String registroName = normalizarNombre(registro.getDriverName());
+            String registroName = SimilitudUtil.normalizarNombre(registro.getDriverName());
             Optional<LeadMatch> mejorMatch = encontrarMejorMatchConLead(registro, registroName, leadsByName);
             
             if (mejorMatch.isPresent()) {
@@ -477,7 +508,7 @@ public class ScoutRegistrationService {
         
         if (candidatos.isEmpty()) {
             for (Map.Entry<String, List<LeadMatch>> entry : leadsByName.entrySet()) {
-                double similitud = calcularSimilitudNombre(registroName, entry.getKey());
+                double similitud = SimilitudUtil.jaccardPalabras(registroName, entry.getKey());
                 if (similitud >= 0.7) {
                     candidatos.addAll(entry.getValue());
                 }
@@ -497,13 +528,13 @@ public class ScoutRegistrationService {
             }
             
             String leadName = construirNombreCompleto(lead.getLeadFirstName(), lead.getLeadLastName());
-            String normalizedLeadName = normalizarNombre(leadName);
+            String normalizedLeadName = SimilitudUtil.normalizarNombre(leadName);
             
             double scoreNombre = 0.0;
             if (registroName.equals(normalizedLeadName)) {
                 scoreNombre = 1.0;
             } else {
-                scoreNombre = calcularSimilitudNombre(registroName, normalizedLeadName);
+                scoreNombre = SimilitudUtil.jaccardPalabras(registroName, normalizedLeadName);
             }
             
             double scoreFecha = 1.0 - (diasDiferencia / 3.0);
@@ -533,15 +564,15 @@ public class ScoutRegistrationService {
     }
     
     private double calcularScoreMatch(ScoutRegistration registro, LeadMatch lead) {
-        String registroName = normalizarNombre(registro.getDriverName());
+        String registroName = SimilitudUtil.normalizarNombre(registro.getDriverName());
         String leadName = construirNombreCompleto(lead.getLeadFirstName(), lead.getLeadLastName());
-        String normalizedLeadName = normalizarNombre(leadName);
+        String normalizedLeadName = SimilitudUtil.normalizarNombre(leadName);
         
         double scoreNombre = 0.0;
         if (registroName.equals(normalizedLeadName)) {
             scoreNombre = 1.0;
         } else {
-            scoreNombre = calcularSimilitudNombre(registroName, normalizedLeadName);
+            scoreNombre = SimilitudUtil.jaccardPalabras(registroName, normalizedLeadName);
         }
         
         long diasDiferencia = Math.abs(java.time.temporal.ChronoUnit.DAYS.between(
@@ -551,81 +582,28 @@ public class ScoutRegistrationService {
         return (scoreNombre * 0.7) + (scoreFecha * 0.3);
     }
     
-    private List<Map<String, Object>> buscarDriversEnRango(LocalDate fechaDesde, LocalDate fechaHasta) {
-        String sql = "SELECT driver_id, full_name, phone, license_number, hire_date " +
-                     "FROM drivers " +
-                     "WHERE hire_date BETWEEN ? AND ? " +
-                     "ORDER BY hire_date";
-        
-        return jdbcTemplate.queryForList(sql, fechaDesde, fechaHasta);
-    }
-    
-    private static class DriverIndex {
-        Map<String, List<Map<String, Object>>> byPhone = new HashMap<>();
-        Map<String, List<Map<String, Object>>> byLicense = new HashMap<>();
-        Map<String, List<Map<String, Object>>> byName = new HashMap<>();
-    }
-    
-    private DriverIndex crearIndiceDrivers(List<Map<String, Object>> drivers) {
-        DriverIndex index = new DriverIndex();
-        
-        for (Map<String, Object> driver : drivers) {
-            String phone = (String) driver.get("phone");
-            String license = (String) driver.get("license_number");
-            String fullName = (String) driver.get("full_name");
-            
-            if (phone != null && !phone.isEmpty()) {
-                String normalizedPhone = normalizarTelefono(phone);
-                index.byPhone.computeIfAbsent(normalizedPhone, k -> new ArrayList<>()).add(driver);
-            }
-            
-            if (license != null && !license.isEmpty()) {
-                String normalizedLicense = license.trim().toUpperCase();
-                index.byLicense.computeIfAbsent(normalizedLicense, k -> new ArrayList<>()).add(driver);
-            }
-            
-            if (fullName != null && !fullName.isEmpty()) {
-                String normalizedName = normalizarNombre(fullName);
-                index.byName.computeIfAbsent(normalizedName, k -> new ArrayList<>()).add(driver);
-            }
-        }
-        
-        return index;
-    }
-    
-    private String normalizarTelefono(String phone) {
-        if (phone == null) {
-            return null;
-        }
-        return phone.replaceAll("[^0-9]", "");
-    }
-    
-    private Optional<Map<String, Object>> encontrarMejorMatch(ScoutRegistration registro, DriverIndex index) {
-        String registroPhone = registro.getDriverPhone() != null ? normalizarTelefono(registro.getDriverPhone()) : null;
+    private Optional<Map<String, Object>> encontrarMejorMatch(ScoutRegistration registro, DriverDirectoryService.VistaDirectorio index) {
+        String registroPhone = registro.getDriverPhone() != null ? SimilitudUtil.soloDigitos(registro.getDriverPhone()) : null;
         String registroLicense = registro.getDriverLicense() != null ? registro.getDriverLicense().trim().toUpperCase() : null;
-        String registroName = registro.getDriverName() != null ? normalizarNombre(registro.getDriverName()) : null;
+        String registroName = registro.getDriverName() != null ? SimilitudUtil.normalizarNombre(registro.getDriverName()) : null;
         
-        List<Map<String, Object>> candidatos = new ArrayList<>();
+        List<DriverDirectoryService.RegistroDriver> encontrados = new ArrayList<>();
         
         if (registroPhone != null && !registroPhone.isEmpty()) {
-            List<Map<String, Object>> porTelefono = index.byPhone.get(registroPhone);
-            if (porTelefono != null) {
-                candidatos.addAll(porTelefono);
-            }
+            encontrados.addAll(index.porTelefono(registroPhone));
         }
         
         if (registroLicense != null && !registroLicense.isEmpty()) {
-            List<Map<String, Object>> porLicencia = index.byLicense.get(registroLicense);
-            if (porLicencia != null) {
-                candidatos.addAll(porLicencia);
-            }
+            encontrados.addAll(index.porLicencia(registroLicense));
         }
         
         if (registroName != null && !registroName.isEmpty()) {
-            List<Map<String, Object>> porNombre = index.byName.get(registroName);
-            if (porNombre != null) {
-                candidatos.addAll(porNombre);
-            }
+            encontrados.addAll(index.porNombre(registroName));
+        }
+        
+        List<Map<String, Object>> candidatos = new ArrayList<>();
+        for (DriverDirectoryService.RegistroDriver driver : encontrados) {
+            candidatos.add(driver.aMapa());
         }
         
         if (candidatos.isEmpty()) {
@@ -655,8 +633,8 @@ public class ScoutRegistrationService {
         double score = 0.0;
         int matches = 0;
         
-        String registroPhone = registro.getDriverPhone() != null ? normalizarTelefono(registro.getDriverPhone()) : null;
-        String driverPhone = driver.get("phone") != null ? normalizarTelefono((String) driver.get("phone")) : null;
+        String registroPhone = registro.getDriverPhone() != null ? SimilitudUtil.soloDigitos(registro.getDriverPhone()) : null;
+        String driverPhone = driver.get("phone") != null ? SimilitudUtil.soloDigitos((String) driver.get("phone")) : null;
         
         if (registroPhone != null && driverPhone != null && !registroPhone.isEmpty() && registroPhone.equals(driverPhone)) {
             score += 0.4;
@@ -671,15 +649,15 @@ public class ScoutRegistrationService {
             matches++;
         }
         
-        String registroName = registro.getDriverName() != null ? normalizarNombre(registro.getDriverName()) : null;
-        String driverName = driver.get("full_name") != null ? normalizarNombre((String) driver.get("full_name")) : null;
+        String registroName = registro.getDriverName() != null ? SimilitudUtil.normalizarNombre(registro.getDriverName()) : null;
+        String driverName = driver.get("full_name") != null ? SimilitudUtil.normalizarNombre((String) driver.get("full_name")) : null;
         
         if (registroName != null && driverName != null && !registroName.isEmpty()) {
             if (registroName.equals(driverName)) {
                 score += 0.3;
                 matches++;
             } else {
-                double similitud = calcularSimilitudNombre(registroName, driverName);
+                double similitud = SimilitudUtil.jaccardPalabras(registroName, driverName);
                 if (similitud > 0.8) {
                     score += 0.25;
                     matches++;
@@ -696,30 +674,6 @@ public class ScoutRegistrationService {
         return Math.min(score, 1.0);
     }
     
-    private double calcularSimilitudNombre(String nombre1, String nombre2) {
-        if (nombre1 == null || nombre2 == null) {
-            return 0.0;
-        }
-        
-        String[] palabras1 = nombre1.split("\\s+");
-        String[] palabras2 = nombre2.split("\\s+");
-        
-        Set<String> set1 = new HashSet<>(Arrays.asList(palabras1));
-        Set<String> set2 = new HashSet<>(Arrays.asList(palabras2));
-        
-        Set<String> interseccion = new HashSet<>(set1);
-        interseccion.retainAll(set2);
-        
-        Set<String> union = new HashSet<>(set1);
-        union.addAll(set2);
-        
-        if (union.isEmpty()) {
-            return 0.0;
-        }
-        
-        return (double) interseccion.size() / union.size();
-    }
-    
     public List<ScoutRegistrationDTO> obtenerRegistrosPorScout(String scoutId, LocalDate fechaInicio, LocalDate fechaFin) {
         List<ScoutRegistration> registros;
         
@@ -759,6 +713,7 @@ public class ScoutRegistrationService {
         
         registrationRepository.save(registro);
         logger.info("Match manual asignado: registro {} -> driver {}", registrationId, driverId);
+        eventPublisher.publishEvent(new DashboardCacheService.DatosActualizadosEvent("scout-registration-match-manual"));
     }
     
     public List<ScoutAffiliationControlDTO> obtenerControlAfiliaciones(String scoutId, LocalDate fechaInicio, LocalDate fechaFin) {
@@ -770,186 +725,174 @@ public class ScoutRegistrationService {
     }
     
     public List<ScoutAffiliationControlDTO> obtenerControlAfiliaciones(ScoutAffiliationControlFiltersDTO filters) {
-        // Convertir semana ISO a fechas si está presente
-        LocalDate fechaInicio = filters.getFechaInicio();
-        LocalDate fechaFin = filters.getFechaFin();
-        
-        if (filters.getWeekISO() != null && !filters.getWeekISO().isEmpty()) {
-            LocalDate[] weekRange = WeekISOUtil.getWeekRange(filters.getWeekISO());
-            if (weekRange != null && weekRange.length == 2) {
-                fechaInicio = weekRange[0];
-                fechaFin = weekRange[1];
-            }
-        }
-        
-        // Construir query SQL dinámica
-        StringBuilder sql = new StringBuilder();
-        sql.append("SELECT DISTINCT sr.* ");
-        sql.append("FROM scout_registrations sr ");
-        sql.append("LEFT JOIN milestone_instances mi ON sr.driver_id = mi.driver_id AND mi.period_days = 7 ");
-        sql.append("LEFT JOIN yango_transactions yt ON sr.scout_id = yt.scout_id AND sr.driver_id = yt.driver_id AND mi.milestone_type = yt.milestone_type AND yt.is_matched = true ");
-        sql.append("WHERE 1=1 ");
-        
+        return obtenerControlAfiliaciones(filters, 0, 0);
+    }
+    
+    /**
+     * Página del control de afiliaciones: una consulta trae los registros de la página y otras tres los
+     * completan (scouts, milestones 7d y pagos Yango), sin importar cuántos registros tenga la página.
+     *
+     * @param size tamaño de página; 0 o menos devuelve todos los registros que cumplen los filtros
+     */
+    public List<ScoutAffiliationControlDTO> obtenerControlAfiliaciones(ScoutAffiliationControlFiltersDTO filters, int page, int size) {
         List<Object> params = new ArrayList<>();
-        
-        // Filtro por scout
-        if (filters.getScoutId() != null && !filters.getScoutId().isEmpty()) {
-            sql.append("AND sr.scout_id = ? ");
-            params.add(filters.getScoutId());
+        StringBuilder sql = new StringBuilder(construirConsultaControlAfiliaciones(filters, params));
+        if (size > 0) {
+            sql.append(" LIMIT ? OFFSET ?");
+            params.add(size);
+            params.add((long) Math.max(page, 0) * size);
         }
         
-        // Filtro por fechas
-        if (fechaInicio != null) {
-            sql.append("AND sr.registration_date >= ? ");
-            params.add(fechaInicio);
-        }
-        if (fechaFin != null) {
-            sql.append("AND sr.registration_date <= ? ");
-            params.add(fechaFin);
-        }
-        
-        // Filtro por match status
-        if (filters.getIsMatched() != null) {
-            sql.append("AND sr.is_matched = ? ");
-            params.add(filters.getIsMatched());
-        }
-        
-        // Filtro por medio de adquisición
-        if (filters.getAcquisitionMedium() != null && !filters.getAcquisitionMedium().isEmpty()) {
-            sql.append("AND sr.acquisition_medium = ? ");
-            params.add(filters.getAcquisitionMedium());
-        }
+        logger.debug("Query SQL: {}", sql);
+        logger.debug("Parámetros: {}", params);
         
-        // Búsqueda por nombre
-        if (filters.getDriverName() != null && !filters.getDriverName().isEmpty()) {
-            sql.append("AND LOWER(sr.driver_name) LIKE ? ");
-            params.add("%" + filters.getDriverName().toLowerCase() + "%");
-        }
+        long inicio = System.currentTimeMillis();
+        List<ScoutAffiliationControlDTO> resultado = jdbcTemplate.query(sql.toString(), this::mapearControlAfiliacion, params.toArray());
+        completarControlAfiliaciones(resultado);
+        logger.debug("Control de afiliaciones: {} registros (página {}, tamaño {}) en {} ms",
+            resultado.size(), page, size, System.currentTimeMillis() - inicio);
         
-        // Búsqueda por teléfono
-        if (filters.getDriverPhone() != null && !filters.getDriverPhone().isEmpty()) {
-            sql.append("AND sr.driver_phone LIKE ? ");
-            params.add("%" + filters.getDriverPhone() + "%");
-        }
+        return resultado;
+    }
+    
+    /**
+     * Mismo control de afiliaciones recorrido por cursor para exportaciones: los registros se leen
+     * directamente de la consulta y se completan por bloques.
+     *
+     * @return número de registros entregados al consumidor
+     */
+    public long recorrerControlAfiliaciones(ScoutAffiliationControlFiltersDTO filters, Consumer<ScoutAffiliationControlDTO> consumidor) {
+        List<Object> params = new ArrayList<>();
+        String sql = construirConsultaControlAfiliaciones(filters, params);
         
-        // Filtro por milestone type (requiere subquery o JOIN adicional)
-        if (filters.getMilestoneType() != null) {
-            sql.append("AND EXISTS (");
-            sql.append("  SELECT 1 FROM milestone_instances mi2 ");
-            sql.append("  WHERE mi2.driver_id = sr.driver_id ");
-            sql.append("  AND mi2.period_days = 7 ");
-            sql.append("  AND mi2.milestone_type = ? ");
-            sql.append("  AND mi2.fulfillment_date <= sr.registration_date + INTERVAL '7 days' ");
-            sql.append(") ");
-            params.add(filters.getMilestoneType());
+        return cursorQueryExecutor.recorrerEnBloques("scout-control-afiliaciones-export", sql, this::mapearControlAfiliacion, bloque -> {
+            completarControlAfiliaciones(bloque);
+            bloque.forEach(consumidor);
+        }, params.toArray());
+    }
+    
+    private ScoutAffiliationControlDTO mapearControlAfiliacion(ResultSet rs, int rowNum) throws SQLException {
+        ScoutAffiliationControlDTO dto = new ScoutAffiliationControlDTO();
+        dto.setRegistrationId(rs.getLong("id"));
+        dto.setScoutId(rs.getString("scout_id"));
+        dto.setRegistrationDate(ResultSetUtil.fecha(rs, "registration_date"));
+        dto.setDriverLicense(rs.getString("driver_license"));
+        dto.setDriverName(rs.getString("driver_name"));
+        dto.setDriverPhone(rs.getString("driver_phone"));
+        dto.setAcquisitionMedium(rs.getString("acquisition_medium"));
+        dto.setDriverId(rs.getString("driver_id"));
+        dto.setIsMatched(rs.getBoolean("is_matched"));
+        dto.setMatchScore(ResultSetUtil.decimal(rs, "match_score"));
+        return dto;
+    }
+    
+    /**
+     * Completa un lote de registros con el nombre del scout, el milestone alcanzado en los 7 días
+     * posteriores a la afiliación y el pago Yango correspondiente. Hace tres consultas por conjunto de ids
+     * para todo el lote; la elección del milestone y del pago se resuelve en memoria.
+     */
+    private void completarControlAfiliaciones(List<ScoutAffiliationControlDTO> registros) {
+        if (registros.isEmpty()) {
+            return;
         }
         
-        // Filtro por pago Yango
-        if (filters.getHasYangoPayment() != null) {
-            if (filters.getHasYangoPayment()) {
-                sql.append("AND EXISTS (");
-                sql.append("  SELECT 1 FROM yango_transactions yt2 ");
-                sql.append("  WHERE yt2.scout_id = sr.scout_id ");
-                sql.append("  AND yt2.driver_id = sr.driver_id ");
-                sql.append("  AND yt2.is_matched = true ");
-                sql.append("  AND yt2.milestone_type = (");
-                sql.append("    SELECT mi3.milestone_type FROM milestone_instances mi3 ");
-                sql.append("    WHERE mi3.driver_id = sr.driver_id ");
-                sql.append("    AND mi3.period_days = 7 ");
-                sql.append("    AND mi3.fulfillment_date <= sr.registration_date + INTERVAL '7 days' ");
-                sql.append("    ORDER BY mi3.milestone_type DESC LIMIT 1");
-                sql.append("  ) ");
-                sql.append(") ");
-            } else {
-                sql.append("AND NOT EXISTS (");
-                sql.append("  SELECT 1 FROM yango_transactions yt2 ");
-                sql.append("  WHERE yt2.scout_id = sr.scout_id ");
-                sql.append("  AND yt2.driver_id = sr.driver_id ");
-                sql.append("  AND yt2.is_matched = true ");
-                sql.append(") ");
+        Set<String> scoutIds = new HashSet<>();
+        Set<String> driverIds = new HashSet<>();
+        for (ScoutAffiliationControlDTO dto : registros) {
+            scoutIds.add(dto.getScoutId());
+            if (dto.getDriverId() != null && Boolean.TRUE.equals(dto.getIsMatched())) {
+                driverIds.add(dto.getDriverId());
             }
         }
         
-        // Filtro por rango de montos
-        if (filters.getAmountMin() != null || filters.getAmountMax() != null) {
-            sql.append("AND EXISTS (");
-            sql.append("  SELECT 1 FROM yango_transactions yt3 ");
-            sql.append("  WHERE yt3.scout_id = sr.scout_id ");
-            sql.append("  AND yt3.driver_id = sr.driver_id ");
-            sql.append("  AND yt3.is_matched = true ");
-            if (filters.getAmountMin() != null) {
-                sql.append("  AND yt3.amount_yango >= ? ");
-                params.add(filters.getAmountMin());
-            }
-            if (filters.getAmountMax() != null) {
-                sql.append("  AND yt3.amount_yango <= ? ");
-                params.add(filters.getAmountMax());
+        Map<String, String> nombresScouts = new HashMap<>();
+        idArrayQueryExecutor.query("SELECT scout_id, scout_name FROM scouts WHERE scout_id = ANY(?)", scoutIds,
+            rs -> {
+                nombresScouts.put(rs.getString("scout_id"), rs.getString("scout_name"));
+            }, IdArrayQueryExecutor.IDS);
+        
+        Map<String, List<MilestoneInstance>> milestonesPorDriver = new HashMap<>();
+        idArrayQueryExecutor.query(
+            "SELECT driver_id, milestone_type, trip_count, fulfillment_date FROM milestone_instances " +
+            "WHERE driver_id = ANY(?) AND period_days = 7", driverIds,
+            rs -> {
+                MilestoneInstance milestone = new MilestoneInstance();
+                milestone.setDriverId(rs.getString("driver_id"));
+                milestone.setMilestoneType(rs.getInt("milestone_type"));
+                milestone.setPeriodDays(7);
+                milestone.setTripCount(rs.getInt("trip_count"));
+                milestone.setFulfillmentDate(ResultSetUtil.fechaHora(rs, "fulfillment_date"));
+                milestonesPorDriver.computeIfAbsent(milestone.getDriverId(), k -> new ArrayList<>()).add(milestone);
+            }, IdArrayQueryExecutor.IDS);
+        
+        Map<Long, MilestoneInstance> milestonesPorRegistro = new HashMap<>();
+        Set<String> driversConMilestone = new HashSet<>();
+        for (ScoutAffiliationControlDTO dto : registros) {
+            if (dto.getDriverId() != null && Boolean.TRUE.equals(dto.getIsMatched())) {
+                MilestoneInstance milestone7d = obtenerMilestoneEn7Dias(
+                    milestonesPorDriver.getOrDefault(dto.getDriverId(), Collections.emptyList()), dto.getRegistrationDate());
+                if (milestone7d != null) {
+                    milestonesPorRegistro.put(dto.getRegistrationId(), milestone7d);
+                    driversConMilestone.add(dto.getDriverId());
+                }
             }
-            sql.append(") ");
         }
         
-        sql.append("ORDER BY sr.registration_date DESC, sr.id");
-        
-        logger.debug("Query SQL: {}", sql.toString());
-        logger.debug("Parámetros: {}", params);
-        
-        // Ejecutar query y mapear resultados
-        List<Map<String, Object>> rows = jdbcTemplate.queryForList(sql.toString(), params.toArray());
-        
-        List<ScoutAffiliationControlDTO> resultado = new ArrayList<>();
-        
-        for (Map<String, Object> row : rows) {
-            Long id = ((Number) row.get("id")).longValue();
-            ScoutRegistration registro = registrationRepository.findById(id).orElse(null);
-            
-            if (registro == null) {
-                continue;
-            }
-            
-            ScoutAffiliationControlDTO dto = new ScoutAffiliationControlDTO();
-            dto.setRegistrationId(registro.getId());
-            dto.setScoutId(registro.getScoutId());
-            
-            Optional<Scout> scout = scoutRepository.findById(registro.getScoutId());
-            if (scout.isPresent()) {
-                dto.setScoutName(scout.get().getScoutName());
-            }
-            
-            dto.setRegistrationDate(registro.getRegistrationDate());
-            dto.setDriverLicense(registro.getDriverLicense());
-            dto.setDriverName(registro.getDriverName());
-            dto.setDriverPhone(registro.getDriverPhone());
-            dto.setAcquisitionMedium(registro.getAcquisitionMedium());
-            dto.setDriverId(registro.getDriverId());
-            dto.setIsMatched(registro.getIsMatched());
-            dto.setMatchScore(registro.getMatchScore());
+        // Primer pago conciliado por (scout, driver, milestone); por id para que la elección sea estable
+        Map<String, YangoTransaction> pagosPorClave = new HashMap<>();
+        idArrayQueryExecutor.query(
+            "SELECT id, scout_id, driver_id, milestone_type, amount_yango, transaction_date FROM yango_transactions " +
+            "WHERE driver_id = ANY(?) AND is_matched = true ORDER BY id", driversConMilestone,
+            rs -> {
+                YangoTransaction transaccion = new YangoTransaction();
+                transaccion.setId(rs.getLong("id"));
+                transaccion.setScoutId(rs.getString("scout_id"));
+                transaccion.setDriverId(rs.getString("driver_id"));
+                transaccion.setMilestoneType(ResultSetUtil.entero(rs, "milestone_type"));
+                transaccion.setAmountYango(rs.getBigDecimal("amount_yango"));
+                transaccion.setTransactionDate(ResultSetUtil.fechaHora(rs, "transaction_date"));
+                pagosPorClave.putIfAbsent(clavePagoYango(transaccion.getScoutId(), transaccion.getDriverId(), transaccion.getMilestoneType()), transaccion);
+            }, IdArrayQueryExecutor.IDS);
+        
+        for (ScoutAffiliationControlDTO dto : registros) {
+            dto.setScoutName(nombresScouts.get(dto.getScoutId()));
             
-            if (registro.getDriverId() != null && registro.getIsMatched()) {
-                MilestoneInstance milestone7d = obtenerMilestoneEn7Dias(registro.getDriverId(), registro.getRegistrationDate());
-                if (milestone7d != null) {
-                    dto.setMilestoneType7d(milestone7d.getMilestoneType());
-                    dto.setTripCount7d(milestone7d.getTripCount());
-                    dto.setMilestoneFulfillmentDate7d(milestone7d.getFulfillmentDate());
-                    
-                    YangoTransaction transaccion = verificarPagoYango(registro.getScoutId(), registro.getDriverId(), milestone7d.getMilestoneType());
-                    if (transaccion != null) {
-                        dto.setHasYangoPayment(true);
-                        dto.setYangoPaymentAmount(transaccion.getAmountYango());
-                        dto.setYangoPaymentDate(transaccion.getTransactionDate());
-                        dto.setYangoTransactionId(transaccion.getId());
-                    } else {
-                        dto.setHasYangoPayment(false);
-                    }
+            MilestoneInstance milestone7d = milestonesPorRegistro.get(dto.getRegistrationId());
+            if (milestone7d != null) {
+                dto.setMilestoneType7d(milestone7d.getMilestoneType());
+                dto.setTripCount7d(milestone7d.getTripCount());
+                dto.setMilestoneFulfillmentDate7d(milestone7d.getFulfillmentDate());
+                
+                YangoTransaction transaccion = pagosPorClave.get(clavePagoYango(dto.getScoutId(), dto.getDriverId(), milestone7d.getMilestoneType()));
+                if (transaccion != null) {
+                    dto.setHasYangoPayment(true);
+                    dto.setYangoPaymentAmount(transaccion.getAmountYango());
+                    dto.setYangoPaymentDate(transaccion.getTransactionDate());
+                    dto.setYangoTransactionId(transaccion.getId());
+                } else {
+                    dto.setHasYangoPayment(false);
                 }
             }
-            
-            resultado.add(dto);
         }
-        
-        return resultado;
     }
     
-    public long contarRegistrosConFiltros(ScoutAffiliationControlFiltersDTO filters) {
+    private static String clavePagoYango(String scoutId, String driverId, Integer milestoneType) {
+        return scoutId + "|" + driverId + "|" + milestoneType;
+    }
+    
+    /**
+     * Consulta de registros del control de afiliaciones. Todos los filtros son sobre sr o subconsultas
+     * EXISTS, así que no hace falta JOIN ni DISTINCT y la consulta puede devolver filas por cursor.
+     * El orden termina en sr.id para que las páginas con LIMIT/OFFSET sean estables.
+     */
+    private String construirConsultaControlAfiliaciones(ScoutAffiliationControlFiltersDTO filters, List<Object> params) {
+        return "SELECT sr.* " + construirFiltrosControlAfiliaciones(filters, params) + "ORDER BY sr.registration_date DESC, sr.id";
+    }
+    
+    /**
+     * FROM y WHERE compartidos por la consulta de registros y el conteo del control de afiliaciones.
+     */
+    private String construirFiltrosControlAfiliaciones(ScoutAffiliationControlFiltersDTO filters, List<Object> params) {
         // Convertir semana ISO a fechas si está presente
         LocalDate fechaInicio = filters.getFechaInicio();
         LocalDate fechaFin = filters.getFechaFin();
@@ -962,22 +905,18 @@ public class ScoutRegistrationService {
             }
         }
         
-        // Construir query SQL dinámica para COUNT
+        // Construir query SQL dinámica
         StringBuilder sql = new StringBuilder();
-        sql.append("SELECT COUNT(DISTINCT sr.id) ");
         sql.append("FROM scout_registrations sr ");
-        sql.append("LEFT JOIN milestone_instances mi ON sr.driver_id = mi.driver_id AND mi.period_days = 7 ");
-        sql.append("LEFT JOIN yango_transactions yt ON sr.scout_id = yt.scout_id AND sr.driver_id = yt.driver_id AND mi.milestone_type = yt.milestone_type AND yt.is_matched = true ");
         sql.append("WHERE 1=1 ");
         
-        List<Object> params = new ArrayList<>();
-        
-        // Aplicar los mismos filtros que en obtenerControlAfiliaciones
+        // Filtro por scout
         if (filters.getScoutId() != null && !filters.getScoutId().isEmpty()) {
             sql.append("AND sr.scout_id = ? ");
             params.add(filters.getScoutId());
         }
         
+        // Filtro por fechas
         if (fechaInicio != null) {
             sql.append("AND sr.registration_date >= ? ");
             params.add(fechaInicio);
@@ -987,26 +926,31 @@ public class ScoutRegistrationService {
             params.add(fechaFin);
         }
         
+        // Filtro por match status
         if (filters.getIsMatched() != null) {
             sql.append("AND sr.is_matched = ? ");
             params.add(filters.getIsMatched());
         }
         
+        // Filtro por medio de adquisición
         if (filters.getAcquisitionMedium() != null && !filters.getAcquisitionMedium().isEmpty()) {
             sql.append("AND sr.acquisition_medium = ? ");
             params.add(filters.getAcquisitionMedium());
         }
         
+        // Búsqueda por nombre
         if (filters.getDriverName() != null && !filters.getDriverName().isEmpty()) {
             sql.append("AND LOWER(sr.driver_name) LIKE ? ");
             params.add("%" + filters.getDriverName().toLowerCase() + "%");
         }
         
+        // Búsqueda por teléfono
         if (filters.getDriverPhone() != null && !filters.getDriverPhone().isEmpty()) {
             sql.append("AND sr.driver_phone LIKE ? ");
             params.add("%" + filters.getDriverPhone() + "%");
         }
         
+        // Filtro por milestone type (requiere subquery o JOIN adicional)
         if (filters.getMilestoneType() != null) {
             sql.append("AND EXISTS (");
             sql.append("  SELECT 1 FROM milestone_instances mi2 ");
@@ -1018,6 +962,7 @@ public class ScoutRegistrationService {
             params.add(filters.getMilestoneType());
         }
         
+        // Filtro por pago Yango
         if (filters.getHasYangoPayment() != null) {
             if (filters.getHasYangoPayment()) {
                 sql.append("AND EXISTS (");
@@ -1043,6 +988,7 @@ public class ScoutRegistrationService {
             }
         }
         
+        // Filtro por rango de montos
         if (filters.getAmountMin() != null || filters.getAmountMax() != null) {
             sql.append("AND EXISTS (");
             sql.append("  SELECT 1 FROM yango_transactions yt3 ");
@@ -1060,13 +1006,22 @@ public class ScoutRegistrationService {
             sql.append(") ");
         }
         
-        Long count = jdbcTemplate.queryForObject(sql.toString(), params.toArray(), Long.class);
-        return count != null ? count : 0L;
+        return sql.toString();
     }
     
-    private MilestoneInstance obtenerMilestoneEn7Dias(String driverId, LocalDate fechaAfiliacion) {
-        List<MilestoneInstance> milestones = milestoneInstanceRepository.findByDriverIdAndPeriodDays(driverId, 7);
+    public long contarRegistrosConFiltros(ScoutAffiliationControlFiltersDTO filters) {
+        List<Object> params = new ArrayList<>();
+        String sql = "SELECT COUNT(*) " + construirFiltrosControlAfiliaciones(filters, params);
         
+        Long count = jdbcTemplate.queryForObject(sql, Long.class, params.toArray());
+        return count != null ? count : 0L;
+    }
+    
+    /**
+     * @param milestones milestones de 7 días del driver
+     * @return el de mayor tipo cumplido hasta 7 días después de la afiliación, o null
+     */
+    private MilestoneInstance obtenerMilestoneEn7Dias(List<MilestoneInstance> milestones, LocalDate fechaAfiliacion) {
         if (milestones.isEmpty()) {
             return null;
         }
@@ -1089,17 +1044,6 @@ public class ScoutRegistrationService {
         return mejorMilestone;
     }
     
-    private YangoTransaction verificarPagoYango(String scoutId, String driverId, Integer milestoneType) {
-        List<YangoTransaction> transacciones = yangoTransactionRepository.findByScoutId(scoutId);
-        
-        return transacciones.stream()
-            .filter(t -> driverId.equals(t.getDriverId()))
-            .filter(t -> Objects.equals(milestoneType, t.getMilestoneType()))
-            .filter(YangoTransaction::getIsMatched)
-            .findFirst()
-            .orElse(null);
-    }
-    
     private ScoutRegistrationDTO convertirADTO(ScoutRegistration registro) {
         ScoutRegistrationDTO dto = new ScoutRegistrationDTO();
         dto.setId(registro.getId());
@@ -5,6 +5,7 @@ import com.yego.contractortracker.dto.ScoutProfileUpdateDTO;
 import com.yego.contractortracker.entity.Scout;
 import com.yego.contractortracker.repository.ScoutRepository;
 import com.yego.contractortracker.repository.ScoutRegistrationRepository;
+import com.yego.contractortracker.util.SimilitudUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -42,7 +43,7 @@ public class ScoutService {
     }
     
     public Optional<Scout> obtenerScoutPorNombre(String nombre) {
-        String normalizedName = normalizarNombre(nombre);
+        String normalizedName = SimilitudUtil.normalizarNombre(nombre);
         return scoutRepository.findByScoutName(normalizedName);
     }
     
@@ -52,7 +53,7 @@ public class ScoutService {
             throw new IllegalArgumentException("El nombre del scout es requerido");
         }
         
-        String normalizedName = normalizarNombre(nombre);
+        String normalizedName = SimilitudUtil.normalizarNombre(nombre);
         
         if (normalizedName == null || normalizedName.trim().isEmpty()) {
             throw new IllegalArgumentException("El nombre del scout no puede estar vacío después de normalizar");
@@ -79,7 +80,7 @@ public class ScoutService {
                 .orElseThrow(() -> new RuntimeException("Scout no encontrado: " + scoutId));
         
         if (nombre != null && !nombre.isEmpty()) {
-            scout.setScoutName(normalizarNombre(nombre));
+            scout.setScoutName(SimilitudUtil.normalizarNombre(nombre));
         }
         if (driverId != null) {
             scout.setDriverId(driverId);
@@ -106,17 +107,6 @@ public class ScoutService {
         return jdbcTemplate.queryForList(sql, scoutId);
     }
     
-    private String normalizarNombre(String name) {
-        if (name == null) {
-            return null;
-        }
-        return name.toLowerCase()
-                .replace("á", "a").replace("é", "e").replace("í", "i")
-                .replace("ó", "o").replace("ú", "u").replace("ñ", "n")
-                .replaceAll("\\s+", " ")
-                .trim();
-    }
-    
     public ScoutProfileDTO obtenerPerfilCompleto(String scoutId) {
         Scout scout = scoutRepository.findById(scoutId)
                 .orElseThrow(() -> new RuntimeException("Scout no encontrado: " + scoutId));
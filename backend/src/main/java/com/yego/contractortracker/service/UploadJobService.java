@@ -0,0 +1,237 @@
+package com.yego.contractortracker.service;
+
+import com.yego.contractortracker.util.ArchivoSpooleado;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+import java.util.stream.Collectors;
+
+/**
+ * Procesamiento asíncrono de cargas CSV. El archivo se copia a disco local dentro de la petición,
+ * se devuelve un jobId de inmediato y el procesamiento corre en un pool propio acotado
+ * (uploads.async.threads hilos, uploads.async.queue-capacity en cola). El avance y la cancelación
+ * pasan por MilestoneProgressService; el resultado queda disponible uploads.async.result-ttl-minutes.
+ */
+@Service
+public class UploadJobService {
+    
+    private static final Logger logger = LoggerFactory.getLogger(UploadJobService.class);
+    
+    @Autowired
+    private MilestoneProgressService progressService;
+    
+    @Value("${uploads.async.threads:2}")
+    private int hilos;
+    
+    @Value("${uploads.async.queue-capacity:10}")
+    private int capacidadCola;
+    
+    @Value("${uploads.async.spool-dir:${java.io.tmpdir}/contractor-tracker-uploads}")
+    private String spoolDir;
+    
+    @Value("${uploads.async.result-ttl-minutes:120}")
+    private long resultTtlMinutes;
+    
+    private ThreadPoolExecutor executor;
+    private Path directorioSpool;
+    private final Map<String, TrabajoCarga> trabajos = new ConcurrentHashMap<>();
+    
+    private static class TrabajoCarga {
+        private final String jobId;
+        private final String tipo;
+        private final String nombreArchivo;
+        private final Path ruta;
+        private final long tamanoBytes;
+        private final LocalDateTime creado = LocalDateTime.now();
+        private volatile Future<?> future;
+        private volatile Object resultado;
+        private volatile LocalDateTime finalizado;
+        
+        TrabajoCarga(String jobId, String tipo, String nombreArchivo, Path ruta, long tamanoBytes) {
+            this.jobId = jobId;
+            this.tipo = tipo;
+            this.nombreArchivo = nombreArchivo;
+            this.ruta = ruta;
+            this.tamanoBytes = tamanoBytes;
+        }
+    }
+    
+    @PostConstruct
+    public void inicializar() throws IOException {
+        directorioSpool = Paths.get(spoolDir);
+        Files.createDirectories(directorioSpool);
+        
+        // Archivos de una ejecución anterior: sus jobs quedan marcados como interrumpidos en el registro
+        try (DirectoryStream<Path> restos = Files.newDirectoryStream(directorioSpool, "*.csv")) {
+            for (Path resto : restos) {
+                Files.deleteIfExists(resto);
+            }
+        }
+        
+        AtomicInteger contador = new AtomicInteger();
+        executor = new ThreadPoolExecutor(hilos, hilos, 60L, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(capacidadCola),
+            r -> {
+                Thread hilo = new Thread(r, "upload-" + contador.incrementAndGet());
+                hilo.setDaemon(true);
+                return hilo;
+            },
+            new ThreadPoolExecutor.AbortPolicy());
+        logger.info("Pool de cargas asíncronas inicializado con {} hilos, cola de {} y spool en {}", hilos, capacidadCola, directorioSpool);
+    }
+    
+    @PreDestroy
+    public void cerrar() {
+        executor.shutdownNow();
+    }
+    
+    /**
+     * Copia el archivo al spool local y encola su procesamiento.
+     *
+     * @param procesador recibe la copia local y el jobId, y devuelve el resultado de la carga
+     * @return jobId para consultar avance, resultado o cancelar
+     * @throws RejectedExecutionException si la cola de cargas está llena
+     */
+    public String encolar(String tipo, MultipartFile file, BiFunction<MultipartFile, String, Object> procesador) throws IOException {
+        String jobId = "upload-" + tipo + "-" + System.currentTimeMillis() + "-" + UUID.randomUUID().toString().substring(0, 8);
+        Path ruta = Files.createTempFile(directorioSpool, tipo + "-", ".csv");
+        file.transferTo(ruta);
+        
+        ArchivoSpooleado archivo = new ArchivoSpooleado(ruta, file.getOriginalFilename(), file.getContentType());
+        TrabajoCarga trabajo = new TrabajoCarga(jobId, tipo, file.getOriginalFilename(), ruta, archivo.getSize());
+        progressService.reservarJob(jobId, tipo, null);
+        trabajos.put(jobId, trabajo);
+        
+        try {
+            trabajo.future = executor.submit(() -> ejecutar(trabajo, archivo, procesador));
+        } catch (RejectedExecutionException e) {
+            trabajos.remove(jobId);
+            progressService.failProgress(jobId, "Cola de cargas llena");
+            borrar(ruta);
+            throw e;
+        }
+        
+        logger.info("Carga {} encolada - jobId: {}, archivo: {} ({} bytes), en cola: {}",
+            tipo, jobId, trabajo.nombreArchivo, trabajo.tamanoBytes, executor.getQueue().size());
+        return jobId;
+    }
+    
+    private void ejecutar(TrabajoCarga trabajo, ArchivoSpooleado archivo, BiFunction<MultipartFile, String, Object> procesador) {
+        String jobId = trabajo.jobId;
+        try {
+            if (progressService.isCancelacionSolicitada(jobId)) {
+                progressService.cancelProgress(jobId);
+                return;
+            }
+            
+            progressService.startProgress(jobId, trabajo.tipo, 0);
+            Object resultado = procesador.apply(archivo, jobId);
+            trabajo.resultado = resultado;
+            progressService.completeProgress(jobId);
+            logger.info("Carga {} completada - jobId: {}", trabajo.tipo, jobId);
+        
+        } catch (Exception e) {
+            // Los servicios envuelven la CancellationException del punto de control en su propia excepción
+            if (progressService.isCancelacionSolicitada(jobId)) {
+                logger.info("Carga {} cancelada - jobId: {}", trabajo.tipo, jobId);
+                progressService.cancelProgress(jobId);
+            } else {
+                logger.error("Error en carga {} - jobId: {}", trabajo.tipo, jobId, e);
+                progressService.failProgress(jobId, e.getMessage());
+            }
+        } finally {
+            trabajo.finalizado = LocalDateTime.now();
+            borrar(archivo.getRuta());
+        }
+    }
+    
+    /**
+     * Pide cancelar la carga. Si aún está en cola no llega a ejecutarse; si está en curso se detiene
+     * en el siguiente punto de control del servicio (lo ya confirmado en bloques anteriores se conserva).
+     *
+     * @return false si el job no existe o ya terminó
+     */
+    public boolean cancelar(String jobId) {
+        TrabajoCarga trabajo = trabajos.get(jobId);
+        if (trabajo == null || !progressService.solicitarCancelacion(jobId)) {
+            return false;
+        }
+        
+        if (trabajo.future != null && trabajo.future.cancel(false)) {
+            // Nunca empezó: ejecutar() no va a correr, así que se cierra aquí
+            progressService.cancelProgress(jobId);
+            trabajo.finalizado = LocalDateTime.now();
+            borrar(trabajo.ruta);
+            logger.info("Carga {} cancelada antes de iniciar - jobId: {}", trabajo.tipo, jobId);
+        }
+        return true;
+    }
+    
+    public Map<String, Object> obtenerEstado(String jobId) {
+        TrabajoCarga trabajo = trabajos.get(jobId);
+        MilestoneProgressService.ProgressInfo progreso = progressService.getProgress(jobId);
+        if (trabajo == null && progreso == null) {
+            return null;
+        }
+        
+        Map<String, Object> estado = new LinkedHashMap<>();
+        estado.put("jobId", jobId);
+        if (trabajo != null) {
+            estado.put("tipo", trabajo.tipo);
+            estado.put("archivo", trabajo.nombreArchivo);
+            estado.put("tamanoBytes", trabajo.tamanoBytes);
+            estado.put("creado", trabajo.creado);
+            estado.put("finalizado", trabajo.finalizado);
+            estado.put("resultadoDisponible", trabajo.resultado != null);
+        }
+        estado.put("progreso", progreso);
+        return estado;
+    }
+    
+    /**
+     * Resultado de una carga terminada con éxito, o vacío si no existe, no terminó o ya expiró.
+     */
+    public Optional<Object> obtenerResultado(String jobId) {
+        TrabajoCarga trabajo = trabajos.get(jobId);
+        return trabajo != null ? Optional.ofNullable(trabajo.resultado) : Optional.empty();
+    }
+    
+    public List<Map<String, Object>> listarCargas() {
+        return trabajos.values().stream()
+            .sorted(Comparator.comparing((TrabajoCarga t) -> t.creado).reversed())
+            .map(t -> obtenerEstado(t.jobId))
+            .filter(Objects::nonNull)
+            .collect(Collectors.toList());
+    }
+    
+    @Scheduled(fixedDelayString = "${uploads.async.cleanup-interval-ms:300000}")
+    public void purgarResultados() {
+        LocalDateTime limite = LocalDateTime.now().minusMinutes(resultTtlMinutes);
+        trabajos.values().removeIf(t -> t.finalizado != null && t.finalizado.isBefore(limite));
+    }
+    
+    private void borrar(Path ruta) {
+        try {
+            Files.deleteIfExists(ruta);
+        } catch (IOException e) {
+            logger.warn("No se pudo borrar el archivo temporal {}: {}", ruta, e.getMessage());
+        }
+    }
+}
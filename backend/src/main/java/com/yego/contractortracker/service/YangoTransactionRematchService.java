@@ -3,17 +3,26 @@ package com.yego.contractortracker.service;
 import com.yego.contractortracker.entity.MilestoneInstance;
 import com.yego.contractortracker.entity.YangoTransaction;
 import com.yego.contractortracker.repository.MilestoneInstanceRepository;
+import com.yego.contractortracker.repository.SyncWatermarkRepository;
 import com.yego.contractortracker.repository.YangoTransactionRepository;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.math.BigDecimal;
+import java.sql.Timestamp;
 import java.time.LocalDate;
+import java.time.LocalDateTime;
 import java.util.*;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.stream.Collectors;
 
 @Service
@@ -21,6 +30,7 @@ public class YangoTransactionRematchService {
     
     private static final Logger logger = LoggerFactory.getLogger(YangoTransactionRematchService.class);
     private static final int BATCH_SIZE = 100;
+    private static final String SYNC_NAME = "yango_rematch";
     
     @Autowired
     private YangoTransactionRepository transactionRepository;
@@ -31,33 +41,119 @@ public class YangoTransactionRematchService {
     @Autowired
     private MilestoneProgressService progressService;
     
-    @Async
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+    
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    
+    @Autowired
+    private SyncWatermarkRepository syncWatermarkRepository;
+    
+    @Autowired
+    @Qualifier("taskExecutor")
+    private Executor taskExecutor;
+    
+    // Margen que se resta a la marca de agua para no perder instancias escritas en transacciones
+    // que aún no habían hecho commit cuando arrancó la corrida
+    @Value("${yango.rematch.watermark-overlap-seconds:300}")
+    private long watermarkOverlapSeconds;
+    
+    private final Object lockCorrida = new Object();
+    private final List<String> jobsPendientes = new ArrayList<>();
+    private boolean corridaEnEjecucion = false;
+    private boolean pendienteCompleto = false;
+    
+    /**
+     * Re-matchea todas las transacciones. Se usa desde el endpoint manual; si ya hay una corrida
+     * en curso, la solicitud se agrupa con las demás pendientes en una sola corrida posterior.
+     */
     public void rematchAllTransactionsAsync(String jobId) {
-        logger.info("Iniciando re-matching de todas las transacciones Yango. JobId: {}", jobId);
+        solicitarRematch(jobId, true);
+    }
+    
+    /**
+     * Re-matchea solo las transacciones de drivers cuyas instancias de milestone se crearon o
+     * cambiaron desde la última corrida, más las que apuntan a instancias que ya no existen.
+     * La marca de agua se guarda en sync_watermarks; si no existe todavía, hace una corrida completa.
+     */
+    public void rematchChangedTransactionsAsync(String jobId) {
+        solicitarRematch(jobId, false);
+    }
+    
+    private void solicitarRematch(String jobId, boolean completo) {
+        synchronized (lockCorrida) {
+            jobsPendientes.add(jobId);
+            pendienteCompleto |= completo;
+            if (corridaEnEjecucion) {
+                logger.info("Re-matching Yango ya en curso, solicitud {} agrupada en la siguiente corrida ({} pendientes)", 
+                    jobId, jobsPendientes.size());
+                return;
+            }
+            corridaEnEjecucion = true;
+        }
         
         try {
-            // Obtener todas las transacciones
-            List<YangoTransaction> allTransactions = transactionRepository.findAll();
-            int totalTransactions = allTransactions.size();
+            taskExecutor.execute(this::ejecutarPendientes);
+        } catch (RejectedExecutionException e) {
+            List<String> rechazados;
+            synchronized (lockCorrida) {
+                rechazados = new ArrayList<>(jobsPendientes);
+                jobsPendientes.clear();
+                pendienteCompleto = false;
+                corridaEnEjecucion = false;
+            }
+            logger.error("No se pudo encolar el re-matching de transacciones Yango: {}", e.getMessage());
+            for (String rechazado : rechazados) {
+                progressService.failProgress(rechazado, "Executor saturado: " + e.getMessage());
+            }
+        }
+    }
+    
+    private void ejecutarPendientes() {
+        while (true) {
+            List<String> jobIds;
+            boolean completo;
+            synchronized (lockCorrida) {
+                if (jobsPendientes.isEmpty()) {
+                    corridaEnEjecucion = false;
+                    return;
+                }
+                jobIds = new ArrayList<>(jobsPendientes);
+                jobsPendientes.clear();
+                completo = pendienteCompleto;
+                pendienteCompleto = false;
+            }
+            ejecutarRematch(jobIds, completo);
+        }
+    }
+    
+    private void ejecutarRematch(List<String> jobIds, boolean completo) {
+        LocalDateTime inicio = LocalDateTime.now();
+        LocalDateTime desde = completo ? null : syncWatermarkRepository.obtener(SYNC_NAME);
+        logger.info("Iniciando re-matching {} de transacciones Yango. JobIds: {}", 
+            desde == null ? "completo" : "incremental desde " + desde, jobIds);
+        
+        try {
+            List<Long> transactionIds = desde == null ? obtenerIdsTodas() : obtenerIdsConCambios(desde);
+            int totalTransactions = transactionIds.size();
+            
+            for (String jobId : jobIds) {
+                progressService.startProgress(jobId, "yango-rematch", totalTransactions);
+            }
             
             if (totalTransactions == 0) {
                 logger.info("No hay transacciones para re-matchear");
-                progressService.startProgress(jobId, "yango-rematch", 0);
-                progressService.completeProgress(jobId);
-                return;
             }
             
-            // Iniciar progreso
-            progressService.startProgress(jobId, "yango-rematch", totalTransactions);
-            
             // Procesar en batches
             int processedCount = 0;
             int matchedCount = 0;
             int unmatchedCount = 0;
             
-            for (int i = 0; i < allTransactions.size(); i += BATCH_SIZE) {
-                int endIndex = Math.min(i + BATCH_SIZE, allTransactions.size());
-                List<YangoTransaction> batch = allTransactions.subList(i, endIndex);
+            for (int i = 0; i < transactionIds.size(); i += BATCH_SIZE) {
+                int endIndex = Math.min(i + BATCH_SIZE, transactionIds.size());
+                List<YangoTransaction> batch = transactionRepository.findAllById(transactionIds.subList(i, endIndex));
                 
                 RematchResult result = rematchBatch(batch);
                 processedCount += result.processed;
@@ -65,24 +161,49 @@ public class YangoTransactionRematchService {
                 unmatchedCount += result.unmatched;
                 
                 // Actualizar progreso
-                progressService.updateProgress(jobId, processedCount, 0, 0, 0);
+                for (String jobId : jobIds) {
+                    progressService.updateProgress(jobId, processedCount, 0, 0, 0);
+                }
                 
                 logger.info("Procesado batch {}-{}: {} procesadas, {} matcheadas, {} sin match", 
                     i + 1, endIndex, result.processed, result.matched, result.unmatched);
             }
             
+            syncWatermarkRepository.guardar(SYNC_NAME, inicio.minusSeconds(watermarkOverlapSeconds), processedCount);
+            
             // Completar progreso
-            progressService.completeProgress(jobId);
+            for (String jobId : jobIds) {
+                progressService.completeProgress(jobId);
+            }
+            
+            if (totalTransactions > 0) {
+                eventPublisher.publishEvent(new DashboardCacheService.DatosActualizadosEvent("yango-rematch"));
+            }
             
             logger.info("Re-matching completado. Total: {}, Matcheadas: {}, Sin match: {}", 
                 processedCount, matchedCount, unmatchedCount);
             
         } catch (Exception e) {
             logger.error("Error durante re-matching de transacciones Yango", e);
-            progressService.failProgress(jobId, e.getMessage());
+            for (String jobId : jobIds) {
+                progressService.failProgress(jobId, e.getMessage());
+            }
         }
     }
     
+    private List<Long> obtenerIdsTodas() {
+        return jdbcTemplate.queryForList("SELECT id FROM yango_transactions ORDER BY id", Long.class);
+    }
+    
+    private List<Long> obtenerIdsConCambios(LocalDateTime desde) {
+        String sql = "SELECT t.id FROM yango_transactions t " +
+                     "WHERE t.driver_id IN (SELECT DISTINCT mi.driver_id FROM milestone_instances mi WHERE mi.last_updated > ?) " +
+                     "OR (t.milestone_instance_id IS NOT NULL " +
+                     "    AND NOT EXISTS (SELECT 1 FROM milestone_instances mi WHERE mi.id = t.milestone_instance_id)) " +
+                     "ORDER BY t.id";
+        return jdbcTemplate.queryForList(sql, Long.class, Timestamp.valueOf(desde));
+    }
+    
     @Async
     public void rematchTransactionsForDriversAsync(List<String> driverIds) {
         String jobId = "yango-rematch-drivers-" + System.currentTimeMillis();
@@ -91,9 +212,7 @@ public class YangoTransactionRematchService {
         
         try {
             // Obtener transacciones de los drivers especificados
-            List<YangoTransaction> transactions = transactionRepository.findAll().stream()
-                .filter(t -> t.getDriverId() != null && driverIds.contains(t.getDriverId()))
-                .collect(Collectors.toList());
+            List<YangoTransaction> transactions = transactionRepository.findByDriverIdIn(driverIds);
             int totalTransactions = transactions.size();
             
             if (totalTransactions == 0) {
@@ -130,6 +249,8 @@ public class YangoTransactionRematchService {
             // Completar progreso
             progressService.completeProgress(jobId);
             
+            eventPublisher.publishEvent(new DashboardCacheService.DatosActualizadosEvent("yango-rematch-drivers"));
+            
             logger.info("Re-matching completado para drivers. Total: {}, Matcheadas: {}, Sin match: {}", 
                 processedCount, matchedCount, unmatchedCount);
             
@@ -5,14 +5,22 @@ import com.yego.contractortracker.entity.MilestoneInstance;
 import com.yego.contractortracker.entity.Scout;
 import com.yego.contractortracker.entity.ScoutRegistration;
 import com.yego.contractortracker.entity.YangoTransaction;
+import com.yego.contractortracker.repository.IdArrayQueryExecutor;
 import com.yego.contractortracker.repository.MilestoneInstanceRepository;
 import com.yego.contractortracker.repository.ScoutRegistrationRepository;
 import com.yego.contractortracker.repository.ScoutRepository;
 import com.yego.contractortracker.repository.YangoTransactionRepository;
+import com.yego.contractortracker.util.ResultSetUtil;
+import com.yego.contractortracker.util.SimilitudUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.jdbc.core.ConnectionCallback;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.SqlTypeValue;
+import org.springframework.jdbc.core.StatementCreatorUtils;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.multipart.MultipartFile;
@@ -21,10 +29,13 @@ import java.io.BufferedReader;
 import java.io.InputStreamReader;
 import java.math.BigDecimal;
 import java.nio.charset.StandardCharsets;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 @Service
@@ -52,213 +63,396 @@ public class YangoTransactionService {
     @Autowired
     private YangoPaymentConfigService yangoPaymentConfigService;
     
-    @Transactional
+    @Autowired
+    private MilestoneProgressService progressService;
+    
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+    
+    @Autowired
+    private DriverDirectoryService driverDirectory;
+    
+    @Autowired
+    private IdArrayQueryExecutor idArrayQueryExecutor;
+    
+    @Value("${yango.matching.max-fuzzy-candidates:200}")
+    private int maxCandidatosFuzzy;
+    
+    @Value("${yango.csv.chunk-size:1000}")
+    private int csvChunkSize;
+    
     public Map<String, Object> procesarArchivoCSV(MultipartFile file) {
+        return procesarArchivoCSV(file, null);
+    }
+    
+    /**
+     * Procesa el CSV de transacciones Yango por bloques: cada bloque se deduplica contra la base con una
+     * sola consulta, se matchea contra el índice de drivers precargado y se inserta con un batch JDBC.
+     * Cada bloque se confirma por separado, así la memoria y la conexión usadas no dependen del tamaño del archivo.
+     * 
+     * @param jobId opcional; si se informa, el avance por bloque se publica en MilestoneProgressService
+     */
+    public Map<String, Object> procesarArchivoCSV(MultipartFile file, String jobId) {
         long startTime = System.currentTimeMillis();
         logger.info("Iniciando procesamiento de archivo CSV de transacciones Yango: {}", file.getOriginalFilename());
         
         try {
-            List<YangoTransaction> transacciones = leerCSV(file);
-            logger.info("Leídas {} transacciones del CSV", transacciones.size());
-            
-            if (transacciones.isEmpty()) {
+            // Primera pasada: solo fechas, para conocer el rango y precargar los drivers una única vez
+            ResumenArchivoCSV resumen = escanearCSV(file);
+            logger.info("Leídas {} transacciones con fecha válida en el CSV", resumen.filas);
+            
+            if (resumen.filas == 0) {
+                if (jobId != null) {
+                    progressService.startProgress(jobId, "yango-csv", 0);
+                    progressService.completeProgress(jobId);
+                }
                 return crearResultado(0, 0, 0, "No se encontraron transacciones en el archivo", null, null);
             }
             
-            // Filtrar duplicados
-            List<YangoTransaction> transaccionesSinDuplicados = new ArrayList<>();
-            int duplicadosEncontrados = 0;
-
-            for (YangoTransaction transaccion : transacciones) {
-                Optional<YangoTransaction> existente = transactionRepository.findByUniqueFields(
-                    transaccion.getTransactionDate(),
-                    transaccion.getScoutId(),
-                    transaccion.getComment(),
-                    transaccion.getMilestoneType()
-                );
+            LocalDate minDate = resumen.minDate;
+            LocalDate maxDate = resumen.maxDate;
+            logger.info("Rango de fechas de transacciones: {} a {}", minDate, maxDate);
+            
+            if (jobId != null) {
+                progressService.startProgress(jobId, "yango-csv", resumen.filas);
+            }
+            
+            // Drivers del directorio compartido (30 días de margen hacia atrás)
+            DriverDirectoryService.VistaDirectorio driverIndex = vistaDriversEnRango(minDate, maxDate);
+            logger.info("Disponibles {} drivers para matching", driverIndex.tamano());
+            
+            EstadoIngestaCSV estado = new EstadoIngestaCSV();
+            Map<String, Scout> scoutsPorNombre = new HashMap<>();
+            
+            leerCSVPorBloques(file, csvChunkSize, scoutsPorNombre, bloque -> {
+                // Punto de control de cancelación: los bloques anteriores ya quedaron confirmados
+                progressService.verificarCancelacion(jobId);
+                estado.bloques++;
+                estado.leidas += bloque.size();
+                procesarBloqueTransacciones(bloque, driverIndex, estado);
                 
-                if (existente.isEmpty()) {
-                    transaccionesSinDuplicados.add(transaccion);
-                } else {
-                    duplicadosEncontrados++;
-                    logger.debug("Transacción duplicada omitida: fecha={}, scout={}, comment={}", 
-                        transaccion.getTransactionDate(), transaccion.getScoutId(), 
-                        transaccion.getComment() != null ? transaccion.getComment().substring(0, Math.min(50, transaccion.getComment().length())) : "null");
+                if (jobId != null) {
+                    progressService.updateProgress(jobId, estado.leidas, 0, 0, 0);
                 }
-            }
-
-            logger.info("Transacciones del CSV: {}, Duplicados omitidos: {}, A procesar: {}", 
-                transacciones.size(), duplicadosEncontrados, transaccionesSinDuplicados.size());
-
-            transacciones = transaccionesSinDuplicados; // Usar la lista filtrada
+                logger.info("Bloque {} procesado: {}/{} filas leídas, {} duplicados, {} guardadas, {} matcheadas", 
+                    estado.bloques, estado.leidas, resumen.filas, estado.duplicados, estado.guardadas, estado.matched);
+            });
             
-            // Optimización: Calcular rango de fechas global
-            LocalDate minDate = transacciones.stream()
-                .map(t -> t.getTransactionDate().toLocalDate())
-                .min(LocalDate::compareTo)
-                .orElse(LocalDate.now().minusDays(DEFAULT_TIME_MARGIN_DAYS));
+            long elapsedTime = System.currentTimeMillis() - startTime;
+            int procesadas = estado.leidas - estado.duplicados;
+            logger.info("Procesamiento completado en {} ms. Matched: {}, Unmatched: {}, Guardadas: {}/{}, Duplicados omitidos: {}", 
+                elapsedTime, estado.matched, estado.unmatched, estado.guardadas, procesadas, estado.duplicados);
             
-            LocalDate maxDate = transacciones.stream()
-                .map(t -> t.getTransactionDate().toLocalDate())
-                .max(LocalDate::compareTo)
-                .orElse(LocalDate.now().plusDays(DEFAULT_TIME_MARGIN_DAYS));
+            if (!estado.errores.isEmpty()) {
+                logger.warn("Errores en {} bloques: {}", estado.errores.size(), estado.errores);
+            }
             
-            logger.info("Rango de fechas de transacciones: {} a {}", minDate, maxDate);
+            logger.info("Scout registrations desde Yango: {} creados, {} actualizados", 
+                estado.scoutRegistrationsCreados, estado.scoutRegistrationsActualizados);
             
-            // Cargar todos los drivers de una vez (usando 30 días de margen)
-            List<Map<String, Object>> allDrivers = buscarDriversEnRango(minDate, maxDate, 30);
-            logger.info("Cargados {} drivers para matching", allDrivers.size());
+            eventPublisher.publishEvent(new DashboardCacheService.DatosActualizadosEvent("yango-csv"));
             
-            // Crear índice en memoria por nombre normalizado
-            Map<String, List<Map<String, Object>>> driverIndex = crearIndiceDrivers(allDrivers);
-            logger.info("Índice de drivers creado con {} entradas", driverIndex.size());
+            if (jobId != null) {
+                progressService.completeProgress(jobId);
+            }
             
-            int matchedCount = 0;
-            int unmatchedCount = 0;
-            Set<String> driverIdsMatched = new HashSet<>();
+            return crearResultado(procesadas, estado.matched, estado.unmatched, 
+                String.format("Procesadas %d transacciones: %d matcheadas, %d sin match (tiempo: %d ms)", 
+                    procesadas, estado.matched, estado.unmatched, elapsedTime),
+                minDate, maxDate);
             
-            // Procesar matching de drivers
-            long matchingStartTime = System.currentTimeMillis();
-            int processedWithName = 0;
-            int processedWithoutName = 0;
+        } catch (Exception e) {
+            logger.error("Error al procesar archivo CSV", e);
+            if (jobId != null) {
+                progressService.failProgress(jobId, e.getMessage());
+            }
+            throw new RuntimeException("Error al procesar archivo CSV: " + e.getMessage(), e);
+        }
+    }
+    
+    private void procesarBloqueTransacciones(List<YangoTransaction> bloque, 
+                                             DriverDirectoryService.VistaDirectorio driverIndex,
+                                             EstadoIngestaCSV estado) {
+        List<YangoTransaction> transacciones = filtrarDuplicados(bloque);
+        estado.duplicados += bloque.size() - transacciones.size();
+        
+        if (transacciones.isEmpty()) {
+            return;
+        }
+        
+        Set<String> driverIdsMatched = new HashSet<>();
+        
+        for (YangoTransaction transaccion : transacciones) {
+            String driverName = transaccion.getDriverNameFromComment();
+            LocalDate transactionDate = transaccion.getTransactionDate().toLocalDate();
             
-            for (YangoTransaction transaccion : transacciones) {
-                String driverName = transaccion.getDriverNameFromComment();
-                LocalDate transactionDate = transaccion.getTransactionDate().toLocalDate();
+            if (driverName != null && !driverName.isEmpty()) {
+                Optional<Map<String, Object>> match = matchearConDriverOptimizado(driverName, transactionDate, driverIndex);
                 
-                if (driverName != null && !driverName.isEmpty()) {
-                    processedWithName++;
-                    Optional<Map<String, Object>> match = matchearConDriverOptimizado(driverName, transactionDate, driverIndex);
-                    
-                    if (match.isPresent()) {
-                        String driverId = (String) match.get().get("driver_id");
-                        transaccion.setDriverId(driverId);
-                        driverIdsMatched.add(driverId);
-                    } else {
-                        transaccion.setIsMatched(false);
-                        unmatchedCount++;
-                    }
+                if (match.isPresent()) {
+                    String driverId = (String) match.get().get("driver_id");
+                    transaccion.setDriverId(driverId);
+                    driverIdsMatched.add(driverId);
                 } else {
-                    processedWithoutName++;
                     transaccion.setIsMatched(false);
-                    unmatchedCount++;
+                    estado.unmatched++;
                 }
+            } else {
+                transaccion.setIsMatched(false);
+                estado.unmatched++;
             }
-            
-            long matchingElapsedTime = System.currentTimeMillis() - matchingStartTime;
-            logger.info("Matching de drivers completado en {} ms: {} matcheados, {} sin match ({} con nombre, {} sin nombre)", 
-                matchingElapsedTime, driverIdsMatched.size(), unmatchedCount, processedWithName, processedWithoutName);
-            
-            logger.info("Cargando milestones en batch para {} drivers únicos...", driverIdsMatched.size());
-            
-            // Cargar milestones en batch para todos los drivers matcheados
-            Map<String, List<MilestoneInstance>> milestonesByDriver = cargarMilestonesBatch(driverIdsMatched);
-            
-            // Procesar matching de milestones
-            long milestoneMatchingStartTime = System.currentTimeMillis();
-            int milestonesMatched = 0;
-            int milestonesUnmatched = 0;
-            
-            for (YangoTransaction transaccion : transacciones) {
-                if (transaccion.getDriverId() != null && !transaccion.getDriverId().isEmpty()) {
-                    List<MilestoneInstance> driverMilestones = milestonesByDriver.get(transaccion.getDriverId());
-                    if (driverMilestones != null && !driverMilestones.isEmpty()) {
-                        Optional<MilestoneInstance> milestone = matchearConMilestoneOptimizado(transaccion, driverMilestones);
-                        if (milestone.isPresent()) {
-                            transaccion.setMilestoneInstanceId(milestone.get().getId());
-                            transaccion.setIsMatched(true);
-                            transaccion.setMatchConfidence(new BigDecimal("0.9"));
-                            matchedCount++;
-                            milestonesMatched++;
-                        } else {
-                            transaccion.setIsMatched(false);
-                            unmatchedCount++;
-                            milestonesUnmatched++;
-                        }
-                    } else {
-                        transaccion.setIsMatched(false);
-                        unmatchedCount++;
-                        milestonesUnmatched++;
-                    }
+        }
+        
+        // Cargar milestones en batch para los drivers matcheados del bloque
+        Map<String, List<MilestoneInstance>> milestonesByDriver = cargarMilestonesBatch(driverIdsMatched);
+        
+        for (YangoTransaction transaccion : transacciones) {
+            if (transaccion.getDriverId() != null && !transaccion.getDriverId().isEmpty()) {
+                List<MilestoneInstance> driverMilestones = milestonesByDriver.get(transaccion.getDriverId());
+                Optional<MilestoneInstance> milestone = driverMilestones != null && !driverMilestones.isEmpty()
+                    ? matchearConMilestoneOptimizado(transaccion, driverMilestones)
+                    : Optional.empty();
+                if (milestone.isPresent()) {
+                    transaccion.setMilestoneInstanceId(milestone.get().getId());
+                    transaccion.setIsMatched(true);
+                    transaccion.setMatchConfidence(new BigDecimal("0.9"));
+                    estado.matched++;
+                } else {
+                    transaccion.setIsMatched(false);
+                    estado.unmatched++;
                 }
             }
-            
-            long milestoneMatchingElapsedTime = System.currentTimeMillis() - milestoneMatchingStartTime;
-            logger.info("Matching de milestones completado en {} ms: {} matcheados, {} sin match", 
-                milestoneMatchingElapsedTime, milestonesMatched, milestonesUnmatched);
-            
-            // Guardar en batches
-            int batchSize = 25;
-            int totalBatches = (transacciones.size() + batchSize - 1) / batchSize;
-            int savedCount = 0;
-            List<String> batchErrors = new ArrayList<>();
-            
-            for (int i = 0; i < transacciones.size(); i += batchSize) {
-                int end = Math.min(i + batchSize, transacciones.size());
-                List<YangoTransaction> batch = transacciones.subList(i, end);
+        }
+        
+        // amount_yango es NOT NULL: estas filas nunca podrían guardarse, no deben tumbar el bloque completo
+        List<YangoTransaction> aGuardar = new ArrayList<>();
+        for (YangoTransaction transaccion : transacciones) {
+            if (transaccion.getAmountYango() != null) {
+                aGuardar.add(transaccion);
+            } else {
+                logger.warn("Transacción sin monto Yango omitida: fecha={}, scout={}", 
+                    transaccion.getTransactionDate(), transaccion.getScoutId());
+            }
+        }
+        
+        try {
+            insertarTransaccionesBatch(aGuardar);
+            estado.guardadas += aGuardar.size();
+        } catch (Exception e) {
+            String errorMsg = String.format("Error al guardar bloque %d: %s", estado.bloques, e.getMessage());
+            logger.error(errorMsg, e);
+            estado.errores.add(errorMsg);
+            return;
+        }
+        
+        // Crear registros en scout_registrations desde transacciones Yango matcheadas
+        for (YangoTransaction transaccion : aGuardar) {
+            if (transaccion.getDriverId() != null && 
+                !transaccion.getDriverId().isEmpty() && 
+                transaccion.getScoutId() != null &&
+                transaccion.getIsMatched() != null &&
+                transaccion.getIsMatched()) {
                 
                 try {
-                    transactionRepository.saveAll(batch);
-                    savedCount += batch.size();
-                    logger.debug("Guardado batch {}/{}: {} transacciones ({} - {})", 
-                        (i / batchSize) + 1, totalBatches, batch.size(), i + 1, end);
+                    boolean fueActualizado = crearOActualizarScoutRegistrationDesdeYango(transaccion);
+                    if (fueActualizado) {
+                        estado.scoutRegistrationsActualizados++;
+                    } else {
+                        estado.scoutRegistrationsCreados++;
+                    }
                 } catch (Exception e) {
-                    String errorMsg = String.format("Error al guardar batch %d-%d: %s", i + 1, end, e.getMessage());
-                    logger.error(errorMsg, e);
-                    batchErrors.add(errorMsg);
-                    // Continuar con los demás batches
+                    logger.warn("Error al crear scout_registration desde transacción Yango {}: {}", 
+                        transaccion.getId(), e.getMessage());
                 }
             }
-            
-            long elapsedTime = System.currentTimeMillis() - startTime;
-            logger.info("Procesamiento completado en {} ms. Matched: {}, Unmatched: {}, Guardadas: {}/{}", 
-                elapsedTime, matchedCount, unmatchedCount, savedCount, transacciones.size());
-            
-            if (!batchErrors.isEmpty()) {
-                logger.warn("Errores en {} batches: {}", batchErrors.size(), batchErrors);
+        }
+    }
+    
+    /**
+     * Descarta las transacciones que ya existen en base (misma fecha, scout, comentario y milestone)
+     * con una sola consulta por bloque, y las repetidas dentro del propio bloque.
+     */
+    private List<YangoTransaction> filtrarDuplicados(List<YangoTransaction> bloque) {
+        // Igual que findByUniqueFields: comment o milestone_type nulos nunca se consideran duplicados
+        List<YangoTransaction> comparables = bloque.stream()
+            .filter(t -> t.getComment() != null && t.getMilestoneType() != null)
+            .collect(Collectors.toList());
+        
+        Set<String> clavesExistentes = new HashSet<>();
+        if (!comparables.isEmpty()) {
+            String valores = comparables.stream()
+                .map(t -> "(?::timestamp, ?, ?, ?::integer)")
+                .collect(Collectors.joining(","));
+            String sql = "SELECT t.transaction_date, t.scout_id, t.comment, t.milestone_type " +
+                         "FROM yango_transactions t " +
+                         "INNER JOIN (VALUES " + valores + ") v(transaction_date, scout_id, comment, milestone_type) " +
+                         "  ON t.transaction_date = v.transaction_date " +
+                         "  AND t.scout_id = v.scout_id " +
+                         "  AND t.comment = v.comment " +
+                         "  AND t.milestone_type = v.milestone_type";
+            
+            List<Object> params = new ArrayList<>();
+            for (YangoTransaction t : comparables) {
+                params.add(t.getTransactionDate());
+                params.add(t.getScoutId());
+                params.add(t.getComment());
+                params.add(t.getMilestoneType());
             }
             
-            // Crear registros en scout_registrations desde transacciones Yango matcheadas
-            int scoutRegistrationsCreated = 0;
-            int scoutRegistrationsUpdated = 0;
+            jdbcTemplate.query(sql, rs -> {
+                clavesExistentes.add(claveUnica(
+                    rs.getTimestamp("transaction_date").toLocalDateTime(),
+                    rs.getString("scout_id"),
+                    rs.getString("comment"),
+                    rs.getInt("milestone_type")));
+            }, params.toArray());
+        }
+        
+        List<YangoTransaction> sinDuplicados = new ArrayList<>();
+        Set<String> clavesBloque = new HashSet<>();
+        for (YangoTransaction transaccion : bloque) {
+            if (transaccion.getComment() == null || transaccion.getMilestoneType() == null) {
+                sinDuplicados.add(transaccion);
+                continue;
+            }
             
-            for (YangoTransaction transaccion : transacciones) {
-                if (transaccion.getDriverId() != null && 
-                    !transaccion.getDriverId().isEmpty() && 
-                    transaccion.getScoutId() != null &&
-                    transaccion.getIsMatched() != null &&
-                    transaccion.getIsMatched()) {
-                    
-                    try {
-                        boolean fueActualizado = crearOActualizarScoutRegistrationDesdeYango(transaccion);
-                        if (fueActualizado) {
-                            scoutRegistrationsUpdated++;
-                        } else {
-                            scoutRegistrationsCreated++;
-                        }
-                    } catch (Exception e) {
-                        logger.warn("Error al crear scout_registration desde transacción Yango {}: {}", 
-                            transaccion.getId(), e.getMessage());
+            String clave = claveUnica(transaccion.getTransactionDate(), transaccion.getScoutId(), 
+                transaccion.getComment(), transaccion.getMilestoneType());
+            if (!clavesExistentes.contains(clave) && clavesBloque.add(clave)) {
+                sinDuplicados.add(transaccion);
+            } else {
+                logger.debug("Transacción duplicada omitida: fecha={}, scout={}, comment={}", 
+                    transaccion.getTransactionDate(), transaccion.getScoutId(), 
+                    transaccion.getComment().substring(0, Math.min(50, transaccion.getComment().length())));
+            }
+        }
+        
+        return sinDuplicados;
+    }
+    
+    private String claveUnica(LocalDateTime transactionDate, String scoutId, String comment, Integer milestoneType) {
+        return transactionDate + "|" + scoutId + "|" + milestoneType + "|" + comment;
+    }
+    
+    private void insertarTransaccionesBatch(List<YangoTransaction> transacciones) {
+        if (transacciones.isEmpty()) {
+            return;
+        }
+        
+        String sql = "INSERT INTO yango_transactions (transaction_date, scout_id, driver_id, driver_name_from_comment, " +
+                     "milestone_type, amount_yango, amount_indicator, comment, category_id, category, document, " +
+                     "initiated_by, milestone_instance_id, match_confidence, is_matched, created_at, last_updated) " +
+                     "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+        
+        LocalDateTime ahora = LocalDateTime.now();
+        
+        jdbcTemplate.execute((ConnectionCallback<Void>) con -> {
+            try (PreparedStatement ps = con.prepareStatement(sql, new String[]{"id"})) {
+                for (YangoTransaction t : transacciones) {
+                    t.setCreatedAt(t.getCreatedAt() != null ? t.getCreatedAt() : ahora);
+                    t.setLastUpdated(ahora);
+                    Object[] valores = {
+                        t.getTransactionDate(), t.getScoutId(), t.getDriverId(), t.getDriverNameFromComment(),
+                        t.getMilestoneType(), t.getAmountYango(), t.getAmountIndicator(), t.getComment(),
+                        t.getCategoryId(), t.getCategory(), t.getDocument(), t.getInitiatedBy(),
+                        t.getMilestoneInstanceId(), t.getMatchConfidence(), 
+                        t.getIsMatched() != null ? t.getIsMatched() : false,
+                        t.getCreatedAt(), t.getLastUpdated()
+                    };
+                    for (int i = 0; i < valores.length; i++) {
+                        StatementCreatorUtils.setParameterValue(ps, i + 1, SqlTypeValue.TYPE_UNKNOWN, valores[i]);
+                    }
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+                
+                // Los ids se necesitan después para enlazar scout_registrations.yango_transaction_id
+                try (ResultSet keys = ps.getGeneratedKeys()) {
+                    int i = 0;
+                    while (keys.next() && i < transacciones.size()) {
+                        transacciones.get(i++).setId(keys.getLong(1));
                     }
                 }
             }
+            return null;
+        });
+    }
+    
+    private ResumenArchivoCSV escanearCSV(MultipartFile file) throws Exception {
+        ResumenArchivoCSV resumen = new ResumenArchivoCSV();
+        
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(file.getInputStream(), StandardCharsets.UTF_8))) {
             
-            logger.info("Scout registrations desde Yango: {} creados, {} actualizados", 
-                scoutRegistrationsCreated, scoutRegistrationsUpdated);
-            
-            return crearResultado(transacciones.size(), matchedCount, unmatchedCount, 
-                String.format("Procesadas %d transacciones: %d matcheadas, %d sin match (tiempo: %d ms)", 
-                    transacciones.size(), matchedCount, unmatchedCount, elapsedTime),
-                minDate, maxDate);
+            Map<String, Integer> headerMap = leerHeaderCSV(reader);
+            if (headerMap == null) {
+                return resumen;
+            }
             
-        } catch (Exception e) {
-            logger.error("Error al procesar archivo CSV", e);
-            throw new RuntimeException("Error al procesar archivo CSV: " + e.getMessage(), e);
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.trim().isEmpty()) {
+                    continue;
+                }
+                
+                String[] values = parseCSVLine(line, ';');
+                if (values.length < 3) {
+                    continue;
+                }
+                
+                String dateStr = getValue(values, headerMap, "Date");
+                if (dateStr == null || dateStr.isEmpty()) {
+                    continue;
+                }
+                
+                try {
+                    LocalDate fecha = LocalDateTime.parse(dateStr, DATE_FORMATTER).toLocalDate();
+                    resumen.filas++;
+                    if (resumen.minDate == null || fecha.isBefore(resumen.minDate)) {
+                        resumen.minDate = fecha;
+                    }
+                    if (resumen.maxDate == null || fecha.isAfter(resumen.maxDate)) {
+                        resumen.maxDate = fecha;
+                    }
+                } catch (Exception e) {
+                    // Se reporta en la lectura por bloques
+                }
+            }
+        }
+        
+        return resumen;
+    }
+    
+    private Map<String, Integer> leerHeaderCSV(BufferedReader reader) throws Exception {
+        String headerLine = reader.readLine();
+        
+        if (headerLine == null) {
+            logger.warn("El archivo CSV está vacío o no tiene header");
+            return null;
+        }
+        
+        headerLine = removerBOM(headerLine);
+        logger.debug("Header leído: {}", headerLine);
+        
+        String[] headers = parseCSVLine(headerLine, ';');
+        Map<String, Integer> headerMap = new HashMap<>();
+        for (int i = 0; i < headers.length; i++) {
+            String headerName = headers[i].trim();
+            headerMap.put(headerName, i);
+            logger.debug("Header [{}]: '{}'", i, headerName);
+        }
+        
+        if (headerMap.isEmpty()) {
+            logger.error("No se pudo procesar el header del CSV");
+            return null;
         }
+        
+        return headerMap;
     }
     
-    private List<YangoTransaction> leerCSV(MultipartFile file) throws Exception {
-        List<YangoTransaction> transacciones = new ArrayList<>();
+    private int leerCSVPorBloques(MultipartFile file, int tamanoBloque, Map<String, Scout> scoutsPorNombre,
+                                  Consumer<List<YangoTransaction>> procesarBloque) throws Exception {
+        List<YangoTransaction> bloque = new ArrayList<>(tamanoBloque);
         int lineNumber = 0;
         int skippedLines = 0;
         int processedLines = 0;
@@ -266,31 +460,14 @@ public class YangoTransactionService {
         try (BufferedReader reader = new BufferedReader(
                 new InputStreamReader(file.getInputStream(), StandardCharsets.UTF_8))) {
             
-            String headerLine = reader.readLine();
+            Map<String, Integer> headerMap = leerHeaderCSV(reader);
             lineNumber++;
             
-            if (headerLine == null) {
-                logger.warn("El archivo CSV está vacío o no tiene header");
-                return transacciones;
-            }
-            
-            headerLine = removerBOM(headerLine);
-            logger.debug("Header leído: {}", headerLine);
-            
-            String[] headers = parseCSVLine(headerLine, ';');
-            Map<String, Integer> headerMap = new HashMap<>();
-            for (int i = 0; i < headers.length; i++) {
-                String headerName = headers[i].trim();
-                headerMap.put(headerName, i);
-                logger.debug("Header [{}]: '{}'", i, headerName);
+            if (headerMap == null) {
+                return 0;
             }
             
-            logger.info("Header procesado con {} columnas: {}", headers.length, headerMap.keySet());
-            
-            if (headerMap.isEmpty()) {
-                logger.error("No se pudo procesar el header del CSV");
-                return transacciones;
-            }
+            logger.info("Header procesado con {} columnas: {}", headerMap.size(), headerMap.keySet());
             
             String line;
             while ((line = reader.readLine()) != null) {
@@ -335,7 +512,7 @@ public class YangoTransactionService {
                 
                 String scoutName = getValue(values, headerMap, "Driver");
                 if (scoutName != null && !scoutName.isEmpty()) {
-                    Scout scout = identificarOCrearScout(scoutName);
+                    Scout scout = scoutsPorNombre.computeIfAbsent(scoutName, this::identificarOCrearScout);
                     transaccion.setScoutId(scout.getScoutId());
                 } else {
                     skippedLines++;
@@ -374,19 +551,42 @@ public class YangoTransactionService {
                     }
                 }
                 
-                transacciones.add(transaccion);
+                bloque.add(transaccion);
                 processedLines++;
                 
-                if (processedLines % 10 == 0) {
-                    logger.debug("Procesadas {} transacciones válidas hasta la línea {}", processedLines, lineNumber);
+                if (bloque.size() >= tamanoBloque) {
+                    procesarBloque.accept(bloque);
+                    bloque = new ArrayList<>(tamanoBloque);
                 }
             }
             
+            if (!bloque.isEmpty()) {
+                procesarBloque.accept(bloque);
+            }
+            
             logger.info("Procesamiento CSV completado. Total líneas: {}, Procesadas: {}, Saltadas: {}", 
                 lineNumber, processedLines, skippedLines);
         }
         
-        return transacciones;
+        return processedLines;
+    }
+    
+    private static class ResumenArchivoCSV {
+        int filas = 0;
+        LocalDate minDate;
+        LocalDate maxDate;
+    }
+    
+    private static class EstadoIngestaCSV {
+        int bloques = 0;
+        int leidas = 0;
+        int duplicados = 0;
+        int guardadas = 0;
+        int matched = 0;
+        int unmatched = 0;
+        int scoutRegistrationsCreados = 0;
+        int scoutRegistrationsActualizados = 0;
+        List<String> errores = new ArrayList<>();
     }
     
     private String removerBOM(String line) {
@@ -482,7 +682,7 @@ public class YangoTransactionService {
     }
     
     private Scout identificarOCrearScout(String nombreScout) {
-        String normalizedName = normalizarNombre(nombreScout);
+        String normalizedName = SimilitudUtil.normalizarNombre(nombreScout);
         
         Optional<Scout> existing = scoutRepository.findByScoutName(normalizedName);
         if (existing.isPresent()) {
@@ -500,7 +700,7 @@ public class YangoTransactionService {
     }
     
     private Optional<Map<String, Object>> matchearConDriver(String nombre, LocalDate fecha) {
-        String normalizedName = normalizarNombre(nombre);
+        String normalizedName = SimilitudUtil.normalizarNombre(nombre);
         LocalDate fechaDesde = fecha.minusDays(DEFAULT_TIME_MARGIN_DAYS);
         LocalDate fechaHasta = fecha.plusDays(DEFAULT_TIME_MARGIN_DAYS);
         
@@ -514,9 +714,9 @@ public class YangoTransactionService {
         for (Map<String, Object> driver : drivers) {
             String driverName = (String) driver.get("full_name");
             if (driverName != null) {
-                String normalizedDriverName = normalizarNombre(driverName);
+                String normalizedDriverName = SimilitudUtil.normalizarNombre(driverName);
                 if (normalizedDriverName.equals(normalizedName) || 
-                    calcularSimilitudNombre(nombre, driverName, 0.7, 2, false) >= 0.7) {
+                    SimilitudUtil.similitudNombre(nombre, driverName, 0.7, 2, false) >= 0.7) {
                     return Optional.of(driver);
                 }
             }
@@ -582,6 +782,7 @@ public class YangoTransactionService {
         }
         
         transactionRepository.save(transaccion);
+        eventPublisher.publishEvent(new DashboardCacheService.DatosActualizadosEvent("yango-match-manual"));
     }
     
     @Transactional
@@ -625,6 +826,8 @@ public class YangoTransactionService {
         transactionRepository.saveAll(transacciones);
         logger.info("Matcheadas {} transacciones en batch para driver {}", matchedCount, driverId);
         
+        eventPublisher.publishEvent(new DashboardCacheService.DatosActualizadosEvent("yango-match-batch"));
+        
         return matchedCount;
     }
     
@@ -646,105 +849,59 @@ public class YangoTransactionService {
         return jdbcTemplate.queryForList(sql, params.toArray());
     }
     
-    private List<Map<String, Object>> buscarDriversEnRango(LocalDate minDate, LocalDate maxDate, int marginDays) {
-        long startTime = System.currentTimeMillis();
-        // marginDays ya no se usa para expandir hacia adelante
-        // Solo buscar drivers con hire_date entre (minDate - 30 días) y maxDate
+    private DriverDirectoryService.VistaDirectorio vistaDriversEnRango(LocalDate minDate, LocalDate maxDate) {
+        // Solo drivers con hire_date entre (minDate - 30 días) y maxDate
         LocalDate fechaDesde = minDate != null ? minDate.minusDays(30) : LocalDate.now().minusMonths(3);
         LocalDate fechaHasta = maxDate != null ? maxDate : LocalDate.now();
         
         logger.debug("Buscando drivers en rango: {} a {} (hire_date entre {} y {})", 
             minDate, maxDate, fechaDesde, fechaHasta);
         
-        String sql = "SELECT driver_id, full_name, phone, hire_date " +
-                     "FROM drivers " +
-                     "WHERE hire_date BETWEEN ? AND ? " +
-                     "ORDER BY hire_date";
-        
-        List<Map<String, Object>> drivers = jdbcTemplate.queryForList(sql, fechaDesde, fechaHasta);
-        
-        long elapsedTime = System.currentTimeMillis() - startTime;
-        logger.info("Búsqueda de drivers completada: {} drivers encontrados en {} ms (rango: {} a {})", 
-            drivers.size(), elapsedTime, fechaDesde, fechaHasta);
-        
-        return drivers;
-    }
-    
-    private Map<String, List<Map<String, Object>>> crearIndiceDrivers(List<Map<String, Object>> drivers) {
-        long startTime = System.currentTimeMillis();
-        Map<String, List<Map<String, Object>>> index = new HashMap<>();
-        Map<String, List<Map<String, Object>>> indexBySortedWords = new HashMap<>();
-        
-        int processedCount = 0;
-        int skippedCount = 0;
-        
-        for (Map<String, Object> driver : drivers) {
-            String fullName = (String) driver.get("full_name");
-            if (fullName != null) {
-                // Índice exacto (existente)
-                String normalized = normalizarNombre(fullName);
-                index.computeIfAbsent(normalized, k -> new ArrayList<>()).add(driver);
-                
-                // Índice por palabras ordenadas (nuevo)
-                String sortedWords = normalizarNombreParaComparacion(fullName);
-                if (sortedWords != null && !sortedWords.isEmpty()) {
-                    indexBySortedWords.computeIfAbsent(sortedWords, k -> new ArrayList<>()).add(driver);
-                }
-                processedCount++;
-            } else {
-                skippedCount++;
-            }
-        }
-        
-        // Combinar ambos índices
-        index.putAll(indexBySortedWords);
-        
-        long elapsedTime = System.currentTimeMillis() - startTime;
-        logger.info("Índice de drivers creado: {} entradas ({} procesados, {} saltados) en {} ms", 
-            index.size(), processedCount, skippedCount, elapsedTime);
-        
-        return index;
+        return driverDirectory.vista(fechaDesde, fechaHasta);
     }
     
     private Optional<Map<String, Object>> matchearConDriverOptimizado(
             String nombre, LocalDate fecha, 
-            Map<String, List<Map<String, Object>>> driverIndex) {
+            DriverDirectoryService.VistaDirectorio driverIndex) {
         
-        String normalizedName = normalizarNombre(nombre);
-        String sortedWordsName = normalizarNombreParaComparacion(nombre);
+        // Solo drivers contratados dentro de los 30 días previos a la transacción
+        DriverDirectoryService.VistaDirectorio ventana = driverIndex.acotar(fecha.minusDays(30), fecha);
         
         // Paso 1: Búsqueda exacta
-        List<Map<String, Object>> candidates = driverIndex.get(normalizedName);
+        List<DriverDirectoryService.RegistroDriver> encontrados = ventana.porNombre(nombre);
         
         // Paso 2: Búsqueda por palabras ordenadas
-        if ((candidates == null || candidates.isEmpty()) && sortedWordsName != null) {
-            candidates = driverIndex.get(sortedWordsName);
+        if (encontrados.isEmpty()) {
+            encontrados = ventana.porNombreOrdenado(nombre);
         }
         
-        // Paso 3: Búsqueda por similitud mejorada (más flexible)
-        if (candidates == null || candidates.isEmpty()) {
+        SimilitudUtil.NombreTokenizado nombreTokenizado = SimilitudUtil.tokenizar(nombre);
+        
+        // Paso 3: Búsqueda por similitud mejorada (más flexible). similitudNombreMejorado solo supera 0
+        // con al menos 2 palabras en común, así que basta con los candidatos del índice por palabra.
+        if (encontrados.isEmpty()) {
             double bestSimilarity = 0.0;
-            List<Map<String, Object>> bestCandidates = null;
+            String bestKey = null;
             
-            for (Map.Entry<String, List<Map<String, Object>>> entry : driverIndex.entrySet()) {
-                double similarity = calcularSimilitudNombreMejorado(nombre, entry.getKey());
+            for (DriverDirectoryService.RegistroDriver driver : ventana.candidatosPorPalabras(nombre, 2, maxCandidatosFuzzy)) {
+                double similarity = SimilitudUtil.similitudNombreMejorado(nombreTokenizado, driver.getNombreTokenizado());
                 if (similarity > bestSimilarity && similarity >= 0.4) { // Más flexible: 0.4 (antes 0.5)
                     bestSimilarity = similarity;
-                    bestCandidates = entry.getValue();
+                    bestKey = driver.getNombreOrdenado();
                 }
             }
             
-            if (bestCandidates != null) {
-                candidates = bestCandidates;
+            if (bestKey != null) {
+                encontrados = ventana.porNombreOrdenado(bestKey);
             }
         }
         
-        if (candidates == null || candidates.isEmpty()) {
+        if (encontrados.isEmpty()) {
             return Optional.empty();
         }
         
         // Paso 4: Filtrar por fecha más cercana con scoring combinado
-        Map<String, Object> bestMatch = null;
+        DriverDirectoryService.RegistroDriver bestMatch = null;
         double bestScore = 0.0;
         String driverFullName = null;
         
@@ -763,20 +920,14 @@ public class YangoTransactionService {
             thresholdMinimo = 0.60; // Aún más flexible (antes 0.65)
         }
         
-        for (Map<String, Object> driver : candidates) {
-            Object hireDateObj = driver.get("hire_date");
-            LocalDate hireDate = null;
-            if (hireDateObj instanceof java.sql.Date) {
-                hireDate = ((java.sql.Date) hireDateObj).toLocalDate();
-            } else if (hireDateObj instanceof LocalDate) {
-                hireDate = (LocalDate) hireDateObj;
-            }
+        for (DriverDirectoryService.RegistroDriver driver : encontrados) {
+            LocalDate hireDate = driver.getHireDate();
             
             if (hireDate != null) {
                 // Validar que hire_date <= transaction_date (driver debe existir antes de la transacción)
                 if (hireDate.isAfter(fecha)) {
                     logger.debug("Skipping driver {} because hire_date {} is after transaction_date {}", 
-                        driver.get("driver_id"), hireDate, fecha);
+                        driver.getDriverId(), hireDate, fecha);
                     continue; 
                 }
                 
@@ -785,13 +936,13 @@ public class YangoTransactionService {
                 // Validar que la diferencia no sea mayor a 30 días
                 if (daysDiff < 0 || daysDiff > 30) {
                     logger.debug("Skipping driver {} because daysDiff {} is outside 0-30 day range for transaction_date {}", 
-                        driver.get("driver_id"), daysDiff, fecha);
+                        driver.getDriverId(), daysDiff, fecha);
                     continue; 
                 }
                 
                 // Calcular similitud de nombre (siempre, incluso para matches exactos)
-                String fullName = (String) driver.get("full_name");
-                double nameSimilarity = calcularSimilitudNombreMejorado(nombre, fullName);
+                String fullName = driver.getFullName();
+                double nameSimilarity = SimilitudUtil.similitudNombreMejorado(nombreTokenizado, driver.getNombreTokenizado());
                 
                 // Si es match exacto o por palabras ordenadas, dar score alto
                 if (nameSimilarity >= 0.95) {
@@ -834,7 +985,7 @@ public class YangoTransactionService {
         if (bestMatch != null) {
             logger.info("Match encontrado para '{}' con driver '{}' (score: {}, threshold: {})", 
                 nombre, driverFullName, String.format("%.2f", bestScore), String.format("%.2f", thresholdMinimo));
-            return Optional.of(bestMatch);
+            return Optional.of(bestMatch.aMapa());
         } else {
             logger.debug("No se encontró match para '{}' con score >= {}", nombre, String.format("%.2f", thresholdMinimo));
         }
@@ -977,10 +1128,9 @@ public class YangoTransactionService {
         
         logger.info("Rango de fechas de transacciones sin match: {} a {}", minDate, maxDate);
         
-        // Cargar drivers y crear índice
-        List<Map<String, Object>> allDrivers = buscarDriversEnRango(minDate, maxDate, DEFAULT_TIME_MARGIN_DAYS);
-        Map<String, List<Map<String, Object>>> driverIndex = crearIndiceDrivers(allDrivers);
-        logger.info("Cargados {} drivers para reprocesamiento", allDrivers.size());
+        // Drivers del directorio compartido
+        DriverDirectoryService.VistaDirectorio driverIndex = vistaDriversEnRango(minDate, maxDate);
+        logger.info("Disponibles {} drivers para reprocesamiento", driverIndex.tamano());
         
         // Resetear matches previos
         for (YangoTransaction transaccion : transaccionesSinMatch) {
@@ -1077,6 +1227,8 @@ public class YangoTransactionService {
         logger.info("Reprocesamiento completado en {} ms. Matched: {}, Unmatched: {}, Guardadas: {}/{}", 
             elapsedTime, matchedCount, unmatchedCount, savedCount, transaccionesSinMatch.size());
         
+        eventPublisher.publishEvent(new DashboardCacheService.DatosActualizadosEvent("yango-reprocesar"));
+        
         return crearResultado(transaccionesSinMatch.size(), matchedCount, unmatchedCount,
             String.format("Reprocesadas %d transacciones: %d matcheadas, %d sin match (tiempo: %d ms)",
                 transaccionesSinMatch.size(), matchedCount, unmatchedCount, elapsedTime),
@@ -1130,6 +1282,8 @@ public class YangoTransactionService {
         logger.info("Limpieza completada: {} grupos duplicados encontrados, {} transacciones eliminadas de {} totales", 
             duplicados.size(), eliminados, totalDuplicados);
         
+        eventPublisher.publishEvent(new DashboardCacheService.DatosActualizadosEvent("yango-limpiar-duplicados"));
+        
         Map<String, Object> resultado = new HashMap<>();
         resultado.put("duplicateGroups", duplicados.size());
         resultado.put("totalDuplicates", totalDuplicados);
@@ -1139,174 +1293,6 @@ public class YangoTransactionService {
         return resultado;
     }
     
-    private String normalizarNombre(String name) {
-        if (name == null) {
-            return null;
-        }
-        return name.toLowerCase()
-                .replace("á", "a").replace("é", "e").replace("í", "i")
-                .replace("ó", "o").replace("ú", "u").replace("ñ", "n")
-                .replaceAll("\\s+", " ")
-                .trim();
-    }
-    
-    private double calcularSimilitudNombre(String nombre1, String nombre2, double threshold, int minWordsMatch, boolean ignoreSecondLastName) {
-        if (nombre1 == null || nombre2 == null) {
-            return 0.0;
-        }
-        
-        String norm1 = normalizarNombreParaComparacion(nombre1);
-        String norm2 = normalizarNombreParaComparacion(nombre2);
-        
-        if (norm1 == null || norm2 == null || norm1.isEmpty() || norm2.isEmpty()) {
-            return 0.0;
-        }
-        
-        if (norm1.equals(norm2)) {
-            return 1.0;
-        }
-        
-        String[] palabras1 = norm1.split("\\s+");
-        String[] palabras2 = norm2.split("\\s+");
-        
-        if (ignoreSecondLastName) {
-            if (palabras1.length > 2) {
-                palabras1 = Arrays.copyOf(palabras1, 2);
-            }
-            if (palabras2.length > 2) {
-                palabras2 = Arrays.copyOf(palabras2, 2);
-            }
-        }
-        
-        Set<String> set1 = new HashSet<>(Arrays.asList(palabras1));
-        Set<String> set2 = new HashSet<>(Arrays.asList(palabras2));
-        
-        Set<String> interseccion = new HashSet<>(set1);
-        interseccion.retainAll(set2);
-        
-        Set<String> union = new HashSet<>(set1);
-        union.addAll(set2);
-        
-        if (union.isEmpty()) {
-            return 0.0;
-        }
-        
-        double jaccard = (double) interseccion.size() / union.size();
-        
-        if (interseccion.size() >= minWordsMatch && jaccard >= threshold) {
-            return Math.min(jaccard, 1.0);
-        }
-        
-        return 0.0;
-    }
-    
-    private String normalizarNombreParaComparacion(String name) {
-        if (name == null || name.trim().isEmpty()) {
-            return null;
-        }
-        
-        String normalized = name.toLowerCase()
-                .replace("á", "a").replace("é", "e").replace("í", "i")
-                .replace("ó", "o").replace("ú", "u").replace("ñ", "n")
-                .replaceAll("\\s+", " ")
-                .trim();
-        
-        String[] palabras = normalized.split("\\s+");
-        List<String> palabrasFiltradas = new ArrayList<>();
-        Set<String> palabrasComunes = Set.of("de", "la", "del", "los", "las", "y", "e");
-        
-        for (String palabra : palabras) {
-            if (!palabrasComunes.contains(palabra) && palabra.length() > 1) {
-                palabrasFiltradas.add(palabra);
-            }
-        }
-        
-        Collections.sort(palabrasFiltradas);
-        
-        return String.join(" ", palabrasFiltradas);
-    }
-    
-    private double calcularSimilitudNombreMejorado(String nombre1, String nombre2) {
-        if (nombre1 == null || nombre2 == null) {
-            return 0.0;
-        }
-        
-        String norm1 = normalizarNombreParaComparacion(nombre1);
-        String norm2 = normalizarNombreParaComparacion(nombre2);
-        
-        if (norm1 == null || norm2 == null || norm1.isEmpty() || norm2.isEmpty()) {
-            return 0.0;
-        }
-        
-        // Match exacto
-        if (norm1.equals(norm2)) {
-            return 1.0;
-        }
-        
-        String[] palabras1 = norm1.split("\\s+");
-        String[] palabras2 = norm2.split("\\s+");
-        
-        Set<String> set1 = new HashSet<>(Arrays.asList(palabras1));
-        Set<String> set2 = new HashSet<>(Arrays.asList(palabras2));
-        
-        Set<String> interseccion = new HashSet<>(set1);
-        interseccion.retainAll(set2);
-        
-        // Match perfecto: todas las palabras coinciden (independiente del orden)
-        if (interseccion.size() == palabras1.length && 
-            interseccion.size() == palabras2.length && 
-            interseccion.size() >= 2) {
-            return 1.0;
-        }
-        
-        // Si hay al menos 3 palabras coincidentes de 4, o 2 de 3, considerar match alto
-        int maxWords = Math.max(palabras1.length, palabras2.length);
-        
-        if (maxWords >= 4 && interseccion.size() >= 3) {
-            // 3 de 4 palabras coinciden: score alto
-            double jaccard = (double) interseccion.size() / Math.max(palabras1.length, palabras2.length);
-            return Math.max(jaccard, 0.85); // Mínimo 0.85 si hay 3 de 4 palabras
-        }
-        
-        if (maxWords == 3 && interseccion.size() >= 2) {
-            // 2 de 3 palabras coinciden: score alto
-            double jaccard = (double) interseccion.size() / Math.max(palabras1.length, palabras2.length);
-            return Math.max(jaccard, 0.8); // Mínimo 0.8 si hay 2 de 3 palabras
-        }
-        
-        // Calcular Jaccard estándar
-        Set<String> union = new HashSet<>(set1);
-        union.addAll(set2);
-        if (union.isEmpty()) {
-            return 0.0;
-        }
-        
-        double jaccard = (double) interseccion.size() / union.size();
-        
-        // Threshold adaptativo aún más flexible
-        double threshold;
-        int minWordsMatch;
-        
-        if (maxWords >= 4) {
-            threshold = 0.40; // Aún más flexible (antes 0.45)
-            minWordsMatch = 3;
-        } else if (maxWords == 3) {
-            threshold = 0.50; // Aún más flexible (antes 0.55)
-            minWordsMatch = 2;
-        } else if (maxWords == 2) {
-            threshold = 0.65; // Aún más flexible (antes 0.7)
-            minWordsMatch = 2;
-        } else {
-            return 0.0; // 1 palabra: no hacer match automático
-        }
-        
-        if (interseccion.size() >= minWordsMatch && jaccard >= threshold) {
-            return Math.min(jaccard, 1.0);
-        }
-        
-        return 0.0;
-    }
-    
     private Map<String, Object> crearResultado(int total, int matched, int unmatched, String message) {
         return crearResultado(total, matched, unmatched, message, null, null);
     }
@@ -1427,47 +1413,29 @@ public class YangoTransactionService {
         logger.info("Obteniendo transacciones matcheadas para {} drivers entre {} y {}", 
             driverIds.size(), fechaDesde, fechaHasta);
         
+        // Una sola consulta con el conjunto como text[]; IdArrayQueryExecutor parte solo conjuntos muy grandes
         Map<String, List<com.yego.contractortracker.dto.YangoTransactionMatchedDTO>> result = new HashMap<>();
-        final int BATCH_SIZE = 50;
-        int totalBatches = (driverIds.size() + BATCH_SIZE - 1) / BATCH_SIZE;
-        logger.info("Dividiendo consulta en {} lotes de máximo {} drivers cada uno", totalBatches, BATCH_SIZE);
-        
-        for (int i = 0; i < driverIds.size(); i += BATCH_SIZE) {
-            int endIndex = Math.min(i + BATCH_SIZE, driverIds.size());
-            List<String> batch = driverIds.subList(i, endIndex);
-            
-            int currentBatch = (i / BATCH_SIZE) + 1;
-            logger.info("Procesando lote {}/{}: {} drivers (índices {} a {})", 
-                currentBatch, 
-                totalBatches,
-                batch.size(), 
-                i, 
-                endIndex - 1);
-            
-            try {
-                Map<String, List<com.yego.contractortracker.dto.YangoTransactionMatchedDTO>> batchResult = 
-                    ejecutarConsultaPorLote(batch, fechaDesde, fechaHasta);
-                result.putAll(batchResult);
-            } catch (org.springframework.dao.DataAccessResourceFailureException e) {
-                String errorMessage = e.getMessage() != null ? e.getMessage() : "";
-                if (errorMessage.contains("Connection reset") || errorMessage.contains("I/O error") || 
-                    errorMessage.contains("Unable to commit")) {
-                    logger.error("Error de conexión al procesar lote de drivers (índices {} a {}). La conexión se reseteó. Continuando con siguiente lote.", 
-                        i, endIndex - 1, e);
-                } else {
-                    logger.error("Error de acceso a recursos al procesar lote de drivers (índices {} a {}). Continuando con siguiente lote.", 
-                        i, endIndex - 1, e);
-                }
-            } catch (Exception e) {
-                String errorMessage = e.getMessage() != null ? e.getMessage() : "";
-                if (errorMessage.contains("Connection reset") || errorMessage.contains("I/O error") || 
-                    errorMessage.contains("PSQLException") || errorMessage.contains("Unable to commit")) {
-                    logger.error("Error de conexión/PostgreSQL al procesar lote de drivers (índices {} a {}). Continuando con siguiente lote.", 
-                        i, endIndex - 1, e);
-                } else {
-                    logger.error("Error inesperado al procesar lote de drivers (índices {} a {}). Continuando con siguiente lote.", 
-                        i, endIndex - 1, e);
-                }
+        try {
+            result = consultarTransaccionesMatcheadas(driverIds, fechaDesde, fechaHasta);
+        } catch (org.springframework.dao.DataAccessResourceFailureException e) {
+            String errorMessage = e.getMessage() != null ? e.getMessage() : "";
+            if (errorMessage.contains("Connection reset") || errorMessage.contains("I/O error") || 
+                errorMessage.contains("Unable to commit")) {
+                logger.error("Error de conexión al obtener transacciones matcheadas de {} drivers. La conexión se reseteó.", 
+                    driverIds.size(), e);
+            } else {
+                logger.error("Error de acceso a recursos al obtener transacciones matcheadas de {} drivers.", 
+                    driverIds.size(), e);
+            }
+        } catch (Exception e) {
+            String errorMessage = e.getMessage() != null ? e.getMessage() : "";
+            if (errorMessage.contains("Connection reset") || errorMessage.contains("I/O error") || 
+                errorMessage.contains("PSQLException") || errorMessage.contains("Unable to commit")) {
+                logger.error("Error de conexión/PostgreSQL al obtener transacciones matcheadas de {} drivers.", 
+                    driverIds.size(), e);
+            } else {
+                logger.error("Error inesperado al obtener transacciones matcheadas de {} drivers.", 
+                    driverIds.size(), e);
             }
         }
         
@@ -1476,11 +1444,9 @@ public class YangoTransactionService {
         return result;
     }
     
-    private Map<String, List<com.yego.contractortracker.dto.YangoTransactionMatchedDTO>> ejecutarConsultaPorLote(
+    private Map<String, List<com.yego.contractortracker.dto.YangoTransactionMatchedDTO>> consultarTransaccionesMatcheadas(
             List<String> driverIds, LocalDate fechaDesde, LocalDate fechaHasta) {
         
-        String placeholders = String.join(",", Collections.nCopies(driverIds.size(), "?"));
-        
         String sql = "SELECT " +
                      "  yt.id, " +
                      "  yt.transaction_date, " +
@@ -1501,102 +1467,44 @@ public class YangoTransactionService {
                      "WHERE yt.is_matched = true " +
                      "  AND yt.driver_id IS NOT NULL " +
                      "  AND yt.milestone_instance_id IS NOT NULL " +
-                     "  AND yt.driver_id IN (" + placeholders + ") " +
+                     "  AND yt.driver_id = ANY(?) " +
                      "  AND DATE(yt.transaction_date) >= ? " +
                      "  AND DATE(yt.transaction_date) <= ? " +
                      "ORDER BY yt.driver_id, yt.transaction_date";
         
-        List<Object> params = new ArrayList<>();
-        params.addAll(driverIds);
-        params.add(fechaDesde);
-        params.add(fechaHasta);
-        
-        List<Map<String, Object>> rows = jdbcTemplate.queryForList(sql, params.toArray());
-        
         Map<String, List<com.yego.contractortracker.dto.YangoTransactionMatchedDTO>> result = new HashMap<>();
         
-        for (Map<String, Object> row : rows) {
-            String driverId = (String) row.get("driver_id");
-            if (driverId == null) continue;
+        // Mapeo directo del ResultSet, sin pasar por un Map por fila
+        idArrayQueryExecutor.query(sql, driverIds, rs -> {
+            String driverId = rs.getString("driver_id");
+            if (driverId == null) return;
             
             com.yego.contractortracker.dto.YangoTransactionMatchedDTO dto = 
                 new com.yego.contractortracker.dto.YangoTransactionMatchedDTO();
-            
-            Object idObj = row.get("id");
-            if (idObj instanceof Number) {
-                dto.setId(((Number) idObj).longValue());
-            }
-            
-            Object transactionDateObj = row.get("transaction_date");
-            if (transactionDateObj instanceof java.sql.Timestamp) {
-                dto.setTransactionDate(((java.sql.Timestamp) transactionDateObj).toLocalDateTime());
-            } else if (transactionDateObj instanceof LocalDateTime) {
-                dto.setTransactionDate((LocalDateTime) transactionDateObj);
-            }
-            
-            Object milestoneTypeObj = row.get("milestone_type");
-            if (milestoneTypeObj instanceof Number) {
-                dto.setMilestoneType(((Number) milestoneTypeObj).intValue());
-            }
-            
-            Object amountObj = row.get("amount_yango");
-            if (amountObj instanceof Number) {
-                dto.setAmountYango(BigDecimal.valueOf(((Number) amountObj).doubleValue()));
-            } else if (amountObj instanceof BigDecimal) {
-                dto.setAmountYango((BigDecimal) amountObj);
-            }
-            
-            Object milestoneInstanceIdObj = row.get("milestone_instance_id");
-            if (milestoneInstanceIdObj instanceof Number) {
-                dto.setMilestoneInstanceId(((Number) milestoneInstanceIdObj).longValue());
-            }
-            
-            if (row.get("mi_id") != null) {
+            dto.setId(ResultSetUtil.largo(rs, "id"));
+            dto.setTransactionDate(ResultSetUtil.fechaHora(rs, "transaction_date"));
+            dto.setMilestoneType(ResultSetUtil.entero(rs, "milestone_type"));
+            Double amount = ResultSetUtil.decimal(rs, "amount_yango");
+            dto.setAmountYango(amount != null ? BigDecimal.valueOf(amount) : null);
+            dto.setMilestoneInstanceId(ResultSetUtil.largo(rs, "milestone_instance_id"));
+            
+            Long miId = ResultSetUtil.largo(rs, "mi_id");
+            if (miId != null) {
                 com.yego.contractortracker.dto.MilestoneInstanceDTO milestoneDTO = 
                     new com.yego.contractortracker.dto.MilestoneInstanceDTO();
-                
-                Object miIdObj = row.get("mi_id");
-                if (miIdObj instanceof Number) {
-                    milestoneDTO.setId(((Number) miIdObj).longValue());
-                }
-                
-                milestoneDTO.setDriverId((String) row.get("mi_driver_id"));
-                milestoneDTO.setParkId((String) row.get("mi_park_id"));
-                
-                Object miMilestoneTypeObj = row.get("mi_milestone_type");
-                if (miMilestoneTypeObj instanceof Number) {
-                    milestoneDTO.setMilestoneType(((Number) miMilestoneTypeObj).intValue());
-                }
-                
-                Object miPeriodDaysObj = row.get("mi_period_days");
-                if (miPeriodDaysObj instanceof Number) {
-                    milestoneDTO.setPeriodDays(((Number) miPeriodDaysObj).intValue());
-                }
-                
-                Object miFulfillmentDateObj = row.get("mi_fulfillment_date");
-                if (miFulfillmentDateObj instanceof java.sql.Timestamp) {
-                    milestoneDTO.setFulfillmentDate(((java.sql.Timestamp) miFulfillmentDateObj).toLocalDateTime());
-                } else if (miFulfillmentDateObj instanceof LocalDateTime) {
-                    milestoneDTO.setFulfillmentDate((LocalDateTime) miFulfillmentDateObj);
-                }
-                
-                Object miCalculationDateObj = row.get("mi_calculation_date");
-                if (miCalculationDateObj instanceof java.sql.Timestamp) {
-                    milestoneDTO.setCalculationDate(((java.sql.Timestamp) miCalculationDateObj).toLocalDateTime());
-                } else if (miCalculationDateObj instanceof LocalDateTime) {
-                    milestoneDTO.setCalculationDate((LocalDateTime) miCalculationDateObj);
-                }
-                
-                Object miTripCountObj = row.get("mi_trip_count");
-                if (miTripCountObj instanceof Number) {
-                    milestoneDTO.setTripCount(((Number) miTripCountObj).intValue());
-                }
-                
+                milestoneDTO.setId(miId);
+                milestoneDTO.setDriverId(rs.getString("mi_driver_id"));
+                milestoneDTO.setParkId(rs.getString("mi_park_id"));
+                milestoneDTO.setMilestoneType(ResultSetUtil.entero(rs, "mi_milestone_type"));
+                milestoneDTO.setPeriodDays(ResultSetUtil.entero(rs, "mi_period_days"));
+                milestoneDTO.setFulfillmentDate(ResultSetUtil.fechaHora(rs, "mi_fulfillment_date"));
+                milestoneDTO.setCalculationDate(ResultSetUtil.fechaHora(rs, "mi_calculation_date"));
+                milestoneDTO.setTripCount(ResultSetUtil.entero(rs, "mi_trip_count"));
                 dto.setMilestoneInstance(milestoneDTO);
             }
             
             result.computeIfAbsent(driverId, k -> new ArrayList<>()).add(dto);
-        }
+        }, IdArrayQueryExecutor.IDS, fechaDesde, fechaHasta);
         
         return result;
     }
@@ -0,0 +1,76 @@
+package com.yego.contractortracker.util;
+
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * MultipartFile respaldado por una copia en disco local, para procesar una carga fuera del hilo
+ * HTTP (el MultipartFile original deja de ser válido al terminar la petición). Cada llamada a
+ * getInputStream abre el archivo de nuevo, así los servicios que leen el CSV en dos pasadas siguen funcionando.
+ */
+public class ArchivoSpooleado implements MultipartFile {
+    
+    private final Path ruta;
+    private final String nombreOriginal;
+    private final String contentType;
+    
+    public ArchivoSpooleado(Path ruta, String nombreOriginal, String contentType) {
+        this.ruta = ruta;
+        this.nombreOriginal = nombreOriginal;
+        this.contentType = contentType;
+    }
+    
+    public Path getRuta() {
+        return ruta;
+    }
+    
+    @Override
+    public String getName() {
+        return "file";
+    }
+    
+    @Override
+    public String getOriginalFilename() {
+        return nombreOriginal;
+    }
+    
+    @Override
+    public String getContentType() {
+        return contentType;
+    }
+    
+    @Override
+    public boolean isEmpty() {
+        return getSize() == 0;
+    }
+    
+    @Override
+    public long getSize() {
+        try {
+            return Files.size(ruta);
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+    
+    @Override
+    public byte[] getBytes() throws IOException {
+        return Files.readAllBytes(ruta);
+    }
+    
+    @Override
+    public InputStream getInputStream() throws IOException {
+        return Files.newInputStream(ruta);
+    }
+    
+    @Override
+    public void transferTo(File dest) throws IOException {
+        Files.copy(ruta, dest.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+}
@@ -0,0 +1,123 @@
+package com.yego.contractortracker.util;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Escribe filas de una exportación en CSV o NDJSON (un objeto JSON por línea) directamente sobre la salida,
+ * opcionalmente comprimida con gzip. No guarda filas: cada una se serializa al escribirla.
+ * En CSV los textos que podrían leerse como fórmula se neutralizan (ver escaparCsv).
+ * Los errores de escritura (p. ej. el cliente cortó la descarga) se lanzan como UncheckedIOException
+ * para poder escribir desde callbacks de JDBC.
+ */
+public class ExportWriter implements Closeable {
+    
+    public static final String CSV = "csv";
+    public static final String NDJSON = "ndjson";
+    
+    private final String[] columnas;
+    private final GZIPOutputStream gzip;
+    private final Writer writer;
+    private final JsonGenerator json;
+    private long filas;
+    
+    public ExportWriter(OutputStream salida, String formato, boolean comprimir, String[] columnas, ObjectMapper objectMapper) throws IOException {
+        this.columnas = columnas;
+        this.gzip = comprimir ? new GZIPOutputStream(salida, 65536) : null;
+        this.writer = new BufferedWriter(new OutputStreamWriter(comprimir ? gzip : salida, StandardCharsets.UTF_8), 65536);
+        
+        if (NDJSON.equals(formato)) {
+            json = objectMapper.createGenerator(writer);
+            json.setRootValueSeparator(null);
+        } else {
+            json = null;
+            escribirLineaCsv(columnas);
+        }
+    }
+    
+    public static String normalizarFormato(String formato) {
+        String normalizado = formato != null ? formato.trim().toLowerCase(Locale.ROOT) : CSV;
+        return CSV.equals(normalizado) || NDJSON.equals(normalizado) ? normalizado : null;
+    }
+    
+    public static String tipoContenido(String formato) {
+        return NDJSON.equals(formato) ? "application/x-ndjson;charset=UTF-8" : "text/csv;charset=UTF-8";
+    }
+    
+    /**
+     * @param valores en el mismo orden que las columnas
+     */
+    public void escribirFila(Object... valores) {
+        try {
+            if (json != null) {
+                json.writeStartObject();
+                for (int i = 0; i < columnas.length; i++) {
+                    json.writeFieldName(columnas[i]);
+                    json.writeObject(i < valores.length ? valores[i] : null);
+                }
+                json.writeEndObject();
+                json.writeRaw('\n');
+            } else {
+                escribirLineaCsv(valores);
+            }
+            filas++;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+    
+    public long getFilas() {
+        return filas;
+    }
+    
+    @Override
+    public void close() throws IOException {
+        if (json != null) {
+            json.flush();
+        }
+        writer.flush();
+        if (gzip != null) {
+            gzip.finish();
+        }
+    }
+    
+    private void escribirLineaCsv(Object[] valores) throws IOException {
+        for (int i = 0; i < columnas.length; i++) {
+            if (i > 0) {
+                writer.write(',');
+            }
+            if (i < valores.length && valores[i] != null) {
+                writer.write(escaparCsv(valores[i]));
+            }
+        }
+        writer.write('\n');
+    }
+    
+    /**
+     * Los textos que empiezan por =, +, -, @, tabulador o retorno de carro se prefijan con ' para que una hoja
+     * de cálculo no los interprete como fórmula: nombres, teléfonos y comentarios vienen de CSV subidos.
+     * Los números se escriben tal cual.
+     */
+    private static String escaparCsv(Object valor) {
+        String texto = valor instanceof BigDecimal ? ((BigDecimal) valor).toPlainString() : valor.toString();
+        if (valor instanceof CharSequence && !texto.isEmpty() && "=+-@\t\r".indexOf(texto.charAt(0)) >= 0) {
+            texto = "'" + texto;
+        }
+        if (texto.indexOf(',') < 0 && texto.indexOf('"') < 0 && texto.indexOf('\n') < 0 && texto.indexOf('\r') < 0) {
+            return texto;
+        }
+        return "\"" + texto.replace("\"", "\"\"") + "\"";
+    }
+}
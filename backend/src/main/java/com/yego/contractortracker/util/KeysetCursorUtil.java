@@ -0,0 +1,62 @@
+package com.yego.contractortracker.util;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * Cursor opaco para paginación keyset sobre (hire_date DESC, driver_id ASC).
+ * En PostgreSQL hire_date DESC deja los NULL primero; un driver sin hire_date se codifica con la fecha
+ * vacía para que la página siguiente continúe por los NULL restantes y luego por las fechas.
+ */
+public class KeysetCursorUtil {
+    
+    private static final String SEPARADOR = "|";
+    
+    public static String codificar(LocalDate hireDate, String driverId) {
+        if (driverId == null) {
+            return null;
+        }
+        String valor = (hireDate != null ? hireDate.toString() : "") + SEPARADOR + driverId;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(valor.getBytes(StandardCharsets.UTF_8));
+    }
+    
+    /**
+     * @return {hireDate, driverId} (hireDate null si el último driver no tenía fecha), o null si el cursor está vacío
+     * @throws IllegalArgumentException si el cursor no es válido
+     */
+    public static Object[] decodificar(String cursor) {
+        if (cursor == null || cursor.isEmpty()) {
+            return null;
+        }
+        
+        try {
+            String valor = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            int separador = valor.indexOf(SEPARADOR);
+            if (separador < 0 || separador == valor.length() - 1) {
+                throw new IllegalArgumentException("Cursor de paginación inválido: " + cursor);
+            }
+            LocalDate hireDate = separador > 0 ? LocalDate.parse(valor.substring(0, separador)) : null;
+            return new Object[]{hireDate, valor.substring(separador + 1)};
+        } catch (IllegalArgumentException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IllegalArgumentException("Cursor de paginación inválido: " + cursor, e);
+        }
+    }
+    
+    /**
+     * Condición "después del cursor" para ORDER BY columnaFecha DESC, columnaId. Añade sus parámetros a params.
+     */
+    public static String condicionSiguiente(Object[] cursor, String columnaFecha, String columnaId, List<Object> params) {
+        if (cursor[0] == null) {
+            params.add(cursor[1]);
+            return "(" + columnaFecha + " IS NOT NULL OR (" + columnaFecha + " IS NULL AND " + columnaId + " > ?))";
+        }
+        params.add(cursor[0]);
+        params.add(cursor[0]);
+        params.add(cursor[1]);
+        return "(" + columnaFecha + " < ? OR (" + columnaFecha + " = ? AND " + columnaId + " > ?))";
+    }
+}
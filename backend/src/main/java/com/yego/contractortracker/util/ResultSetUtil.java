@@ -0,0 +1,62 @@
+package com.yego.contractortracker.util;
+
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Lecturas tipadas de columnas anulables directamente del ResultSet, para los mappers que evitan
+ * materializar cada fila como Map (sin boxing intermedio ni comprobaciones instanceof).
+ */
+public class ResultSetUtil {
+    
+    public static LocalDate fecha(ResultSet rs, String columna) throws SQLException {
+        Date valor = rs.getDate(columna);
+        return valor != null ? valor.toLocalDate() : null;
+    }
+    
+    public static LocalDateTime fechaHora(ResultSet rs, String columna) throws SQLException {
+        Timestamp valor = rs.getTimestamp(columna);
+        return valor != null ? valor.toLocalDateTime() : null;
+    }
+    
+    public static Integer entero(ResultSet rs, String columna) throws SQLException {
+        int valor = rs.getInt(columna);
+        return rs.wasNull() ? null : valor;
+    }
+    
+    public static Long largo(ResultSet rs, String columna) throws SQLException {
+        long valor = rs.getLong(columna);
+        return rs.wasNull() ? null : valor;
+    }
+    
+    public static Double decimal(ResultSet rs, String columna) throws SQLException {
+        double valor = rs.getDouble(columna);
+        return rs.wasNull() ? null : valor;
+    }
+    
+    public static Boolean booleano(ResultSet rs, String columna) throws SQLException {
+        boolean valor = rs.getBoolean(columna);
+        return rs.wasNull() ? null : valor;
+    }
+    
+    /**
+     * Nombres de columna (en minúsculas) del ResultSet, para mappers compartidos entre consultas
+     * que no devuelven exactamente las mismas columnas.
+     */
+    public static Set<String> columnas(ResultSet rs) throws SQLException {
+        ResultSetMetaData metaData = rs.getMetaData();
+        Set<String> columnas = new HashSet<>();
+        for (int i = 1; i <= metaData.getColumnCount(); i++) {
+            columnas.add(metaData.getColumnLabel(i).toLowerCase(Locale.ROOT));
+        }
+        return columnas;
+    }
+}
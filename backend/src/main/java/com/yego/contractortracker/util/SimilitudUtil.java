@@ -0,0 +1,424 @@
+package com.yego.contractortracker.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Normalización y similitud de nombres y teléfonos compartida por los procesos de matching
+ * (leads, registros de scouts y transacciones Yango).
+ *
+ * Los nombres se comparan ya tokenizados (palabras normalizadas y ordenadas), de modo que la
+ * intersección y la unión se calculan recorriendo dos arrays ordenados sin crear conjuntos. La
+ * distancia de Levenshtein es acotada: solo calcula la banda diagonal de ancho 2 * max + 1, corta en
+ * cuanto toda una fila supera el máximo y reutiliza las filas por hilo.
+ */
+public final class SimilitudUtil {
+    
+    private static final Set<String> PALABRAS_COMUNES = Set.of("de", "la", "del", "los", "las", "y", "e");
+    private static final int INFINITO = Integer.MAX_VALUE / 2;
+    private static final ThreadLocal<int[][]> FILAS_LEVENSHTEIN = ThreadLocal.withInitial(() -> new int[2][32]);
+    private static final NombreTokenizado NOMBRE_VACIO = new NombreTokenizado(null, new String[0]);
+    
+    private SimilitudUtil() {
+    }
+    
+    /**
+     * Nombre ya normalizado para comparación: palabras sin acentos, sin palabras comunes ni de una letra,
+     * en orden alfabético (con repeticiones).
+     */
+    public static final class NombreTokenizado {
+        private final String ordenado;
+        private final String[] palabras;
+        
+        private NombreTokenizado(String ordenado, String[] palabras) {
+            this.ordenado = ordenado;
+            this.palabras = palabras;
+        }
+        
+        /** Palabras unidas por espacios, o null si el nombre original era null o vacío. */
+        public String getOrdenado() { return ordenado; }
+        
+        public boolean isVacio() {
+            return ordenado == null || ordenado.isEmpty();
+        }
+        
+        public int getTotalPalabras() {
+            return palabras.length;
+        }
+    }
+    
+    public static String normalizarNombre(String name) {
+        if (name == null) {
+            return null;
+        }
+        return name.toLowerCase()
+                .replace("á", "a").replace("é", "e").replace("í", "i")
+                .replace("ó", "o").replace("ú", "u").replace("ñ", "n")
+                .replaceAll("\\s+", " ")
+                .trim();
+    }
+    
+    /**
+     * Nombre normalizado sin palabras comunes ni de una letra, con las palabras en orden alfabético
+     * para manejar nombres con el orden invertido. Devuelve null si el nombre es null o vacío.
+     */
+    public static String normalizarNombreParaComparacion(String name) {
+        return tokenizar(name).ordenado;
+    }
+    
+    public static NombreTokenizado tokenizar(String name) {
+        if (name == null || name.trim().isEmpty()) {
+            return NOMBRE_VACIO;
+        }
+        
+        List<String> palabrasFiltradas = new ArrayList<>();
+        for (String palabra : normalizarNombre(name).split(" ")) {
+            if (!PALABRAS_COMUNES.contains(palabra) && palabra.length() > 1) {
+                palabrasFiltradas.add(palabra);
+            }
+        }
+        Collections.sort(palabrasFiltradas);
+        
+        return new NombreTokenizado(String.join(" ", palabrasFiltradas), palabrasFiltradas.toArray(new String[0]));
+    }
+    
+    /**
+     * Jaccard entre los conjuntos de palabras de dos nombres. Devuelve 0 si hay menos de minWordsMatch
+     * palabras en común o el Jaccard no llega a threshold. Con ignoreSecondLastName solo se comparan las
+     * dos primeras palabras de cada nombre.
+     */
+    public static double similitudNombre(String nombre1, String nombre2, double threshold, int minWordsMatch, boolean ignoreSecondLastName) {
+        if (nombre1 == null || nombre2 == null) {
+            return 0.0;
+        }
+        return similitudNombre(tokenizar(nombre1), tokenizar(nombre2), threshold, minWordsMatch, ignoreSecondLastName, false);
+    }
+    
+    /**
+     * Igual que similitudNombre, pero suma 0.2 al Jaccard cuando alguna pareja de palabras distintas
+     * (de 4 o más letras) está a distancia de Levenshtein 2 o menos, para tolerar errores de tipeo.
+     */
+    public static double similitudNombreConTypos(NombreTokenizado nombre1, NombreTokenizado nombre2,
+                                                 double threshold, int minWordsMatch, boolean ignoreSecondLastName) {
+        return similitudNombre(nombre1, nombre2, threshold, minWordsMatch, ignoreSecondLastName, true);
+    }
+    
+    public static double similitudNombreConTypos(String nombre1, String nombre2, double threshold, int minWordsMatch, boolean ignoreSecondLastName) {
+        if (nombre1 == null || nombre2 == null) {
+            return 0.0;
+        }
+        return similitudNombreConTypos(tokenizar(nombre1), tokenizar(nombre2), threshold, minWordsMatch, ignoreSecondLastName);
+    }
+    
+    private static double similitudNombre(NombreTokenizado nombre1, NombreTokenizado nombre2, double threshold,
+                                          int minWordsMatch, boolean ignoreSecondLastName, boolean toleraTypos) {
+        if (nombre1 == null || nombre2 == null || nombre1.isVacio() || nombre2.isVacio()) {
+            return 0.0;
+        }
+        if (nombre1.ordenado.equals(nombre2.ordenado)) {
+            return 1.0;
+        }
+        
+        String[] palabras1 = nombre1.palabras;
+        String[] palabras2 = nombre2.palabras;
+        int total1 = ignoreSecondLastName ? Math.min(palabras1.length, 2) : palabras1.length;
+        int total2 = ignoreSecondLastName ? Math.min(palabras2.length, 2) : palabras2.length;
+        
+        int interseccion = contarComunes(palabras1, total1, palabras2, total2);
+        int union = contarDistintas(palabras1, total1) + contarDistintas(palabras2, total2) - interseccion;
+        if (union == 0) {
+            return 0.0;
+        }
+        
+        double jaccard = (double) interseccion / union;
+        if (interseccion < minWordsMatch || jaccard < threshold) {
+            return 0.0;
+        }
+        
+        if (toleraTypos && hayPalabrasSimilares(palabras1, total1, palabras2, total2)) {
+            return Math.min(jaccard + 0.2, 1.0);
+        }
+        return Math.min(jaccard, 1.0);
+    }
+    
+    /**
+     * Similitud usada para los nombres de los comentarios de Yango: 1.0 si coinciden todas las palabras,
+     * mínimos de 0.85 (3 de 4 palabras) y 0.8 (2 de 3), y en otro caso Jaccard con umbral adaptado al
+     * número de palabras. Nombres de una sola palabra nunca hacen match salvo que sean idénticos.
+     */
+    public static double similitudNombreMejorado(NombreTokenizado nombre1, NombreTokenizado nombre2) {
+        if (nombre1 == null || nombre2 == null || nombre1.isVacio() || nombre2.isVacio()) {
+            return 0.0;
+        }
+        if (nombre1.ordenado.equals(nombre2.ordenado)) {
+            return 1.0;
+        }
+        
+        String[] palabras1 = nombre1.palabras;
+        String[] palabras2 = nombre2.palabras;
+        int interseccion = contarComunes(palabras1, palabras1.length, palabras2, palabras2.length);
+        
+        // Match perfecto: todas las palabras coinciden (independiente del orden)
+        if (interseccion == palabras1.length && interseccion == palabras2.length && interseccion >= 2) {
+            return 1.0;
+        }
+        
+        int maxWords = Math.max(palabras1.length, palabras2.length);
+        if (maxWords >= 4 && interseccion >= 3) {
+            return Math.max((double) interseccion / maxWords, 0.85);
+        }
+        if (maxWords == 3 && interseccion >= 2) {
+            return Math.max((double) interseccion / maxWords, 0.8);
+        }
+        
+        int union = contarDistintas(palabras1, palabras1.length) + contarDistintas(palabras2, palabras2.length) - interseccion;
+        if (union == 0) {
+            return 0.0;
+        }
+        double jaccard = (double) interseccion / union;
+        
+        double threshold;
+        int minWordsMatch;
+        if (maxWords >= 4) {
+            threshold = 0.40;
+            minWordsMatch = 3;
+        } else if (maxWords == 3) {
+            threshold = 0.50;
+            minWordsMatch = 2;
+        } else if (maxWords == 2) {
+            threshold = 0.65;
+            minWordsMatch = 2;
+        } else {
+            return 0.0;
+        }
+        
+        if (interseccion >= minWordsMatch && jaccard >= threshold) {
+            return Math.min(jaccard, 1.0);
+        }
+        return 0.0;
+    }
+    
+    public static double similitudNombreMejorado(String nombre1, String nombre2) {
+        if (nombre1 == null || nombre2 == null) {
+            return 0.0;
+        }
+        return similitudNombreMejorado(tokenizar(nombre1), tokenizar(nombre2));
+    }
+    
+    /**
+     * Jaccard simple entre las palabras de dos nombres ya normalizados, sin filtrar palabras comunes.
+     */
+    public static double jaccardPalabras(String nombre1, String nombre2) {
+        if (nombre1 == null || nombre2 == null) {
+            return 0.0;
+        }
+        
+        String[] palabras1 = nombre1.split("\\s+");
+        String[] palabras2 = nombre2.split("\\s+");
+        Arrays.sort(palabras1);
+        Arrays.sort(palabras2);
+        
+        int interseccion = contarComunes(palabras1, palabras1.length, palabras2, palabras2.length);
+        int union = contarDistintas(palabras1, palabras1.length) + contarDistintas(palabras2, palabras2.length) - interseccion;
+        if (union == 0) {
+            return 0.0;
+        }
+        return (double) interseccion / union;
+    }
+    
+    /**
+     * Distancia de Levenshtein si es menor o igual que max; en otro caso devuelve max + 1 sin terminar
+     * el cálculo.
+     */
+    public static int distanciaLevenshteinAcotada(CharSequence s1, CharSequence s2, int max) {
+        int len1 = s1.length();
+        int len2 = s2.length();
+        if (Math.abs(len1 - len2) > max) {
+            return max + 1;
+        }
+        if (len1 == 0 || len2 == 0) {
+            return Math.max(len1, len2);
+        }
+        
+        int[][] filas = FILAS_LEVENSHTEIN.get();
+        if (filas[0].length < len2 + 2) {
+            filas[0] = new int[len2 + 2];
+            filas[1] = new int[len2 + 2];
+        }
+        int[] anterior = filas[0];
+        int[] actual = filas[1];
+        
+        for (int j = 0; j <= Math.min(len2, max); j++) {
+            anterior[j] = j;
+        }
+        if (max + 1 <= len2) {
+            anterior[max + 1] = INFINITO;
+        }
+        
+        for (int i = 1; i <= len1; i++) {
+            int desde = Math.max(1, i - max);
+            int hasta = Math.min(len2, i + max);
+            actual[desde - 1] = desde == 1 ? i : INFINITO;
+            int minimoFila = actual[desde - 1];
+            char c1 = s1.charAt(i - 1);
+            
+            for (int j = desde; j <= hasta; j++) {
+                int costo = c1 == s2.charAt(j - 1) ? 0 : 1;
+                int valor = Math.min(anterior[j - 1] + costo, Math.min(anterior[j] + 1, actual[j - 1] + 1));
+                actual[j] = valor;
+                if (valor < minimoFila) {
+                    minimoFila = valor;
+                }
+            }
+            if (hasta + 1 <= len2) {
+                actual[hasta + 1] = INFINITO;
+            }
+            if (minimoFila > max) {
+                return max + 1;
+            }
+            
+            int[] temporal = anterior;
+            anterior = actual;
+            actual = temporal;
+        }
+        
+        return Math.min(anterior[len2], max + 1);
+    }
+    
+    /**
+     * Quita espacios, guiones y paréntesis del teléfono. Los espacios son los de \s en regex
+     * (espacio, tab, saltos de línea, tab vertical y form feed), no los espacios Unicode.
+     */
+    public static String limpiarTelefono(String phone) {
+        if (phone == null) {
+            return null;
+        }
+        StringBuilder limpio = new StringBuilder(phone.length());
+        for (int i = 0; i < phone.length(); i++) {
+            char c = phone.charAt(i);
+            if (!esEspacioRegex(c) && c != '-' && c != '(' && c != ')') {
+                limpio.append(c);
+            }
+        }
+        return limpio.toString().trim();
+    }
+    
+    public static String soloDigitos(String phone) {
+        if (phone == null) {
+            return null;
+        }
+        StringBuilder digitos = new StringBuilder(phone.length());
+        for (int i = 0; i < phone.length(); i++) {
+            char c = phone.charAt(i);
+            if (c >= '0' && c <= '9') {
+                digitos.append(c);
+            }
+        }
+        return digitos.toString();
+    }
+    
+    /**
+     * Compara los últimos dígitos (hasta 9) de dos teléfonos para ignorar códigos de país o prefijos:
+     * 1.0 si coinciden, 0.9 / 0.7 con una o dos diferencias, 0.5 con tres diferencias sobre al menos
+     * 7 dígitos y 0 en otro caso o si las longitudes difieren en más de 3.
+     */
+    public static double similitudTelefono(String telefono1, String telefono2) {
+        if (telefono1 == null || telefono2 == null) {
+            return 0.0;
+        }
+        
+        String norm1 = limpiarTelefono(telefono1);
+        String norm2 = limpiarTelefono(telefono2);
+        if (norm1.isEmpty() || norm2.isEmpty()) {
+            return 0.0;
+        }
+        if (norm1.equals(norm2)) {
+            return 1.0;
+        }
+        
+        int len1 = norm1.length();
+        int len2 = norm2.length();
+        int minLen = Math.min(len1, len2);
+        if (Math.max(len1, len2) - minLen > 3) {
+            return 0.0;
+        }
+        
+        int compareLen = Math.min(minLen, 9);
+        int diferencias = 0;
+        for (int i = 1; i <= compareLen; i++) {
+            if (norm1.charAt(len1 - i) != norm2.charAt(len2 - i)) {
+                diferencias++;
+            }
+        }
+        
+        if (diferencias == 0) {
+            return 1.0;
+        } else if (diferencias == 1) {
+            return 0.9;
+        } else if (diferencias == 2) {
+            return 0.7;
+        } else if (diferencias <= 3 && compareLen >= 7) {
+            return 0.5;
+        }
+        return 0.0;
+    }
+    
+    private static boolean esEspacioRegex(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+    
+    private static boolean hayPalabrasSimilares(String[] palabras1, int total1, String[] palabras2, int total2) {
+        for (int i = 0; i < total1; i++) {
+            if (i > 0 && palabras1[i].equals(palabras1[i - 1])) {
+                continue;
+            }
+            for (int j = 0; j < total2; j++) {
+                String p1 = palabras1[i];
+                String p2 = palabras2[j];
+                if (!p1.equals(p2) && Math.max(p1.length(), p2.length()) >= 4
+                        && distanciaLevenshteinAcotada(p1, p2, 2) <= 2) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+    
+    /** Palabras distintas en común entre dos arrays ordenados (se consideran sus primeros total1 / total2 elementos). */
+    private static int contarComunes(String[] palabras1, int total1, String[] palabras2, int total2) {
+        int i = 0;
+        int j = 0;
+        int comunes = 0;
+        while (i < total1 && j < total2) {
+            int comparacion = palabras1[i].compareTo(palabras2[j]);
+            if (comparacion == 0) {
+                String palabra = palabras1[i];
+                comunes++;
+                while (i < total1 && palabras1[i].equals(palabra)) {
+                    i++;
+                }
+                while (j < total2 && palabras2[j].equals(palabra)) {
+                    j++;
+                }
+            } else if (comparacion < 0) {
+                i++;
+            } else {
+                j++;
+            }
+        }
+        return comunes;
+    }
+    
+    private static int contarDistintas(String[] palabras, int total) {
+        int distintas = 0;
+        for (int i = 0; i < total; i++) {
+            if (i == 0 || !palabras[i].equals(palabras[i - 1])) {
+                distintas++;
+            }
+        }
+        return distintas;
+    }
+}
@@ -0,0 +1,60 @@
+package com.yego.contractortracker.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Un driver sin hire_date (los primeros en hire_date DESC) también debe producir un cursor,
+ * si no una página con hasMore=true se quedaría sin nextCursor.
+ */
+class KeysetCursorUtilTest {
+
+    @Test
+    void codificaYDecodificaConFecha() {
+        String cursor = KeysetCursorUtil.codificar(LocalDate.of(2024, 3, 1), "drv|1");
+        assertArrayEquals(new Object[]{LocalDate.of(2024, 3, 1), "drv|1"}, KeysetCursorUtil.decodificar(cursor));
+    }
+
+    @Test
+    void codificaYDecodificaSinFecha() {
+        String cursor = KeysetCursorUtil.codificar(null, "drv1");
+        assertNotNull(cursor);
+        assertArrayEquals(new Object[]{null, "drv1"}, KeysetCursorUtil.decodificar(cursor));
+    }
+
+    @Test
+    void condicionSiguienteSinFechaContinuaPorNullsYLuegoFechas() {
+        List<Object> params = new ArrayList<>();
+        String condicion = KeysetCursorUtil.condicionSiguiente(new Object[]{null, "drv1"}, "hire_date", "driver_id", params);
+        assertEquals("(hire_date IS NOT NULL OR (hire_date IS NULL AND driver_id > ?))", condicion);
+        assertEquals(Arrays.asList("drv1"), params);
+    }
+
+    @Test
+    void condicionSiguienteConFecha() {
+        List<Object> params = new ArrayList<>();
+        LocalDate fecha = LocalDate.of(2024, 3, 1);
+        String condicion = KeysetCursorUtil.condicionSiguiente(new Object[]{fecha, "drv1"}, "d.hire_date", "d.driver_id", params);
+        assertEquals("(d.hire_date < ? OR (d.hire_date = ? AND d.driver_id > ?))", condicion);
+        assertEquals(Arrays.asList(fecha, fecha, "drv1"), params);
+    }
+
+    @Test
+    void cursorVacioOInvalido() {
+        assertNull(KeysetCursorUtil.decodificar(null));
+        assertNull(KeysetCursorUtil.decodificar(""));
+        assertNull(KeysetCursorUtil.codificar(LocalDate.of(2024, 3, 1), null));
+        assertThrows(IllegalArgumentException.class, () -> KeysetCursorUtil.decodificar("no-es-base64!"));
+        assertThrows(IllegalArgumentException.class, () -> KeysetCursorUtil.decodificar(KeysetCursorUtil.codificar(null, "x").substring(0, 1)));
+    }
+}
@@ -0,0 +1,373 @@
+package com.yego.contractortracker.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Copia de las funciones de similitud anteriores a SimilitudUtil (LeadProcessingService,
+ * YangoTransactionService y ScoutRegistrationService), sin el logging. Sirve de referencia para
+ * comprobar que SimilitudUtil da los mismos scores y para compararlos en SimilitudBenchmark.
+ */
+final class SimilitudBaseline {
+
+    private SimilitudBaseline() {
+    }
+
+    static String normalizarNombre(String name) {
+        if (name == null) {
+            return null;
+        }
+        return name.toLowerCase()
+                .replace("á", "a").replace("é", "e").replace("í", "i")
+                .replace("ó", "o").replace("ú", "u").replace("ñ", "n")
+                .replaceAll("\\s+", " ")
+                .trim();
+    }
+
+    static String normalizarNombreParaComparacion(String name) {
+        if (name == null || name.trim().isEmpty()) {
+            return null;
+        }
+
+        String normalized = name.toLowerCase()
+                .replace("á", "a").replace("é", "e").replace("í", "i")
+                .replace("ó", "o").replace("ú", "u").replace("ñ", "n")
+                .replaceAll("\\s+", " ")
+                .trim();
+
+        String[] palabras = normalized.split("\\s+");
+        List<String> palabrasFiltradas = new ArrayList<>();
+        Set<String> palabrasComunes = Set.of("de", "la", "del", "los", "las", "y", "e");
+
+        for (String palabra : palabras) {
+            if (!palabrasComunes.contains(palabra) && palabra.length() > 1) {
+                palabrasFiltradas.add(palabra);
+            }
+        }
+
+        Collections.sort(palabrasFiltradas);
+
+        return String.join(" ", palabrasFiltradas);
+    }
+
+    /**
+     * LeadProcessingService.calcularSimilitudNombre (con tolerancia a typos).
+     */
+    static double similitudNombreLeads(String nombre1, String nombre2, double threshold, int minWordsMatch, boolean ignoreSecondLastName) {
+        if (nombre1 == null || nombre2 == null) {
+            return 0.0;
+        }
+
+        String norm1 = normalizarNombreParaComparacion(nombre1);
+        String norm2 = normalizarNombreParaComparacion(nombre2);
+
+        if (norm1 == null || norm2 == null || norm1.isEmpty() || norm2.isEmpty()) {
+            return 0.0;
+        }
+
+        if (norm1.equals(norm2)) {
+            return 1.0;
+        }
+
+        String[] palabras1 = norm1.split("\\s+");
+        String[] palabras2 = norm2.split("\\s+");
+
+        if (ignoreSecondLastName) {
+            if (palabras1.length > 2) {
+                palabras1 = Arrays.copyOf(palabras1, 2);
+            }
+            if (palabras2.length > 2) {
+                palabras2 = Arrays.copyOf(palabras2, 2);
+            }
+        }
+
+        Set<String> set1 = new HashSet<>(Arrays.asList(palabras1));
+        Set<String> set2 = new HashSet<>(Arrays.asList(palabras2));
+
+        Set<String> interseccion = new HashSet<>(set1);
+        interseccion.retainAll(set2);
+
+        Set<String> union = new HashSet<>(set1);
+        union.addAll(set2);
+
+        if (union.isEmpty()) {
+            return 0.0;
+        }
+
+        double jaccard = (double) interseccion.size() / union.size();
+
+        if (interseccion.size() >= minWordsMatch && jaccard >= threshold) {
+            double adjustedScore = jaccard;
+            for (String p1 : set1) {
+                for (String p2 : set2) {
+                    if (!p1.equals(p2) && calcularDistanciaLevenshtein(p1, p2) <= 2 && Math.max(p1.length(), p2.length()) >= 4) {
+                        adjustedScore = Math.max(adjustedScore, jaccard + 0.2);
+                        break;
+                    }
+                }
+            }
+            return Math.min(adjustedScore, 1.0);
+        }
+
+        return 0.0;
+    }
+
+    /**
+     * YangoTransactionService.calcularSimilitudNombre (sin tolerancia a typos).
+     */
+    static double similitudNombreYango(String nombre1, String nombre2, double threshold, int minWordsMatch, boolean ignoreSecondLastName) {
+        if (nombre1 == null || nombre2 == null) {
+            return 0.0;
+        }
+
+        String norm1 = normalizarNombreParaComparacion(nombre1);
+        String norm2 = normalizarNombreParaComparacion(nombre2);
+
+        if (norm1 == null || norm2 == null || norm1.isEmpty() || norm2.isEmpty()) {
+            return 0.0;
+        }
+
+        if (norm1.equals(norm2)) {
+            return 1.0;
+        }
+
+        String[] palabras1 = norm1.split("\\s+");
+        String[] palabras2 = norm2.split("\\s+");
+
+        if (ignoreSecondLastName) {
+            if (palabras1.length > 2) {
+                palabras1 = Arrays.copyOf(palabras1, 2);
+            }
+            if (palabras2.length > 2) {
+                palabras2 = Arrays.copyOf(palabras2, 2);
+            }
+        }
+
+        Set<String> set1 = new HashSet<>(Arrays.asList(palabras1));
+        Set<String> set2 = new HashSet<>(Arrays.asList(palabras2));
+
+        Set<String> interseccion = new HashSet<>(set1);
+        interseccion.retainAll(set2);
+
+        Set<String> union = new HashSet<>(set1);
+        union.addAll(set2);
+
+        if (union.isEmpty()) {
+            return 0.0;
+        }
+
+        double jaccard = (double) interseccion.size() / union.size();
+
+        if (interseccion.size() >= minWordsMatch && jaccard >= threshold) {
+            return Math.min(jaccard, 1.0);
+        }
+
+        return 0.0;
+    }
+
+    /**
+     * YangoTransactionService.calcularSimilitudNombreMejorado.
+     */
+    static double similitudNombreMejorado(String nombre1, String nombre2) {
+        if (nombre1 == null || nombre2 == null) {
+            return 0.0;
+        }
+
+        String norm1 = normalizarNombreParaComparacion(nombre1);
+        String norm2 = normalizarNombreParaComparacion(nombre2);
+
+        if (norm1 == null || norm2 == null || norm1.isEmpty() || norm2.isEmpty()) {
+            return 0.0;
+        }
+
+        if (norm1.equals(norm2)) {
+            return 1.0;
+        }
+
+        String[] palabras1 = norm1.split("\\s+");
+        String[] palabras2 = norm2.split("\\s+");
+
+        Set<String> set1 = new HashSet<>(Arrays.asList(palabras1));
+        Set<String> set2 = new HashSet<>(Arrays.asList(palabras2));
+
+        Set<String> interseccion = new HashSet<>(set1);
+        interseccion.retainAll(set2);
+
+        if (interseccion.size() == palabras1.length &&
+            interseccion.size() == palabras2.length &&
+            interseccion.size() >= 2) {
+            return 1.0;
+        }
+
+        int maxWords = Math.max(palabras1.length, palabras2.length);
+
+        if (maxWords >= 4 && interseccion.size() >= 3) {
+            double jaccard = (double) interseccion.size() / Math.max(palabras1.length, palabras2.length);
+            return Math.max(jaccard, 0.85);
+        }
+
+        if (maxWords == 3 && interseccion.size() >= 2) {
+            double jaccard = (double) interseccion.size() / Math.max(palabras1.length, palabras2.length);
+            return Math.max(jaccard, 0.8);
+        }
+
+        Set<String> union = new HashSet<>(set1);
+        union.addAll(set2);
+        if (union.isEmpty()) {
+            return 0.0;
+        }
+
+        double jaccard = (double) interseccion.size() / union.size();
+
+        double threshold;
+        int minWordsMatch;
+
+        if (maxWords >= 4) {
+            threshold = 0.40;
+            minWordsMatch = 3;
+        } else if (maxWords == 3) {
+            threshold = 0.50;
+            minWordsMatch = 2;
+        } else if (maxWords == 2) {
+            threshold = 0.65;
+            minWordsMatch = 2;
+        } else {
+            return 0.0;
+        }
+
+        if (interseccion.size() >= minWordsMatch && jaccard >= threshold) {
+            return Math.min(jaccard, 1.0);
+        }
+
+        return 0.0;
+    }
+
+    /**
+     * ScoutRegistrationService.calcularSimilitudNombre: Jaccard sobre nombres ya normalizados.
+     */
+    static double jaccardPalabras(String nombre1, String nombre2) {
+        if (nombre1 == null || nombre2 == null) {
+            return 0.0;
+        }
+
+        String[] palabras1 = nombre1.split("\\s+");
+        String[] palabras2 = nombre2.split("\\s+");
+
+        Set<String> set1 = new HashSet<>(Arrays.asList(palabras1));
+        Set<String> set2 = new HashSet<>(Arrays.asList(palabras2));
+
+        Set<String> interseccion = new HashSet<>(set1);
+        interseccion.retainAll(set2);
+
+        Set<String> union = new HashSet<>(set1);
+        union.addAll(set2);
+
+        if (union.isEmpty()) {
+            return 0.0;
+        }
+
+        return (double) interseccion.size() / union.size();
+    }
+
+    static int calcularDistanciaLevenshtein(String s1, String s2) {
+        if (s1 == null || s2 == null) {
+            return Integer.MAX_VALUE;
+        }
+        if (s1.equals(s2)) {
+            return 0;
+        }
+        if (s1.length() == 0) {
+            return s2.length();
+        }
+        if (s2.length() == 0) {
+            return s1.length();
+        }
+
+        int[][] dp = new int[s1.length() + 1][s2.length() + 1];
+
+        for (int i = 0; i <= s1.length(); i++) {
+            dp[i][0] = i;
+        }
+        for (int j = 0; j <= s2.length(); j++) {
+            dp[0][j] = j;
+        }
+
+        for (int i = 1; i <= s1.length(); i++) {
+            for (int j = 1; j <= s2.length(); j++) {
+                if (s1.charAt(i - 1) == s2.charAt(j - 1)) {
+                    dp[i][j] = dp[i - 1][j - 1];
+                } else {
+                    dp[i][j] = Math.min(Math.min(dp[i - 1][j] + 1, dp[i][j - 1] + 1), dp[i - 1][j - 1] + 1);
+                }
+            }
+        }
+
+        return dp[s1.length()][s2.length()];
+    }
+
+    static String normalizarTelefono(String phone) {
+        if (phone == null) {
+            return null;
+        }
+        return phone.replaceAll("[\\s\\-\\(\\)]", "").trim();
+    }
+
+    /**
+     * LeadProcessingService.calcularSimilitudTelefono (el umbral no se usaba).
+     */
+    static double similitudTelefono(String telefono1, String telefono2) {
+        if (telefono1 == null || telefono2 == null) {
+            return 0.0;
+        }
+
+        String norm1 = normalizarTelefono(telefono1);
+        String norm2 = normalizarTelefono(telefono2);
+
+        if (norm1.isEmpty() || norm2.isEmpty()) {
+            return 0.0;
+        }
+
+        if (norm1.equals(norm2)) {
+            return 1.0;
+        }
+
+        int len1 = norm1.length();
+        int len2 = norm2.length();
+
+        int minLen = Math.min(len1, len2);
+        int maxLen = Math.max(len1, len2);
+
+        if (maxLen - minLen > 3) {
+            return 0.0;
+        }
+
+        int compareLen = Math.min(minLen, 9);
+        String last1 = len1 >= compareLen ? norm1.substring(len1 - compareLen) : norm1;
+        String last2 = len2 >= compareLen ? norm2.substring(len2 - compareLen) : norm2;
+
+        int diferencias = 0;
+        int minCompare = Math.min(last1.length(), last2.length());
+        for (int i = 0; i < minCompare; i++) {
+            if (last1.charAt(i) != last2.charAt(i)) {
+                diferencias++;
+            }
+        }
+        diferencias += Math.abs(last1.length() - last2.length());
+
+        if (diferencias == 0) {
+            return 1.0;
+        } else if (diferencias == 1) {
+            return 0.9;
+        } else if (diferencias == 2) {
+            return 0.7;
+        } else if (diferencias <= 3 && minCompare >= 7) {
+            return 0.5;
+        }
+
+        return 0.0;
+    }
+}
@@ -0,0 +1,199 @@
+package com.yego.contractortracker.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * SimilitudUtil debe dar exactamente los mismos scores que las funciones a las que reemplazó
+ * (copiadas en SimilitudBaseline) sobre un corpus fijo de nombres y teléfonos.
+ */
+class SimilitudUtilTest {
+
+    private static final List<String> NOMBRES = Arrays.asList(
+        null,
+        "",
+        "   ",
+        "Juan",
+        "Juan Perez",
+        "Perez Juan",
+        "juan  pérez",
+        "Juan Perez Gomez",
+        "Juan Perez Gómez",
+        "Juan Peres Gomez",
+        "Juan Carlos Perez Gomez",
+        "Carlos Juan Gomez Perez",
+        "Juan Carlos Peres Gomes",
+        "María José de la Cruz",
+        "Maria Jose Cruz",
+        "Maria Jose de los Santos Cruz",
+        "José Luis Núñez",
+        "Jose Luis Nunez Rojas",
+        "Luis Nunes",
+        "Ana Ana Torres",
+        "Ana Torres",
+        "Torres Ana Lucia",
+        "A B C",
+        "Alejandro Rodriguez",
+        "Alejandra Rodrigues",
+        "Miguel Angel Castillo Vargas",
+        "Miguel Castillo",
+        "Rosa\tElena  Quispe\nMamani",
+        "Rosa Elena Quispe"
+    );
+
+    private static final List<String> TELEFONOS = Arrays.asList(
+        null,
+        "",
+        " - ",
+        "987654321",
+        "+51 987 654 321",
+        "51987654321",
+        "(01) 987-654-321",
+        "987654322",
+        "987654311",
+        "987650021",
+        "087654320",
+        "9876543",
+        "98765432",
+        "1234987654321",
+        "654321",
+        "654322",
+        "+51\u2003987654321",
+        "987 654 321 ext"
+    );
+
+    private static final double[] THRESHOLDS = {0.0, 0.5, 0.7};
+    private static final int[] MIN_PALABRAS = {1, 2, 3};
+
+    @Test
+    void similitudNombreConTyposIgualQueLeads() {
+        for (String nombre1 : NOMBRES) {
+            for (String nombre2 : NOMBRES) {
+                for (double threshold : THRESHOLDS) {
+                    for (int minPalabras : MIN_PALABRAS) {
+                        for (boolean ignorarSegundoApellido : new boolean[]{false, true}) {
+                            double esperado = SimilitudBaseline.similitudNombreLeads(nombre1, nombre2, threshold, minPalabras, ignorarSegundoApellido);
+                            double tokenizado = SimilitudUtil.similitudNombreConTypos(SimilitudUtil.tokenizar(nombre1),
+                                SimilitudUtil.tokenizar(nombre2), threshold, minPalabras, ignorarSegundoApellido);
+                            double texto = SimilitudUtil.similitudNombreConTypos(nombre1, nombre2, threshold, minPalabras, ignorarSegundoApellido);
+                            String caso = descripcion(nombre1, nombre2, threshold, minPalabras, ignorarSegundoApellido);
+                            assertEquals(esperado, tokenizado, caso);
+                            assertEquals(esperado, texto, caso);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    void similitudNombreIgualQueYango() {
+        for (String nombre1 : NOMBRES) {
+            for (String nombre2 : NOMBRES) {
+                for (double threshold : THRESHOLDS) {
+                    for (int minPalabras : MIN_PALABRAS) {
+                        for (boolean ignorarSegundoApellido : new boolean[]{false, true}) {
+                            assertEquals(SimilitudBaseline.similitudNombreYango(nombre1, nombre2, threshold, minPalabras, ignorarSegundoApellido),
+                                SimilitudUtil.similitudNombre(nombre1, nombre2, threshold, minPalabras, ignorarSegundoApellido),
+                                descripcion(nombre1, nombre2, threshold, minPalabras, ignorarSegundoApellido));
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    void ignorarSegundoApellidoComparaSoloLasDosPrimerasPalabrasOrdenadas() {
+        // Ordenadas: [gomez, juan, perez] vs [gomez, juan, rojas] -> solo {gomez, juan}
+        String nombre1 = "Juan Perez Gomez";
+        String nombre2 = "Juan Rojas Gomez";
+        assertEquals(0.5, SimilitudBaseline.similitudNombreLeads(nombre1, nombre2, 0.0, 1, false));
+        assertEquals(1.0, SimilitudBaseline.similitudNombreLeads(nombre1, nombre2, 0.0, 1, true));
+        assertEquals(0.5, SimilitudUtil.similitudNombreConTypos(nombre1, nombre2, 0.0, 1, false));
+        assertEquals(1.0, SimilitudUtil.similitudNombreConTypos(nombre1, nombre2, 0.0, 1, true));
+    }
+
+    @Test
+    void similitudNombreMejoradoIgualQueYango() {
+        for (String nombre1 : NOMBRES) {
+            for (String nombre2 : NOMBRES) {
+                assertEquals(SimilitudBaseline.similitudNombreMejorado(nombre1, nombre2),
+                    SimilitudUtil.similitudNombreMejorado(nombre1, nombre2), descripcion(nombre1, nombre2));
+                assertEquals(SimilitudBaseline.similitudNombreMejorado(nombre1, nombre2),
+                    SimilitudUtil.similitudNombreMejorado(SimilitudUtil.tokenizar(nombre1), SimilitudUtil.tokenizar(nombre2)),
+                    descripcion(nombre1, nombre2));
+            }
+        }
+    }
+
+    @Test
+    void jaccardPalabrasIgualQueRegistrosDeScouts() {
+        for (String nombre1 : NOMBRES) {
+            for (String nombre2 : NOMBRES) {
+                String normalizado1 = SimilitudUtil.normalizarNombre(nombre1);
+                String normalizado2 = SimilitudUtil.normalizarNombre(nombre2);
+                assertEquals(SimilitudBaseline.normalizarNombre(nombre1), normalizado1);
+                assertEquals(SimilitudBaseline.jaccardPalabras(normalizado1, normalizado2),
+                    SimilitudUtil.jaccardPalabras(normalizado1, normalizado2), descripcion(nombre1, nombre2));
+            }
+        }
+    }
+
+    @Test
+    void normalizarNombreParaComparacionIgualQueBaseline() {
+        for (String nombre : NOMBRES) {
+            assertEquals(SimilitudBaseline.normalizarNombreParaComparacion(nombre),
+                SimilitudUtil.normalizarNombreParaComparacion(nombre), descripcion(nombre));
+        }
+    }
+
+    @Test
+    void levenshteinAcotadaIgualQueMatrizCompleta() {
+        List<String> palabras = Arrays.asList("", "a", "ab", "ba", "juan", "jaun", "juana", "perez", "peres", "pereira",
+            "gomez", "gomes", "rodriguez", "rodrigues", "alejandro", "alejandra", "nunez", "nunes", "castillo", "castilla");
+        for (String palabra1 : palabras) {
+            for (String palabra2 : palabras) {
+                int completa = SimilitudBaseline.calcularDistanciaLevenshtein(palabra1, palabra2);
+                for (int max = 0; max <= 4; max++) {
+                    assertEquals(Math.min(completa, max + 1), SimilitudUtil.distanciaLevenshteinAcotada(palabra1, palabra2, max),
+                        descripcion(palabra1, palabra2, max));
+                }
+            }
+        }
+    }
+
+    @Test
+    void similitudTelefonoIgualQueLeads() {
+        for (String telefono1 : TELEFONOS) {
+            for (String telefono2 : TELEFONOS) {
+                assertEquals(SimilitudBaseline.similitudTelefono(telefono1, telefono2),
+                    SimilitudUtil.similitudTelefono(telefono1, telefono2), descripcion(telefono1, telefono2));
+            }
+            assertEquals(SimilitudBaseline.normalizarTelefono(telefono1), SimilitudUtil.limpiarTelefono(telefono1), descripcion(telefono1));
+            // DriverDirectoryService y ScoutRegistrationService usaban replaceAll("[^0-9]", "")
+            assertEquals(telefono1 != null ? telefono1.replaceAll("[^0-9]", "") : null, SimilitudUtil.soloDigitos(telefono1), descripcion(telefono1));
+        }
+    }
+
+    @Test
+    void similitudTelefonoComparaSoloLosUltimosDigitos() {
+        // Mismos 9 últimos dígitos con código de país delante
+        assertEquals(1.0, SimilitudUtil.similitudTelefono("+51 987 654 321", "987654321"));
+        assertEquals(1.0, SimilitudBaseline.similitudTelefono("+51 987 654 321", "987654321"));
+        // Una y dos diferencias en el sufijo
+        assertEquals(0.9, SimilitudUtil.similitudTelefono("51987654322", "987654321"));
+        assertEquals(0.7, SimilitudUtil.similitudTelefono("51987654312", "987654321"));
+        // Longitudes que difieren en más de 3 dígitos
+        assertEquals(0.0, SimilitudUtil.similitudTelefono("1234987654321", "987654321"));
+        assertEquals(0.0, SimilitudBaseline.similitudTelefono("1234987654321", "987654321"));
+    }
+
+    private static String descripcion(Object... valores) {
+        return Arrays.toString(valores);
+    }
+}